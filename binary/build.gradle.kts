@@ -16,6 +16,8 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import net.ltgt.gradle.errorprone.errorprone
+
 apply(plugin = "java-library")
 
 description = "API for abstraction of things containing binary data"
@@ -28,3 +30,65 @@ dependencies {
     "testImplementation"("org.junit.jupiter:junit-jupiter-api")
     "testImplementation"("org.hamcrest:hamcrest")
 }
+
+// On JDK 22 and later, files are mapped with the foreign memory API instead of byte buffers.
+// Those classes are compiled separately and shipped in the same jar under META-INF/versions/22.
+// Building them needs a JDK 22 installed where Gradle's toolchain detection can find it, so it's
+// opt-in with -Phex.java22. Without it, the jar only has the byte buffer implementation, which
+// every JDK falls back to anyway.
+if (project.hasProperty("hex.java22")) {
+    val sourceSets = the<SourceSetContainer>()
+    val main by sourceSets.getting
+    val test by sourceSets.getting
+
+    val java22 by sourceSets.creating {
+        java.srcDir("src/main/java22")
+        compileClasspath += main.output + main.compileClasspath
+    }
+
+    val java22Test by sourceSets.creating {
+        java.srcDir("src/test/java22")
+        compileClasspath += java22.output + test.output + test.compileClasspath
+        runtimeClasspath += java22.output + test.output + test.runtimeClasspath
+    }
+
+    val toolchains = the<JavaToolchainService>()
+
+    listOf("compileJava22Java", "compileJava22TestJava").forEach { taskName ->
+        tasks.named<JavaCompile>(taskName) {
+            javaCompiler.set(toolchains.compilerFor { languageVersion.set(JavaLanguageVersion.of(22)) })
+            options.release.set(22)
+            // Error Prone's pinned version doesn't run on JDK 22.
+            options.errorprone.isEnabled.set(false)
+        }
+    }
+
+    // forbidden-apis doesn't know about JDK 22 either.
+    listOf("forbiddenApisJava22", "forbiddenApisJava22Test").forEach { taskName ->
+        tasks.named(taskName) {
+            enabled = false
+        }
+    }
+
+    val java22TestTask = tasks.register<Test>("java22Test") {
+        description = "Runs the tests for the JDK 22 classes."
+        group = "verification"
+        testClassesDirs = java22Test.output.classesDirs
+        // The JDK 22 classes go first, the same as they would in the multi-release jar.
+        classpath = java22.output + java22Test.runtimeClasspath
+        javaLauncher.set(toolchains.launcherFor { languageVersion.set(JavaLanguageVersion.of(22)) })
+    }
+
+    tasks.named("check") {
+        dependsOn(java22TestTask)
+    }
+
+    tasks.named<Jar>("jar") {
+        into("META-INF/versions/22") {
+            from(java22.output)
+        }
+        manifest {
+            attributes("Multi-Release" to "true")
+        }
+    }
+}
@@ -18,8 +18,12 @@
 
 package org.trypticon.hex.binary;
 
+import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Base class for new binary implementations.
@@ -28,9 +32,29 @@ import java.util.Locale;
  */
 public abstract class AbstractBinary implements Binary {
 
+    /**
+     * The number of bytes fetched ahead at a time when reading sequentially.
+     */
+    static final int READ_AHEAD_WINDOW = 4 * 1024 * 1024;
+
+    /**
+     * Listeners for changes. Created when the first listener is added, since most binaries never change.
+     * Copy-on-write, since listeners are added rarely and notified from whichever thread made the change.
+     */
+    @Nullable
+    private volatile CopyOnWriteArrayList<BinaryListener> listeners;
+
+    private volatile AccessPattern accessPattern = AccessPattern.RANDOM;
+
+    /**
+     * The index of the window most recently read into when reading sequentially,
+     * or {@code -1} if none has been read into yet.
+     */
+    private volatile long readAheadWindow = -1;
+
     @Override
     public final byte read(long position) {
-        if (position < 0 || position >= length()) {
+        if (position < 0 || position >= length() && !awaitLength(position + 1)) {
             throw new IndexOutOfBoundsException(
                     String.format(Locale.ROOT, "Position %d is out of bounds (0..%d)", position, length() - 1));
         }
@@ -49,13 +73,35 @@ public abstract class AbstractBinary implements Binary {
 
     @Override
     public final void read(long position, ByteBuffer buffer) {
-        if (position < 0 || position + buffer.remaining() > length()) {
+        int count = buffer.remaining();
+        checkRange(position, count);
+        readSpi(position, buffer);
+        if (accessPattern == AccessPattern.SEQUENTIAL) {
+            readAhead(position + count);
+        }
+    }
+
+    /**
+     * Fetches the next window after a read if the read has moved into a new window, so that
+     * the window after the one being read is always on its way.
+     *
+     * @param end the position the read finished at.
+     */
+    private void readAhead(long end) {
+        long window = end / READ_AHEAD_WINDOW;
+        if (window != readAheadWindow) {
+            // Two threads racing here can both prefetch the same window, which is harmless.
+            readAheadWindow = window;
+            prefetch((window + 1) * READ_AHEAD_WINDOW, READ_AHEAD_WINDOW);
+        }
+    }
+
+    private void checkRange(long position, int length) {
+        if (position < 0 || position + length > length() && !awaitLength(position + length)) {
             throw new IndexOutOfBoundsException(
                     String.format(Locale.ROOT, "Range %d..%d is out of bounds (0..%d)",
-                                  position, position + buffer.remaining() - 1, length() - 1));
+                                  position, position + length - 1, length() - 1));
         }
-
-        readSpi(position, buffer);
     }
 
     /**
@@ -67,6 +113,36 @@ public abstract class AbstractBinary implements Binary {
      */
     protected abstract void readSpi(long position, ByteBuffer buffer);
 
+    @Override
+    public final CompletableFuture<ByteBuffer> readAsync(long position, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length cannot be negative: " + length);
+        }
+        checkRange(position, length);
+        return readAsyncSpi(position, length);
+    }
+
+    /**
+     * <p>Called to read multiple bytes at the given position without waiting for them.
+     * The position and length will have already been checked before calling this method.</p>
+     *
+     * <p>The default implementation reads them straight away using {@link #readSpi(long, ByteBuffer)}.</p>
+     *
+     * @param position the position.
+     * @param length the number of bytes to read.
+     * @return a future which completes with a new buffer holding the bytes, positioned at the start.
+     */
+    protected CompletableFuture<ByteBuffer> readAsyncSpi(long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            readSpi(position, buffer);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        buffer.flip();
+        return CompletableFuture.completedFuture(buffer);
+    }
+
     @Override
     public void read(long position, byte[] buffer) {
         ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, buffer.length);
@@ -79,24 +155,202 @@ public abstract class AbstractBinary implements Binary {
         read(position, wrapped);
     }
 
+    /**
+     * <p>Called when a read would go past the current end of the binary, to give binaries
+     * which are still growing a chance to wait for more data to arrive.</p>
+     *
+     * <p>The default implementation returns {@code false} immediately.</p>
+     *
+     * @param length the length required for the read to succeed.
+     * @return {@code true} if the binary is now at least that long,
+     *         {@code false} if the read should fail.
+     */
+    protected boolean awaitLength(long length) {
+        return false;
+    }
+
     @Override
-    public final Binary slice(final long position, final long length) {
-        return new AbstractBinary() {
-            @Override
-            protected byte readSpi(long position2) {
-                return AbstractBinary.this.read(position + position2);
-            }
+    public final short readShort(long position, ByteOrder order) {
+        checkRange(position, Short.BYTES);
+        return readShortSpi(position, order);
+    }
 
-            @Override
-            protected void readSpi(long position2, ByteBuffer buffer) {
-                AbstractBinary.this.read(position + position2, buffer);
+    /**
+     * Called to read a two-byte integer at the given position.
+     * The range will have already been checked before calling this method.
+     * The default implementation does a single multi-byte read.
+     *
+     * @param position the position.
+     * @param order the byte order of the value.
+     * @return the value.
+     */
+    protected short readShortSpi(long position, ByteOrder order) {
+        return readPrimitiveSpi(position, Short.BYTES, order).getShort(0);
+    }
+
+    @Override
+    public final int readInt(long position, ByteOrder order) {
+        checkRange(position, Integer.BYTES);
+        return readIntSpi(position, order);
+    }
+
+    /**
+     * Called to read a four-byte integer at the given position.
+     * The range will have already been checked before calling this method.
+     * The default implementation does a single multi-byte read.
+     *
+     * @param position the position.
+     * @param order the byte order of the value.
+     * @return the value.
+     */
+    protected int readIntSpi(long position, ByteOrder order) {
+        return readPrimitiveSpi(position, Integer.BYTES, order).getInt(0);
+    }
+
+    @Override
+    public final long readLong(long position, ByteOrder order) {
+        checkRange(position, Long.BYTES);
+        return readLongSpi(position, order);
+    }
+
+    /**
+     * Called to read an eight-byte integer at the given position.
+     * The range will have already been checked before calling this method.
+     * The default implementation does a single multi-byte read.
+     *
+     * @param position the position.
+     * @param order the byte order of the value.
+     * @return the value.
+     */
+    protected long readLongSpi(long position, ByteOrder order) {
+        return readPrimitiveSpi(position, Long.BYTES, order).getLong(0);
+    }
+
+    private ByteBuffer readPrimitiveSpi(long position, int size, ByteOrder order) {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(order);
+        readSpi(position, buffer);
+        return buffer;
+    }
+
+    @Override
+    public final float readFloat(long position, ByteOrder order) {
+        return Float.intBitsToFloat(readInt(position, order));
+    }
+
+    @Override
+    public final double readDouble(long position, ByteOrder order) {
+        return Double.longBitsToDouble(readLong(position, order));
+    }
+
+    @Override
+    public final Binary slice(long position, long length) {
+        if (position < 0 || length < 0 || position + length > length()) {
+            throw new IndexOutOfBoundsException(
+                    String.format(Locale.ROOT, "Slice %d..%d is out of bounds (0..%d)",
+                                  position, position + length - 1, length() - 1));
+        }
+        return sliceSpi(position, length);
+    }
+
+    /**
+     * <p>Called to get a view of one slice of the binary.
+     * The range will have already been checked before calling this method.</p>
+     *
+     * <p>The default implementation returns a view which reads straight from this binary,
+     * without checking the range a second time. Slicing that view again gives another view
+     * of this binary, so views never nest. Subclasses which can provide a cheaper view of
+     * their own, such as a view of a smaller buffer, should override this.</p>
+     *
+     * @param position the position to start at.
+     * @param length the length of the slice.
+     * @return the slice.
+     */
+    protected Binary sliceSpi(long position, long length) {
+        return new SliceBinary(this, position, length);
+    }
+
+    @Override
+    public final void prefetch(long position, long length) {
+        long size = length();
+        if (length <= 0 || position >= size) {
+            return;
+        }
+        if (position < 0) {
+            // Can't overflow, as the length is positive.
+            length += position;
+            position = 0;
+        }
+        length = Math.min(length, size - position);
+        if (length > 0) {
+            prefetchSpi(position, length);
+        }
+    }
+
+    /**
+     * <p>Called to start fetching a range of the binary in the background.
+     * The range will have already been clipped to the binary, and will not be empty.</p>
+     *
+     * <p>The default implementation does nothing, which suits binaries which are already in memory.</p>
+     *
+     * @param position the position the range starts at.
+     * @param length the length of the range.
+     */
+    protected void prefetchSpi(long position, long length) {
+    }
+
+    @Override
+    public AccessPattern getAccessPattern() {
+        return accessPattern;
+    }
+
+    @Override
+    public void setAccessPattern(AccessPattern accessPattern) {
+        this.accessPattern = accessPattern;
+        readAheadWindow = -1;
+    }
+
+    @Override
+    public void addBinaryListener(BinaryListener listener) {
+        CopyOnWriteArrayList<BinaryListener> listeners = this.listeners;
+        if (listeners == null) {
+            synchronized (this) {
+                listeners = this.listeners;
+                if (listeners == null) {
+                    listeners = new CopyOnWriteArrayList<>();
+                    this.listeners = listeners;
+                }
             }
+        }
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeBinaryListener(BinaryListener listener) {
+        CopyOnWriteArrayList<BinaryListener> listeners = this.listeners;
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
 
-            @Override
-            public long length() {
-                return length;
+    /**
+     * Notifies listeners that the binary has changed.
+     *
+     * @param oldLength the length of the binary before the change.
+     * @param newLength the length of the binary after the change.
+     * @param changeStart the first position which may have changed, inclusive.
+     * @param changeEnd the last position which may have changed, exclusive.
+     */
+    protected void fireBinaryChanged(long oldLength, long newLength, long changeStart, long changeEnd) {
+        CopyOnWriteArrayList<BinaryListener> listeners = this.listeners;
+        if (listeners != null) {
+            BinaryEvent event = null;
+            for (BinaryListener listener : listeners) {
+                if (event == null) {
+                    event = new BinaryEvent(this, oldLength, newLength, changeStart, changeEnd);
+                }
+                listener.binaryChanged(event);
             }
-        };
+        }
     }
 
     @Override
@@ -0,0 +1,39 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+/**
+ * Hints about how a binary is going to be read, so that it can fetch data ahead of time if that helps.
+ *
+ * @author trejkaz
+ */
+public enum AccessPattern {
+
+    /**
+     * Reads jump around, so nothing is fetched ahead of time unless asked for. The default.
+     */
+    RANDOM,
+
+    /**
+     * Reads move forward through the binary, so the data after the most recent read is
+     * fetched in the background before it's needed.
+     */
+    SEQUENTIAL
+}
@@ -0,0 +1,277 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Binary which uses an asynchronous file channel to access the data on demand.</p>
+ *
+ * <p>This is mostly useful for slow storage such as network mounts, where {@link #readAsync(long, int)}
+ * lets the caller get on with something else while the data arrives, without tying up a thread
+ * for each read.</p>
+ *
+ * <p>The file is read in aligned blocks. A block which is already being read for one request is
+ * shared with any other request overlapping it rather than being read again, and neighbouring blocks
+ * needed by the same request are read together. Blocks are only kept until their read completes,
+ * so wrap this in a {@link CachingBinary} if the same data is going to be read repeatedly.</p>
+ *
+ * @author trejkaz
+ */
+public class AsynchronousFileChannelBinary extends AbstractBinary {
+
+    /**
+     * The default block size, in bytes.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The most bytes read from the file at once. Larger requests are split into multiple reads.
+     */
+    private static final int MAX_READ_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The file channel.
+     */
+    private final AsynchronousFileChannel channel;
+
+    /**
+     * The length of the binary.
+     */
+    private final long length;
+
+    /**
+     * The number of bits to shift a position right by to get the index of its block.
+     */
+    private final int blockShift;
+
+    /**
+     * Blocks currently being read, so that overlapping requests can share the read.
+     */
+    private final ConcurrentMap<Long, CompletableFuture<ByteBuffer>> reading = new ConcurrentHashMap<>();
+
+    private final LongAdder readCount = new LongAdder();
+
+    /**
+     * Constructs the binary by opening the given file.
+     *
+     * @param file the file to open.
+     * @throws IOException if an error occurs reading from the file.
+     */
+    public AsynchronousFileChannelBinary(Path file) throws IOException {
+        this(AsynchronousFileChannel.open(file), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructs the binary.
+     *
+     * @param channel the channel to read from. Closed when the binary is closed.
+     * @param blockSize the size of each block, in bytes. Must be a power of two.
+     * @throws IOException if an error occurs reading from the file.
+     * @throws IllegalArgumentException if the block size is not a power of two.
+     */
+    AsynchronousFileChannelBinary(AsynchronousFileChannel channel, int blockSize) throws IOException {
+        if (blockSize <= 0 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be a power of two: " + blockSize);
+        }
+
+        this.channel = channel;
+        blockShift = Integer.numberOfTrailingZeros(blockSize);
+        try {
+            length = channel.size();
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of reads made from the file. Requests which shared another request's read
+     * don't add to this.
+     *
+     * @return the read count.
+     */
+    public long getReadCount() {
+        return readCount.sum();
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    protected byte readSpi(long position) {
+        return Futures.join(readAsyncSpi(position, 1)).get(0);
+    }
+
+    @Override
+    protected void readSpi(long position, ByteBuffer buffer) {
+        buffer.put(Futures.join(readAsyncSpi(position, buffer.remaining())));
+    }
+
+    @Override
+    protected CompletableFuture<ByteBuffer> readAsyncSpi(long position, int length) {
+        if (length == 0) {
+            return CompletableFuture.completedFuture(ByteBuffer.allocate(0));
+        }
+
+        long first = position >>> blockShift;
+        long last = (position + length - 1) >>> blockShift;
+        int maxRunBlocks = Math.max(1, MAX_READ_SIZE >>> blockShift);
+
+        // Blocks nobody else is reading yet are claimed, and each run of them is read in one go.
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<ByteBuffer>[] blocks = new CompletableFuture[(int) (last - first + 1)];
+        int runStart = -1;
+        for (int i = 0; i < blocks.length; i++) {
+            CompletableFuture<ByteBuffer> claim = new CompletableFuture<>();
+            CompletableFuture<ByteBuffer> existing = reading.putIfAbsent(first + i, claim);
+            if (existing == null) {
+                blocks[i] = claim;
+                if (runStart < 0) {
+                    runStart = i;
+                } else if (i - runStart == maxRunBlocks) {
+                    readBlocks(first, blocks, runStart, i);
+                    runStart = i;
+                }
+            } else {
+                blocks[i] = existing;
+                if (runStart >= 0) {
+                    readBlocks(first, blocks, runStart, i);
+                    runStart = -1;
+                }
+            }
+        }
+        if (runStart >= 0) {
+            readBlocks(first, blocks, runStart, blocks.length);
+        }
+
+        return CompletableFuture.allOf(blocks).thenApply(ignored -> {
+            ByteBuffer result = ByteBuffer.allocate(length);
+            long end = position + length;
+            long blockStart = first << blockShift;
+            for (CompletableFuture<ByteBuffer> block : blocks) {
+                ByteBuffer data = block.join().duplicate();
+                data.limit((int) (Math.min(end, blockStart + data.limit()) - blockStart));
+                data.position((int) (Math.max(position, blockStart) - blockStart));
+                result.put(data);
+                blockStart += 1L << blockShift;
+            }
+            result.flip();
+            return result;
+        });
+    }
+
+    /**
+     * Reads a run of claimed blocks from the file, completing each block's future when done.
+     *
+     * @param first the index of the block at the start of the array.
+     * @param blocks the futures for each block.
+     * @param from the index in the array of the first block to read, inclusive.
+     * @param to the index in the array of the last block to read, exclusive.
+     */
+    private void readBlocks(long first, CompletableFuture<ByteBuffer>[] blocks, int from, int to) {
+        long start = (first + from) << blockShift;
+        long end = Math.min(length, (first + to) << blockShift);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        readCount.increment();
+        readFully(buffer, start).whenComplete((ignored, error) -> {
+            for (int i = from; i < to; i++) {
+                CompletableFuture<ByteBuffer> future = blocks[i];
+                reading.remove(first + i, future);
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    ByteBuffer block = buffer.duplicate();
+                    int offset = (i - from) << blockShift;
+                    block.position(offset);
+                    block.limit(Math.min(buffer.capacity(), offset + (1 << blockShift)));
+                    future.complete(block.slice().asReadOnlyBuffer());
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads from the file until the buffer is full.
+     *
+     * @param buffer the buffer to read into.
+     * @param position the position in the file to start reading from.
+     * @return a future which completes when the buffer is full.
+     */
+    private CompletableFuture<Void> readFully(ByteBuffer buffer, long position) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        CompletionHandler<Integer, Void> handler = new CompletionHandler<>() {
+            @Override
+            public void completed(Integer read, Void attachment) {
+                if (read < 0) {
+                    result.completeExceptionally(new EOFException("File got shorter while reading it"));
+                } else if (buffer.hasRemaining()) {
+                    readMore(buffer, position, result, this);
+                } else {
+                    result.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                result.completeExceptionally(error);
+            }
+        };
+        readMore(buffer, position, result, handler);
+        return result;
+    }
+
+    /**
+     * Reads into the rest of the buffer, continuing from where it's up to.
+     */
+    private void readMore(ByteBuffer buffer, long position, CompletableFuture<Void> result,
+                          CompletionHandler<Integer, Void> handler) {
+        try {
+            channel.read(buffer, position + buffer.position(), null, handler);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -20,7 +20,9 @@ package org.trypticon.hex.binary;
 
 import java.lang.IndexOutOfBoundsException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Generic interface to things which contain binary data.
@@ -71,6 +73,94 @@ public interface Binary extends Closeable {
      */
     void read(long position, ByteBuffer buffer);
 
+    /**
+     * <p>Reads bytes from a given position without waiting for them.</p>
+     *
+     * <p>The default implementation reads them straight away and returns a future which has
+     * already completed, which suits binaries which are already in memory.</p>
+     *
+     * @param position the position to begin reading from.
+     * @param length the number of bytes to read.
+     * @return a future which completes with a new buffer holding the bytes, positioned at the start,
+     *         or which completes exceptionally if an error occurs reading them.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    default CompletableFuture<ByteBuffer> readAsync(long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        read(position, buffer);
+        buffer.flip();
+        return CompletableFuture.completedFuture(buffer);
+    }
+
+    /**
+     * <p>Reads a two-byte integer from a given position.</p>
+     *
+     * <p>The default implementations of this and the other primitive reads do a single bulk
+     * read. {@link AbstractBinary} overrides them to avoid allocating a buffer.</p>
+     *
+     * @param position the position to read.
+     * @param order the byte order of the value.
+     * @return the value.
+     * @throws IndexOutOfBoundsException if any of the bytes are out of bounds.
+     */
+    default short readShort(long position, ByteOrder order) {
+        ByteBuffer buffer = ByteBuffer.allocate(Short.BYTES).order(order);
+        read(position, buffer);
+        return buffer.getShort(0);
+    }
+
+    /**
+     * Reads a four-byte integer from a given position.
+     *
+     * @param position the position to read.
+     * @param order the byte order of the value.
+     * @return the value.
+     * @throws IndexOutOfBoundsException if any of the bytes are out of bounds.
+     */
+    default int readInt(long position, ByteOrder order) {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(order);
+        read(position, buffer);
+        return buffer.getInt(0);
+    }
+
+    /**
+     * Reads an eight-byte integer from a given position.
+     *
+     * @param position the position to read.
+     * @param order the byte order of the value.
+     * @return the value.
+     * @throws IndexOutOfBoundsException if any of the bytes are out of bounds.
+     */
+    default long readLong(long position, ByteOrder order) {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).order(order);
+        read(position, buffer);
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Reads a four-byte IEEE 754 floating point value from a given position.
+     *
+     * @param position the position to read.
+     * @param order the byte order of the value.
+     * @return the value.
+     * @throws IndexOutOfBoundsException if any of the bytes are out of bounds.
+     */
+    default float readFloat(long position, ByteOrder order) {
+        return Float.intBitsToFloat(readInt(position, order));
+    }
+
+    /**
+     * Reads an eight-byte IEEE 754 floating point value from a given position.
+     *
+     * @param position the position to read.
+     * @param order the byte order of the value.
+     * @return the value.
+     * @throws IndexOutOfBoundsException if any of the bytes are out of bounds.
+     */
+    default double readDouble(long position, ByteOrder order) {
+        return Double.longBitsToDouble(readLong(position, order));
+    }
+
     /**
      * Gets a view of one slice of the binary.
      *
@@ -80,6 +170,62 @@ public interface Binary extends Closeable {
      */
     Binary slice(long position, long length);
 
+    /**
+     * <p>Hints that a range of the binary is going to be read soon.</p>
+     *
+     * <p>Binaries which can fetch data ahead of time start doing so in the background, and
+     * the rest ignore the hint. Either way, this returns straight away. Any part of the range
+     * outside the binary is ignored.</p>
+     *
+     * <p>The default implementation does nothing.</p>
+     *
+     * @param position the position the range starts at.
+     * @param length the length of the range.
+     */
+    default void prefetch(long position, long length) {
+    }
+
+    /**
+     * Gets the hint for how the binary is going to be read.
+     *
+     * <p>The default implementation always returns {@link AccessPattern#RANDOM}.</p>
+     *
+     * @return the access pattern.
+     */
+    default AccessPattern getAccessPattern() {
+        return AccessPattern.RANDOM;
+    }
+
+    /**
+     * <p>Hints how the binary is going to be read.</p>
+     *
+     * <p>The default implementation does nothing.</p>
+     *
+     * @param accessPattern the access pattern.
+     */
+    default void setAccessPattern(AccessPattern accessPattern) {
+    }
+
+    /**
+     * <p>Adds a listener for changes to the binary.</p>
+     *
+     * <p>The default implementation does nothing, which suits binaries which never change.</p>
+     *
+     * @param listener the listener to add.
+     */
+    default void addBinaryListener(BinaryListener listener) {
+    }
+
+    /**
+     * <p>Removes a listener for changes to the binary.</p>
+     *
+     * <p>The default implementation does nothing.</p>
+     *
+     * @param listener the listener to remove.
+     */
+    default void removeBinaryListener(BinaryListener listener) {
+    }
+
     /**
      * Closes the binary.  Other methods SHOULD NOT be used after closing.
      */
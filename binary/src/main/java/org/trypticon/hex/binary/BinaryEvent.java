@@ -0,0 +1,104 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import java.util.EventObject;
+import java.util.Locale;
+
+/**
+ * <p>Event for changes to the content or length of a binary.</p>
+ *
+ * <p>The event describes the range of positions whose content may now be different,
+ * in terms of the binary after the change. Bytes which were only shifted along by
+ * an insertion or deletion are included in that range.</p>
+ *
+ * @author trejkaz
+ */
+// We don't serialise our events.
+@SuppressWarnings("serial")
+public class BinaryEvent extends EventObject {
+    private final long oldLength;
+    private final long newLength;
+    private final long changeStart;
+    private final long changeEnd;
+
+    /**
+     * Constructs the event.
+     *
+     * @param binary the binary which changed.
+     * @param oldLength the length of the binary before the change.
+     * @param newLength the length of the binary after the change.
+     * @param changeStart the first position which may have changed, inclusive.
+     * @param changeEnd the last position which may have changed, exclusive.
+     */
+    public BinaryEvent(Binary binary, long oldLength, long newLength, long changeStart, long changeEnd) {
+        super(binary);
+        this.oldLength = oldLength;
+        this.newLength = newLength;
+        this.changeStart = changeStart;
+        this.changeEnd = changeEnd;
+    }
+
+    @Override
+    public Binary getSource() {
+        return (Binary) super.getSource();
+    }
+
+    /**
+     * Gets the length of the binary before the change.
+     *
+     * @return the old length.
+     */
+    public long getOldLength() {
+        return oldLength;
+    }
+
+    /**
+     * Gets the length of the binary after the change.
+     *
+     * @return the new length.
+     */
+    public long getNewLength() {
+        return newLength;
+    }
+
+    /**
+     * Gets the first position which may have changed.
+     *
+     * @return the start of the changed range, inclusive.
+     */
+    public long getChangeStart() {
+        return changeStart;
+    }
+
+    /**
+     * Gets the end of the range of positions which may have changed.
+     *
+     * @return the end of the changed range, exclusive.
+     */
+    public long getChangeEnd() {
+        return changeEnd;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + String.format(Locale.ROOT, " length %d -> %d, changed %d..%d",
+                                                oldLength, newLength, changeStart, changeEnd);
+    }
+}
@@ -20,12 +20,11 @@ package org.trypticon.hex.binary;
 
 import org.trypticon.hex.util.URLUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
 import java.nio.file.Path;
 
 /**
@@ -59,24 +58,35 @@ public class BinaryFactory {
     }
 
     /**
-     * Opens a file, returning it as a binary.
+     * Opens a file, returning it as a binary.  The file is mapped into memory,
+     * as a single memory segment on JDK 22 and later, or as a series of
+     * byte buffers on earlier JDKs.
      *
      * @param file the file.
      * @return the binary.
      * @throws IOException if the file could not be opened for reading.
      */
     public static Binary open(Path file) throws IOException {
-        if (Files.size(file) < Integer.MAX_VALUE) {
-            return new MemoryMappedFileBinary(file);
-        } else {
-            return new FileChannelBinary(file);
-        }
+        return MappedFiles.open(file);
+    }
+
+    /**
+     * Opens a stream, returning the content as a binary.  The stream is
+     * loaded in the background, returning a {@link ProgressiveBinary} which
+     * grows as the content arrives, and is closed once it has been read.
+     *
+     * @param stream the stream.
+     * @return the binary.
+     */
+    public static Binary open(InputStream stream) {
+        return new ProgressiveBinary(stream, -1);
     }
 
     /**
      * Opens a URL, returning the content as a binary.  If the URL happens
      * to be a {@code file} URL then it will memory map the file.  Otherwise
-     * it will read the entire stream into memory and expose that.
+     * it will load the stream into memory in the background, returning a
+     * {@link ProgressiveBinary} which grows as the content arrives.
      *
      * @param location the location of the binary.
      * @return the binary.
@@ -86,16 +96,8 @@ public class BinaryFactory {
         if ("file".equals(location.getProtocol())) {
             return open(URLUtils.toPath(location));
         } else {
-            // TODO: This could be improved to load in the background.
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            try (InputStream in = location.openStream()) {
-                byte[] buf = new byte[16 * 1024];
-                int bytesRead;
-                while ((bytesRead = in.read(buf)) != -1) {
-                    stream.write(buf, 0, bytesRead);
-                }
-            }
-            return wrap(stream.toByteArray());
+            URLConnection connection = location.openConnection();
+            return new ProgressiveBinary(connection.getInputStream(), connection.getContentLengthLong());
         }
     }
 }
@@ -0,0 +1,40 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import java.util.EventListener;
+
+/**
+ * Listener for changes to a binary.
+ *
+ * @author trejkaz
+ */
+public interface BinaryListener extends EventListener {
+
+    /**
+     * <p>Called when the content or length of the binary has changed.</p>
+     *
+     * <p>This may be called from whichever thread made the change, which for binaries
+     * loading in the background will not be the event dispatch thread.</p>
+     *
+     * @param event the event.
+     */
+    void binaryChanged(BinaryEvent event);
+
+}
@@ -0,0 +1,482 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * <p>Saves edits made to a file through a {@link PieceTableBinary}, writing as little as possible.</p>
+ *
+ * <p>One of three strategies is chosen depending on the edits:</p>
+ * <ul>
+ *   <li>{@link Strategy#IN_PLACE} when the length is unchanged and nothing has moved,
+ *       so only the bytes which were written need writing.</li>
+ *   <li>{@link Strategy#TAIL} when everything up to some point is either unchanged or newly written,
+ *       so only the written bytes before that point and everything after it need writing.</li>
+ *   <li>{@link Strategy#REWRITE} when that would be more than half the file. The whole file is written
+ *       to a temporary file which then replaces the original. Unchanged pieces are copied with
+ *       {@link FileChannel#transferTo}, which lets the operating system copy them without them
+ *       passing through the VM.</li>
+ * </ul>
+ *
+ * <p>Saves are safe against the process dying or the machine losing power part way through.
+ * Before changing the file in place, everything about to be written is first written to a journal
+ * beside it, which is only moved into place once complete. If a save is interrupted after that,
+ * {@link #recover} finishes it by writing the journal out again. Rewrites never touch the original
+ * file until the replacement is complete.</p>
+ *
+ * @author trejkaz
+ */
+public class BinarySaver {
+
+    /**
+     * The suffix added to the file name to get the name of the journal.
+     */
+    static final String JOURNAL_SUFFIX = ".hexjournal";
+
+    /**
+     * Magic number at the start of every journal. "HEXJ".
+     */
+    private static final int MAGIC = 0x4845584A;
+    private static final int VERSION = 1;
+
+    /**
+     * The maximum number of bytes to copy at a time, and to put in each journal entry.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private BinarySaver() {
+    }
+
+    /**
+     * <p>Saves the edited binary over the file it was opened from.</p>
+     *
+     * <p><b>The edited binary is closed just before the file starts being changed</b>, along with
+     * the original binary under it. The original is usually a mapping of the file, and the file
+     * can't safely be truncated or replaced while it is mapped: reading a truncated part of a
+     * mapping crashes with {@link InternalError} on some platforms, and on others the file can't
+     * be changed at all. Use the binary in the returned result from then on.</p>
+     *
+     * <p>The binary must not be edited, or read by other threads, while it is being saved.</p>
+     *
+     * @param binary the edited binary.
+     * @param file the file the original binary was opened from.
+     * @param monitor receives progress, and can cancel the save up until the file is about to be changed.
+     * @return the strategy which was used, and the saved file opened again.
+     * @throws IOException if an error occurs saving the file, if the file has changed length since
+     *         the binary was opened, or if a previous save was interrupted and needs {@link #recover}ing.
+     *         If the binary has been closed by then, the file needs opening again.
+     * @throws CancellationException if the monitor cancelled the save. The file is left as it was,
+     *         and the binary is still open.
+     */
+    public static Result save(PieceTableBinary binary, Path file, ProgressMonitor monitor) throws IOException {
+        Path journal = journalPath(file);
+        if (Files.exists(journal)) {
+            throw new IOException("A previous save was interrupted and needs recovering: " + journal);
+        }
+        long oldLength = Files.size(file);
+        if (oldLength != binary.getOriginal().length()) {
+            throw new IOException(String.format(Locale.ROOT, "File has changed length since it was opened: %d -> %d",
+                                                binary.getOriginal().length(), oldLength));
+        }
+
+        List<Span> spans = spans(binary);
+        long newLength = binary.length();
+
+        // Everything before the first piece of the original which has moved stays where it is,
+        // so only newly written bytes before it need writing. Everything after it does.
+        long tailStart = newLength;
+        long journalLength = 0;
+        for (Span span : spans) {
+            if (span.added) {
+                journalLength += span.length;
+            } else if (span.start != span.position) {
+                tailStart = span.position;
+                journalLength += newLength - tailStart;
+                break;
+            }
+        }
+
+        // Journalled writes write everything twice, so they only win if they write less than half the file.
+        if (journalLength * 2 > newLength) {
+            rewrite(binary, spans, file, file, monitor, true);
+            return reopen(Strategy.REWRITE, file);
+        }
+
+        long total = journalLength * 2;
+        writeJournal(binary, spans, tailStart, newLength, journal, monitor, total);
+        binary.close();
+        applyJournal(journal, file, monitor, journalLength, total);
+        return reopen(tailStart == newLength && newLength == oldLength ? Strategy.IN_PLACE : Strategy.TAIL, file);
+    }
+
+    /**
+     * <p>Saves the edited binary to a different file, replacing it if it exists.</p>
+     *
+     * <p>The edited binary is left open, as the file it was opened from is untouched,
+     * unless the target turns out to be that same file, in which case this is the same as
+     * {@link #save}.</p>
+     *
+     * @param binary the edited binary.
+     * @param file the file the original binary was opened from.
+     * @param target the file to save to.
+     * @param monitor receives progress, and can cancel the save.
+     * @return the strategy which was used, and the target opened.
+     * @throws IOException if an error occurs saving the file.
+     * @throws CancellationException if the monitor cancelled the save. The target is left as it was.
+     */
+    public static Result saveAs(PieceTableBinary binary, Path file, Path target, ProgressMonitor monitor)
+            throws IOException {
+        if (Files.exists(target) && Files.isSameFile(file, target)) {
+            return save(binary, file, monitor);
+        } else {
+            rewrite(binary, spans(binary), file, target, monitor, false);
+            return reopen(Strategy.REWRITE, target);
+        }
+    }
+
+    /**
+     * Finishes a save which was interrupted after the file started being changed, if there was one.
+     * This should be called before opening a file which is going to be edited.
+     *
+     * @param file the file.
+     * @return {@code true} if an interrupted save was finished, {@code false} if there wasn't one.
+     * @throws IOException if an error occurs finishing the save, or if the journal is corrupt.
+     */
+    public static boolean recover(Path file) throws IOException {
+        Path journal = journalPath(file);
+        if (!Files.exists(journal)) {
+            return false;
+        }
+        applyJournal(journal, file, ProgressMonitor.NONE, 0, 0);
+        return true;
+    }
+
+    static Path journalPath(Path file) {
+        return file.resolveSibling(file.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    private static List<Span> spans(PieceTableBinary binary) throws IOException {
+        List<Span> spans = new ArrayList<>();
+        binary.forEachPiece((position, added, start, length) -> spans.add(new Span(position, added, start, length)));
+        return spans;
+    }
+
+    /**
+     * Writes the journal, only moving it into place once it is complete and on disk.
+     */
+    private static void writeJournal(PieceTableBinary binary, List<Span> spans, long tailStart, long newLength,
+                                     Path journal, ProgressMonitor monitor, long total) throws IOException {
+        Path temp = Files.createTempFile(journal.toAbsolutePath().getParent(),
+                                         String.valueOf(journal.getFileName()), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel));
+                CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+                DataOutputStream data = new DataOutputStream(checked);
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeLong(newLength);
+
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long done = 0;
+                for (Span span : spans) {
+                    // The tail always starts at the start of a piece, so pieces are either in it or not.
+                    if (!span.added && span.position < tailStart) {
+                        continue;
+                    }
+                    long offset = 0;
+                    while (offset < span.length) {
+                        if (monitor.isCancelled()) {
+                            throw new CancellationException();
+                        }
+                        int count = (int) Math.min(buffer.length, span.length - offset);
+                        span.read(binary, offset, ByteBuffer.wrap(buffer, 0, count));
+                        data.writeLong(span.position + offset);
+                        data.writeInt(count);
+                        data.write(buffer, 0, count);
+                        offset += count;
+                        done += count;
+                        monitor.progress(done, total);
+                    }
+                }
+                data.writeLong(-1);
+
+                data.flush();
+                new DataOutputStream(stream).writeInt((int) checked.getChecksum().getValue());
+                stream.flush();
+                channel.force(true);
+            }
+
+            move(temp, journal);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes everything in the journal to the file, then deletes the journal.
+     * Doing this more than once has the same result as doing it once.
+     */
+    private static void applyJournal(Path journal, Path file, ProgressMonitor monitor, long done, long total)
+            throws IOException {
+        checkJournal(journal);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(Files.newInputStream(journal)))) {
+            data.readInt();
+            data.readInt();
+            long newLength = data.readLong();
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long position;
+            while ((position = data.readLong()) >= 0) {
+                int count = data.readInt();
+                data.readFully(buffer, 0, count);
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, count);
+                while (wrapped.hasRemaining()) {
+                    position += channel.write(wrapped, position);
+                }
+                done += count;
+                monitor.progress(done, total);
+            }
+
+            if (channel.size() > newLength) {
+                channel.truncate(newLength);
+            }
+            channel.force(true);
+        }
+
+        Files.delete(journal);
+    }
+
+    /**
+     * Checks that a journal is complete and uncorrupted before trusting anything in it.
+     */
+    private static void checkJournal(Path journal) throws IOException {
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(journal))) {
+            CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+            DataInputStream data = new DataInputStream(checked);
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Not a save journal: " + journal);
+            }
+            data.readLong();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (data.readLong() >= 0) {
+                int count = data.readInt();
+                if (count < 0 || count > buffer.length) {
+                    throw new IOException("Save journal is corrupt: " + journal);
+                }
+                data.readFully(buffer, 0, count);
+            }
+
+            int expectedChecksum = (int) checked.getChecksum().getValue();
+            DataInputStream trailer = new DataInputStream(stream);
+            if (trailer.readInt() != expectedChecksum || trailer.read() != -1) {
+                throw new IOException("Save journal is corrupt: " + journal);
+            }
+        }
+    }
+
+    /**
+     * Writes the whole binary to a temporary file and then moves it into place,
+     * closing the binary first if the file being replaced is the one under it.
+     */
+    private static void rewrite(PieceTableBinary binary, List<Span> spans, Path file, Path target,
+                                ProgressMonitor monitor, boolean closeBinary) throws IOException {
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(),
+                                         String.valueOf(target.getFileName()), ".tmp");
+        try {
+            copyPermissions(Files.exists(target) ? target : file, temp);
+
+            long total = binary.length();
+            long done = 0;
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                for (Span span : spans) {
+                    long offset = 0;
+                    while (offset < span.length) {
+                        if (monitor.isCancelled()) {
+                            throw new CancellationException();
+                        }
+                        int count = (int) Math.min(BUFFER_SIZE, span.length - offset);
+                        if (span.added) {
+                            buffer.clear().limit(count);
+                            binary.readAdded(span.start + offset, buffer);
+                            buffer.flip();
+                            while (buffer.hasRemaining()) {
+                                out.write(buffer);
+                            }
+                        } else {
+                            long transferred = in.transferTo(span.start + offset, count, out);
+                            if (transferred <= 0) {
+                                throw new IOException("File is shorter than when it was opened: " + file);
+                            }
+                            count = (int) transferred;
+                        }
+                        offset += count;
+                        done += count;
+                        monitor.progress(done, total);
+                    }
+                }
+                out.force(true);
+            }
+
+            if (closeBinary) {
+                binary.close();
+            }
+            move(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Result reopen(Strategy strategy, Path file) throws IOException {
+        return new Result(strategy, new PieceTableBinary(BinaryFactory.open(file)));
+    }
+
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        // Temporary files are only readable by their owner, which would be surprising for the saved file.
+        PosixFileAttributeView view = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (view != null) {
+            view.setPermissions(Files.getPosixFilePermissions(from));
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // The move itself is only durable once the directory is on disk. Not every platform
+        // lets you open a directory to do that, but those platforms don't need it.
+        Path directory = to.toAbsolutePath().getParent();
+        if (directory != null) {
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // Best effort.
+            }
+        }
+    }
+
+    /**
+     * The result of saving.
+     */
+    public static class Result {
+        private final Strategy strategy;
+        private final PieceTableBinary binary;
+
+        private Result(Strategy strategy, PieceTableBinary binary) {
+            this.strategy = strategy;
+            this.binary = binary;
+        }
+
+        /**
+         * Gets the strategy which was used.
+         *
+         * @return the strategy.
+         */
+        public Strategy getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * Gets the saved file, opened again and ready for editing. The caller is responsible for closing it.
+         *
+         * @return the binary.
+         */
+        public PieceTableBinary getBinary() {
+            return binary;
+        }
+    }
+
+    /**
+     * The strategies for saving.
+     */
+    public enum Strategy {
+
+        /**
+         * Only the bytes which were written were written to the file.
+         */
+        IN_PLACE,
+
+        /**
+         * Bytes which were written were written to the file, along with everything from the first
+         * place the content moved onwards.
+         */
+        TAIL,
+
+        /**
+         * The whole file was rewritten.
+         */
+        REWRITE
+    }
+
+    /**
+     * A piece of the edited binary.
+     */
+    private static class Span {
+        private final long position;
+        private final boolean added;
+        private final long start;
+        private final long length;
+
+        private Span(long position, boolean added, long start, long length) {
+            this.position = position;
+            this.added = added;
+            this.start = start;
+            this.length = length;
+        }
+
+        private void read(PieceTableBinary binary, long offset, ByteBuffer buffer) {
+            if (added) {
+                binary.readAdded(start + offset, buffer);
+            } else {
+                binary.getOriginal().read(start + offset, buffer);
+            }
+        }
+    }
+}
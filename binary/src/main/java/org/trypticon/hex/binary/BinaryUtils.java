@@ -18,6 +18,8 @@
 
 package org.trypticon.hex.binary;
 
+import org.trypticon.hex.binary.search.ByteSequenceSearcher;
+
 /**
  * Binary utility methods.
  *
@@ -28,37 +30,14 @@ public class BinaryUtils {
     }
 
     /**
-     * <p>Finds a sequence of bytes in a binary.</p>
-     *
-     * <p>Warning: this is likely to be very slow if the binary is large.</p>
+     * Finds the first occurrence of a sequence of bytes in a binary.
+     * To search repeatedly for the same sequence, or within a range, use {@link ByteSequenceSearcher}.
      *
      * @param binary the binary.
      * @param sequence the sequence of bytes to search for.
      * @return the position at which it was found, or {@code -1} if it was not found.
      */
     public static long positionOf(Binary binary, byte[] sequence) {
-        long position = 0;
-        long endSearchPosition = binary.length() - sequence.length;
-        while (position < endSearchPosition) {
-            boolean match = true;
-            for (int i = 0; i < sequence.length; i++) {
-                if (sequence[i] != binary.read(position + i)) {
-
-                    // This works, but it is naive because it fails to take into account that part of the sequence
-                    // we just read may have been the start of the sequence.  Thus we will read some bytes more
-                    // than once, whereas really we need only read each byte once at most.
-                    match = false;
-                    break;
-                }
-            }
-
-            if (match) {
-                return position;
-            }
-
-            position++;
-        }
-
-        return -1;
+        return new ByteSequenceSearcher(sequence).find(binary);
     }
 }
@@ -19,8 +19,7 @@
 package org.trypticon.hex.binary;
 
 import java.nio.ByteBuffer;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.nio.ByteOrder;
 
 /**
  * Binary which wraps a byte buffer.
@@ -29,22 +28,34 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  */
 class ByteBufferBinary extends AbstractBinary {
 
+    /**
+     * The number of bytes to touch each time the guard is entered when prefetching.
+     */
+    private static final int TOUCH_CHUNK_SIZE = 256 * 1024;
+
     /**
      * The wrapped byte buffer.
      */
     private final ByteBuffer buffer;
 
     /**
-     * Will be set to {@code true} on {@code close()}.
+     * Views of the buffer in each byte order, for reading multi-byte values.
+     * Only absolute reads are done on these so it is safe to share them between threads.
+     */
+    private final ByteBuffer bigEndianBuffer;
+    private final ByteBuffer littleEndianBuffer;
+
+    /**
+     * Guards against the buffer being cleaned while a read is in progress.
+     * Shared with any slices, since they read the same memory.
      */
-    private volatile boolean closed = false;
+    private final CloseGuard guard;
 
     /**
-     * A lock allowing multiple reading threads to get in at the same time, giving {@code close()} a way to determine
-     * when all reads have finished so that it can set the {@code closed} flag and clean the buffer while knowing that a
-     * read can't be half-completed.
+     * Whether this binary owns the buffer, and therefore cleans it up on close.
+     * {@code false} for slices.
      */
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final boolean owner;
 
     /**
      * Constructs binary wrapping a byte buffer.
@@ -52,7 +63,15 @@ class ByteBufferBinary extends AbstractBinary {
      * @param buffer the wrapped byte buffer.
      */
     public ByteBufferBinary(ByteBuffer buffer) {
+        this(buffer, new CloseGuard(), true);
+    }
+
+    private ByteBufferBinary(ByteBuffer buffer, CloseGuard guard, boolean owner) {
         this.buffer = buffer;
+        this.guard = guard;
+        this.owner = owner;
+        bigEndianBuffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        littleEndianBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
     }
 
     @Override
@@ -62,51 +81,124 @@ class ByteBufferBinary extends AbstractBinary {
 
     @Override
     protected byte readSpi(long position) {
-        lock.readLock().lock();
+        CloseGuard.Slot slot = guard.enter();
         try {
-            throwIfClosed();
             return buffer.get((int) position);
         } finally {
-            lock.readLock().unlock();
+            slot.exit();
         }
     }
 
     @Override
     protected void readSpi(long position, ByteBuffer buffer) {
-        lock.readLock().lock();
+        CloseGuard.Slot slot = guard.enter();
         try {
-            throwIfClosed();
-
             ByteBuffer dup = this.buffer.duplicate();
             dup.position((int) position);
-            dup.limit(buffer.limit() + (int) position);
+            dup.limit((int) position + buffer.remaining());
             buffer.put(dup);
         } finally {
-            lock.readLock().unlock();
+            slot.exit();
+        }
+    }
+
+    @Override
+    protected short readShortSpi(long position, ByteOrder order) {
+        CloseGuard.Slot slot = guard.enter();
+        try {
+            return buffer(order).getShort((int) position);
+        } finally {
+            slot.exit();
         }
     }
 
-    private void throwIfClosed() {
-        if (closed) {
-            throw new IllegalStateException("close() has already been called");
+    @Override
+    protected int readIntSpi(long position, ByteOrder order) {
+        CloseGuard.Slot slot = guard.enter();
+        try {
+            return buffer(order).getInt((int) position);
+        } finally {
+            slot.exit();
         }
     }
 
     @Override
-    public void close() {
-        lock.writeLock().lock();
+    protected long readLongSpi(long position, ByteOrder order) {
+        CloseGuard.Slot slot = guard.enter();
         try {
-            closed = true;
-
-            // Doing this kind of clean is normally dangerous because if the caller
-            // has access to the buffer, it will cause the entire VM to segfault.
-            // This is why we jump through hoops to lock it and make sure other
-            // threads can't be using it at the same time.
-            if (buffer.isDirect()) {
-                ByteBufferUnmapper.unmap(buffer);
-            }
+            return buffer(order).getLong((int) position);
         } finally {
-            lock.writeLock().unlock();
+            slot.exit();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>For direct buffers, which are usually mapped, each page of the range is touched in the
+     * background to get it loaded. {@link java.nio.MappedByteBuffer#load()} would be nicer, but
+     * it does nothing for slices, which is what our segments usually are.</p>
+     */
+    @Override
+    protected void prefetchSpi(long position, long length) {
+        if (buffer.isDirect()) {
+            Prefetcher.submit(() -> touchPages(position, position + length));
+        }
+    }
+
+    private void touchPages(long from, long to) {
+        int sum = 0;
+        // The guard is entered a chunk at a time so that touching lots of pages doesn't hold up closing.
+        for (long chunk = from; chunk < to; chunk += TOUCH_CHUNK_SIZE) {
+            CloseGuard.Slot slot;
+            try {
+                slot = guard.enter();
+            } catch (IllegalStateException e) {
+                // Closed since the prefetch was asked for, so there's no point continuing.
+                return;
+            }
+            try {
+                long chunkEnd = Math.min(to, chunk + TOUCH_CHUNK_SIZE);
+                for (long position = chunk; position < chunkEnd; position += Prefetcher.PAGE_SIZE) {
+                    sum += buffer.get((int) position);
+                }
+            } finally {
+                slot.exit();
+            }
+        }
+        Prefetcher.sink = sum;
+    }
+
+    private ByteBuffer buffer(ByteOrder order) {
+        return order == ByteOrder.LITTLE_ENDIAN ? littleEndianBuffer : bigEndianBuffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Returns a binary over a slice of the buffer, so that reading the slice costs the same as
+     * reading this binary. Closing the slice does nothing, and it can't be read after this binary
+     * is closed.</p>
+     */
+    @Override
+    protected Binary sliceSpi(long position, long length) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position((int) position);
+        dup.limit((int) (position + length));
+        return new ByteBufferBinary(dup.slice(), guard, false);
+    }
+
+    @Override
+    public void close() {
+        if (!owner) {
+            return;
+        }
+
+        // Doing this kind of clean is normally dangerous because if the caller
+        // has access to the buffer, it will cause the entire VM to segfault.
+        // This is why the guard waits until no other thread can be using it.
+        if (guard.close() && buffer.isDirect()) {
+            ByteBufferUnmapper.unmap(buffer);
         }
     }
 }
@@ -0,0 +1,389 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Binary which caches blocks of another binary in memory.</p>
+ *
+ * <p>The delegate is read in aligned, fixed-size blocks which are kept in a bounded
+ * least-recently-used cache. This is mostly useful for binaries where each read is
+ * expensive, such as {@link FileChannelBinary}, where reading one byte at a time would
+ * otherwise cost one system call per byte.</p>
+ *
+ * @author trejkaz
+ */
+public class CachingBinary extends AbstractBinary {
+
+    /**
+     * The default block size, in bytes.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The default memory budget, in bytes.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
+    /**
+     * The binary being cached.
+     */
+    private final Binary delegate;
+
+    /**
+     * The length of the binary. Cached because we only support binaries whose length does not change.
+     */
+    private final long length;
+
+    /**
+     * The size of each block, in bytes. Always a power of two.
+     */
+    private final int blockSize;
+
+    /**
+     * The number of bits to shift a position right by to get the index of its block.
+     */
+    private final int blockShift;
+
+    /**
+     * The cached blocks, in least-recently-used order. Access must be synchronised on the map.
+     */
+    private final Map<Long, Block> blocks;
+
+    /**
+     * The maximum number of blocks held in the cache.
+     */
+    private final int maxBlocks;
+
+    /**
+     * Blocks currently being read by a prefetch, so that reads wait for them instead of reading them again.
+     */
+    private final ConcurrentMap<Long, CompletableFuture<Block>> prefetching = new ConcurrentHashMap<>();
+
+    /**
+     * The block most recently returned, checked before going to the map.
+     * Painting and interpreting tend to read the same block many times in a row,
+     * so this saves taking the lock for the majority of reads.
+     */
+    @Nullable
+    private volatile Block lastBlock;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * Constructs the binary using the default block size and memory budget.
+     *
+     * @param delegate the binary to cache.
+     */
+    public CachingBinary(Binary delegate) {
+        this(delegate, DEFAULT_BLOCK_SIZE, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructs the binary.
+     *
+     * @param delegate the binary to cache.
+     * @param blockSize the size of each block, in bytes. Must be a power of two.
+     * @param memoryBudget the maximum number of bytes to hold in the cache. At least one block
+     *                     will always be held, even if the budget is smaller than one block.
+     * @throws IllegalArgumentException if the block size is not a power of two.
+     */
+    public CachingBinary(Binary delegate, int blockSize, long memoryBudget) {
+        if (blockSize <= 0 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be a power of two: " + blockSize);
+        }
+
+        this.delegate = delegate;
+        this.length = delegate.length();
+        this.blockSize = blockSize;
+        this.blockShift = Integer.numberOfTrailingZeros(blockSize);
+
+        int maxBlocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / blockSize));
+        this.maxBlocks = maxBlocks;
+        blocks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Block> eldest) {
+                return size() > maxBlocks;
+            }
+        };
+    }
+
+    /**
+     * Gets the size of each cached block.
+     *
+     * @return the block size, in bytes.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Gets the number of reads which were satisfied by a block already in the cache.
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Gets the number of reads which required a block to be read from the underlying binary.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    protected byte readSpi(long position) {
+        Block block = getBlock(position >>> blockShift);
+        return block.data[(int) (position - block.start)];
+    }
+
+    @Override
+    protected void readSpi(long position, ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            Block block = getBlock(position >>> blockShift);
+            int offset = (int) (position - block.start);
+            int count = Math.min(buffer.remaining(), block.data.length - offset);
+            buffer.put(block.data, offset, count);
+            position += count;
+        }
+    }
+
+    @Override
+    protected short readShortSpi(long position, ByteOrder order) {
+        Block block = getBlock(position >>> blockShift);
+        int offset = (int) (position - block.start);
+        if (offset + Short.BYTES <= block.data.length) {
+            return block.buffer(order).getShort(offset);
+        }
+        return readAcrossBlocks(block, offset, Short.BYTES, order).getShort(0);
+    }
+
+    @Override
+    protected int readIntSpi(long position, ByteOrder order) {
+        Block block = getBlock(position >>> blockShift);
+        int offset = (int) (position - block.start);
+        if (offset + Integer.BYTES <= block.data.length) {
+            return block.buffer(order).getInt(offset);
+        }
+        return readAcrossBlocks(block, offset, Integer.BYTES, order).getInt(0);
+    }
+
+    @Override
+    protected long readLongSpi(long position, ByteOrder order) {
+        Block block = getBlock(position >>> blockShift);
+        int offset = (int) (position - block.start);
+        if (offset + Long.BYTES <= block.data.length) {
+            return block.buffer(order).getLong(offset);
+        }
+        return readAcrossBlocks(block, offset, Long.BYTES, order).getLong(0);
+    }
+
+    /**
+     * Reads a value which runs off the end of a block, carrying on into the blocks after it.
+     * Starts from the block already fetched, so each block touched is only counted once.
+     *
+     * @param block the block holding the first byte.
+     * @param offset the offset of the first byte within the block.
+     * @param count the number of bytes to read.
+     * @param order the byte order of the returned buffer.
+     * @return a buffer holding the bytes, starting at index 0.
+     */
+    private ByteBuffer readAcrossBlocks(Block block, int offset, int count, ByteOrder order) {
+        ByteBuffer buffer = ByteBuffer.allocate(count).order(order);
+        while (true) {
+            int n = Math.min(buffer.remaining(), block.data.length - offset);
+            buffer.put(block.data, offset, n);
+            if (!buffer.hasRemaining()) {
+                return buffer;
+            }
+            block = getBlock(block.index + 1);
+            offset = 0;
+        }
+    }
+
+    /**
+     * Gets a block, reading it from the delegate if it isn't in the cache.
+     *
+     * @param index the index of the block.
+     * @return the block.
+     */
+    private Block getBlock(long index) {
+        Block block = lastBlock;
+        if (block != null && block.index == index) {
+            hitCount.increment();
+            return block;
+        }
+
+        synchronized (blocks) {
+            block = blocks.get(index);
+        }
+
+        if (block == null) {
+            block = awaitPrefetch(index);
+        }
+
+        if (block != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+
+            // Reading happens outside the lock so that threads reading different blocks don't queue
+            // up behind each other. Two threads missing the same block will both read it, but that's
+            // harmless - the second one to finish just replaces the first.
+            block = loadBlock(index);
+            synchronized (blocks) {
+                blocks.put(index, block);
+            }
+        }
+
+        lastBlock = block;
+        return block;
+    }
+
+    /**
+     * Waits for a block to finish being prefetched, if it's being prefetched.
+     *
+     * @param index the index of the block.
+     * @return the block, or {@code null} if it wasn't being prefetched or the prefetch failed.
+     */
+    @Nullable
+    private Block awaitPrefetch(long index) {
+        CompletableFuture<Block> future = prefetching.get(index);
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.join();
+        } catch (CancellationException | CompletionException e) {
+            // The read will be tried again by the caller and can report any error itself.
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Blocks in the range which aren't already cached are read into the cache in the background.
+     * Only a quarter of the cache is prefetched at a time, so that prefetching doesn't push out
+     * the blocks being read right now.</p>
+     */
+    @Override
+    protected void prefetchSpi(long position, long length) {
+        long first = position >>> blockShift;
+        long last = Math.min((position + length - 1) >>> blockShift, first + Math.max(1, maxBlocks / 4) - 1);
+        Map<Long, CompletableFuture<Block>> claimed = new LinkedHashMap<>();
+        for (long index = first; index <= last; index++) {
+            synchronized (blocks) {
+                // Deliberately not get(), which would count as an access and keep the block around longer.
+                if (blocks.containsKey(index)) {
+                    continue;
+                }
+            }
+            CompletableFuture<Block> future = new CompletableFuture<>();
+            if (prefetching.putIfAbsent(index, future) == null) {
+                claimed.put(index, future);
+            }
+        }
+        if (claimed.isEmpty()) {
+            return;
+        }
+
+        // One task for the lot, read in order, rather than filling up the prefetcher's queue.
+        boolean submitted = Prefetcher.submit(() -> claimed.forEach((index, future) -> {
+            try {
+                Block block = loadBlock(index);
+                synchronized (blocks) {
+                    blocks.put(index, block);
+                }
+                future.complete(block);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                prefetching.remove(index, future);
+            }
+        }));
+        if (!submitted) {
+            // The prefetcher is busy, so leave it all to be read when needed.
+            claimed.forEach((index, future) -> {
+                prefetching.remove(index, future);
+                future.cancel(false);
+            });
+        }
+    }
+
+    private Block loadBlock(long index) {
+        long start = index << blockShift;
+        byte[] data = new byte[(int) Math.min(blockSize, length - start)];
+        delegate.read(start, ByteBuffer.wrap(data));
+        return new Block(index, start, data);
+    }
+
+    @Override
+    public void close() {
+        synchronized (blocks) {
+            blocks.clear();
+        }
+        lastBlock = null;
+        delegate.close();
+    }
+
+    /**
+     * A single cached block.
+     */
+    private static class Block {
+        private final long index;
+        private final long start;
+        private final byte[] data;
+        private final ByteBuffer bigEndianBuffer;
+        private final ByteBuffer littleEndianBuffer;
+
+        private Block(long index, long start, byte[] data) {
+            this.index = index;
+            this.start = start;
+            this.data = data;
+            bigEndianBuffer = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+            littleEndianBuffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private ByteBuffer buffer(ByteOrder order) {
+            return order == ByteOrder.LITTLE_ENDIAN ? littleEndianBuffer : bigEndianBuffer;
+        }
+    }
+}
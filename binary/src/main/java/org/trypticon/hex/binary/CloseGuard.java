@@ -0,0 +1,155 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * <p>Guards a resource which must not be released while any thread is still reading it,
+ * such as a mapped byte buffer, where reading after unmapping would crash the VM.</p>
+ *
+ * <p>A read-write lock does the job, but every read then updates the lock's shared
+ * counter, and with enough reading threads that one cache line becomes the bottleneck.
+ * Instead, readers are spread over a fixed number of slots by a hash of the thread, so
+ * threads mostly only write to their own slot. Entering increments the slot and then checks
+ * the closed flag; closing sets the flag and then waits for every slot to drain. Both sides
+ * use volatile accesses, which are sequentially consistent, so at least one side always sees
+ * the other: either the reader sees the flag and backs out, or the closer sees the reader and waits.</p>
+ *
+ * <p>The number of slots doesn't depend on how many threads have ever read, so threads coming
+ * and going, such as pool threads timing out, don't make the guard grow.</p>
+ *
+ * @author trejkaz
+ */
+class CloseGuard {
+
+    /**
+     * The number of slots. A power of two, enough that threads rarely share one.
+     */
+    static final int SLOT_COUNT = Math.min(64, Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1);
+
+    /**
+     * Will be set to {@code true} on {@code close()}.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The slots readers are spread over.
+     */
+    private final Slot[] slots = new Slot[SLOT_COUNT];
+
+    CloseGuard() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Gets the number of slots held by the guard.
+     *
+     * @return the slot count.
+     */
+    int getSlotCount() {
+        return slots.length;
+    }
+
+    /**
+     * Called before reading from the resource. Must be followed by a call to
+     * {@link Slot#exit()} on the returned slot, normally in a {@code finally} block.
+     *
+     * @return the slot for the current thread.
+     * @throws IllegalStateException if the guard has been closed.
+     */
+    Slot enter() {
+        int hash = System.identityHashCode(Thread.currentThread());
+        Slot slot = slots[(hash ^ (hash >>> 16)) & (slots.length - 1)];
+        slot.add(1);
+        if (closed) {
+            slot.add(-1);
+            throw new IllegalStateException("close() has already been called");
+        }
+        return slot;
+    }
+
+    /**
+     * Closes the guard and waits for all reads currently in progress to finish.
+     * Once this returns, no reads can be in progress and no new ones can start.
+     *
+     * @return {@code true} if this call closed the guard, {@code false} if it was already closed.
+     */
+    boolean close() {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+        }
+
+        for (Slot slot : slots) {
+            int spins = 0;
+            while (slot.depth != 0) {
+                // Reads are short, so spin for a while before giving up the CPU.
+                if (++spins < 1000) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A reader slot, shared by every thread whose hash lands on it.
+     */
+    @SuppressWarnings("unused")
+    static class Slot {
+        private static final VarHandle DEPTH;
+        static {
+            try {
+                DEPTH = MethodHandles.lookup().findVarHandle(Slot.class, "depth", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        // Padding either side so that neighbouring slots don't share a cache line.
+        private long p0, p1, p2, p3, p4, p5, p6;
+
+        /**
+         * The number of reads currently in progress by threads using this slot.
+         */
+        private volatile int depth;
+
+        private long q0, q1, q2, q3, q4, q5, q6;
+
+        private void add(int delta) {
+            DEPTH.getAndAdd(this, delta);
+        }
+
+        /**
+         * Called after reading from the resource.
+         */
+        void exit() {
+            add(-1);
+        }
+    }
+}
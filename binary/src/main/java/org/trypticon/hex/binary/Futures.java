@@ -0,0 +1,138 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * <p>Helpers for the tasks which split work on a binary across threads.</p>
+ *
+ * <p>This is only public so that the other packages in this library can use it.
+ * It is not part of the supported API.</p>
+ *
+ * @author trejkaz
+ */
+public final class Futures {
+    private Futures() {
+    }
+
+    /**
+     * Waits for a future to complete, rethrowing whatever it failed with as it was thrown.
+     *
+     * @param future the future.
+     * @param <R> the type of result.
+     * @return the result.
+     * @throws UncheckedIOException if the future failed with an {@code IOException}.
+     */
+    public static <R> R join(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * <p>A bounded queue of tasks whose results are handled in the order they were submitted.</p>
+     *
+     * <p>The caller submits tasks until the queue is full, then joins the oldest one and submits
+     * more. Closing the queue cancels anything still in flight, so that giving up part way
+     * doesn't leave work running.</p>
+     *
+     * @param <R> the type of result for each task.
+     */
+    public static final class InFlight<R> implements AutoCloseable {
+        private final int maxSize;
+        private final Deque<CompletableFuture<R>> futures;
+
+        /**
+         * Constructs the queue.
+         *
+         * @param parallelism the number of threads the tasks will run on.
+         */
+        public InFlight(int parallelism) {
+            // Enough to keep every thread busy while the caller is handling the oldest task.
+            maxSize = parallelism * 2;
+            futures = new ArrayDeque<>(maxSize);
+        }
+
+        /**
+         * Tests whether the queue is full.
+         *
+         * @return {@code true} if no more tasks should be submitted until the oldest is joined.
+         */
+        public boolean isFull() {
+            return futures.size() >= maxSize;
+        }
+
+        /**
+         * Tests whether the queue is empty.
+         *
+         * @return {@code true} if there are no tasks in flight.
+         */
+        public boolean isEmpty() {
+            return futures.isEmpty();
+        }
+
+        /**
+         * Adds a task to the queue.
+         *
+         * @param future the future for the task.
+         */
+        public void add(CompletableFuture<R> future) {
+            futures.add(future);
+        }
+
+        /**
+         * Removes the oldest task from the queue and waits for its result.
+         *
+         * @return the result.
+         * @throws NoSuchElementException if the queue is empty.
+         */
+        public R joinOldest() {
+            return join(futures.remove());
+        }
+
+        /**
+         * Cancels every task still in the queue.
+         */
+        @Override
+        public void close() {
+            for (CompletableFuture<R> future : futures) {
+                future.cancel(false);
+            }
+            futures.clear();
+        }
+    }
+}
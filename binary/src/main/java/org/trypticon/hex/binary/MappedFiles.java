@@ -16,32 +16,34 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package org.trypticon.hex.interpreters.primitives;
+
+package org.trypticon.hex.binary;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
- * Utilities for building primitives from bytes.
+ * <p>Maps files into memory in the best way the running JDK supports.</p>
+ *
+ * <p>This is the version for JDKs before 22, which maps the file as a series of byte buffers.
+ * The jar also contains a version for JDK 22 and later under {@code META-INF/versions/22},
+ * which maps the whole file as a single memory segment.</p>
  *
  * @author trejkaz
  */
-public class Primitives {
-    static short getShort(byte b1, byte b2) {
-        return (short) getUShort(b1, b2);
-    }
-
-    static int getUShort(byte b1, byte b2) {
-        return ((b1 & 0xFF) << 8) | (b2 & 0xFF);
-    }
-
-    static int getInt(byte b1, byte b2, byte b3, byte b4) {
-        return ((b1 & 0xFF) << 24) | ((b2 & 0xFF) << 16) | ((b3 & 0xFF) << 8) | (b4 & 0xFF);
-    }
+class MappedFiles {
 
-    static long getUInt(byte b1, byte b2, byte b3, byte b4) {
-        return (long) getInt(b1, b2, b3, b4) & 0xFFFFFFFFL;
+    private MappedFiles() {
     }
 
-    static long getLong(byte b1, byte b2, byte b3, byte b4, byte b5, byte b6, byte b7, byte b8) {
-        return ((long) getInt(b1, b2, b3, b4) << 32) |
-               ((long) getInt(b5, b6, b7, b8) & 0xFFFFFFFFL);
+    /**
+     * Maps a file into memory.
+     *
+     * @param file the file.
+     * @return the binary.
+     * @throws IOException if the file could not be read.
+     */
+    static Binary open(Path file) throws IOException {
+        return new MemoryMappedFileBinary(file);
     }
 }
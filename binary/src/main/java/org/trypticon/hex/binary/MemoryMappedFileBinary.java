@@ -26,16 +26,34 @@ import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Path;
 
 /**
- * Binary which maps a file into memory.
+ * <p>Binary which maps a file into memory.</p>
+ *
+ * <p>A single mapped buffer can't be larger than 2GB, so the file is mapped as a series
+ * of fixed-size segments, as described in {@link SegmentedBinary}.</p>
  *
  * @author trejkaz
  */
-class MemoryMappedFileBinary extends AbstractBinary implements Binary, Closeable {
+class MemoryMappedFileBinary extends SegmentedBinary implements Binary, Closeable {
+
+    /**
+     * The default segment size, expressed as a shift. 1GB.
+     */
+    static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+    /**
+     * The default number of bytes each segment overlaps the next.
+     */
+    static final int DEFAULT_OVERLAP = 64 * 1024;
+
+    /**
+     * The length of the binary.
+     */
+    private final long length;
 
     /**
-     * Delegate binary implementation.
+     * The segments. Segment {@code i} starts at {@code i << segmentShift}.
      */
-    private Binary delegate;
+    private final ByteBufferBinary[] segments;
 
     /**
      * Constructs the binary, mapping the provided file into memory.
@@ -44,29 +62,52 @@ class MemoryMappedFileBinary extends AbstractBinary implements Binary, Closeable
      * @throws IOException if the file could not be read.
      */
     public MemoryMappedFileBinary(Path file) throws IOException {
+        this(file, DEFAULT_SEGMENT_SHIFT, DEFAULT_OVERLAP);
+    }
+
+    /**
+     * Constructs the binary, mapping the provided file into memory.
+     *
+     * @param file the file to map into memory.
+     * @param segmentShift the size of each segment, expressed as a shift.
+     * @param overlap the number of bytes each segment overlaps the next.
+     * @throws IOException if the file could not be read.
+     */
+    MemoryMappedFileBinary(Path file, int segmentShift, int overlap) throws IOException {
+        super(segmentShift, overlap);
+
         try (FileChannel channel = FileChannel.open(file)) {
-            ByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
-            delegate = new ByteBufferBinary(mapped);
+            length = channel.size();
+
+            int segmentCount = (int) ((length + segmentMask) >>> segmentShift);
+            segments = new ByteBufferBinary[segmentCount];
+            try {
+                for (int i = 0; i < segmentCount; i++) {
+                    long start = (long) i << segmentShift;
+                    long size = Math.min(length - start, segmentMask + 1 + overlap);
+                    ByteBuffer mapped = channel.map(MapMode.READ_ONLY, start, size);
+                    segments[i] = new ByteBufferBinary(mapped);
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
         }
     }
 
     @Override
     public long length() {
-        return delegate.length();
-    }
-
-    @Override
-    protected byte readSpi(long position) {
-        return delegate.read(position);
+        return length;
     }
 
     @Override
-    protected void readSpi(long position, ByteBuffer buffer) {
-        delegate.read(position, buffer);
+    ByteBufferBinary[] segments() {
+        return segments;
     }
 
     @Override
     public void close() {
-        delegate.close();
+        // Segments can be null if we failed part way through mapping.
+        closeSegments(segments);
     }
 }
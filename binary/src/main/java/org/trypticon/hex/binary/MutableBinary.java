@@ -0,0 +1,69 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A binary which can be edited.
+ *
+ * @author trejkaz
+ */
+public interface MutableBinary extends Binary {
+
+    /**
+     * Overwrites a single byte at a given position.
+     *
+     * @param position the position to write.
+     * @param value the new value.
+     * @throws IndexOutOfBoundsException if the position is out of bounds.
+     */
+    void write(long position, byte value);
+
+    /**
+     * Overwrites bytes starting at a given position with the remaining bytes in the buffer.
+     * The length of the binary does not change.
+     *
+     * @param position the position to begin writing at.
+     * @param data the data to write.
+     * @throws IndexOutOfBoundsException if any of the bytes to overwrite are out of bounds.
+     */
+    void write(long position, ByteBuffer data);
+
+    /**
+     * Inserts the remaining bytes in the buffer at a given position, moving any bytes
+     * from that position onwards along to make room.
+     *
+     * @param position the position to insert at. May be equal to the length of the binary,
+     *                 to append to the end.
+     * @param data the data to insert.
+     * @throws IndexOutOfBoundsException if the position is out of bounds.
+     */
+    void insert(long position, ByteBuffer data);
+
+    /**
+     * Deletes a range of bytes, moving any bytes after the range back to fill the gap.
+     *
+     * @param position the position to begin deleting at.
+     * @param length the number of bytes to delete.
+     * @throws IndexOutOfBoundsException if the range is out of bounds.
+     */
+    void delete(long position, long length);
+}
@@ -0,0 +1,610 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * <p>Editable binary which never modifies or copies the original.</p>
+ *
+ * <p>The content is described by a sequence of pieces, each of which is a range of either
+ * the original binary or an append-only buffer holding every byte which has been written or
+ * inserted. Editing only splits and rejoins pieces, so editing a huge file costs the same
+ * as editing a small one.</p>
+ *
+ * <p>The pieces are kept in a treap ordered by position, with each node knowing the total length
+ * of its subtree, so finding the piece at any position and splicing in an edit both take time
+ * proportional to the log of the number of pieces. Nodes are never modified once created. Each
+ * edit builds a new root sharing most of its nodes with the previous one, so reads never need
+ * to lock and always see the binary as it was either before or after any given edit.</p>
+ *
+ * <p>Edits can be made from any thread, but listeners are notified on the thread making the edit.</p>
+ *
+ * @author trejkaz
+ */
+public class PieceTableBinary extends AbstractBinary implements MutableBinary {
+
+    /**
+     * The binary being edited.
+     */
+    private final Binary original;
+
+    /**
+     * Every byte which has been written or inserted, in the order it was added.
+     */
+    private final AddBuffer addBuffer = new AddBuffer();
+
+    /**
+     * The root of the tree of pieces. {@code null} when the binary is empty.
+     */
+    @Nullable
+    private volatile Piece root;
+
+    /**
+     * Whether any edit has been made.
+     */
+    private volatile boolean modified;
+
+    /**
+     * Lock held while editing, so that concurrent edits don't build on the same root and lose one another.
+     */
+    private final Object editLock = new Object();
+
+    /**
+     * Source of priorities for new nodes. Only used while holding the edit lock.
+     */
+    private final SplittableRandom random = new SplittableRandom();
+
+    /**
+     * Constructs the binary.
+     *
+     * @param original the binary to edit. Its length must not change while this binary is in use.
+     */
+    public PieceTableBinary(Binary original) {
+        this.original = original;
+        long length = original.length();
+        if (length > 0) {
+            root = new Piece(false, 0, length, random.nextInt(), null, null);
+        }
+    }
+
+    /**
+     * Gets the binary being edited.
+     *
+     * @return the original binary.
+     */
+    public Binary getOriginal() {
+        return original;
+    }
+
+    /**
+     * Tests whether any edit has been made. Edits which happen to leave the content
+     * the same still count.
+     *
+     * @return {@code true} if the binary has been edited.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Gets the number of pieces currently making up the binary.
+     *
+     * @return the piece count.
+     */
+    int getPieceCount() {
+        Piece root = this.root;
+        return root == null ? 0 : root.count;
+    }
+
+    /**
+     * Passes each piece making up the binary to a visitor, in order of position.
+     *
+     * @param visitor the visitor.
+     * @throws IOException if the visitor throws it.
+     */
+    void forEachPiece(PieceVisitor visitor) throws IOException {
+        Piece root = this.root;
+        if (root != null) {
+            forEachPiece(root, 0, visitor);
+        }
+    }
+
+    private static void forEachPiece(Piece node, long position, PieceVisitor visitor) throws IOException {
+        if (node.left != null) {
+            forEachPiece(node.left, position, visitor);
+        }
+        position += length(node.left);
+        visitor.visit(position, node.added, node.start, node.length);
+        if (node.right != null) {
+            forEachPiece(node.right, position + node.length, visitor);
+        }
+    }
+
+    /**
+     * Reads directly from the add buffer, filling the buffer.
+     *
+     * @param start the position in the add buffer to start reading from.
+     * @param buffer the buffer to read into.
+     */
+    void readAdded(long start, ByteBuffer buffer) {
+        addBuffer.read(start, buffer, buffer.remaining());
+    }
+
+    @Override
+    public long length() {
+        return length(root);
+    }
+
+    @Override
+    protected byte readSpi(long position) {
+        Piece node = root;
+        while (node != null) {
+            long leftLength = length(node.left);
+            if (position < leftLength) {
+                node = node.left;
+            } else {
+                position -= leftLength;
+                if (position < node.length) {
+                    long sourcePosition = node.start + position;
+                    return node.added ? addBuffer.read(sourcePosition) : original.read(sourcePosition);
+                }
+                position -= node.length;
+                node = node.right;
+            }
+        }
+        throw new IndexOutOfBoundsException("Binary changed length during read");
+    }
+
+    @Override
+    protected void readSpi(long position, ByteBuffer buffer) {
+        Piece root = this.root;
+        if (root != null && buffer.hasRemaining()) {
+            read(root, position, buffer);
+        }
+        if (buffer.hasRemaining()) {
+            throw new IndexOutOfBoundsException("Binary changed length during read");
+        }
+    }
+
+    /**
+     * Reads from consecutive pieces in a subtree until the buffer is full or the subtree runs out.
+     *
+     * @param node the root of the subtree.
+     * @param position the position to start reading from, relative to the start of the subtree.
+     * @param buffer the buffer to read into.
+     */
+    private void read(Piece node, long position, ByteBuffer buffer) {
+        Piece left = node.left;
+        long leftLength = length(left);
+        if (left != null && position < leftLength) {
+            read(left, position, buffer);
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+            position = leftLength;
+        }
+
+        long offset = position - leftLength;
+        if (offset < node.length) {
+            int count = (int) Math.min(buffer.remaining(), node.length - offset);
+            long sourcePosition = node.start + offset;
+            if (node.added) {
+                addBuffer.read(sourcePosition, buffer, count);
+            } else {
+                int limit = buffer.limit();
+                buffer.limit(buffer.position() + count);
+                original.read(sourcePosition, buffer);
+                buffer.limit(limit);
+            }
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+            offset = node.length;
+        }
+
+        if (node.right != null) {
+            read(node.right, offset - node.length, buffer);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Passed on to the original binary for each piece of it in the range. The add buffer
+     * is already in memory, so there is nothing to fetch for the rest.</p>
+     */
+    @Override
+    protected void prefetchSpi(long position, long length) {
+        Piece root = this.root;
+        if (root != null) {
+            prefetch(root, position, position + length);
+        }
+    }
+
+    /**
+     * Passes a prefetch on to the original binary for the pieces of a subtree overlapping a range.
+     *
+     * @param node the root of the subtree.
+     * @param from the start of the range, relative to the start of the subtree.
+     * @param to the end of the range, relative to the start of the subtree.
+     */
+    private void prefetch(Piece node, long from, long to) {
+        long leftLength = length(node.left);
+        if (node.left != null && from < leftLength) {
+            prefetch(node.left, from, Math.min(to, leftLength));
+        }
+
+        long start = Math.max(from, leftLength) - leftLength;
+        long end = Math.min(to, leftLength + node.length) - leftLength;
+        if (!node.added && start < end) {
+            original.prefetch(node.start + start, end - start);
+        }
+
+        long rightStart = leftLength + node.length;
+        if (node.right != null && to > rightStart) {
+            prefetch(node.right, Math.max(from, rightStart) - rightStart, to - rightStart);
+        }
+    }
+
+    @Override
+    protected short readShortSpi(long position, ByteOrder order) {
+        long originalPosition = originalPosition(position, Short.BYTES);
+        if (originalPosition >= 0) {
+            return original.readShort(originalPosition, order);
+        }
+        return super.readShortSpi(position, order);
+    }
+
+    @Override
+    protected int readIntSpi(long position, ByteOrder order) {
+        long originalPosition = originalPosition(position, Integer.BYTES);
+        if (originalPosition >= 0) {
+            return original.readInt(originalPosition, order);
+        }
+        return super.readIntSpi(position, order);
+    }
+
+    @Override
+    protected long readLongSpi(long position, ByteOrder order) {
+        long originalPosition = originalPosition(position, Long.BYTES);
+        if (originalPosition >= 0) {
+            return original.readLong(originalPosition, order);
+        }
+        return super.readLongSpi(position, order);
+    }
+
+    /**
+     * Finds where a range lies in the original binary, for the common case of reading
+     * a value from a part of the binary which hasn't been edited.
+     *
+     * @param position the position of the range.
+     * @param length the length of the range.
+     * @return the position of the range in the original binary, or {@code -1} if the range
+     *         does not lie within a single piece of the original binary.
+     */
+    private long originalPosition(long position, int length) {
+        Piece node = root;
+        while (node != null) {
+            long leftLength = length(node.left);
+            if (position < leftLength) {
+                node = node.left;
+            } else {
+                position -= leftLength;
+                if (position < node.length) {
+                    return !node.added && position + length <= node.length ? node.start + position : -1;
+                }
+                position -= node.length;
+                node = node.right;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void write(long position, byte value) {
+        write(position, ByteBuffer.wrap(new byte[] { value }));
+    }
+
+    @Override
+    public void write(long position, ByteBuffer data) {
+        replace(position, data.remaining(), data);
+    }
+
+    @Override
+    public void insert(long position, ByteBuffer data) {
+        replace(position, 0, data);
+    }
+
+    @Override
+    public void delete(long position, long length) {
+        replace(position, length, ByteBuffer.allocate(0));
+    }
+
+    /**
+     * Replaces a range of the binary with new data, which is the general case of every edit.
+     *
+     * @param position the position of the range to replace.
+     * @param length the length of the range to replace.
+     * @param data the data to put in its place.
+     */
+    private void replace(long position, long length, ByteBuffer data) {
+        int count = data.remaining();
+        long oldLength;
+        long newLength;
+        synchronized (editLock) {
+            oldLength = length(root);
+            if (position < 0 || length < 0 || position + length > oldLength) {
+                throw new IndexOutOfBoundsException(
+                        String.format(Locale.ROOT, "Range %d..%d is out of bounds (0..%d)",
+                                      position, position + length - 1, oldLength - 1));
+            }
+            if (length == 0 && count == 0) {
+                return;
+            }
+
+            Piece[] split = split(root, position);
+            Piece before = split[0];
+            Piece after = split(split[1], length)[1];
+
+            if (count > 0) {
+                long start = addBuffer.append(data);
+
+                // Typing produces a long run of small edits, each starting where the previous one
+                // ended, so extend the previous piece instead of adding one per keystroke.
+                Piece last = last(before);
+                if (last != null && last.added && last.start + last.length == start) {
+                    before = extendLast(before, count);
+                } else {
+                    before = merge(before, new Piece(true, start, count, random.nextInt(), null, null));
+                }
+            }
+
+            Piece root = merge(before, after);
+            newLength = length(root);
+            this.root = root;
+            modified = true;
+        }
+
+        // Shifted bytes count as changed, so the change runs to the end unless the length stayed the same.
+        long changeEnd = oldLength == newLength ? position + count : newLength;
+        fireBinaryChanged(oldLength, newLength, position, changeEnd);
+    }
+
+    @Override
+    public void close() {
+        original.close();
+    }
+
+    private static long length(@Nullable Piece node) {
+        return node == null ? 0 : node.totalLength;
+    }
+
+    /**
+     * Splits a subtree into two at a position, splitting the piece at that position in two if necessary.
+     *
+     * @param node the root of the subtree.
+     * @param position the position to split at, relative to the start of the subtree.
+     * @return a two-element array containing the subtree before the position and the subtree after it.
+     *         Either may be {@code null} if it would be empty.
+     */
+    private static Piece[] split(@Nullable Piece node, long position) {
+        if (node == null) {
+            return new Piece[2];
+        }
+
+        long leftLength = length(node.left);
+        if (position <= leftLength) {
+            Piece[] parts = split(node.left, position);
+            parts[1] = node.withChildren(parts[1], node.right);
+            return parts;
+        }
+
+        long offset = position - leftLength;
+        if (offset >= node.length) {
+            Piece[] parts = split(node.right, offset - node.length);
+            parts[0] = node.withChildren(node.left, parts[0]);
+            return parts;
+        }
+
+        // Position is in the middle of this piece. Both halves keep its priority,
+        // which is no lower than anything below them.
+        Piece head = new Piece(node.added, node.start, offset, node.priority, node.left, null);
+        Piece tail = new Piece(node.added, node.start + offset, node.length - offset, node.priority, null, node.right);
+        return new Piece[] { head, tail };
+    }
+
+    /**
+     * Joins two subtrees together.
+     *
+     * @param left the subtree to go first.
+     * @param right the subtree to go second.
+     * @return the joined tree.
+     */
+    @Nullable
+    private static Piece merge(@Nullable Piece left, @Nullable Piece right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority >= right.priority) {
+            return left.withChildren(left.left, merge(left.right, right));
+        } else {
+            return right.withChildren(merge(left, right.left), right.right);
+        }
+    }
+
+    @Nullable
+    private static Piece last(@Nullable Piece node) {
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    /**
+     * Makes the last piece in a subtree longer.
+     *
+     * @param node the root of the subtree.
+     * @param count the number of bytes to add to the last piece.
+     * @return the new subtree.
+     */
+    private static Piece extendLast(Piece node, long count) {
+        if (node.right == null) {
+            return new Piece(node.added, node.start, node.length + count, node.priority, node.left, null);
+        }
+        return node.withChildren(node.left, extendLast(node.right, count));
+    }
+
+    /**
+     * Receives the pieces making up the binary.
+     */
+    @FunctionalInterface
+    interface PieceVisitor {
+
+        /**
+         * Called for each piece.
+         *
+         * @param position the position of the piece in the binary.
+         * @param added {@code true} if the piece is in the add buffer, {@code false} if it is in the original binary.
+         * @param start the position of the piece in the add buffer or the original binary.
+         * @param length the length of the piece.
+         * @throws IOException if an error occurs.
+         */
+        void visit(long position, boolean added, long start, long length) throws IOException;
+    }
+
+    /**
+     * A node in the tree, holding a single piece.
+     */
+    private static class Piece {
+        /**
+         * {@code true} if the piece is in the add buffer, {@code false} if it is in the original binary.
+         */
+        private final boolean added;
+        private final long start;
+        private final long length;
+        private final int priority;
+        @Nullable
+        private final Piece left;
+        @Nullable
+        private final Piece right;
+
+        /**
+         * The total length of all pieces in this subtree.
+         */
+        private final long totalLength;
+
+        /**
+         * The number of pieces in this subtree.
+         */
+        private final int count;
+
+        private Piece(boolean added, long start, long length, int priority,
+                      @Nullable Piece left, @Nullable Piece right) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            totalLength = length(left) + length + length(right);
+            count = (left == null ? 0 : left.count) + 1 + (right == null ? 0 : right.count);
+        }
+
+        private Piece withChildren(@Nullable Piece left, @Nullable Piece right) {
+            return new Piece(added, start, length, priority, left, right);
+        }
+    }
+
+    /**
+     * Append-only store for the bytes which have been added, kept in fixed-size chunks
+     * so that adding more never has to copy what is already there.
+     */
+    private static class AddBuffer {
+        private static final int CHUNK_SHIFT = 16;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        /**
+         * The chunks. Replaced with a larger copy when more chunks are needed.
+         * Bytes are only ever written to positions beyond what any piece refers to,
+         * and the new root is published after writing, so reads see complete data without locking.
+         */
+        private volatile byte[][] chunks = new byte[0][];
+
+        /**
+         * The number of bytes added so far. Only used while holding the edit lock.
+         */
+        private long length;
+
+        /**
+         * Appends data to the buffer.
+         *
+         * @param data the data to append.
+         * @return the position in the buffer where the data starts.
+         */
+        private long append(ByteBuffer data) {
+            long start = length;
+            byte[][] chunks = this.chunks;
+            while (data.hasRemaining()) {
+                int index = (int) (length >>> CHUNK_SHIFT);
+                if (index == chunks.length) {
+                    chunks = Arrays.copyOf(chunks, Math.max(4, chunks.length * 2));
+                }
+                if (chunks[index] == null) {
+                    chunks[index] = new byte[CHUNK_SIZE];
+                }
+                int offset = (int) (length & CHUNK_MASK);
+                int count = Math.min(data.remaining(), CHUNK_SIZE - offset);
+                data.get(chunks[index], offset, count);
+                length += count;
+            }
+            this.chunks = chunks;
+            return start;
+        }
+
+        private byte read(long position) {
+            return chunks[(int) (position >>> CHUNK_SHIFT)][(int) (position & CHUNK_MASK)];
+        }
+
+        private void read(long position, ByteBuffer buffer, int count) {
+            byte[][] chunks = this.chunks;
+            while (count > 0) {
+                int offset = (int) (position & CHUNK_MASK);
+                int chunkCount = Math.min(count, CHUNK_SIZE - offset);
+                buffer.put(chunks[(int) (position >>> CHUNK_SHIFT)], offset, chunkCount);
+                position += chunkCount;
+                count -= chunkCount;
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Runs prefetching for binaries in the background.</p>
+ *
+ * <p>Prefetching is only ever a hint, so the queue is bounded and new work is dropped
+ * when it's full rather than holding up the thread asking for it.</p>
+ *
+ * @author trejkaz
+ */
+class Prefetcher {
+
+    /**
+     * The size of a page of memory, at least on every platform we care about.
+     * Touching one byte in each page is enough to get the whole page loaded.
+     */
+    static final int PAGE_SIZE = 4096;
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_SIZE = 64;
+
+    private static final ThreadPoolExecutor executor;
+    static {
+        executor = new ThreadPoolExecutor(
+                THREADS, THREADS, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Binary prefetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Somewhere to put the bytes read when touching pages, so that the reads can't be optimised away.
+     */
+    @SuppressWarnings("unused")
+    static volatile int sink;
+
+    private Prefetcher() {
+    }
+
+    /**
+     * Runs a task in the background if there is room for it.
+     *
+     * @param task the task.
+     * @return {@code true} if the task will be run, {@code false} if it was dropped.
+     */
+    static boolean submit(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+}
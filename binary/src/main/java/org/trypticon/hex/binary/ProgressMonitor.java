@@ -0,0 +1,55 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+/**
+ * <p>Receives progress updates from long-running operations over a binary, and lets
+ * the caller cancel them.</p>
+ *
+ * <p>Operations check {@link #isCancelled()} between units of work and throw
+ * {@link java.util.concurrent.CancellationException} once it returns {@code true}.
+ * Both methods may be called from whichever thread is doing the work.</p>
+ *
+ * @author trejkaz
+ */
+@FunctionalInterface
+public interface ProgressMonitor {
+
+    /**
+     * A monitor which ignores progress and never cancels.
+     */
+    ProgressMonitor NONE = (done, total) -> {};
+
+    /**
+     * Called to report progress.
+     *
+     * @param done the amount of work done so far, usually in bytes.
+     * @param total the total amount of work, in the same units.
+     */
+    void progress(long done, long total);
+
+    /**
+     * Checks whether the operation has been cancelled.
+     *
+     * @return {@code true} if the operation should stop.
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,549 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Binary which loads the content of a stream in the background, so that it can be used
+ * before the whole stream has arrived.</p>
+ *
+ * <p>The length of the binary is the number of bytes loaded so far, and listeners are notified
+ * as it grows. The content is held in fixed-size chunks, so growing never copies what has already
+ * been loaded.</p>
+ *
+ * <p>Only a limited amount of the content is kept in memory. Once that has been loaded, each
+ * further chunk is written to a temporary file as soon as it fills up, and read back through
+ * a small cache of chunks when needed. The temporary file is deleted when the binary is closed.
+ * This allows streams much larger than the heap to be viewed.</p>
+ *
+ * <p>By default, reading past the bytes loaded so far fails immediately with an
+ * {@link IndexOutOfBoundsException}, the same as reading past the end of any other binary.
+ * If a read timeout is set, such reads instead wait for the data to arrive. If loading failed,
+ * reading past the point where it failed throws an {@link UncheckedIOException}.</p>
+ *
+ * @author trejkaz
+ */
+public class ProgressiveBinary extends AbstractBinary {
+
+    /**
+     * The default chunk size, expressed as a shift. 64KB.
+     */
+    static final int DEFAULT_CHUNK_SHIFT = 16;
+
+    /**
+     * The default number of bytes to keep in memory before spilling to disk.
+     */
+    public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    /**
+     * The number of bytes of spilled chunks to cache in memory.
+     */
+    static final long SPILLED_CACHE_BUDGET = 4L * 1024 * 1024;
+
+    /**
+     * The number of bits to shift a position right by to get the index of its chunk.
+     */
+    private final int chunkShift;
+
+    /**
+     * Mask to apply to a position to get its offset within its chunk.
+     */
+    private final int chunkMask;
+
+    /**
+     * The length the stream claimed it would have, or {@code -1} if unknown.
+     */
+    private final long expectedLength;
+
+    /**
+     * The stream being loaded.
+     */
+    private final InputStream stream;
+
+    /**
+     * The number of chunks kept in memory. Chunks after these are spilled to disk once they fill up.
+     */
+    private final int memoryChunkCount;
+
+    /**
+     * The chunks loaded so far. Chunk {@code i} starts at {@code i << chunkShift}.
+     * Entries are only written before the length is increased to cover them,
+     * and are set back to {@code null} once the chunk has been spilled to disk.
+     */
+    private volatile byte[][] chunks;
+
+    /**
+     * The temporary file chunks are spilled to, or {@code null} if nothing has been spilled yet.
+     * Spilled chunk {@code i} is stored at {@code (i - memoryChunkCount) << chunkShift}.
+     */
+    @Nullable
+    private volatile FileChannel spillChannel;
+
+    @Nullable
+    private volatile Path spillFile;
+
+    /**
+     * Spilled chunks which have been read back in, in least-recently-used order.
+     * Access must be synchronised on the map.
+     */
+    private final Map<Integer, byte[]> spilledCache;
+
+    /**
+     * The spilled chunk most recently returned, checked before going to the cache.
+     */
+    @Nullable
+    private volatile SpilledChunk lastSpilledChunk;
+
+    /**
+     * The number of bytes loaded so far. Waiters for more data wait on {@link #lock}.
+     */
+    private volatile long length;
+
+    /**
+     * Whether loading has finished, successfully or not.
+     */
+    private volatile boolean complete;
+
+    /**
+     * The error which stopped loading, if any.
+     */
+    @Nullable
+    private volatile IOException error;
+
+    /**
+     * How long reads past the loaded data will wait, in nanoseconds. {@code 0} to fail immediately.
+     */
+    private volatile long readTimeoutNanos;
+
+    private volatile boolean closed;
+
+    private final Object lock = new Object();
+
+    private final Thread loader;
+
+    /**
+     * Constructs the binary and starts loading the stream in the background.
+     * The stream is closed once loading finishes.
+     *
+     * @param stream the stream to load.
+     * @param expectedLength the length the stream is expected to have, or {@code -1} if unknown.
+     */
+    public ProgressiveBinary(InputStream stream, long expectedLength) {
+        this(stream, expectedLength, DEFAULT_MEMORY_LIMIT);
+    }
+
+    /**
+     * Constructs the binary and starts loading the stream in the background.
+     * The stream is closed once loading finishes.
+     *
+     * @param stream the stream to load.
+     * @param expectedLength the length the stream is expected to have, or {@code -1} if unknown.
+     * @param memoryLimit the number of bytes to keep in memory before spilling the rest to disk.
+     */
+    public ProgressiveBinary(InputStream stream, long expectedLength, long memoryLimit) {
+        this(stream, expectedLength, memoryLimit, DEFAULT_CHUNK_SHIFT);
+    }
+
+    /**
+     * Constructs the binary and starts loading the stream in the background.
+     *
+     * @param stream the stream to load.
+     * @param expectedLength the length the stream is expected to have, or {@code -1} if unknown.
+     * @param memoryLimit the number of bytes to keep in memory before spilling the rest to disk.
+     * @param chunkShift the size of each chunk, expressed as a shift.
+     */
+    ProgressiveBinary(InputStream stream, long expectedLength, long memoryLimit, int chunkShift) {
+        this.stream = stream;
+        this.expectedLength = expectedLength;
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.memoryChunkCount = (int) Math.min(Integer.MAX_VALUE, Math.max(0, memoryLimit) >>> chunkShift);
+
+        long maxCachedChunks = Math.max(1, SPILLED_CACHE_BUDGET >>> chunkShift);
+        spilledCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > maxCachedChunks;
+            }
+        };
+
+        long expectedChunks = expectedLength > 0 ? ((expectedLength - 1) >>> chunkShift) + 1 : 16;
+        chunks = new byte[(int) Math.min(expectedChunks, 1 << 20)][];
+
+        loader = new Thread(this::load, "ProgressiveBinary loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Gets the length the stream was expected to have.
+     *
+     * @return the expected length, or {@code -1} if it was not known.
+     */
+    public long getExpectedLength() {
+        return expectedLength;
+    }
+
+    /**
+     * Checks whether loading has finished.
+     *
+     * @return {@code true} if the whole stream has been loaded or loading has failed.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Gets the error which stopped loading.
+     *
+     * @return the error, or {@code null} if loading has not failed.
+     */
+    @Nullable
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Sets how long reads past the data loaded so far will wait for the data to arrive.
+     *
+     * @param timeout the timeout. {@code 0} makes such reads fail immediately, which is the default.
+     * @param unit the unit of the timeout.
+     */
+    public void setReadTimeout(long timeout, TimeUnit unit) {
+        readTimeoutNanos = Math.max(0, unit.toNanos(timeout));
+    }
+
+    /**
+     * Gets how long reads past the data loaded so far will wait for the data to arrive.
+     *
+     * @param unit the unit to return the timeout in.
+     * @return the timeout.
+     */
+    public long getReadTimeout(TimeUnit unit) {
+        return unit.convert(readTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits for loading to finish.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return {@code true} if loading finished, {@code false} if the timeout elapsed first.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean awaitComplete(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!complete) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    protected boolean awaitLength(long length) {
+        long timeout = readTimeoutNanos;
+        if (timeout > 0 && this.length < length && !complete) {
+            long deadline = System.nanoTime() + timeout;
+            synchronized (lock) {
+                while (this.length < length && !complete) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (this.length >= length) {
+            return true;
+        }
+        IOException error = this.error;
+        if (error != null) {
+            throw new UncheckedIOException("Loading failed after " + this.length + " bytes", error);
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether any of the content has been spilled to disk.
+     *
+     * @return {@code true} if some chunks have been written to the temporary file.
+     */
+    public boolean isSpilled() {
+        return spillChannel != null;
+    }
+
+    /**
+     * Gets the temporary file chunks are spilled to.
+     *
+     * @return the file, or {@code null} if nothing has been spilled.
+     */
+    @Nullable
+    Path getSpillFile() {
+        return spillFile;
+    }
+
+    @Override
+    protected byte readSpi(long position) {
+        return chunkForReading((int) (position >>> chunkShift))[(int) position & chunkMask];
+    }
+
+    @Override
+    protected void readSpi(long position, ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            byte[] chunk = chunkForReading((int) (position >>> chunkShift));
+            int offset = (int) position & chunkMask;
+            int count = Math.min(buffer.remaining(), chunk.length - offset);
+            buffer.put(chunk, offset, count);
+            position += count;
+        }
+    }
+
+    /**
+     * Gets the chunk with the given index, reading it back from disk if it has been spilled.
+     *
+     * @param index the index of the chunk.
+     * @return the chunk.
+     */
+    private byte[] chunkForReading(int index) {
+        byte[] chunk = chunks[index];
+        if (chunk != null) {
+            return chunk;
+        }
+
+        SpilledChunk last = lastSpilledChunk;
+        if (last != null && last.index == index) {
+            return last.data;
+        }
+
+        synchronized (spilledCache) {
+            chunk = spilledCache.get(index);
+        }
+        if (chunk == null) {
+            // As with CachingBinary, two threads missing the same chunk will both read it, which is harmless.
+            chunk = readSpilledChunk(index);
+            synchronized (spilledCache) {
+                spilledCache.put(index, chunk);
+            }
+        }
+        lastSpilledChunk = new SpilledChunk(index, chunk);
+        return chunk;
+    }
+
+    private byte[] readSpilledChunk(int index) {
+        FileChannel channel = spillChannel;
+        if (channel == null) {
+            throw new IllegalStateException("Chunk " + index + " is not loaded");
+        }
+        byte[] chunk = new byte[chunkMask + 1];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        long position = (long) (index - memoryChunkCount) << chunkShift;
+        try {
+            while (buffer.hasRemaining()) {
+                int count = channel.read(buffer, position);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of spill file at " + position);
+                }
+                position += count;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading spilled chunk " + index, e);
+        }
+        return chunk;
+    }
+
+    /**
+     * Writes a full chunk to the temporary file and drops it from memory.
+     * Only called from the loader thread.
+     *
+     * @param index the index of the chunk.
+     * @param chunk the chunk.
+     * @throws IOException if an error occurs writing the file.
+     */
+    private void spill(int index, byte[] chunk) throws IOException {
+        FileChannel channel = spillChannel;
+        if (channel == null) {
+            Path file = Files.createTempFile("hex-", ".spill");
+            spillFile = file;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                           StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            spillChannel = channel;
+            if (closed) {
+                // Raced with close(), which may not have seen the channel.
+                channel.close();
+                return;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        long position = (long) (index - memoryChunkCount) << chunkShift;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        // The chunk is likely to be wanted soon, since the viewer tends to follow the end as it loads.
+        synchronized (spilledCache) {
+            spilledCache.put(index, chunk);
+        }
+        chunks[index] = null;
+    }
+
+    /**
+     * Loads the stream. Runs on the loader thread.
+     */
+    private void load() {
+        long reportedLength = 0;
+        try (InputStream stream = this.stream) {
+            while (!closed) {
+                long position = length;
+                int index = (int) (position >>> chunkShift);
+                int offset = (int) position & chunkMask;
+                byte[] chunk = chunkForWriting(index);
+
+                int count = stream.read(chunk, offset, chunk.length - offset);
+                if (count < 0) {
+                    break;
+                }
+                synchronized (lock) {
+                    length = position + count;
+                    lock.notifyAll();
+                }
+
+                // Tell listeners whenever a chunk fills up, or whenever we've caught up with the stream,
+                // so that a slow stream still shows up promptly but a fast one doesn't flood the listeners.
+                if (offset + count == chunk.length || stream.available() == 0) {
+                    fireBinaryChanged(reportedLength, length, reportedLength, length);
+                    reportedLength = length;
+                }
+
+                if (offset + count == chunk.length && index >= memoryChunkCount) {
+                    spill(index, chunk);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                error = e;
+            }
+        } finally {
+            synchronized (lock) {
+                complete = true;
+                lock.notifyAll();
+            }
+        }
+
+        if (!closed && reportedLength != length) {
+            fireBinaryChanged(reportedLength, length, reportedLength, length);
+        }
+    }
+
+    /**
+     * Gets the chunk with the given index, allocating it if it doesn't exist yet.
+     * Only called from the loader thread.
+     *
+     * @param index the index of the chunk.
+     * @return the chunk.
+     */
+    private byte[] chunkForWriting(int index) {
+        byte[][] chunks = this.chunks;
+        if (index >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        byte[] chunk = chunks[index];
+        if (chunk == null) {
+            chunk = new byte[chunkMask + 1];
+            chunks[index] = chunk;
+        }
+        this.chunks = chunks;
+        return chunk;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        loader.interrupt();
+        try {
+            // Closing the stream is the only reliable way to unblock a thread reading from it.
+            stream.close();
+        } catch (IOException e) {
+            // Nothing useful to do - we were discarding the content anyway.
+        }
+
+        FileChannel channel = spillChannel;
+        if (channel != null) {
+            try {
+                // Deletes the file too.
+                channel.close();
+            } catch (IOException e) {
+                // As above.
+            }
+        }
+        synchronized (spilledCache) {
+            spilledCache.clear();
+        }
+        lastSpilledChunk = null;
+    }
+
+    /**
+     * A spilled chunk which has been read back in.
+     */
+    private static class SpilledChunk {
+        private final int index;
+        private final byte[] data;
+
+        private SpilledChunk(int index, byte[] data) {
+            this.index = index;
+            this.data = data;
+        }
+    }
+}
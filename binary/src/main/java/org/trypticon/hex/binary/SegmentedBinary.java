@@ -0,0 +1,182 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>Base class for binaries which map a file as a series of fixed-size segments, since a single
+ * mapped buffer can't be larger than 2GB.</p>
+ *
+ * <p>Segment {@code i} starts at {@code i << segmentShift}. Each segment can also map a little of
+ * the start of the next one, so that small reads which straddle a segment boundary can still be
+ * satisfied by a single segment.</p>
+ *
+ * @author trejkaz
+ */
+abstract class SegmentedBinary extends AbstractBinary {
+
+    /**
+     * The number of bits to shift a position right by to get the index of its segment.
+     */
+    final int segmentShift;
+
+    /**
+     * Mask to apply to a position to get its offset within its segment.
+     */
+    final long segmentMask;
+
+    /**
+     * Constructs the binary.
+     *
+     * @param segmentShift the size of each segment, expressed as a shift.
+     * @param overlap the number of bytes each segment overlaps the next.
+     */
+    SegmentedBinary(int segmentShift, int overlap) {
+        if ((1L << segmentShift) + overlap > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segments would be too large to map: shift = " + segmentShift +
+                                               ", overlap = " + overlap);
+        }
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1L << segmentShift) - 1;
+    }
+
+    /**
+     * Gets the current segments. Each read calls this once, so subclasses can replace the whole
+     * array as the file changes without readers seeing a mixture of old and new segments.
+     *
+     * @return the segments.
+     */
+    abstract ByteBufferBinary[] segments();
+
+    @Override
+    protected byte readSpi(long position) {
+        return segments()[(int) (position >>> segmentShift)].readSpi(position & segmentMask);
+    }
+
+    @Override
+    protected void readSpi(long position, ByteBuffer buffer) {
+        ByteBufferBinary[] segments = segments();
+        ByteBufferBinary segment = segments[(int) (position >>> segmentShift)];
+        long offset = position & segmentMask;
+        if (offset + buffer.remaining() <= segment.length()) {
+            // Common case, everything fits in the one segment.
+            segment.readSpi(offset, buffer);
+            return;
+        }
+
+        int originalLimit = buffer.limit();
+        try {
+            while (buffer.hasRemaining()) {
+                segment = segments[(int) (position >>> segmentShift)];
+                offset = position & segmentMask;
+                int count = (int) Math.min(buffer.remaining(), segmentMask + 1 - offset);
+                buffer.limit(buffer.position() + count);
+                segment.readSpi(offset, buffer);
+                buffer.limit(originalLimit);
+                position += count;
+            }
+        } finally {
+            buffer.limit(originalLimit);
+        }
+    }
+
+    @Override
+    protected short readShortSpi(long position, ByteOrder order) {
+        ByteBufferBinary segment = segments()[(int) (position >>> segmentShift)];
+        long offset = position & segmentMask;
+        if (offset + Short.BYTES <= segment.length()) {
+            return segment.readShortSpi(offset, order);
+        }
+        return super.readShortSpi(position, order);
+    }
+
+    @Override
+    protected int readIntSpi(long position, ByteOrder order) {
+        ByteBufferBinary segment = segments()[(int) (position >>> segmentShift)];
+        long offset = position & segmentMask;
+        if (offset + Integer.BYTES <= segment.length()) {
+            return segment.readIntSpi(offset, order);
+        }
+        return super.readIntSpi(position, order);
+    }
+
+    @Override
+    protected long readLongSpi(long position, ByteOrder order) {
+        ByteBufferBinary segment = segments()[(int) (position >>> segmentShift)];
+        long offset = position & segmentMask;
+        if (offset + Long.BYTES <= segment.length()) {
+            return segment.readLongSpi(offset, order);
+        }
+        return super.readLongSpi(position, order);
+    }
+
+    @Override
+    protected Binary sliceSpi(long position, long length) {
+        if (length > 0) {
+            ByteBufferBinary segment = segments()[(int) (position >>> segmentShift)];
+            long offset = position & segmentMask;
+            if (offset + length <= segment.length()) {
+                // Common case, a view of one segment's buffer.
+                return segment.sliceSpi(offset, length);
+            }
+        }
+        return super.sliceSpi(position, length);
+    }
+
+    @Override
+    protected void prefetchSpi(long position, long length) {
+        ByteBufferBinary[] segments = segments();
+        long end = position + length;
+        while (position < end) {
+            long offset = position & segmentMask;
+            long count = Math.min(end - position, segmentMask + 1 - offset);
+            segments[(int) (position >>> segmentShift)].prefetchSpi(offset, count);
+            position += count;
+        }
+    }
+
+    /**
+     * Closes every segment, carrying on past any which fail to close.
+     *
+     * @param segments the segments. Any which are {@code null} are skipped.
+     * @throws RuntimeException the first error closing a segment, with any later ones suppressed.
+     */
+    static void closeSegments(ByteBufferBinary[] segments) {
+        RuntimeException error = null;
+        for (ByteBufferBinary segment : segments) {
+            if (segment != null) {
+                try {
+                    segment.close();
+                } catch (RuntimeException e) {
+                    if (error == null) {
+                        error = e;
+                    } else {
+                        error.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
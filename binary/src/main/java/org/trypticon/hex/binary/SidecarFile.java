@@ -0,0 +1,201 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * <p>A file stored beside another file, holding data derived from it, such as an index.</p>
+ *
+ * <p>Each sidecar file records the size and modification time of the file it was derived from,
+ * and is ignored if either has changed since it was written. The content is also checksummed,
+ * so that a truncated or corrupt sidecar file is ignored rather than trusted. Writing goes to
+ * a temporary file which is then moved into place, so readers never see a partly written file.</p>
+ *
+ * @author trejkaz
+ */
+public class SidecarFile {
+
+    /**
+     * Magic number at the start of every sidecar file. "HEXS".
+     */
+    private static final int MAGIC = 0x48455853;
+
+    private final Path source;
+    private final Path path;
+
+    /**
+     * Constructs the sidecar file.
+     *
+     * @param source the file the data is derived from.
+     * @param suffix the suffix to add to the name of the source file to get the name of the sidecar file.
+     */
+    public SidecarFile(Path source, String suffix) {
+        this.source = source;
+        Path fileName = source.getFileName();
+        if (fileName == null) {
+            throw new IllegalArgumentException("Source has no file name: " + source);
+        }
+        this.path = source.resolveSibling(fileName + suffix);
+    }
+
+    /**
+     * Gets the path of the sidecar file.
+     *
+     * @return the path.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Reads the sidecar file, if it exists and is up to date.
+     *
+     * @param format identifies the kind of data in the file.
+     * @param version the version of the format.
+     * @param reader reads the data.
+     * @param <T> the type of data.
+     * @return the data, or {@code null} if the sidecar file does not exist, is out of date,
+     *         is for a different format or version, or could not be read.
+     */
+    @Nullable
+    public <T> T read(String format, int version, Reader<T> reader) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(path))) {
+            CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+            DataInputStream data = new DataInputStream(checked);
+            if (data.readInt() != MAGIC ||
+                !data.readUTF().equals(format) ||
+                data.readInt() != version ||
+                data.readLong() != Files.size(source) ||
+                data.readLong() != Files.getLastModifiedTime(source).toMillis()) {
+                return null;
+            }
+
+            T result = reader.read(data);
+
+            int expectedChecksum = (int) checked.getChecksum().getValue();
+            DataInputStream trailer = new DataInputStream(stream);
+            if (trailer.readInt() != expectedChecksum || trailer.read() != -1) {
+                return null;
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // Not fatal - whoever asked will just have to compute the data again.
+            return null;
+        }
+    }
+
+    /**
+     * Writes the sidecar file, replacing any existing one.
+     *
+     * @param format identifies the kind of data in the file.
+     * @param version the version of the format.
+     * @param writer writes the data.
+     * @throws IOException if an error occurs writing the file.
+     */
+    public void write(String format, int version, Writer writer) throws IOException {
+        Path fileName = path.getFileName();
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), String.valueOf(fileName), ".tmp");
+        try {
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+                DataOutputStream data = new DataOutputStream(checked);
+                data.writeInt(MAGIC);
+                data.writeUTF(format);
+                data.writeInt(version);
+                data.writeLong(Files.size(source));
+                data.writeLong(Files.getLastModifiedTime(source).toMillis());
+
+                writer.write(data);
+
+                data.flush();
+                new DataOutputStream(stream).writeInt((int) checked.getChecksum().getValue());
+            }
+
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Deletes the sidecar file, if it exists.
+     *
+     * @throws IOException if an error occurs deleting the file.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Reads the data from a sidecar file.
+     *
+     * @param <T> the type of data.
+     */
+    @FunctionalInterface
+    public interface Reader<T> {
+
+        /**
+         * Reads the data.
+         *
+         * @param in the input to read from.
+         * @return the data.
+         * @throws IOException if an error occurs reading the data.
+         */
+        T read(DataInput in) throws IOException;
+    }
+
+    /**
+     * Writes the data to a sidecar file.
+     */
+    @FunctionalInterface
+    public interface Writer {
+
+        /**
+         * Writes the data.
+         *
+         * @param out the output to write to.
+         * @throws IOException if an error occurs writing the data.
+         */
+        void write(DataOutput out) throws IOException;
+    }
+}
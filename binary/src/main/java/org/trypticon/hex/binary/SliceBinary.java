@@ -0,0 +1,106 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>View of a range of another binary.</p>
+ *
+ * <p>Reads go straight to the other binary's SPI methods, since the range was checked when the
+ * slice was created and each read is checked against the slice. Slicing a slice creates
+ * a slice of the original binary, so however many times a binary is sliced, reads only
+ * pass through one level.</p>
+ *
+ * @author trejkaz
+ */
+class SliceBinary extends AbstractBinary {
+
+    /**
+     * The binary this is a view of. Never another slice.
+     */
+    private final AbstractBinary root;
+
+    /**
+     * The position in the root binary where the slice starts.
+     */
+    private final long offset;
+
+    private final long length;
+
+    /**
+     * Constructs the slice.
+     *
+     * @param root the binary to view.
+     * @param offset the position in the root binary where the slice starts.
+     * @param length the length of the slice.
+     */
+    SliceBinary(AbstractBinary root, long offset, long length) {
+        this.root = root;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    protected byte readSpi(long position) {
+        return root.readSpi(offset + position);
+    }
+
+    @Override
+    protected void readSpi(long position, ByteBuffer buffer) {
+        root.readSpi(offset + position, buffer);
+    }
+
+    @Override
+    protected short readShortSpi(long position, ByteOrder order) {
+        return root.readShortSpi(offset + position, order);
+    }
+
+    @Override
+    protected int readIntSpi(long position, ByteOrder order) {
+        return root.readIntSpi(offset + position, order);
+    }
+
+    @Override
+    protected long readLongSpi(long position, ByteOrder order) {
+        return root.readLongSpi(offset + position, order);
+    }
+
+    @Override
+    protected Binary sliceSpi(long position, long length) {
+        return root.sliceSpi(offset + position, length);
+    }
+
+    @Override
+    protected CompletableFuture<ByteBuffer> readAsyncSpi(long position, int length) {
+        return root.readAsyncSpi(offset + position, length);
+    }
+
+    @Override
+    protected void prefetchSpi(long position, long length) {
+        root.prefetchSpi(offset + position, length);
+    }
+}
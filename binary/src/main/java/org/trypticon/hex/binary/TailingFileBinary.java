@@ -0,0 +1,301 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Binary which maps a file which is still being written to, growing as the file grows,
+ * like {@code tail -f}.</p>
+ *
+ * <p>The file is mapped in segments like {@link MemoryMappedFileBinary}. When the file grows,
+ * segments which were already mapped in full are kept as they are, and only the segment which
+ * held the old end of the file is mapped again, along with any new segments after it. The old
+ * mapping of that segment is left for the garbage collector to unmap, since other threads may
+ * still be reading from it.</p>
+ *
+ * <p>A background thread checks for growth whenever the file system reports that the directory
+ * changed, or at a fixed interval in case it doesn't, since on some platforms the watch service
+ * is slow or missing entirely. Listeners are notified from that thread as the binary grows.
+ * {@link #refresh()} can also be called to check straight away.</p>
+ *
+ * <p>Files which shrink are not supported. Once the file is seen to be shorter than before,
+ * the binary stops growing and {@link #isTruncated()} returns {@code true}, but reading the part
+ * which was cut off can still fail in platform-dependent ways, as with any mapped file.</p>
+ *
+ * @author trejkaz
+ */
+public class TailingFileBinary extends SegmentedBinary {
+
+    /**
+     * The default interval between checks for growth, in milliseconds.
+     */
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000;
+
+    private final Path file;
+    private final FileChannel channel;
+
+    /**
+     * The number of bytes each segment overlaps the next.
+     */
+    private final int overlap;
+
+    private final long pollIntervalNanos;
+
+    /**
+     * The current length and segments. Replaced as a whole when the file grows,
+     * so readers always see a length and segments which agree with each other.
+     */
+    private volatile Mapping mapping;
+
+    private volatile boolean truncated;
+    private volatile boolean closed;
+
+    /**
+     * Held while the mapping is being replaced or closed.
+     */
+    private final Object lock = new Object();
+
+    @Nullable
+    private final Thread watcher;
+
+    /**
+     * Constructs the binary, mapping the file and starting to watch it for growth.
+     *
+     * @param file the file.
+     * @throws IOException if the file could not be read.
+     */
+    public TailingFileBinary(Path file) throws IOException {
+        this(file, DEFAULT_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs the binary, mapping the file and starting to watch it for growth.
+     *
+     * @param file the file.
+     * @param pollInterval the longest time to go without checking for growth, for when the
+     *                     file system doesn't report changes. {@code 0} to never check
+     *                     automatically, in which case only {@link #refresh()} checks.
+     * @param unit the unit of the poll interval.
+     * @throws IOException if the file could not be read.
+     */
+    public TailingFileBinary(Path file, long pollInterval, TimeUnit unit) throws IOException {
+        this(file, MemoryMappedFileBinary.DEFAULT_SEGMENT_SHIFT, MemoryMappedFileBinary.DEFAULT_OVERLAP,
+             unit.toNanos(pollInterval));
+    }
+
+    /**
+     * Constructs the binary, mapping the file and starting to watch it for growth.
+     *
+     * @param file the file.
+     * @param segmentShift the size of each segment, expressed as a shift.
+     * @param overlap the number of bytes each segment overlaps the next.
+     * @param pollIntervalNanos the longest time to go without checking for growth, in nanoseconds,
+     *                          or {@code 0} to never check automatically.
+     * @throws IOException if the file could not be read.
+     */
+    TailingFileBinary(Path file, int segmentShift, int overlap, long pollIntervalNanos) throws IOException {
+        super(segmentShift, overlap);
+        this.file = file;
+        this.overlap = overlap;
+        this.pollIntervalNanos = pollIntervalNanos;
+
+        channel = FileChannel.open(file);
+        mapping = new Mapping(0, new ByteBufferBinary[0]);
+        try {
+            refresh();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+
+        if (pollIntervalNanos > 0) {
+            watcher = new Thread(this::watch, "TailingFileBinary watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } else {
+            watcher = null;
+        }
+    }
+
+    /**
+     * Checks whether the file has been seen to shrink.
+     *
+     * @return {@code true} if the file was truncated, in which case the binary no longer grows.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Checks the size of the file right now, and grows the binary if the file has grown.
+     * Listeners are notified on the calling thread.
+     *
+     * @return {@code true} if the binary grew.
+     * @throws IOException if an error occurs checking the size or mapping the file.
+     */
+    public boolean refresh() throws IOException {
+        synchronized (lock) {
+            if (closed || truncated) {
+                return false;
+            }
+
+            Mapping oldMapping = mapping;
+            long oldLength = oldMapping.length;
+            long newLength = channel.size();
+            if (newLength < oldLength) {
+                truncated = true;
+                return false;
+            } else if (newLength == oldLength) {
+                return false;
+            }
+
+            int segmentCount = (int) ((newLength + segmentMask) >>> segmentShift);
+            ByteBufferBinary[] segments = Arrays.copyOf(oldMapping.segments, segmentCount);
+
+            // Only segments which didn't reach their full size can need mapping again. Because of the overlap,
+            // that can include the one before the old last segment as well as the old last segment itself.
+            for (int i = Math.max(0, oldMapping.segments.length - 2); i < segmentCount; i++) {
+                long start = (long) i << segmentShift;
+                long size = Math.min(newLength - start, segmentMask + 1 + overlap);
+                if (segments[i] == null || segments[i].length() < size) {
+                    segments[i] = new ByteBufferBinary(channel.map(MapMode.READ_ONLY, start, size));
+                }
+            }
+
+            mapping = new Mapping(newLength, segments);
+
+            // Fired while still holding the lock so that listeners see growth in order.
+            fireBinaryChanged(oldLength, newLength, oldLength, newLength);
+            return true;
+        }
+    }
+
+    /**
+     * Run by the watcher thread until the binary is closed.
+     */
+    private void watch() {
+        WatchService watchService = null;
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            try {
+                watchService = file.getFileSystem().newWatchService();
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                   StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Not fatal, we just have to rely on polling.
+                closeQuietly(watchService);
+                watchService = null;
+            }
+        }
+
+        try {
+            while (!closed && !truncated) {
+                if (watchService != null) {
+                    // Events are only a hint to check sooner, so which file they're for doesn't matter.
+                    WatchKey key = watchService.poll(pollIntervalNanos, TimeUnit.NANOSECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                } else {
+                    TimeUnit.NANOSECONDS.sleep(pollIntervalNanos);
+                }
+
+                try {
+                    refresh();
+                } catch (IOException e) {
+                    // Not fatal, e.g. the file might be in the middle of being replaced. We'll try again next time.
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closing.
+        } finally {
+            closeQuietly(watchService);
+        }
+    }
+
+    private static void closeQuietly(@Nullable WatchService watchService) {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Nothing more we can do.
+            }
+        }
+    }
+
+    @Override
+    public long length() {
+        return mapping.length;
+    }
+
+    @Override
+    ByteBufferBinary[] segments() {
+        return mapping.segments;
+    }
+
+    @Override
+    public void close() {
+        Thread watcher = this.watcher;
+        ByteBufferBinary[] segments;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segments = mapping.segments;
+        }
+
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more we can do, and the mappings don't depend on the channel.
+        }
+        closeSegments(segments);
+    }
+
+    /**
+     * A length and the segments which map it.
+     */
+    private static class Mapping {
+        private final long length;
+        private final ByteBufferBinary[] segments;
+
+        private Mapping(long length, ByteBufferBinary[] segments) {
+            this.length = length;
+            this.segments = segments;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.compress;
+
+import org.trypticon.hex.binary.Binary;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a binary as a stream of bits, least significant bit first, as deflate expects.
+ *
+ * @author trejkaz
+ */
+final class BitInput {
+
+    /**
+     * The number of bytes to read from the binary at a time.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Binary binary;
+    private final byte[] buffer;
+
+    /**
+     * The position in the binary of the first byte in the buffer.
+     */
+    private long bufferStart;
+
+    /**
+     * The number of valid bytes in the buffer.
+     */
+    private int bufferLength;
+
+    /**
+     * The index of the next byte in the buffer to move into the bit buffer.
+     */
+    private int bufferPosition;
+
+    /**
+     * Bits read from the buffer but not yet consumed. The lowest bit is the next one.
+     * Bits above {@link #bitCount} may hold the bits which follow, or zero, but never anything else.
+     */
+    private long bitBuffer;
+
+    /**
+     * The number of valid bits in the bit buffer.
+     */
+    private int bitCount;
+
+    /**
+     * Constructs the input.
+     *
+     * @param binary the binary to read.
+     * @param bitPosition the position of the first bit to read, counting in bits from the start of the binary.
+     * @throws ZipException if the position is past the end of the binary.
+     */
+    BitInput(Binary binary, long bitPosition) throws ZipException {
+        this.binary = binary;
+        this.buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(Long.BYTES, binary.length()))];
+        bufferStart = bitPosition >>> 3;
+        if (bufferStart > binary.length()) {
+            throw new ZipException("Position is past the end of the data: " + bufferStart);
+        }
+        skip((int) bitPosition & 7);
+    }
+
+    /**
+     * Gets the position of the next bit.
+     *
+     * @return the position, counting in bits from the start of the binary.
+     */
+    long getBitPosition() {
+        return ((bufferStart + bufferPosition) << 3) - bitCount;
+    }
+
+    /**
+     * Checks whether there are any more whole bytes to read.
+     *
+     * @return {@code true} if there are, {@code false} if the input is exhausted.
+     */
+    boolean hasMoreBytes() {
+        return (getBitPosition() + 7) >>> 3 < binary.length();
+    }
+
+    /**
+     * Looks at upcoming bits without consuming them. If the input runs out, the missing bits read as zero.
+     *
+     * @param count the number of bits, at most 32.
+     * @return the bits.
+     */
+    int peek(int count) {
+        if (bitCount < count) {
+            refill();
+        }
+        return (int) (bitBuffer & ((1L << count) - 1));
+    }
+
+    /**
+     * Consumes bits.
+     *
+     * @param count the number of bits, at most 32.
+     * @throws ZipException if the input runs out.
+     */
+    void skip(int count) throws ZipException {
+        if (bitCount < count) {
+            refill();
+            if (bitCount < count) {
+                throw new ZipException("Unexpected end of compressed data");
+            }
+        }
+        bitBuffer >>>= count;
+        bitCount -= count;
+    }
+
+    /**
+     * Reads and consumes bits.
+     *
+     * @param count the number of bits, at most 32.
+     * @return the bits.
+     * @throws ZipException if the input runs out.
+     */
+    int bits(int count) throws ZipException {
+        int value = peek(count);
+        skip(count);
+        return value;
+    }
+
+    /**
+     * Skips to the next byte boundary.
+     *
+     * @throws ZipException never, in practice.
+     */
+    void alignToByte() throws ZipException {
+        skip(bitCount & 7);
+    }
+
+    /**
+     * Reads whole bytes. Must already be aligned to a byte boundary.
+     *
+     * @param out the array to read into.
+     * @param offset the offset in the array to start at.
+     * @param length the number of bytes to read.
+     * @throws ZipException if the input runs out.
+     */
+    void readBytes(byte[] out, int offset, int length) throws ZipException {
+        // Drain what's already in the bit buffer first.
+        while (length > 0 && bitCount > 0) {
+            out[offset++] = (byte) bits(8);
+            length--;
+        }
+        if (length > 0) {
+            // Bits above bitCount would now be stale copies of the bytes we're about to take from the buffer.
+            bitBuffer = 0;
+        }
+        while (length > 0) {
+            if (bufferPosition == bufferLength && !fillBuffer()) {
+                throw new ZipException("Unexpected end of compressed data");
+            }
+            int count = Math.min(length, bufferLength - bufferPosition);
+            System.arraycopy(buffer, bufferPosition, out, offset, count);
+            bufferPosition += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Tops up the bit buffer with as many whole bytes as fit.
+     */
+    private void refill() {
+        if (bufferLength - bufferPosition >= Long.BYTES) {
+            // Load eight bytes at once. Some of them won't fit, but they land above bitCount,
+            // where they are the correct following bits anyway, so there's no need to mask them off.
+            long word = (long) LONGS.get(buffer, bufferPosition);
+            bitBuffer |= word << bitCount;
+            bufferPosition += (63 - bitCount) >>> 3;
+            bitCount |= 56;
+            return;
+        }
+        while (bitCount <= 56) {
+            if (bufferPosition == bufferLength && !fillBuffer()) {
+                return;
+            }
+            bitBuffer |= (long) (buffer[bufferPosition++] & 0xFF) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * Reads the next part of the binary into the buffer, keeping any unread bytes.
+     *
+     * @return {@code true} if more bytes were read, {@code false} if the binary is exhausted.
+     */
+    private boolean fillBuffer() {
+        int unread = bufferLength - bufferPosition;
+        System.arraycopy(buffer, bufferPosition, buffer, 0, unread);
+        bufferStart += bufferPosition;
+        bufferPosition = 0;
+        bufferLength = unread;
+
+        long start = bufferStart + unread;
+        int count = (int) Math.min(buffer.length - unread, binary.length() - start);
+        if (count <= 0) {
+            return false;
+        }
+        binary.read(start, buffer, unread, count);
+        bufferLength += count;
+        return true;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.compress;
+
+import org.trypticon.hex.binary.AbstractBinary;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.CachingBinary;
+import org.trypticon.hex.binary.ProgressMonitor;
+import org.trypticon.hex.binary.SidecarFile;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Binary exposing the uncompressed content of gzip or raw deflate data, with random access.</p>
+ *
+ * <p>Deflate data can normally only be read from the start. To avoid that, the data is inflated once
+ * up front to build an index of checkpoints, each holding the state needed to start inflating from
+ * that point. Reading anywhere then only needs to inflate from the nearest checkpoint before it.
+ * The index is saved in a sidecar file beside the compressed file so that it only needs to be built once.</p>
+ *
+ * <p>Uncompressed data is cached in fixed-size blocks, and inflating carries on from where the last
+ * read stopped where possible, so reading sequentially costs about the same as inflating normally.</p>
+ *
+ * @author trejkaz
+ */
+public class DeflateBinary extends AbstractBinary {
+
+    /**
+     * The default number of uncompressed bytes between checkpoints.
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 1024 * 1024;
+
+    /**
+     * The suffix added to the name of the compressed file to get the name of its index file.
+     */
+    public static final String INDEX_SUFFIX = ".hexidx";
+
+    private static final String INDEX_FORMAT = "deflate-index";
+    private static final int INDEX_VERSION = 1;
+
+    /**
+     * The default size of each cached block, expressed as a shift. 64KB.
+     */
+    static final int DEFAULT_BLOCK_SHIFT = 16;
+
+    private final Binary compressed;
+    private final DeflateIndex index;
+    private final long length;
+
+    /**
+     * The number of bits to shift a position right by to get the index of its block.
+     */
+    private final int blockShift;
+
+    /**
+     * The cached blocks, in least-recently-used order. Access must be synchronised on the map.
+     */
+    private final Map<Long, Block> blocks;
+
+    /**
+     * The block most recently returned, checked before going to the map.
+     */
+    @Nullable
+    private volatile Block lastBlock;
+
+    /**
+     * Lock held while inflating, which also guards the index and the cursor.
+     */
+    private final Object inflateLock = new Object();
+
+    /**
+     * The cursor left over from the last time we inflated, which can carry on from there.
+     */
+    @Nullable
+    private InflateCursor cursor;
+
+    /**
+     * Constructs the binary.
+     *
+     * @param compressed the compressed data.
+     * @param index the index. May be incomplete, in which case checkpoints are added as the data is read.
+     * @param length the length of the uncompressed data.
+     * @param blockShift the size of each cached block, expressed as a shift.
+     */
+    DeflateBinary(Binary compressed, DeflateIndex index, long length, int blockShift) {
+        this.compressed = compressed;
+        this.index = index;
+        this.length = length;
+        this.blockShift = blockShift;
+
+        long maxBlocks = Math.max(1, CachingBinary.DEFAULT_MEMORY_BUDGET >>> blockShift);
+        blocks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Block> eldest) {
+                return size() > maxBlocks;
+            }
+        };
+    }
+
+    /**
+     * Opens a gzip file, building its index if it doesn't already have an up-to-date one.
+     *
+     * @param file the file.
+     * @return the binary.
+     * @throws IOException if an error occurs reading the file, or it is not valid gzip data.
+     */
+    public static DeflateBinary openGzip(Path file) throws IOException {
+        return openGzip(file, ProgressMonitor.NONE);
+    }
+
+    /**
+     * Opens a gzip file, building its index if it doesn't already have an up-to-date one.
+     *
+     * @param file the file.
+     * @param monitor receives progress while the index is being built, and can cancel building it.
+     * @return the binary.
+     * @throws IOException if an error occurs reading the file, or it is not valid gzip data.
+     * @throws CancellationException if the monitor cancelled building the index.
+     */
+    public static DeflateBinary openGzip(Path file, ProgressMonitor monitor) throws IOException {
+        return open(file, true, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_BLOCK_SHIFT, monitor);
+    }
+
+    /**
+     * Opens a file containing raw deflate data, building its index if it doesn't already have an up-to-date one.
+     *
+     * @param file the file.
+     * @param monitor receives progress while the index is being built, and can cancel building it.
+     * @return the binary.
+     * @throws IOException if an error occurs reading the file, or it is not valid deflate data.
+     * @throws CancellationException if the monitor cancelled building the index.
+     */
+    public static DeflateBinary openDeflate(Path file, ProgressMonitor monitor) throws IOException {
+        return open(file, false, DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_BLOCK_SHIFT, monitor);
+    }
+
+    static DeflateBinary open(Path file, boolean gzip, long interval, int blockShift,
+                              ProgressMonitor monitor) throws IOException {
+        Binary compressed = BinaryFactory.open(file);
+        try {
+            SidecarFile sidecar = new SidecarFile(file, INDEX_SUFFIX);
+            DeflateIndex index = sidecar.read(INDEX_FORMAT, INDEX_VERSION, DeflateIndex::read);
+            if (index == null || index.isGzip() != gzip || index.getLength() < 0) {
+                index = buildIndex(compressed, gzip, interval, monitor);
+                DeflateIndex finalIndex = index;
+                try {
+                    sidecar.write(INDEX_FORMAT, INDEX_VERSION, finalIndex::write);
+                } catch (IOException e) {
+                    // Not fatal, e.g. the directory might be read-only. We'll just build it again next time.
+                }
+            }
+            return new DeflateBinary(compressed, index, index.getLength(), blockShift);
+        } catch (IOException | RuntimeException e) {
+            compressed.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Inflates all the data to build a complete index.
+     *
+     * @param compressed the compressed data.
+     * @param gzip {@code true} if the data is gzip, {@code false} if it's raw deflate.
+     * @param interval the minimum number of uncompressed bytes between checkpoints.
+     * @param monitor receives progress and can cancel.
+     * @return the index.
+     * @throws ZipException if the data is not valid.
+     * @throws CancellationException if the monitor cancelled building the index.
+     */
+    static DeflateIndex buildIndex(Binary compressed, boolean gzip, long interval,
+                                   ProgressMonitor monitor) throws ZipException {
+        DeflateIndex index = new DeflateIndex(gzip, interval);
+        InflateCursor cursor = index.createCursor(compressed, -1);
+        byte[] buffer = new byte[64 * 1024];
+        long total = compressed.length();
+        while (true) {
+            if (monitor.isCancelled()) {
+                throw new CancellationException();
+            }
+            if (cursor.inflate(buffer, 0, buffer.length) < 0) {
+                break;
+            }
+            if (cursor.isAtBlockStart()) {
+                index.maybeAdd(cursor);
+            }
+            monitor.progress(cursor.getBitPosition() >>> 3, total);
+        }
+        monitor.progress(total, total);
+        index.setLength(cursor.getPosition());
+        return index;
+    }
+
+    /**
+     * Gets the number of checkpoints in the index.
+     *
+     * @return the number of checkpoints.
+     */
+    public int getCheckpointCount() {
+        synchronized (inflateLock) {
+            return index.getCheckpointCount();
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    protected byte readSpi(long position) {
+        Block block = getBlock(position >>> blockShift);
+        return block.data[(int) (position - block.start)];
+    }
+
+    @Override
+    protected void readSpi(long position, ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            Block block = getBlock(position >>> blockShift);
+            int offset = (int) (position - block.start);
+            int count = Math.min(buffer.remaining(), block.data.length - offset);
+            buffer.put(block.data, offset, count);
+            position += count;
+        }
+    }
+
+    private Block getBlock(long blockIndex) {
+        Block block = lastBlock;
+        if (block != null && block.index == blockIndex) {
+            return block;
+        }
+
+        synchronized (blocks) {
+            block = blocks.get(blockIndex);
+        }
+        if (block == null) {
+            synchronized (inflateLock) {
+                // Another thread may have inflated it while we were waiting.
+                synchronized (blocks) {
+                    block = blocks.get(blockIndex);
+                }
+                if (block == null) {
+                    try {
+                        block = inflateBlock(blockIndex);
+                    } catch (IOException e) {
+                        // The cursor could be in any state now.
+                        cursor = null;
+                        throw new UncheckedIOException("Error inflating data", e);
+                    }
+                }
+            }
+        }
+
+        lastBlock = block;
+        return block;
+    }
+
+    /**
+     * Inflates up to the end of a block, caching every whole block inflated along the way.
+     * Called with the inflate lock held.
+     *
+     * @param blockIndex the index of the block.
+     * @return the block.
+     * @throws IOException if the data is not valid.
+     */
+    private Block inflateBlock(long blockIndex) throws IOException {
+        long start = blockIndex << blockShift;
+        int checkpoint = index.find(start);
+        long checkpointPosition = checkpoint < 0 ? 0 : index.getPosition(checkpoint);
+
+        // Carry on from last time if the nearest checkpoint wouldn't get us any closer.
+        InflateCursor cursor = this.cursor;
+        if (cursor == null || cursor.getPosition() > start || cursor.getPosition() < checkpointPosition) {
+            cursor = index.createCursor(compressed, checkpoint);
+        }
+        this.cursor = cursor;
+
+        long blockMask = (1L << blockShift) - 1;
+        while (true) {
+            long position = cursor.getPosition();
+            int offset = (int) (position & blockMask);
+            if (offset != 0) {
+                // Checkpoints don't line up with blocks, so skip to the start of the next one.
+                int count = (int) (blockMask + 1 - offset);
+                inflateFully(cursor, new byte[count], count);
+                continue;
+            }
+
+            byte[] data = new byte[(int) Math.min(blockMask + 1, length - position)];
+            inflateFully(cursor, data, data.length);
+            Block block = new Block(position >>> blockShift, position, data);
+            synchronized (blocks) {
+                blocks.put(block.index, block);
+            }
+            if (block.index == blockIndex) {
+                return block;
+            }
+        }
+    }
+
+    private void inflateFully(InflateCursor cursor, byte[] out, int length) throws ZipException {
+        int offset = 0;
+        while (offset < length) {
+            int count = cursor.inflate(out, offset, length - offset);
+            if (count < 0) {
+                throw new ZipException("Unexpected end of compressed data at " + cursor.getPosition());
+            }
+            offset += count;
+            if (cursor.isAtBlockStart()) {
+                index.maybeAdd(cursor);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (blocks) {
+            blocks.clear();
+        }
+        lastBlock = null;
+        synchronized (inflateLock) {
+            cursor = null;
+        }
+        compressed.close();
+    }
+
+    /**
+     * A single cached block of uncompressed data.
+     */
+    private static class Block {
+        private final long index;
+        private final long start;
+        private final byte[] data;
+
+        private Block(long index, long start, byte[] data) {
+            this.index = index;
+            this.start = start;
+            this.data = data;
+        }
+    }
+}
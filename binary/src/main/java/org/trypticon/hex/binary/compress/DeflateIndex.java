@@ -0,0 +1,255 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.compress;
+
+import org.trypticon.hex.binary.Binary;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Index of points in deflate data where inflating can start, as done by zlib's {@code zran} example.</p>
+ *
+ * <p>Each checkpoint records the position of a block boundary in both the compressed and uncompressed
+ * data, along with the 32KB of uncompressed data before it. The history is stored compressed, since
+ * most of the index would otherwise be history.</p>
+ *
+ * <p>Access must be synchronised externally.</p>
+ *
+ * @author trejkaz
+ */
+final class DeflateIndex {
+
+    /**
+     * Sanity limit on the number of checkpoints read from a file.
+     */
+    private static final int MAX_CHECKPOINTS = 1 << 24;
+
+    private final boolean gzip;
+    private final long interval;
+
+    private int count;
+    private long[] bitPositions = new long[16];
+    private long[] positions = new long[16];
+    private byte[][] histories = new byte[16][];
+
+    /**
+     * The length of the uncompressed data, or {@code -1} if the whole of it hasn't been indexed yet.
+     */
+    private long length = -1;
+
+    /**
+     * Constructs an empty index.
+     *
+     * @param gzip {@code true} if the data is gzip, {@code false} if it's raw deflate.
+     * @param interval the minimum number of uncompressed bytes between checkpoints.
+     */
+    DeflateIndex(boolean gzip, long interval) {
+        this.gzip = gzip;
+        this.interval = interval;
+    }
+
+    boolean isGzip() {
+        return gzip;
+    }
+
+    long getInterval() {
+        return interval;
+    }
+
+    int getCheckpointCount() {
+        return count;
+    }
+
+    /**
+     * Gets the length of the uncompressed data.
+     *
+     * @return the length, or {@code -1} if the whole of it hasn't been indexed yet.
+     */
+    long getLength() {
+        return length;
+    }
+
+    void setLength(long length) {
+        this.length = length;
+    }
+
+    /**
+     * Gets the uncompressed position up to which the index is complete. A cursor reaching
+     * further than this should add checkpoints as it goes.
+     *
+     * @return the position.
+     */
+    long getIndexedPosition() {
+        return length >= 0 ? length : count > 0 ? positions[count - 1] : 0;
+    }
+
+    /**
+     * Adds a checkpoint for the current position of a cursor, if it is far enough past the last one.
+     *
+     * @param cursor the cursor, which must be at a block boundary.
+     */
+    void maybeAdd(InflateCursor cursor) {
+        long position = cursor.getPosition();
+        long last = count > 0 ? positions[count - 1] : 0;
+        if (position - last < interval || position <= getIndexedPosition()) {
+            return;
+        }
+
+        if (count == positions.length) {
+            bitPositions = Arrays.copyOf(bitPositions, count * 2);
+            positions = Arrays.copyOf(positions, count * 2);
+            histories = Arrays.copyOf(histories, count * 2);
+        }
+        bitPositions[count] = cursor.getBitPosition();
+        positions[count] = position;
+        histories[count] = compress(cursor.getHistory());
+        count++;
+    }
+
+    /**
+     * Finds the last checkpoint at or before a position.
+     *
+     * @param position the position in the uncompressed data.
+     * @return the index of the checkpoint, or {@code -1} if the position comes before all of them.
+     */
+    int find(long position) {
+        int index = Arrays.binarySearch(positions, 0, count, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    long getPosition(int checkpoint) {
+        return positions[checkpoint];
+    }
+
+    /**
+     * Creates a cursor positioned at a checkpoint.
+     *
+     * @param compressed the compressed data.
+     * @param checkpoint the index of the checkpoint, or {@code -1} to start at the beginning.
+     * @return the cursor.
+     * @throws ZipException if the checkpoint doesn't match the data.
+     */
+    InflateCursor createCursor(Binary compressed, int checkpoint) throws ZipException {
+        if (checkpoint < 0) {
+            return new InflateCursor(compressed, gzip);
+        }
+        return new InflateCursor(compressed, gzip, bitPositions[checkpoint], positions[checkpoint],
+                                 decompress(histories[checkpoint]));
+    }
+
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[data.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] data) throws ZipException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[InflateCursor.WINDOW_SIZE];
+            int length = 0;
+            while (!inflater.finished() && length < result.length) {
+                int count = inflater.inflate(result, length, result.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+            return Arrays.copyOf(result, length);
+        } catch (DataFormatException e) {
+            ZipException exception = new ZipException("Corrupt checkpoint");
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes the index.
+     *
+     * @param out the output to write to.
+     * @throws IOException if an error occurs writing.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeBoolean(gzip);
+        out.writeLong(interval);
+        out.writeLong(length);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(bitPositions[i]);
+            out.writeLong(positions[i]);
+            out.writeInt(histories[i].length);
+            out.write(histories[i]);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write(DataOutput)}.
+     *
+     * @param in the input to read from.
+     * @return the index.
+     * @throws IOException if an error occurs reading.
+     */
+    static DeflateIndex read(DataInput in) throws IOException {
+        DeflateIndex index = new DeflateIndex(in.readBoolean(), in.readLong());
+        index.length = in.readLong();
+        int count = in.readInt();
+        // Checked before trusting it for allocation, since the checksum isn't verified until the end.
+        if (count < 0 || count > MAX_CHECKPOINTS) {
+            throw new ZipException("Corrupt index");
+        }
+        index.bitPositions = new long[Math.max(16, count)];
+        index.positions = new long[Math.max(16, count)];
+        index.histories = new byte[Math.max(16, count)][];
+        for (int i = 0; i < count; i++) {
+            index.bitPositions[i] = in.readLong();
+            index.positions[i] = in.readLong();
+            int historyLength = in.readInt();
+            if (historyLength < 0 || historyLength > InflateCursor.WINDOW_SIZE * 2) {
+                throw new ZipException("Corrupt index");
+            }
+            index.histories[i] = new byte[historyLength];
+            in.readFully(index.histories[i]);
+        }
+        index.count = count;
+        return index;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.compress;
+
+import java.util.zip.ZipException;
+
+/**
+ * A canonical Huffman code as used by deflate, with a lookup table for short codes.
+ *
+ * @author trejkaz
+ */
+final class Huffman {
+
+    /**
+     * The longest code length deflate allows.
+     */
+    private static final int MAX_BITS = 15;
+
+    /**
+     * Codes up to this long are decoded with a single table lookup.
+     */
+    private static final int FAST_BITS = 10;
+
+    /**
+     * Lookup table indexed by the next {@link #FAST_BITS} bits of input. Each entry is the symbol
+     * shifted left by four, plus the length of its code, or zero if the code is longer than the table.
+     */
+    private final short[] fast = new short[1 << FAST_BITS];
+
+    /**
+     * The number of codes of each length.
+     */
+    private final short[] counts = new short[MAX_BITS + 1];
+
+    /**
+     * The symbols, sorted by code.
+     */
+    private final short[] symbols;
+
+    /**
+     * Builds the code from the code length of each symbol.
+     *
+     * @param lengths the code length of each symbol, zero for symbols which don't occur.
+     * @param offset the index of the first symbol's length in the array.
+     * @param count the number of symbols.
+     * @throws ZipException if the lengths do not describe a valid code.
+     */
+    Huffman(byte[] lengths, int offset, int count) throws ZipException {
+        symbols = new short[count];
+        for (int i = 0; i < count; i++) {
+            counts[lengths[offset + i]]++;
+        }
+
+        int left = 1;
+        for (int length = 1; length <= MAX_BITS; length++) {
+            left = (left << 1) - counts[length];
+            if (left < 0) {
+                throw new ZipException("Invalid Huffman code: over-subscribed");
+            }
+        }
+        // Incomplete codes are allowed, since encoders use them when there is only one distance code.
+
+        int[] offsets = new int[MAX_BITS + 2];
+        int[] nextCode = new int[MAX_BITS + 1];
+        int code = 0;
+        for (int length = 1; length <= MAX_BITS; length++) {
+            offsets[length + 1] = offsets[length] + counts[length];
+            nextCode[length] = code;
+            code = (code + counts[length]) << 1;
+        }
+
+        for (int symbol = 0; symbol < count; symbol++) {
+            int length = lengths[offset + symbol];
+            if (length == 0) {
+                continue;
+            }
+            symbols[offsets[length]++] = (short) symbol;
+
+            int assigned = nextCode[length]++;
+            if (length <= FAST_BITS) {
+                // Codes are packed starting from their most significant bit, but we read bits least
+                // significant first, so the table is indexed by the reversed code.
+                int reversed = Integer.reverse(assigned) >>> (32 - length);
+                short entry = (short) (symbol << 4 | length);
+                for (int i = reversed; i < fast.length; i += 1 << length) {
+                    fast[i] = entry;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the next symbol.
+     *
+     * @param in the input.
+     * @return the symbol.
+     * @throws ZipException if the input does not contain a valid code.
+     */
+    int decode(BitInput in) throws ZipException {
+        int entry = fast[in.peek(FAST_BITS)];
+        if (entry != 0) {
+            in.skip(entry & 0xF);
+            return entry >>> 4;
+        }
+        return decodeSlowly(in);
+    }
+
+    /**
+     * Decodes the next symbol one bit at a time, for codes too long for the lookup table.
+     *
+     * @param in the input.
+     * @return the symbol.
+     * @throws ZipException if the input does not contain a valid code.
+     */
+    private int decodeSlowly(BitInput in) throws ZipException {
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int length = 1; length <= MAX_BITS; length++) {
+            code |= in.bits(1);
+            int count = counts[length];
+            if (code - first < count) {
+                return symbols[index + code - first];
+            }
+            index += count;
+            first = (first + count) << 1;
+            code <<= 1;
+        }
+        throw new ZipException("Invalid Huffman code");
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.compress;
+
+import org.trypticon.hex.binary.Binary;
+
+import java.util.zip.ZipException;
+
+/**
+ * <p>Inflates deflate data from a binary, keeping track of where it is in both the compressed
+ * and uncompressed data.</p>
+ *
+ * <p>Unlike {@link java.util.zip.Inflater}, this can start at any block boundary, given the position
+ * of the block in bits and the 32KB of output which came before it. That's what lets compressed
+ * binaries be read from checkpoints instead of from the start.</p>
+ *
+ * <p>Gzip streams are also handled, including multiple gzip members concatenated together.</p>
+ *
+ * @author trejkaz
+ */
+final class InflateCursor {
+
+    /**
+     * The most deflate can refer back to.
+     */
+    static final int WINDOW_SIZE = 32 * 1024;
+
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+
+    /**
+     * The order in which code length code lengths are stored.
+     */
+    private static final int[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+    private static final Huffman FIXED_LITERALS;
+    private static final Huffman FIXED_DISTANCES;
+
+    static {
+        byte[] lengths = new byte[288 + 30];
+        for (int i = 0; i < 288; i++) {
+            lengths[i] = (byte) (i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8);
+        }
+        for (int i = 288; i < lengths.length; i++) {
+            lengths[i] = 5;
+        }
+        try {
+            FIXED_LITERALS = new Huffman(lengths, 0, 288);
+            FIXED_DISTANCES = new Huffman(lengths, 288, 30);
+        } catch (ZipException e) {
+            throw new IllegalStateException("Fixed codes should be valid", e);
+        }
+    }
+
+    private enum State {
+        /**
+         * At the start of a gzip member, before its header.
+         */
+        MEMBER_START,
+
+        /**
+         * At the start of a block, before its header.
+         */
+        BLOCK_START,
+
+        /**
+         * Part way through a stored block.
+         */
+        STORED,
+
+        /**
+         * Part way through a compressed block.
+         */
+        COMPRESSED,
+
+        /**
+         * Past the end of the data.
+         */
+        END
+    }
+
+    private final BitInput in;
+    private final boolean gzip;
+    private State state;
+
+    /**
+     * Whether the current block is the last one in the deflate stream.
+     */
+    private boolean lastBlock;
+
+    /**
+     * The most recent output. The next byte goes at {@link #windowPosition}.
+     */
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private int windowPosition;
+
+    /**
+     * The number of bytes of valid history in the window.
+     */
+    private int history;
+
+    /**
+     * The position in the uncompressed data of the next byte of output.
+     */
+    private long position;
+
+    /**
+     * The codes for the current compressed block.
+     */
+    private Huffman literals = FIXED_LITERALS;
+    private Huffman distances = FIXED_DISTANCES;
+
+    /**
+     * Bytes left in the current stored block.
+     */
+    private int storedRemaining;
+
+    /**
+     * A match which didn't fit in the output, to carry on with next time.
+     */
+    private int copyRemaining;
+    private int copyDistance;
+
+    /**
+     * Creates a cursor at the start of some data.
+     *
+     * @param compressed the compressed data.
+     * @param gzip {@code true} if the data is gzip, {@code false} if it's raw deflate.
+     * @throws ZipException if the data is empty.
+     */
+    InflateCursor(Binary compressed, boolean gzip) throws ZipException {
+        this(compressed, gzip, 0, 0, new byte[0]);
+        state = gzip ? State.MEMBER_START : State.BLOCK_START;
+    }
+
+    /**
+     * Creates a cursor at a block boundary.
+     *
+     * @param compressed the compressed data.
+     * @param gzip {@code true} if the data is gzip, {@code false} if it's raw deflate.
+     * @param bitPosition the position of the block in the compressed data, in bits.
+     * @param position the position of the block in the uncompressed data.
+     * @param history the uncompressed data before the block, up to {@link #WINDOW_SIZE} bytes of it.
+     * @throws ZipException if the position is past the end of the data.
+     */
+    InflateCursor(Binary compressed, boolean gzip, long bitPosition, long position, byte[] history) throws ZipException {
+        this.in = new BitInput(compressed, bitPosition);
+        this.gzip = gzip;
+        this.position = position;
+        this.state = State.BLOCK_START;
+        int count = Math.min(history.length, WINDOW_SIZE);
+        System.arraycopy(history, history.length - count, window, 0, count);
+        this.windowPosition = count & WINDOW_MASK;
+        this.history = count;
+    }
+
+    /**
+     * Gets the position in the uncompressed data of the next byte of output.
+     *
+     * @return the position.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the position in the compressed data of the next bit of input.
+     *
+     * @return the position, in bits.
+     */
+    long getBitPosition() {
+        return in.getBitPosition();
+    }
+
+    /**
+     * Checks whether the cursor is at the start of a block, where a new cursor could be created to carry on.
+     *
+     * @return {@code true} if it is.
+     */
+    boolean isAtBlockStart() {
+        return state == State.BLOCK_START && !lastBlock;
+    }
+
+    /**
+     * Gets a copy of the uncompressed data before the current position, up to {@link #WINDOW_SIZE} bytes of it.
+     *
+     * @return the history.
+     */
+    byte[] getHistory() {
+        byte[] result = new byte[history];
+        int start = (windowPosition - history) & WINDOW_MASK;
+        int firstPart = Math.min(history, WINDOW_SIZE - start);
+        System.arraycopy(window, start, result, 0, firstPart);
+        System.arraycopy(window, 0, result, firstPart, history - firstPart);
+        return result;
+    }
+
+    /**
+     * Inflates some data. Stops early at the end of each block, so that the caller can note block boundaries.
+     *
+     * @param out the array to put the data into.
+     * @param offset the offset in the array to start at.
+     * @param length the maximum number of bytes to inflate.
+     * @return the number of bytes inflated, which is only zero if {@code length} is zero,
+     *         or {@code -1} if the end of the data has been reached.
+     * @throws ZipException if the data is not valid.
+     */
+    int inflate(byte[] out, int offset, int length) throws ZipException {
+        int produced = 0;
+        while (produced < length) {
+            switch (state) {
+                case MEMBER_START:
+                    readGzipHeader();
+                    state = State.BLOCK_START;
+                    break;
+                case BLOCK_START:
+                    if (produced > 0) {
+                        return produced;
+                    }
+                    if (lastBlock) {
+                        endDeflateStream();
+                    } else {
+                        readBlockHeader();
+                    }
+                    break;
+                case STORED:
+                    produced += inflateStored(out, offset + produced, length - produced);
+                    break;
+                case COMPRESSED:
+                    produced += inflateCompressed(out, offset + produced, length - produced);
+                    break;
+                case END:
+                    return produced > 0 ? produced : -1;
+                default:
+                    throw new IllegalStateException("Unknown state: " + state);
+            }
+        }
+        return produced;
+    }
+
+    private void readBlockHeader() throws ZipException {
+        lastBlock = in.bits(1) == 1;
+        int type = in.bits(2);
+        switch (type) {
+            case 0:
+                in.alignToByte();
+                int length = in.bits(16);
+                int complement = in.bits(16);
+                if (length != (~complement & 0xFFFF)) {
+                    throw new ZipException("Invalid stored block length");
+                }
+                storedRemaining = length;
+                state = State.STORED;
+                break;
+            case 1:
+                literals = FIXED_LITERALS;
+                distances = FIXED_DISTANCES;
+                state = State.COMPRESSED;
+                break;
+            case 2:
+                readDynamicCodes();
+                state = State.COMPRESSED;
+                break;
+            default:
+                throw new ZipException("Invalid block type");
+        }
+    }
+
+    private void readDynamicCodes() throws ZipException {
+        int literalCount = in.bits(5) + 257;
+        int distanceCount = in.bits(5) + 1;
+        int codeLengthCount = in.bits(4) + 4;
+        if (literalCount > 286 || distanceCount > 30) {
+            throw new ZipException("Too many length or distance codes");
+        }
+
+        byte[] codeLengthLengths = new byte[19];
+        for (int i = 0; i < codeLengthCount; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = (byte) in.bits(3);
+        }
+        Huffman codeLengths = new Huffman(codeLengthLengths, 0, 19);
+
+        byte[] lengths = new byte[literalCount + distanceCount];
+        int i = 0;
+        while (i < lengths.length) {
+            int symbol = codeLengths.decode(in);
+            if (symbol < 16) {
+                lengths[i++] = (byte) symbol;
+                continue;
+            }
+
+            byte value = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new ZipException("Repeated code length with no previous length");
+                }
+                value = lengths[i - 1];
+                repeat = 3 + in.bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + in.bits(3);
+            } else {
+                repeat = 11 + in.bits(7);
+            }
+            if (i + repeat > lengths.length) {
+                throw new ZipException("Too many code lengths");
+            }
+            while (repeat-- > 0) {
+                lengths[i++] = value;
+            }
+        }
+        if (lengths[256] == 0) {
+            throw new ZipException("No end of block code");
+        }
+
+        literals = new Huffman(lengths, 0, literalCount);
+        distances = new Huffman(lengths, literalCount, distanceCount);
+    }
+
+    private int inflateStored(byte[] out, int offset, int length) throws ZipException {
+        int count = Math.min(length, storedRemaining);
+        in.readBytes(out, offset, count);
+        for (int i = 0; i < count; i++) {
+            window[windowPosition] = out[offset + i];
+            windowPosition = (windowPosition + 1) & WINDOW_MASK;
+        }
+        advance(count);
+        storedRemaining -= count;
+        if (storedRemaining == 0) {
+            state = State.BLOCK_START;
+        }
+        return count;
+    }
+
+    private int inflateCompressed(byte[] out, int offset, int length) throws ZipException {
+        byte[] window = this.window;
+        int windowPosition = this.windowPosition;
+        int produced = 0;
+        try {
+            while (produced < length) {
+                if (copyRemaining > 0) {
+                    int count = Math.min(copyRemaining, length - produced);
+                    int from = windowPosition - copyDistance;
+                    for (int i = 0; i < count; i++) {
+                        byte b = window[(from + i) & WINDOW_MASK];
+                        window[windowPosition] = b;
+                        windowPosition = (windowPosition + 1) & WINDOW_MASK;
+                        out[offset + produced + i] = b;
+                    }
+                    produced += count;
+                    copyRemaining -= count;
+                    continue;
+                }
+
+                int symbol = literals.decode(in);
+                if (symbol < 256) {
+                    byte b = (byte) symbol;
+                    window[windowPosition] = b;
+                    windowPosition = (windowPosition + 1) & WINDOW_MASK;
+                    out[offset + produced] = b;
+                    produced++;
+                } else if (symbol == 256) {
+                    state = State.BLOCK_START;
+                    break;
+                } else {
+                    symbol -= 257;
+                    if (symbol >= LENGTH_BASE.length) {
+                        throw new ZipException("Invalid length code");
+                    }
+                    int matchLength = LENGTH_BASE[symbol] + in.bits(LENGTH_EXTRA[symbol]);
+                    int distanceSymbol = distances.decode(in);
+                    if (distanceSymbol >= DISTANCE_BASE.length) {
+                        throw new ZipException("Invalid distance code");
+                    }
+                    int distance = DISTANCE_BASE[distanceSymbol] + in.bits(DISTANCE_EXTRA[distanceSymbol]);
+                    if (distance > Math.min(WINDOW_SIZE, history + (long) produced)) {
+                        throw new ZipException("Distance too far back");
+                    }
+                    copyRemaining = matchLength;
+                    copyDistance = distance;
+                }
+            }
+        } finally {
+            this.windowPosition = windowPosition;
+            advance(produced);
+        }
+        return produced;
+    }
+
+    private void advance(int count) {
+        position += count;
+        history = (int) Math.min(WINDOW_SIZE, (long) history + count);
+    }
+
+    /**
+     * Handles the end of a deflate stream. For gzip, skips the trailer and moves on to the next
+     * member if there is one.
+     *
+     * @throws ZipException if the trailer is truncated.
+     */
+    private void endDeflateStream() throws ZipException {
+        if (!gzip) {
+            state = State.END;
+            return;
+        }
+
+        in.alignToByte();
+        // CRC-32 and uncompressed size. We don't verify the CRC because we usually only inflate part of the data.
+        in.skip(32);
+        in.skip(32);
+        lastBlock = false;
+        if (in.hasMoreBytes() && in.peek(16) == 0x8B1F) {
+            state = State.MEMBER_START;
+        } else {
+            // Anything else after the last member is padding, which gzip itself also ignores.
+            state = State.END;
+        }
+    }
+
+    private void readGzipHeader() throws ZipException {
+        if (in.bits(16) != 0x8B1F) {
+            throw new ZipException("Not in gzip format");
+        }
+        if (in.bits(8) != 8) {
+            throw new ZipException("Unsupported gzip compression method");
+        }
+        int flags = in.bits(8);
+        // Modification time, extra flags, operating system.
+        in.skip(32);
+        in.skip(16);
+        if ((flags & 0x04) != 0) {
+            int extraLength = in.bits(16);
+            for (int i = 0; i < extraLength; i++) {
+                in.skip(8);
+            }
+        }
+        if ((flags & 0x08) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & 0x10) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & 0x02) != 0) {
+            in.skip(16);
+        }
+    }
+
+    private void skipZeroTerminated() throws ZipException {
+        while (in.bits(8) != 0) {
+            // Just skipping.
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.compress;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Gives access to the entries of a ZIP file as binaries.</p>
+ *
+ * <p>Opening the archive only reads its central directory. Nothing is decompressed until an entry
+ * is actually read. Stored entries are slices of the archive itself, so reading them costs the same
+ * as reading the archive. Deflated entries are inflated on demand by a {@link DeflateBinary}, which
+ * caches what it inflates and records checkpoints as it goes so that seeking backwards doesn't
+ * mean starting again from the start of the entry.</p>
+ *
+ * <p>ZIP64 archives are supported. Encrypted entries and compression methods other than
+ * stored and deflated are not.</p>
+ *
+ * @author trejkaz
+ */
+public class ZipArchive implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    /**
+     * Compression method for entries which are not compressed.
+     */
+    public static final int STORED = 0;
+
+    /**
+     * Compression method for deflated entries.
+     */
+    public static final int DEFLATED = 8;
+
+    private final Binary container;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByName;
+
+    /**
+     * Constructs the archive.
+     *
+     * @param container the binary containing the ZIP file.
+     * @throws IOException if the central directory could not be read.
+     */
+    public ZipArchive(Binary container) throws IOException {
+        this.container = container;
+        entries = Collections.unmodifiableList(readCentralDirectory());
+        entriesByName = new HashMap<>(entries.size() * 2);
+        for (Entry entry : entries) {
+            // Like ZipFile, the first of any duplicate names wins.
+            entriesByName.putIfAbsent(entry.getName(), entry);
+        }
+    }
+
+    /**
+     * Opens a ZIP file.
+     *
+     * @param file the file.
+     * @return the archive.
+     * @throws IOException if the file could not be opened, or is not a ZIP file.
+     */
+    public static ZipArchive open(Path file) throws IOException {
+        Binary container = BinaryFactory.open(file);
+        try {
+            return new ZipArchive(container);
+        } catch (IOException | RuntimeException e) {
+            container.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets all the entries, in the order they appear in the central directory.
+     *
+     * @return the entries.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets an entry by name.
+     *
+     * @param name the name of the entry.
+     * @return the entry, or {@code null} if there is no entry with that name.
+     */
+    @Nullable
+    public Entry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    /**
+     * Opens an entry, returning its uncompressed content as a binary. The binary is only valid
+     * until the archive is closed.
+     *
+     * @param entry the entry.
+     * @return the binary.
+     * @throws IOException if the entry's local header is invalid, or it uses an unsupported
+     *         compression method or encryption.
+     */
+    public Binary open(Entry entry) throws IOException {
+        if (entry.isEncrypted()) {
+            throw new ZipException("Encrypted entries are not supported: " + entry.getName());
+        }
+
+        long offset = entry.getLocalHeaderOffset();
+        if (offset < 0 || offset + 30 > container.length() ||
+            container.readInt(offset, ByteOrder.LITTLE_ENDIAN) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for entry: " + entry.getName());
+        }
+        // The local header has its own name and extra field lengths, which needn't match the central directory.
+        int nameLength = container.readShort(offset + 26, ByteOrder.LITTLE_ENDIAN) & 0xFFFF;
+        int extraLength = container.readShort(offset + 28, ByteOrder.LITTLE_ENDIAN) & 0xFFFF;
+        long dataStart = offset + 30 + nameLength + extraLength;
+        if (entry.getCompressedSize() < 0 || dataStart + entry.getCompressedSize() > container.length()) {
+            throw new ZipException("Entry data runs past the end of the archive: " + entry.getName());
+        }
+
+        switch (entry.getMethod()) {
+            case STORED:
+                // The data is sliced using the size, so it had better be the same as the size checked above.
+                if (entry.getSize() != entry.getCompressedSize()) {
+                    throw new ZipException("Stored entry has different sizes " + entry.getSize() + " and " +
+                                           entry.getCompressedSize() + ": " + entry.getName());
+                }
+                return container.slice(dataStart, entry.getSize());
+            case DEFLATED:
+                Binary compressed = container.slice(dataStart, entry.getCompressedSize());
+                return new DeflateBinary(compressed, new DeflateIndex(false, DeflateBinary.DEFAULT_CHECKPOINT_INTERVAL),
+                                         entry.getSize(), DeflateBinary.DEFAULT_BLOCK_SHIFT);
+            default:
+                throw new ZipException("Unsupported compression method " + entry.getMethod() +
+                                       " for entry: " + entry.getName());
+        }
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long end = findEnd();
+        long entryCount = container.readShort(end + 10, ByteOrder.LITTLE_ENDIAN) & 0xFFFF;
+        long directorySize = container.readInt(end + 12, ByteOrder.LITTLE_ENDIAN) & 0xFFFFFFFFL;
+        long directoryOffset = container.readInt(end + 16, ByteOrder.LITTLE_ENDIAN) & 0xFFFFFFFFL;
+
+        long locator = end - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && container.readInt(locator, ByteOrder.LITTLE_ENDIAN) == ZIP64_LOCATOR_SIGNATURE) {
+            long zip64End = container.readLong(locator + 8, ByteOrder.LITTLE_ENDIAN);
+            if (zip64End < 0 || zip64End + 56 > container.length() ||
+                container.readInt(zip64End, ByteOrder.LITTLE_ENDIAN) != ZIP64_END_SIGNATURE) {
+                throw new ZipException("Invalid ZIP64 end of central directory record");
+            }
+            entryCount = container.readLong(zip64End + 32, ByteOrder.LITTLE_ENDIAN);
+            directorySize = container.readLong(zip64End + 40, ByteOrder.LITTLE_ENDIAN);
+            directoryOffset = container.readLong(zip64End + 48, ByteOrder.LITTLE_ENDIAN);
+        }
+
+        if (directoryOffset < 0 || directorySize < 0 || directoryOffset + directorySize > container.length() ||
+            directorySize > Integer.MAX_VALUE || entryCount < 0 || entryCount > directorySize / 46) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        // Read the whole directory in one go, rather than going back to the binary for every field.
+        ByteBuffer directory = ByteBuffer.allocate((int) directorySize).order(ByteOrder.LITTLE_ENDIAN);
+        container.read(directoryOffset, directory);
+        directory.flip();
+
+        List<Entry> entries = new ArrayList<>((int) entryCount);
+        for (long i = 0; i < entryCount; i++) {
+            entries.add(readEntry(directory));
+        }
+        return entries;
+    }
+
+    /**
+     * Finds the end of central directory record.
+     *
+     * @return its position.
+     * @throws ZipException if it was not found.
+     */
+    private long findEnd() throws ZipException {
+        long length = container.length();
+        long lowest = Math.max(0, length - END_SIZE - MAX_COMMENT_LENGTH);
+        byte[] tail = new byte[(int) (length - lowest)];
+        container.read(lowest, tail);
+        ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = tail.length - END_SIZE; i >= 0; i--) {
+            // Also check that the comment fits exactly, so that a comment containing the signature doesn't fool us.
+            if (buffer.getInt(i) == END_SIGNATURE &&
+                i + END_SIZE + (buffer.getShort(i + 20) & 0xFFFF) == tail.length) {
+                return lowest + i;
+            }
+        }
+        throw new ZipException("Not a ZIP file: no end of central directory record");
+    }
+
+    private static Entry readEntry(ByteBuffer directory) throws ZipException {
+        int start = directory.position();
+        if (directory.remaining() < 46 || directory.getInt(start) != CENTRAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid central directory entry at offset " + start);
+        }
+        int flags = directory.getShort(start + 8) & 0xFFFF;
+        int method = directory.getShort(start + 10) & 0xFFFF;
+        int crc = directory.getInt(start + 16);
+        long compressedSize = directory.getInt(start + 20) & 0xFFFFFFFFL;
+        long size = directory.getInt(start + 24) & 0xFFFFFFFFL;
+        int nameLength = directory.getShort(start + 28) & 0xFFFF;
+        int extraLength = directory.getShort(start + 30) & 0xFFFF;
+        int commentLength = directory.getShort(start + 32) & 0xFFFF;
+        long localHeaderOffset = directory.getInt(start + 42) & 0xFFFFFFFFL;
+
+        int nameStart = start + 46;
+        int extraStart = nameStart + nameLength;
+        int next = extraStart + extraLength + commentLength;
+        if (next > directory.limit()) {
+            throw new ZipException("Central directory entry runs past the end of the directory at offset " + start);
+        }
+
+        // Names are meant to be CP437 unless flagged as UTF-8, but like ZipFile we assume UTF-8 regardless.
+        byte[] nameBytes = new byte[nameLength];
+        directory.position(nameStart);
+        directory.get(nameBytes);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+        // ZIP64 sizes and offset are in an extra field, present only for the values which didn't fit.
+        int extra = extraStart;
+        while (extra + 4 <= extraStart + extraLength) {
+            int id = directory.getShort(extra) & 0xFFFF;
+            int dataSize = directory.getShort(extra + 2) & 0xFFFF;
+            int data = extra + 4;
+            if (id == ZIP64_EXTRA_ID) {
+                int dataEnd = Math.min(data + dataSize, extraStart + extraLength);
+                if (size == 0xFFFFFFFFL && data + 8 <= dataEnd) {
+                    size = directory.getLong(data);
+                    data += 8;
+                }
+                if (compressedSize == 0xFFFFFFFFL && data + 8 <= dataEnd) {
+                    compressedSize = directory.getLong(data);
+                    data += 8;
+                }
+                if (localHeaderOffset == 0xFFFFFFFFL && data + 8 <= dataEnd) {
+                    localHeaderOffset = directory.getLong(data);
+                }
+                break;
+            }
+            extra = data + dataSize;
+        }
+
+        directory.position(next);
+        return new Entry(name, method, flags, crc, compressedSize, size, localHeaderOffset);
+    }
+
+    @Override
+    public void close() {
+        container.close();
+    }
+
+    /**
+     * An entry in the archive, as described by the central directory.
+     */
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final int flags;
+        private final int crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        private Entry(String name, int method, int flags, int crc,
+                      long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.flags = flags;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        /**
+         * Gets the name of the entry, including its path within the archive.
+         *
+         * @return the name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets the compression method.
+         *
+         * @return the method, usually {@link #STORED} or {@link #DEFLATED}.
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * Gets the CRC-32 of the uncompressed content.
+         *
+         * @return the CRC-32.
+         */
+        public int getCrc() {
+            return crc;
+        }
+
+        /**
+         * Gets the size of the compressed content.
+         *
+         * @return the compressed size.
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Gets the size of the uncompressed content.
+         *
+         * @return the size.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the position of the entry's local header in the archive.
+         *
+         * @return the position.
+         */
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+
+        /**
+         * Checks whether the entry is a directory.
+         *
+         * @return {@code true} if it is.
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /**
+         * Checks whether the entry is encrypted.
+         *
+         * @return {@code true} if it is.
+         */
+        public boolean isEncrypted() {
+            return (flags & 1) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
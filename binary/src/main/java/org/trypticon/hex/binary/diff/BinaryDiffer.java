@@ -0,0 +1,421 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.diff;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.Futures;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * <p>Finds the differences between two binaries.</p>
+ *
+ * <p>Both binaries are walked together, comparing large chunks at the same relative position
+ * with {@link Arrays#mismatch}, which the VM compiles down to vector instructions. Runs of
+ * equal bytes are usually by far the largest part of the work, so several chunks are compared
+ * at once on an executor.</p>
+ *
+ * <p>When the bytes stop matching, the differ looks for where they start matching again. The
+ * old binary is divided into blocks whose hashes go into a table, then a rolling hash is slid along
+ * the new binary a byte at a time, looking each position up in the table. The first hit tells us
+ * whether bytes were changed, inserted or deleted, and by how much. The search starts near the
+ * difference and widens up to a limit, so memory use doesn't depend on the size of the binaries.
+ * Differences which the search doesn't get past within that limit are reported as large changed
+ * ranges.</p>
+ *
+ * <p>The binaries must support reads from multiple threads at once, which all the binaries
+ * in this library do. Instances are immutable and can be shared between threads.</p>
+ *
+ * @author trejkaz
+ */
+public class BinaryDiffer {
+
+    /**
+     * The default number of bytes compared by each task.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * The default size of the blocks used to find where the binaries match again.
+     * Matches shorter than this after a difference are not noticed.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 32;
+
+    /**
+     * The default limit on how far past a difference to look for where the binaries match again.
+     */
+    static final long DEFAULT_MAX_HORIZON = 16 * 1024 * 1024;
+
+    /**
+     * How far past a difference to look first. Most differences are small.
+     */
+    private static final long MIN_HORIZON = 64 * 1024;
+
+    /**
+     * How much the search widens each time nothing is found.
+     */
+    private static final int HORIZON_GROWTH = 16;
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int chunkSize;
+    private final int blockSize;
+    private final long maxHorizon;
+
+    /**
+     * Constructs the differ, comparing on the common fork-join pool.
+     */
+    public BinaryDiffer() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Constructs the differ.
+     *
+     * @param executor the executor to compare on.
+     * @param parallelism the number of threads the executor is expected to use.
+     *                    Used to decide how many chunks to submit ahead of time.
+     */
+    public BinaryDiffer(Executor executor, int parallelism) {
+        this(executor, parallelism, DEFAULT_CHUNK_SIZE, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_HORIZON);
+    }
+
+    /**
+     * Constructs the differ.
+     *
+     * @param executor the executor to compare on.
+     * @param parallelism the number of threads the executor is expected to use.
+     * @param chunkSize the number of bytes compared by each task.
+     * @param blockSize the size of the blocks used to find where the binaries match again.
+     * @param maxHorizon the limit on how far past a difference to look for where the binaries match again.
+     */
+    BinaryDiffer(Executor executor, int parallelism, int chunkSize, int blockSize, long maxHorizon) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        if (blockSize < 1 || chunkSize < blockSize) {
+            throw new IllegalArgumentException("Chunk size " + chunkSize + " must be at least block size " + blockSize);
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.blockSize = blockSize;
+        this.maxHorizon = Math.max(maxHorizon, blockSize);
+    }
+
+    /**
+     * Finds the differences between two binaries.
+     *
+     * @param oldBinary the old binary.
+     * @param newBinary the new binary.
+     * @return the ranges, in order, covering both binaries from start to end.
+     */
+    public List<DiffRange> diff(Binary oldBinary, Binary newBinary) {
+        List<DiffRange> ranges = new ArrayList<>();
+        diff(oldBinary, newBinary, ranges::add, ProgressMonitor.NONE);
+        return ranges;
+    }
+
+    /**
+     * <p>Finds the differences between two binaries.</p>
+     *
+     * <p>Ranges are passed to the consumer in order as soon as they are known, and together
+     * cover both binaries from start to end. No two consecutive ranges have the same type.</p>
+     *
+     * @param oldBinary the old binary.
+     * @param newBinary the new binary.
+     * @param consumer receives each range. Always called from the calling thread.
+     * @param monitor receives progress, as the number of bytes of both binaries done so far,
+     *                and can cancel the comparison.
+     * @throws CancellationException if the monitor cancelled the comparison.
+     */
+    public void diff(Binary oldBinary, Binary newBinary, Consumer<DiffRange> consumer, ProgressMonitor monitor) {
+        new Diff(oldBinary, newBinary, consumer, monitor).run();
+    }
+
+    /**
+     * State for a single comparison.
+     */
+    private class Diff {
+        private final Binary oldBinary;
+        private final Binary newBinary;
+        private final long oldLength;
+        private final long newLength;
+        private final Consumer<DiffRange> consumer;
+        private final ProgressMonitor monitor;
+
+        /**
+         * Buffers used on the calling thread, one for each binary. Tasks on the executor allocate their own.
+         */
+        private final byte[] oldBuffer;
+        private final byte[] newBuffer;
+
+        /**
+         * The last range found, held back in case the next one has the same type and can be merged with it.
+         */
+        @Nullable
+        private DiffRange pending;
+
+        private Diff(Binary oldBinary, Binary newBinary, Consumer<DiffRange> consumer, ProgressMonitor monitor) {
+            this.oldBinary = oldBinary;
+            this.newBinary = newBinary;
+            this.oldLength = oldBinary.length();
+            this.newLength = newBinary.length();
+            this.consumer = consumer;
+            this.monitor = monitor;
+            this.oldBuffer = new byte[chunkSize];
+            this.newBuffer = new byte[chunkSize];
+        }
+
+        private void run() {
+            long o = 0;
+            long n = 0;
+            while (o < oldLength && n < newLength) {
+                checkCancelled();
+
+                long equal = equalLength(o, n, Math.min(oldLength - o, newLength - n));
+                if (equal > 0) {
+                    emit(DiffRange.Type.EQUAL, o, o + equal, n, n + equal);
+                    o += equal;
+                    n += equal;
+                    if (o == oldLength || n == newLength) {
+                        break;
+                    }
+                }
+
+                long[] match = findMatch(o, n);
+                long oldEnd;
+                long newEnd;
+                if (match != null) {
+                    oldEnd = match[0];
+                    newEnd = match[1];
+                } else {
+                    // Nothing matches anywhere nearby, so give up on this part and carry on after it.
+                    oldEnd = Math.min(oldLength, o + maxHorizon);
+                    newEnd = Math.min(newLength, n + maxHorizon);
+                    if (oldEnd == oldLength || newEnd == newLength) {
+                        // Nothing after this can match either.
+                        oldEnd = oldLength;
+                        newEnd = newLength;
+                    }
+                }
+                emit(o == oldEnd ? DiffRange.Type.INSERTED : n == newEnd ? DiffRange.Type.DELETED : DiffRange.Type.CHANGED,
+                     o, oldEnd, n, newEnd);
+                o = oldEnd;
+                n = newEnd;
+                monitor.progress(o + n, oldLength + newLength);
+            }
+
+            if (o < oldLength) {
+                emit(DiffRange.Type.DELETED, o, oldLength, n, n);
+            } else if (n < newLength) {
+                emit(DiffRange.Type.INSERTED, o, o, n, newLength);
+            }
+            DiffRange pending = this.pending;
+            if (pending != null) {
+                consumer.accept(pending);
+            }
+            monitor.progress(oldLength + newLength, oldLength + newLength);
+        }
+
+        private void emit(DiffRange.Type type, long oldStart, long oldEnd, long newStart, long newEnd) {
+            DiffRange pending = this.pending;
+            if (pending != null) {
+                if (pending.getType() == type) {
+                    this.pending = new DiffRange(type, pending.getOldStart(), oldEnd, pending.getNewStart(), newEnd);
+                    return;
+                }
+                consumer.accept(pending);
+            }
+            this.pending = new DiffRange(type, oldStart, oldEnd, newStart, newEnd);
+        }
+
+        private void checkCancelled() {
+            if (monitor.isCancelled()) {
+                throw new CancellationException();
+            }
+        }
+
+        /**
+         * Finds how many bytes are equal, starting from a position in each binary.
+         *
+         * @param o the position in the old binary.
+         * @param n the position in the new binary.
+         * @param max the maximum number of bytes to compare.
+         * @return the number of bytes which are equal.
+         */
+        private long equalLength(long o, long n, long max) {
+            // Runs between nearby differences are short, so the first chunk is done here.
+            int first = (int) Math.min(max, chunkSize);
+            int mismatch = compare(o, n, first, oldBuffer, newBuffer);
+            if (mismatch >= 0) {
+                return mismatch;
+            }
+
+            long done = first;
+            long nextOffset = first;
+            try (Futures.InFlight<Integer> inFlight = new Futures.InFlight<>(parallelism)) {
+                while (true) {
+                    while (!inFlight.isFull() && nextOffset < max) {
+                        long offset = nextOffset;
+                        int count = (int) Math.min(chunkSize, max - offset);
+                        inFlight.add(CompletableFuture.supplyAsync(() -> compare(o + offset, n + offset, count,
+                                                                                  new byte[count], new byte[count]), executor));
+                        nextOffset += count;
+                    }
+
+                    if (inFlight.isEmpty()) {
+                        return max;
+                    }
+                    mismatch = inFlight.joinOldest();
+                    if (mismatch >= 0) {
+                        return done + mismatch;
+                    }
+                    done = Math.min(max, done + chunkSize);
+                    monitor.progress(o + n + done * 2, oldLength + newLength);
+                    checkCancelled();
+                }
+            }
+        }
+
+        /**
+         * Compares bytes from each binary.
+         *
+         * @param o the position in the old binary.
+         * @param n the position in the new binary.
+         * @param count the number of bytes to compare. No more than the chunk size.
+         * @param oldBuffer a buffer of at least {@code count} bytes to read the old binary into.
+         * @param newBuffer a buffer of at least {@code count} bytes to read the new binary into.
+         * @return the index of the first byte which differs, or {@code -1} if they are all equal.
+         */
+        private int compare(long o, long n, int count, byte[] oldBuffer, byte[] newBuffer) {
+            oldBinary.read(o, oldBuffer, 0, count);
+            newBinary.read(n, newBuffer, 0, count);
+            // Chunks are mostly compared in order, so get the next ones on their way.
+            oldBinary.prefetch(o + count, count);
+            newBinary.prefetch(n + count, count);
+            return Arrays.mismatch(oldBuffer, 0, count, newBuffer, 0, count);
+        }
+
+        /**
+         * Finds where the binaries start matching again after a difference, widening the search
+         * until something is found or the limit is reached.
+         *
+         * @param o the position of the difference in the old binary.
+         * @param n the position of the difference in the new binary.
+         * @return the positions in the old and new binary where they match again,
+         *         or {@code null} if nothing was found.
+         */
+        @Nullable
+        private long[] findMatch(long o, long n) {
+            long horizon = Math.min(MIN_HORIZON, maxHorizon);
+            while (true) {
+                long oldLimit = Math.min(oldLength, o + horizon);
+                long newLimit = Math.min(newLength, n + horizon);
+                long[] match = findMatch(o, oldLimit, n, newLimit);
+                if (match != null) {
+                    return match;
+                }
+                if (horizon >= maxHorizon || oldLimit == oldLength && newLimit == newLength) {
+                    return null;
+                }
+                horizon = Math.min(horizon * HORIZON_GROWTH, maxHorizon);
+            }
+        }
+
+        /**
+         * Finds where the binaries start matching again within a limited range.
+         *
+         * @param o the position of the difference in the old binary.
+         * @param oldLimit the position in the old binary to stop looking at.
+         * @param n the position of the difference in the new binary.
+         * @param newLimit the position in the new binary to stop looking at.
+         * @return the positions in the old and new binary where they match again,
+         *         or {@code null} if nothing was found.
+         */
+        @Nullable
+        private long[] findMatch(long o, long oldLimit, long n, long newLimit) {
+            if (oldLimit - o < blockSize || newLimit - n < blockSize) {
+                return null;
+            }
+
+            BlockIndex index = new BlockIndex((int) ((oldLimit - o) / blockSize));
+            int readSize = chunkSize / blockSize * blockSize;
+            byte[] buffer = oldBuffer;
+            for (long position = o; position + blockSize <= oldLimit; ) {
+                int count = (int) Math.min(readSize, (oldLimit - position) / blockSize * blockSize);
+                oldBinary.read(position, buffer, 0, count);
+                for (int i = 0; i < count; i += blockSize) {
+                    index.putIfAbsent(BlockIndex.hash(buffer, i, blockSize), position + i);
+                }
+                position += count;
+                checkCancelled();
+            }
+
+            long factor = BlockIndex.rollFactor(blockSize);
+            byte[] block = new byte[blockSize];
+            buffer = newBuffer;
+            for (long start = n; start + blockSize <= newLimit; ) {
+                int count = (int) Math.min(buffer.length, newLimit - start);
+                newBinary.read(start, buffer, 0, count);
+                long hash = BlockIndex.hash(buffer, 0, blockSize);
+                for (int i = 0; ; i++) {
+                    long candidate = index.get(hash);
+                    if (candidate >= 0) {
+                        // Hashes can collide, so check the bytes really match.
+                        oldBinary.read(candidate, block);
+                        if (Arrays.equals(block, 0, blockSize, buffer, i, i + blockSize)) {
+                            return extendBackwards(candidate, start + i, o, n);
+                        }
+                    }
+                    if (i + blockSize >= count) {
+                        break;
+                    }
+                    hash = BlockIndex.roll(hash, buffer[i], buffer[i + blockSize], factor);
+                }
+                start += count - blockSize + 1;
+                checkCancelled();
+            }
+            return null;
+        }
+
+        /**
+         * Moves the start of a match backwards as far as the bytes still match, since blocks in the old
+         * binary only start at multiples of the block size.
+         */
+        private long[] extendBackwards(long oldPosition, long newPosition, long o, long n) {
+            while (oldPosition > o && newPosition > n &&
+                   oldBinary.read(oldPosition - 1) == newBinary.read(newPosition - 1)) {
+                oldPosition--;
+                newPosition--;
+            }
+            return new long[] { oldPosition, newPosition };
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.diff;
+
+import java.util.Arrays;
+
+/**
+ * <p>Hash table from the hashes of fixed-size blocks to the position of the first block with that hash.</p>
+ *
+ * <p>Blocks are hashed with a polynomial hash which can also be rolled along a byte at a time,
+ * so that every position in one binary can be looked up against the blocks of another.</p>
+ *
+ * @author trejkaz
+ */
+class BlockIndex {
+
+    /**
+     * The base of the polynomial hash. Arithmetic is modulo 2<sup>64</sup>.
+     */
+    private static final long BASE = 0x100000001B3L;
+
+    private final long[] hashes;
+    private final long[] positions;
+    private final int shift;
+
+    /**
+     * Constructs the index.
+     *
+     * @param maxBlocks the maximum number of blocks which will be added.
+     */
+    BlockIndex(int maxBlocks) {
+        // At most half full, so that probe sequences stay short.
+        int capacity = Integer.highestOneBit(Math.max(1, maxBlocks) * 2 - 1) * 2;
+        hashes = new long[capacity];
+        positions = new long[capacity];
+        Arrays.fill(positions, -1);
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    /**
+     * Adds a block, unless a block with the same hash was already added.
+     *
+     * @param hash the hash of the block.
+     * @param position the position of the block.
+     */
+    void putIfAbsent(long hash, long position) {
+        int mask = positions.length - 1;
+        for (int slot = slot(hash); ; slot = (slot + 1) & mask) {
+            if (positions[slot] < 0) {
+                hashes[slot] = hash;
+                positions[slot] = position;
+                return;
+            }
+            if (hashes[slot] == hash) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Looks up the position of the block with a given hash.
+     *
+     * @param hash the hash.
+     * @return the position, or {@code -1} if there is no block with that hash.
+     */
+    long get(long hash) {
+        int mask = positions.length - 1;
+        for (int slot = slot(hash); ; slot = (slot + 1) & mask) {
+            long position = positions[slot];
+            if (position < 0 || hashes[slot] == hash) {
+                return position;
+            }
+        }
+    }
+
+    private int slot(long hash) {
+        // Fibonacci hashing, since low bits of the polynomial hash depend on few of the bytes.
+        return (int) ((hash * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * Hashes a block of bytes.
+     *
+     * @param data the array holding the block.
+     * @param offset the offset of the block in the array.
+     * @param length the length of the block.
+     * @return the hash.
+     */
+    static long hash(byte[] data, int offset, int length) {
+        long hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = hash * BASE + (data[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the factor needed to roll a hash along, which is the weight of the first byte in a block.
+     *
+     * @param length the length of a block.
+     * @return the factor to pass to {@link #roll}.
+     */
+    static long rollFactor(int length) {
+        long factor = 1;
+        for (int i = 1; i < length; i++) {
+            factor *= BASE;
+        }
+        return factor;
+    }
+
+    /**
+     * Rolls a hash along by one byte.
+     *
+     * @param hash the hash of the block.
+     * @param out the first byte of the block, which is leaving it.
+     * @param in the byte after the block, which is joining it.
+     * @param factor the result of {@link #rollFactor} for the block length.
+     * @return the hash of the block starting one byte later.
+     */
+    static long roll(long hash, byte out, byte in, long factor) {
+        return (hash - (out & 0xFF) * factor) * BASE + (in & 0xFF);
+    }
+}
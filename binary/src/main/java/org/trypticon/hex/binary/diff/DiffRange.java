@@ -0,0 +1,174 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.diff;
+
+import java.util.Locale;
+
+/**
+ * Holds a single range from the difference between two binaries.
+ *
+ * @author trejkaz
+ */
+public class DiffRange {
+
+    private final Type type;
+    private final long oldStart;
+    private final long oldEnd;
+    private final long newStart;
+    private final long newEnd;
+
+    /**
+     * Constructs the range.
+     *
+     * @param type the type of range.
+     * @param oldStart the position of the start of the range in the old binary, inclusive.
+     * @param oldEnd the position of the end of the range in the old binary, exclusive.
+     * @param newStart the position of the start of the range in the new binary, inclusive.
+     * @param newEnd the position of the end of the range in the new binary, exclusive.
+     */
+    public DiffRange(Type type, long oldStart, long oldEnd, long newStart, long newEnd) {
+        this.type = type;
+        this.oldStart = oldStart;
+        this.oldEnd = oldEnd;
+        this.newStart = newStart;
+        this.newEnd = newEnd;
+    }
+
+    /**
+     * Gets the type of range.
+     *
+     * @return the type.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the position of the start of the range in the old binary.
+     *
+     * @return the start position, inclusive.
+     */
+    public long getOldStart() {
+        return oldStart;
+    }
+
+    /**
+     * Gets the position of the end of the range in the old binary.
+     * Equal to the start for inserted ranges.
+     *
+     * @return the end position, exclusive.
+     */
+    public long getOldEnd() {
+        return oldEnd;
+    }
+
+    /**
+     * Gets the length of the range in the old binary.
+     *
+     * @return the length.
+     */
+    public long getOldLength() {
+        return oldEnd - oldStart;
+    }
+
+    /**
+     * Gets the position of the start of the range in the new binary.
+     *
+     * @return the start position, inclusive.
+     */
+    public long getNewStart() {
+        return newStart;
+    }
+
+    /**
+     * Gets the position of the end of the range in the new binary.
+     * Equal to the start for deleted ranges.
+     *
+     * @return the end position, exclusive.
+     */
+    public long getNewEnd() {
+        return newEnd;
+    }
+
+    /**
+     * Gets the length of the range in the new binary.
+     *
+     * @return the length.
+     */
+    public long getNewLength() {
+        return newEnd - newStart;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s %d..%d -> %d..%d", type, oldStart, oldEnd, newStart, newEnd);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof DiffRange)) {
+            return false;
+        }
+        DiffRange range = (DiffRange) o;
+        return range.type == type &&
+               range.oldStart == oldStart && range.oldEnd == oldEnd &&
+               range.newStart == newStart && range.newEnd == newEnd;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = type.hashCode();
+        result = 31 * result + Long.hashCode(oldStart);
+        result = 31 * result + Long.hashCode(oldEnd);
+        result = 31 * result + Long.hashCode(newStart);
+        result = 31 * result + Long.hashCode(newEnd);
+        return result;
+    }
+
+    /**
+     * Types of range.
+     */
+    public enum Type {
+
+        /**
+         * The bytes are the same in both binaries.
+         */
+        EQUAL,
+
+        /**
+         * The bytes in the old binary were replaced by the bytes in the new binary.
+         * The two lengths may differ.
+         */
+        CHANGED,
+
+        /**
+         * The bytes are only in the new binary.
+         */
+        INSERTED,
+
+        /**
+         * The bytes are only in the old binary.
+         */
+        DELETED
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.digest;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.Futures;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.Checksum;
+
+/**
+ * <p>Computes checksums and message digests of ranges of a binary.</p>
+ *
+ * <p>Bytes are read a large block at a time into a direct buffer, which the checksums and digests
+ * in the JDK can process without any further copying. Each call, or each chunk of a parallel
+ * checksum, gets its own buffer, so nothing is held on to after the computation finishes.</p>
+ *
+ * <p>For {@link CombinableChecksum}s, the range is split into chunks which are checksummed on an
+ * executor, and the checksums of the chunks are combined into the checksum of the whole range.
+ * Only a limited number of chunks are in flight at any one time, so memory use doesn't depend on the
+ * size of the range. Message digests can't be split up like that, so they run on the calling thread.</p>
+ *
+ * <p>The binary must support reads from multiple threads at once, which all the binaries
+ * in this library do. Instances are immutable and can be shared between threads.</p>
+ *
+ * @author trejkaz
+ */
+public class BinaryDigester {
+
+    /**
+     * The default number of bytes checksummed by each task.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The number of bytes to read at a time.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Executor executor;
+    private final int parallelism;
+    private final long chunkSize;
+
+    /**
+     * Constructs the digester, computing checksums on the common fork-join pool.
+     */
+    public BinaryDigester() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Constructs the digester.
+     *
+     * @param executor the executor to compute checksums on.
+     * @param parallelism the number of threads the executor is expected to use.
+     *                    Used to decide how many chunks to submit ahead of time.
+     */
+    public BinaryDigester(Executor executor, int parallelism) {
+        this(executor, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs the digester.
+     *
+     * @param executor the executor to compute checksums on.
+     * @param parallelism the number of threads the executor is expected to use.
+     * @param chunkSize the number of bytes checksummed by each task.
+     */
+    BinaryDigester(Executor executor, int parallelism, long chunkSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Computes a checksum of a range of a binary, using multiple threads.
+     *
+     * @param binary the binary.
+     * @param from the position to start at, inclusive.
+     * @param to the position to stop at, exclusive.
+     * @param type the type of checksum.
+     * @param monitor receives progress, in bytes, and can cancel the computation.
+     * @return the checksum.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     * @throws CancellationException if the monitor cancelled the computation.
+     */
+    public long checksum(Binary binary, long from, long to, CombinableChecksum type, ProgressMonitor monitor) {
+        checkRange(binary, from, to);
+
+        long total = to - from;
+        AtomicLong done = new AtomicLong();
+        Deque<Long> lengths = new ArrayDeque<>();
+        long result = type.newChecksum().getValue();
+        long nextStart = from;
+        try (Futures.InFlight<Long> inFlight = new Futures.InFlight<>(parallelism)) {
+            while (true) {
+                while (!inFlight.isFull() && nextStart < to) {
+                    long start = nextStart;
+                    long end = start + Math.min(chunkSize, to - start);
+                    inFlight.add(CompletableFuture.supplyAsync(() -> {
+                        Checksum checksum = type.newChecksum();
+                        read(binary, start, end, newBuffer(start, end), checksum::update, monitor, done, total);
+                        return checksum.getValue();
+                    }, executor));
+                    lengths.add(end - start);
+                    nextStart = end;
+                }
+
+                if (inFlight.isEmpty()) {
+                    return result;
+                }
+                result = type.combine(result, inFlight.joinOldest(), lengths.remove());
+            }
+        }
+    }
+
+    /**
+     * Computes any checksum of a range of a binary, on the calling thread.
+     *
+     * @param binary the binary.
+     * @param from the position to start at, inclusive.
+     * @param to the position to stop at, exclusive.
+     * @param checksum the checksum to update.
+     * @param monitor receives progress, in bytes, and can cancel the computation.
+     * @return the value of the checksum after updating it.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     * @throws CancellationException if the monitor cancelled the computation.
+     */
+    public long checksum(Binary binary, long from, long to, Checksum checksum, ProgressMonitor monitor) {
+        checkRange(binary, from, to);
+        read(binary, from, to, newBuffer(from, to), checksum::update, monitor, new AtomicLong(), to - from);
+        return checksum.getValue();
+    }
+
+    /**
+     * Computes a message digest of a range of a binary, on the calling thread.
+     *
+     * @param binary the binary.
+     * @param from the position to start at, inclusive.
+     * @param to the position to stop at, exclusive.
+     * @param digest the digest to update, for example from {@code MessageDigest.getInstance("SHA-256")}.
+     * @param monitor receives progress, in bytes, and can cancel the computation.
+     * @return the digest.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     * @throws CancellationException if the monitor cancelled the computation.
+     */
+    public byte[] digest(Binary binary, long from, long to, MessageDigest digest, ProgressMonitor monitor) {
+        checkRange(binary, from, to);
+        read(binary, from, to, newBuffer(from, to), digest::update, monitor, new AtomicLong(), to - from);
+        return digest.digest();
+    }
+
+    /**
+     * Allocates a buffer for reading a range, no larger than the range needs.
+     */
+    private static ByteBuffer newBuffer(long from, long to) {
+        return ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, Math.max(1, to - from)));
+    }
+
+    /**
+     * Reads a range a buffer at a time.
+     *
+     * @param binary the binary.
+     * @param from the position to start at, inclusive.
+     * @param to the position to stop at, exclusive.
+     * @param buffer the buffer to read into.
+     * @param consumer receives each buffer full.
+     * @param monitor receives progress, and can cancel the computation.
+     * @param done the number of bytes done so far, shared by all threads working on the range.
+     * @param total the total number of bytes.
+     */
+    private void read(Binary binary, long from, long to, ByteBuffer buffer, Consumer<ByteBuffer> consumer,
+                      ProgressMonitor monitor, AtomicLong done, long total) {
+        for (long position = from; position < to; ) {
+            if (monitor.isCancelled()) {
+                throw new CancellationException();
+            }
+            int count = (int) Math.min(buffer.capacity(), to - position);
+            buffer.clear().limit(count);
+            binary.read(position, buffer);
+            // Get the next buffer full on its way while this one is digested.
+            binary.prefetch(position + count, Math.min(buffer.capacity(), to - position - count));
+            buffer.flip();
+            consumer.accept(buffer);
+            position += count;
+            monitor.progress(done.addAndGet(count), total);
+        }
+    }
+
+    private static void checkRange(Binary binary, long from, long to) {
+        if (from < 0 || from > to || to > binary.length()) {
+            throw new IndexOutOfBoundsException(
+                    String.format(Locale.ROOT, "Range %d..%d is out of bounds (0..%d)",
+                                  from, to, binary.length()));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.digest;
+
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * <p>Checksums where the checksum of two consecutive ranges can be worked out from the checksums
+ * of each range, which lets a large range be checksummed in pieces on several threads.</p>
+ *
+ * @author trejkaz
+ */
+public enum CombinableChecksum {
+
+    /**
+     * CRC-32, as used by ZIP, gzip and PNG.
+     */
+    CRC32 {
+        @Override
+        public Checksum newChecksum() {
+            return new CRC32();
+        }
+
+        @Override
+        public long combine(long first, long second, long secondLength) {
+            return Crc.combine((int) first, (int) second, secondLength, Crc.CRC32_X2N) & 0xFFFFFFFFL;
+        }
+    },
+
+    /**
+     * CRC-32C (Castagnoli), as used by iSCSI, ext4 and many network protocols.
+     */
+    CRC32C {
+        @Override
+        public Checksum newChecksum() {
+            return new CRC32C();
+        }
+
+        @Override
+        public long combine(long first, long second, long secondLength) {
+            return Crc.combine((int) first, (int) second, secondLength, Crc.CRC32C_X2N) & 0xFFFFFFFFL;
+        }
+    },
+
+    /**
+     * Adler-32, as used by zlib.
+     */
+    ADLER32 {
+        @Override
+        public Checksum newChecksum() {
+            return new Adler32();
+        }
+
+        @Override
+        public long combine(long first, long second, long secondLength) {
+            // Same as adler32_combine in zlib.
+            int base = 65521;
+            long remainder = secondLength % base;
+            long sum1 = first & 0xFFFF;
+            long sum2 = remainder * sum1 % base;
+            sum1 += (second & 0xFFFF) + base - 1;
+            sum2 += ((first >>> 16) & 0xFFFF) + ((second >>> 16) & 0xFFFF) + base - remainder;
+            if (sum1 >= base) {
+                sum1 -= base;
+            }
+            if (sum1 >= base) {
+                sum1 -= base;
+            }
+            if (sum2 >= (long) base << 1) {
+                sum2 -= (long) base << 1;
+            }
+            if (sum2 >= base) {
+                sum2 -= base;
+            }
+            return sum1 | (sum2 << 16);
+        }
+    };
+
+    /**
+     * Creates a checksum for computing the value of a single range.
+     *
+     * @return the checksum.
+     */
+    public abstract Checksum newChecksum();
+
+    /**
+     * Works out the checksum of two consecutive ranges.
+     *
+     * @param first the checksum of the first range.
+     * @param second the checksum of the second range.
+     * @param secondLength the length of the second range, in bytes.
+     * @return the checksum of both ranges together.
+     */
+    public abstract long combine(long first, long second, long secondLength);
+
+    /**
+     * <p>Arithmetic for combining CRCs.</p>
+     *
+     * <p>A CRC is the remainder of dividing the message by the generator polynomial over GF(2),
+     * so appending n bytes multiplies the CRC of the first part by x<sup>8n</sup> modulo the
+     * polynomial before the CRC of the second part is added in. The multiplier is built up from
+     * a table of x<sup>2<sup>k</sup></sup>, so combining takes time proportional to the log of
+     * the length. This is the same approach as crc32_combine in recent versions of zlib.</p>
+     */
+    private static class Crc {
+        static final int[] CRC32_X2N = x2nTable(0xEDB88320);
+        static final int[] CRC32C_X2N = x2nTable(0x82F63B78);
+
+        /**
+         * Builds the table of x<sup>2<sup>k</sup></sup> modulo the polynomial.
+         * The first entry holds the polynomial itself, which is needed for multiplying.
+         *
+         * @param poly the polynomial, in reflected form.
+         * @return the table.
+         */
+        private static int[] x2nTable(int poly) {
+            // Enough for any length which fits in a long, counting in bits.
+            int[] table = new int[1 + 3 + Long.SIZE];
+            table[0] = poly;
+            int p = 1 << 30; // x^1
+            for (int k = 1; k < table.length; k++) {
+                table[k] = p;
+                p = multiply(p, p, poly);
+            }
+            return table;
+        }
+
+        /**
+         * Multiplies two polynomials modulo the generator, in reflected form.
+         */
+        private static int multiply(int a, int b, int poly) {
+            int m = 1 << 31;
+            int p = 0;
+            while (true) {
+                if ((a & m) != 0) {
+                    p ^= b;
+                    if ((a & (m - 1)) == 0) {
+                        return p;
+                    }
+                }
+                m >>>= 1;
+                b = (b & 1) != 0 ? (b >>> 1) ^ poly : b >>> 1;
+            }
+        }
+
+        private static int combine(int first, int second, long secondLength, int[] x2n) {
+            // x^(8n), built from the binary representation of n.
+            int poly = x2n[0];
+            int p = 1 << 31; // x^0
+            int k = 3;
+            for (long n = secondLength; n != 0; n >>>= 1, k++) {
+                if ((n & 1) != 0) {
+                    p = multiply(x2n[1 + k], p, poly);
+                }
+            }
+            return multiply(p, first, poly) ^ second;
+        }
+    }
+}
@@ -0,0 +1,654 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.digest;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryEvent;
+import org.trypticon.hex.binary.BinaryListener;
+import org.trypticon.hex.binary.Futures;
+import org.trypticon.hex.binary.ProgressMonitor;
+import org.trypticon.hex.binary.SidecarFile;
+import org.trypticon.hex.binary.diff.DiffRange;
+
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Tree of hashes over fixed-size blocks of a binary.</p>
+ *
+ * <p>Each block is hashed, then each pair of hashes is hashed together, and so on up to a single
+ * root hash for the whole binary. Leaves and nodes are hashed with different prefixes, as in
+ * RFC 6962, so two equal hashes always mean the same data arranged the same way. When a level
+ * has an odd number of hashes, the last is carried up to the next level as it is.</p>
+ *
+ * <p>This makes a few things cheap which would otherwise mean reading the whole binary:</p>
+ * <ul>
+ *   <li>After an edit, only the blocks which changed need hashing again. The tree can listen to
+ *       a binary directly to find out which blocks those are.</li>
+ *   <li>The trees of two binaries can be compared without reading either binary, skipping every
+ *       subtree whose hash matches.</li>
+ *   <li>The tree can be saved beside a file and loaded again as long as the file hasn't changed.</li>
+ * </ul>
+ *
+ * <p>Methods are synchronised, so a tree can be updated by one thread while others use it.</p>
+ *
+ * @author trejkaz
+ */
+public class MerkleTree implements BinaryListener {
+
+    /**
+     * The default block size, in bytes.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * The default digest algorithm.
+     */
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+
+    /**
+     * The suffix added to the file name to get the name of the sidecar file.
+     */
+    static final String SIDECAR_SUFFIX = ".hexmerkle";
+    private static final String SIDECAR_FORMAT = "merkle";
+    private static final int SIDECAR_VERSION = 1;
+
+    /**
+     * Prefixes hashed before leaves, nodes, and ranges of blocks.
+     */
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+    private static final byte RANGE_PREFIX = 2;
+
+    /**
+     * Shared by every tree, as it only ever digests on the calling thread.
+     */
+    private static final BinaryDigester DIGESTER = new BinaryDigester();
+
+    private final String algorithm;
+    private final int blockSize;
+    private final int hashLength;
+    private long length;
+
+    /**
+     * The hashes at each level of the tree, back to back. The first level holds the block hashes
+     * and the last holds the root hash.
+     */
+    private byte[][] levels;
+
+    /**
+     * The blocks which need hashing again.
+     */
+    private final BitSet dirtyBlocks = new BitSet();
+
+    /**
+     * The blocks being hashed by a refresh in progress. They still count as needing hashing again.
+     */
+    private final BitSet refreshingBlocks = new BitSet();
+
+    /**
+     * Held for the whole of a refresh, so that refreshes don't overlap.
+     * The tree itself is only locked at the start and end.
+     */
+    private final Object refreshLock = new Object();
+
+    private MerkleTree(String algorithm, int blockSize, long length, byte[] blockHashes) {
+        this.algorithm = algorithm;
+        this.blockSize = blockSize;
+        this.hashLength = newDigest(algorithm).getDigestLength();
+        this.length = length;
+        this.levels = new byte[][] { blockHashes };
+        rebuildLevels();
+    }
+
+    /**
+     * Builds the tree for a binary using the default block size and algorithm.
+     *
+     * @param binary the binary.
+     * @param monitor receives progress, in bytes, and can cancel the build.
+     * @return the tree.
+     * @throws CancellationException if the monitor cancelled the build.
+     */
+    public static MerkleTree build(Binary binary, ProgressMonitor monitor) {
+        return build(binary, DEFAULT_BLOCK_SIZE, DEFAULT_ALGORITHM, monitor);
+    }
+
+    /**
+     * Builds the tree for a binary. Blocks are hashed on the common fork-join pool.
+     *
+     * @param binary the binary.
+     * @param blockSize the block size, in bytes.
+     * @param algorithm the name of the {@link MessageDigest} algorithm to hash with.
+     * @param monitor receives progress, in bytes, and can cancel the build.
+     * @return the tree.
+     * @throws IllegalArgumentException if the block size is not positive or the algorithm is not available.
+     * @throws CancellationException if the monitor cancelled the build.
+     */
+    public static MerkleTree build(Binary binary, int blockSize, String algorithm, ProgressMonitor monitor) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        long length = binary.length();
+        MerkleTree tree = new MerkleTree(algorithm, blockSize, length,
+                                         new byte[blockCount(length, blockSize) * newDigest(algorithm).getDigestLength()]);
+        tree.dirtyBlocks.set(0, tree.getBlockCount());
+        tree.refresh(binary, monitor);
+        return tree;
+    }
+
+    /**
+     * Loads the tree for a file from its sidecar file using the default block size and algorithm,
+     * or builds it and saves it if the sidecar file is missing or out of date.
+     *
+     * @param file the file.
+     * @param binary the binary the file was opened as.
+     * @param monitor receives progress, in bytes, and can cancel building the tree.
+     * @return the tree.
+     * @throws CancellationException if the monitor cancelled building the tree.
+     */
+    public static MerkleTree open(Path file, Binary binary, ProgressMonitor monitor) {
+        return open(file, binary, DEFAULT_BLOCK_SIZE, DEFAULT_ALGORITHM, monitor);
+    }
+
+    /**
+     * Loads the tree for a file from its sidecar file, or builds it and saves it if the sidecar file
+     * is missing, out of date, or for a different block size or algorithm.
+     *
+     * @param file the file.
+     * @param binary the binary the file was opened as.
+     * @param blockSize the block size, in bytes.
+     * @param algorithm the name of the {@link MessageDigest} algorithm to hash with.
+     * @param monitor receives progress, in bytes, and can cancel building the tree.
+     * @return the tree.
+     * @throws IllegalArgumentException if the block size is not positive or the algorithm is not available.
+     * @throws CancellationException if the monitor cancelled building the tree.
+     */
+    public static MerkleTree open(Path file, Binary binary, int blockSize, String algorithm, ProgressMonitor monitor) {
+        SidecarFile sidecar = new SidecarFile(file, SIDECAR_SUFFIX);
+        MerkleTree tree = sidecar.read(SIDECAR_FORMAT, SIDECAR_VERSION, MerkleTree::read);
+        if (tree == null || tree.blockSize != blockSize || !tree.algorithm.equals(algorithm) ||
+            tree.length != binary.length()) {
+            tree = build(binary, blockSize, algorithm, monitor);
+            try {
+                tree.save(file);
+            } catch (IOException e) {
+                // Not fatal, e.g. the directory might be read-only. We'll just build it again next time.
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Saves the tree in a sidecar file beside a file.
+     *
+     * @param file the file the tree was built from.
+     * @throws IOException if an error occurs writing the file.
+     * @throws IllegalStateException if the tree has blocks which need hashing again.
+     */
+    public synchronized void save(Path file) throws IOException {
+        checkNotDirty();
+        new SidecarFile(file, SIDECAR_SUFFIX).write(SIDECAR_FORMAT, SIDECAR_VERSION, this::write);
+    }
+
+    private synchronized void write(DataOutput out) throws IOException {
+        out.writeUTF(algorithm);
+        out.writeInt(blockSize);
+        out.writeLong(length);
+        out.write(levels[0]);
+    }
+
+    @Nullable
+    private static MerkleTree read(DataInput in) throws IOException {
+        String algorithm = in.readUTF();
+        int blockSize = in.readInt();
+        long length = in.readLong();
+        if (blockSize <= 0 || length < 0) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        byte[] blockHashes = new byte[blockCount(length, blockSize) * digest.getDigestLength()];
+        in.readFully(blockHashes);
+        return new MerkleTree(algorithm, blockSize, length, blockHashes);
+    }
+
+    /**
+     * Gets the name of the digest algorithm.
+     *
+     * @return the algorithm.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Gets the block size.
+     *
+     * @return the block size, in bytes.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Gets the length of the binary the tree is for.
+     *
+     * @return the length, in bytes.
+     */
+    public synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of blocks. An empty binary still has one empty block.
+     *
+     * @return the block count.
+     */
+    public synchronized int getBlockCount() {
+        return levels[0].length / hashLength;
+    }
+
+    /**
+     * Tests whether any blocks need hashing again.
+     *
+     * @return {@code true} if {@link #refresh} needs to be called.
+     */
+    public synchronized boolean isDirty() {
+        return !dirtyBlocks.isEmpty() || !refreshingBlocks.isEmpty();
+    }
+
+    /**
+     * Gets the hash of a single block.
+     *
+     * @param block the index of the block.
+     * @return the hash.
+     * @throws IndexOutOfBoundsException if there is no such block.
+     * @throws IllegalStateException if the tree has blocks which need hashing again.
+     */
+    public synchronized byte[] getBlockHash(int block) {
+        checkNotDirty();
+        return hash(0, block);
+    }
+
+    /**
+     * Gets the root hash, which covers the whole binary.
+     *
+     * @return the hash.
+     * @throws IllegalStateException if the tree has blocks which need hashing again.
+     */
+    public synchronized byte[] getRootHash() {
+        checkNotDirty();
+        return hash(levels.length - 1, 0);
+    }
+
+    /**
+     * <p>Gets a hash covering a range of blocks, computed from hashes already in the tree.</p>
+     *
+     * <p>The range is divided into the largest whole subtrees which fit, and their hashes are hashed
+     * together. Two ranges have the same hash if they hold the same data and start at the same
+     * position relative to a multiple of a large power of two blocks, which is always the case
+     * when comparing the same range of two binaries.</p>
+     *
+     * @param fromBlock the first block, inclusive.
+     * @param toBlock the last block, exclusive.
+     * @return the hash.
+     * @throws IndexOutOfBoundsException if the range is not within the tree.
+     * @throws IllegalStateException if the tree has blocks which need hashing again.
+     */
+    public synchronized byte[] getRangeHash(int fromBlock, int toBlock) {
+        checkNotDirty();
+        if (fromBlock < 0 || fromBlock > toBlock || toBlock > getBlockCount()) {
+            throw new IndexOutOfBoundsException("Block range " + fromBlock + ".." + toBlock +
+                                                " is out of bounds (0.." + getBlockCount() + ")");
+        }
+        MessageDigest digest = newDigest(algorithm);
+        digest.update(RANGE_PREFIX);
+        int block = fromBlock;
+        while (block < toBlock) {
+            int level = 0;
+            while (level + 1 < levels.length && block % (2 << level) == 0 && block + (2 << level) <= toBlock) {
+                level++;
+            }
+            digest.update(levels[level], (block >> level) * hashLength, hashLength);
+            block += 1 << level;
+        }
+        return digest.digest();
+    }
+
+    @Override
+    public void binaryChanged(BinaryEvent event) {
+        invalidate(event.getNewLength(), event.getChangeStart(), event.getChangeEnd());
+    }
+
+    /**
+     * Marks blocks as needing hashing again after the binary has changed.
+     *
+     * @param newLength the length of the binary after the change.
+     * @param changeStart the first position which may have changed, inclusive.
+     * @param changeEnd the last position which may have changed, exclusive.
+     */
+    public synchronized void invalidate(long newLength, long changeStart, long changeEnd) {
+        if (newLength != length) {
+            int oldCount = getBlockCount();
+            int newCount = blockCount(newLength, blockSize);
+            levels = new byte[][] { Arrays.copyOf(levels[0], newCount * hashLength) };
+            length = newLength;
+            dirtyBlocks.clear(newCount, Math.max(oldCount, newCount));
+
+            // The last block's length has changed even if its content hasn't.
+            changeStart = Math.min(changeStart, newLength - 1);
+            changeEnd = Math.max(changeEnd, newLength);
+        }
+        if (changeEnd > changeStart) {
+            int lastBlock = getBlockCount() - 1;
+            dirtyBlocks.set((int) Math.min(lastBlock, Math.max(0, changeStart) / blockSize),
+                            (int) Math.min(lastBlock, (changeEnd - 1) / blockSize) + 1);
+        }
+    }
+
+    /**
+     * <p>Hashes every block which needs hashing again, then updates the rest of the tree to match.
+     * Blocks are hashed on the common fork-join pool.</p>
+     *
+     * <p>The tree isn't locked while hashing, so the binary can carry on being edited. Blocks
+     * changed while they were being hashed are left needing hashing again.</p>
+     *
+     * @param binary the binary the tree is for.
+     * @param monitor receives progress, in bytes, and can cancel hashing.
+     * @throws IllegalArgumentException if the binary is not the length the tree expects.
+     * @throws CancellationException if the monitor cancelled hashing. Blocks not yet hashed are still dirty.
+     */
+    public void refresh(Binary binary, ProgressMonitor monitor) {
+        synchronized (refreshLock) {
+            refreshUnderLock(binary, monitor);
+        }
+    }
+
+    private void refreshUnderLock(Binary binary, ProgressMonitor monitor) {
+        BitSet blocks;
+        long length;
+        synchronized (this) {
+            if (binary.length() != this.length) {
+                throw new IllegalArgumentException("Binary is " + binary.length() + " bytes but tree expects " + this.length);
+            }
+            if (dirtyBlocks.isEmpty()) {
+                return;
+            }
+            blocks = (BitSet) dirtyBlocks.clone();
+            dirtyBlocks.clear();
+            refreshingBlocks.or(blocks);
+            length = this.length;
+        }
+
+        Map<Integer, byte[]> hashes = new HashMap<>();
+        try {
+            hashBlocks(binary, length, blocks, hashes, monitor);
+        } finally {
+            synchronized (this) {
+                store(blocks, hashes);
+            }
+        }
+    }
+
+    /**
+     * Stores the hashes from a refresh. Any block invalidated since the refresh started is
+     * already dirty again, so its hash is dropped, as are hashes for blocks which no longer exist.
+     * Blocks which didn't get hashed are made dirty again.
+     */
+    private void store(BitSet blocks, Map<Integer, byte[]> hashes) {
+        refreshingBlocks.clear();
+        int blockCount = getBlockCount();
+        BitSet stored = new BitSet();
+        hashes.forEach((block, hash) -> {
+            if (block < blockCount && !dirtyBlocks.get(block)) {
+                System.arraycopy(hash, 0, levels[0], block * hashLength, hashLength);
+                stored.set(block);
+            }
+        });
+
+        BitSet unhashed = (BitSet) blocks.clone();
+        unhashed.andNot(stored);
+        unhashed.clear(blockCount, Math.max(blockCount, unhashed.length()));
+        dirtyBlocks.or(unhashed);
+        updateLevels(stored);
+    }
+
+    /**
+     * Hashes blocks on the common pool, keeping a limited number of blocks in flight.
+     */
+    private void hashBlocks(Binary binary, long length, BitSet blocks, Map<Integer, byte[]> hashes,
+                            ProgressMonitor monitor) {
+        int lastBlock = blockCount(length, blockSize) - 1;
+        long total = (long) blocks.cardinality() * blockSize -
+                     (blocks.get(lastBlock) ? (long) (lastBlock + 1) * blockSize - length : 0);
+        AtomicLong done = new AtomicLong();
+
+        PrimitiveIterator.OfInt iterator = blocks.stream().iterator();
+        Deque<Integer> inFlightBlocks = new ArrayDeque<>();
+        try (Futures.InFlight<byte[]> inFlight = new Futures.InFlight<>(ForkJoinPool.getCommonPoolParallelism())) {
+            while (true) {
+                while (!inFlight.isFull() && iterator.hasNext()) {
+                    int block = iterator.nextInt();
+                    long start = (long) block * blockSize;
+                    long end = Math.min(length, start + blockSize);
+                    inFlight.add(CompletableFuture.supplyAsync(() -> {
+                        if (monitor.isCancelled()) {
+                            throw new CancellationException();
+                        }
+                        MessageDigest digest = newDigest(algorithm);
+                        digest.update(LEAF_PREFIX);
+                        byte[] hash = DIGESTER.digest(binary, start, end, digest, ProgressMonitor.NONE);
+                        monitor.progress(done.addAndGet(end - start), total);
+                        return hash;
+                    }, ForkJoinPool.commonPool()));
+                    inFlightBlocks.add(block);
+                }
+
+                if (inFlight.isEmpty()) {
+                    return;
+                }
+                int block = inFlightBlocks.remove();
+                hashes.put(block, inFlight.joinOldest());
+            }
+        }
+    }
+
+    /**
+     * Updates the levels above the blocks after some blocks have been hashed again.
+     */
+    private void updateLevels(BitSet changedBlocks) {
+        if (levels.length == 1 && getBlockCount() > 1 || !dirtyBlocks.isEmpty()) {
+            // Either the block count changed, or some blocks weren't hashed and the
+            // tree above them can't be worked out yet. Either way, do it all later.
+            rebuildLevels();
+            return;
+        }
+
+        BitSet changed = changedBlocks;
+        for (int level = 1; level < levels.length; level++) {
+            BitSet parents = new BitSet();
+            changed.stream().forEach(index -> parents.set(index >> 1));
+            int level0 = level;
+            parents.stream().forEach(index -> computeNode(level0, index));
+            changed = parents;
+        }
+    }
+
+    /**
+     * Builds every level above the blocks.
+     */
+    private void rebuildLevels() {
+        List<byte[]> levels = new ArrayList<>();
+        levels.add(this.levels[0]);
+        int count = this.levels[0].length / hashLength;
+        while (count > 1) {
+            count = (count + 1) / 2;
+            levels.add(new byte[count * hashLength]);
+        }
+        this.levels = levels.toArray(new byte[0][]);
+        for (int level = 1; level < this.levels.length; level++) {
+            for (int index = 0; index < this.levels[level].length / hashLength; index++) {
+                computeNode(level, index);
+            }
+        }
+    }
+
+    /**
+     * Computes the hash of one node from the two below it, or copies the one below it if there is only one.
+     */
+    private void computeNode(int level, int index) {
+        byte[] below = levels[level - 1];
+        int left = index * 2 * hashLength;
+        if (left + hashLength >= below.length) {
+            System.arraycopy(below, left, levels[level], index * hashLength, hashLength);
+        } else {
+            MessageDigest digest = newDigest(algorithm);
+            digest.update(NODE_PREFIX);
+            digest.update(below, left, hashLength * 2);
+            System.arraycopy(digest.digest(), 0, levels[level], index * hashLength, hashLength);
+        }
+    }
+
+    /**
+     * <p>Compares this tree with the tree for another binary, without reading either binary.</p>
+     *
+     * <p>Subtrees whose hashes match are skipped without looking any further down, so the time
+     * taken depends on how many blocks differ rather than how many there are. Blocks are either
+     * wholly equal or changed, so changed ranges are always whole blocks.</p>
+     *
+     * @param other the tree for the other binary, treated as the new binary.
+     * @return the ranges, in order, covering both binaries from start to end.
+     * @throws IllegalArgumentException if the trees have different block sizes or algorithms.
+     * @throws IllegalStateException if either tree has blocks which need hashing again.
+     */
+    public List<DiffRange> compare(MerkleTree other) {
+        if (other.blockSize != blockSize || !other.algorithm.equals(algorithm)) {
+            throw new IllegalArgumentException("Trees have different block sizes or algorithms");
+        }
+
+        // Lock both in a consistent order so that two threads comparing the other way around don't deadlock.
+        MerkleTree first = System.identityHashCode(this) <= System.identityHashCode(other) ? this : other;
+        MerkleTree second = first == this ? other : this;
+        synchronized (first) {
+            synchronized (second) {
+                checkNotDirty();
+                other.checkNotDirty();
+
+                List<DiffRange> ranges = new ArrayList<>();
+                int commonBlocks = Math.min(getBlockCount(), other.getBlockCount());
+                int top = Math.min(levels.length, other.levels.length) - 1;
+                for (int index = 0; (long) index << top < commonBlocks; index++) {
+                    compare(other, top, index, commonBlocks, ranges);
+                }
+
+                long oldEnd = Math.min(length, (long) commonBlocks * blockSize);
+                long newEnd = Math.min(other.length, (long) commonBlocks * blockSize);
+                if (oldEnd < length) {
+                    add(ranges, DiffRange.Type.DELETED, oldEnd, length, newEnd, newEnd);
+                } else if (newEnd < other.length) {
+                    add(ranges, DiffRange.Type.INSERTED, oldEnd, oldEnd, newEnd, other.length);
+                }
+                return ranges;
+            }
+        }
+    }
+
+    private void compare(MerkleTree other, int level, int index, int commonBlocks, List<DiffRange> ranges) {
+        long firstBlock = (long) index << level;
+        if (firstBlock >= commonBlocks) {
+            return;
+        }
+
+        boolean equal = Arrays.equals(levels[level], index * hashLength, (index + 1) * hashLength,
+                                      other.levels[level], index * hashLength, (index + 1) * hashLength);
+        if (equal || level == 0) {
+            long endBlock = Math.min(commonBlocks, firstBlock + (1L << level));
+            long start = firstBlock * blockSize;
+            add(ranges, equal ? DiffRange.Type.EQUAL : DiffRange.Type.CHANGED,
+                start, Math.min(length, endBlock * blockSize), start, Math.min(other.length, endBlock * blockSize));
+        } else {
+            compare(other, level - 1, index * 2, commonBlocks, ranges);
+            compare(other, level - 1, index * 2 + 1, commonBlocks, ranges);
+        }
+    }
+
+    private static void add(List<DiffRange> ranges, DiffRange.Type type,
+                            long oldStart, long oldEnd, long newStart, long newEnd) {
+        int last = ranges.size() - 1;
+        if (last >= 0 && ranges.get(last).getType() == type) {
+            DiffRange previous = ranges.get(last);
+            ranges.set(last, new DiffRange(type, previous.getOldStart(), oldEnd, previous.getNewStart(), newEnd));
+        } else {
+            ranges.add(new DiffRange(type, oldStart, oldEnd, newStart, newEnd));
+        }
+    }
+
+    private byte[] hash(int level, int index) {
+        int count = levels[level].length / hashLength;
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds (0.." + (count - 1) + ")");
+        }
+        return Arrays.copyOfRange(levels[level], index * hashLength, (index + 1) * hashLength);
+    }
+
+    private void checkNotDirty() {
+        if (isDirty()) {
+            throw new IllegalStateException("Tree has blocks which need hashing again");
+        }
+    }
+
+    private static int blockCount(long length, int blockSize) {
+        long count = Math.max(1, (length + blockSize - 1) / blockSize);
+        if (count > Integer.MAX_VALUE / 64) {
+            throw new IllegalArgumentException("Block size " + blockSize + " is too small for length " + length);
+        }
+        return (int) count;
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Digest algorithm not available: " + algorithm, e);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import javax.annotation.Nullable;
+import java.util.Locale;
+import java.util.function.LongConsumer;
+
+/**
+ * <p>Searches a binary for a fixed sequence of bytes.</p>
+ *
+ * <p>The binary is read in large blocks, overlapping by one byte less than the length of the
+ * sequence so that matches spanning two blocks are not missed. How each block is searched
+ * depends on the length of the sequence:</p>
+ *
+ * <ul>
+ *     <li>Under 8 bytes, it scans for the first byte of the sequence eight bytes at a time,
+ *         treating each eight as a {@code long}, and checks the rest wherever it is found.
+ *         Horspool can't skip further than the length of the sequence, so it doesn't
+ *         help much here.</li>
+ *     <li>From 8 bytes up to 31, it uses Boyer-Moore-Horspool.</li>
+ *     <li>From 32 bytes, it uses Two-Way, which never looks at a byte of the binary more than
+ *         twice, where Horspool's worst case gets worse as the sequence gets longer.</li>
+ * </ul>
+ *
+ * <p>Instances are immutable and can be shared between threads.</p>
+ *
+ * @author trejkaz
+ */
+public class ByteSequenceSearcher {
+
+    /**
+     * The default number of bytes to read from the binary at a time.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final byte[] sequence;
+    private final int blockSize;
+
+    /**
+     * Matchers for the sequence and its reverse. {@code null} if the sequence is empty.
+     */
+    @Nullable
+    private final SequenceMatcher forwardMatcher;
+    @Nullable
+    private final SequenceMatcher backwardMatcher;
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param sequence the sequence of bytes to search for.
+     */
+    public ByteSequenceSearcher(byte[] sequence) {
+        this(sequence, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param sequence the sequence of bytes to search for.
+     * @param blockSize the number of bytes to read at a time. Increased if needed to fit the sequence.
+     */
+    ByteSequenceSearcher(byte[] sequence, int blockSize) {
+        this.sequence = sequence.clone();
+        this.blockSize = Math.max(blockSize, sequence.length * 2);
+        if (sequence.length > 0) {
+            forwardMatcher = SequenceMatcher.create(this.sequence);
+            backwardMatcher = SequenceMatcher.create(reversed(this.sequence));
+        } else {
+            forwardMatcher = backwardMatcher = null;
+        }
+    }
+
+    private static byte[] reversed(byte[] array) {
+        byte[] result = array.clone();
+        reverse(result, 0, result.length);
+        return result;
+    }
+
+    private static void reverse(byte[] array, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            byte tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * Gets the sequence being searched for.
+     *
+     * @return the sequence.
+     */
+    public byte[] getSequence() {
+        return sequence.clone();
+    }
+
+    /**
+     * Finds the first occurrence of the sequence in the binary.
+     *
+     * @param binary the binary to search.
+     * @return the position at which it was found, or {@code -1} if it was not found.
+     */
+    public long find(Binary binary) {
+        return find(binary, 0, binary.length());
+    }
+
+    /**
+     * Finds the first occurrence of the sequence lying entirely within a range of the binary.
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @return the position at which it was found, or {@code -1} if it was not found.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    public long find(Binary binary, long from, long to) {
+        checkRange(binary, from, to);
+        SequenceMatcher matcher = forwardMatcher;
+        if (matcher == null) {
+            return from;
+        }
+        int m = sequence.length;
+
+        byte[] block = new byte[(int) Math.min(blockSize, to - from)];
+        long position = from;
+        while (to - position >= m) {
+            int count = (int) Math.min(block.length, to - position);
+            binary.read(position, block, 0, count);
+            // Get the next block on its way while this one is searched.
+            binary.prefetch(position + count, Math.min(block.length, to - position - count));
+            int index = matcher.indexOf(block, 0, count);
+            if (index >= 0) {
+                return position + index;
+            }
+            position += count - m + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the last occurrence of the sequence in the binary.
+     *
+     * @param binary the binary to search.
+     * @return the position at which it was found, or {@code -1} if it was not found.
+     */
+    public long findLast(Binary binary) {
+        return findLast(binary, 0, binary.length());
+    }
+
+    /**
+     * Finds the last occurrence of the sequence lying entirely within a range of the binary.
+     *
+     * @param binary the binary to search.
+     * @param from the position to stop searching at, inclusive.
+     * @param to the position to start searching backwards from, exclusive.
+     * @return the position at which it was found, or {@code -1} if it was not found.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    public long findLast(Binary binary, long from, long to) {
+        checkRange(binary, from, to);
+        SequenceMatcher matcher = backwardMatcher;
+        if (matcher == null) {
+            return to;
+        }
+        int m = sequence.length;
+
+        // Each block is reversed in place and searched for the reversed sequence,
+        // which finds the last occurrence first without needing backwards variants of each algorithm.
+        byte[] block = new byte[(int) Math.min(blockSize, to - from)];
+        long end = to;
+        while (end - from >= m) {
+            int count = (int) Math.min(block.length, end - from);
+            long start = end - count;
+            binary.read(start, block, 0, count);
+            long previousStart = Math.max(from, start - block.length);
+            binary.prefetch(previousStart, start - previousStart);
+            reverse(block, 0, count);
+            int index = matcher.indexOf(block, 0, count);
+            if (index >= 0) {
+                return start + count - index - m;
+            }
+            end = start + m - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * <p>Finds every occurrence of the sequence lying entirely within a range of the binary,
+     * in order of position.</p>
+     *
+     * <p>Overlapping occurrences are all reported, so searching {@code AAAA} for {@code AA}
+     * reports positions 0, 1 and 2.</p>
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @param consumer receives the position of each occurrence.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    public void findAll(Binary binary, long from, long to, LongConsumer consumer) {
+        iterator(binary, from, to, ProgressMonitor.NONE).forEachRemaining(consumer);
+    }
+
+    /**
+     * Lazily iterates over every occurrence of the sequence in the binary, in order of position.
+     *
+     * @param binary the binary to search.
+     * @return the iterator.
+     */
+    public SearchHitIterator iterator(Binary binary) {
+        return iterator(binary, 0, binary.length(), ProgressMonitor.NONE);
+    }
+
+    /**
+     * Lazily iterates over every occurrence of the sequence lying entirely within a range
+     * of the binary, in order of position. Overlapping occurrences are all included.
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @param monitor receives progress each time another block of the binary is read,
+     *                and can cancel the search.
+     * @return the iterator.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    public SearchHitIterator iterator(Binary binary, long from, long to, ProgressMonitor monitor) {
+        checkRange(binary, from, to);
+        return new SearchHitIterator(forwardMatcher, sequence.length, blockSize, binary, from, to, monitor);
+    }
+
+    static void checkRange(Binary binary, long from, long to) {
+        if (from < 0 || from > to || to > binary.length()) {
+            throw new IndexOutOfBoundsException(
+                    String.format(Locale.ROOT, "Range %d..%d is out of bounds (0..%d)",
+                                  from, to, binary.length()));
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>DFA which is built from an NFA one state at a time, as the states are needed.</p>
+ *
+ * <p>Each DFA state is an ordered list of NFA states, highest priority first. In leftmost-first
+ * mode, NFA states with lower priority than a match are dropped, which is what makes the
+ * DFA prefer the same match a backtracking engine would, and lets the DFA die once
+ * nothing could beat the match already found.</p>
+ *
+ * <p>States are referred to by {@code int} handles, and transitions are kept in one flat table,
+ * so that running the DFA costs a single array lookup per byte. A handle is the index of the
+ * state's row in the table, shifted left two bits, with {@link #MATCH} and {@link #DEAD} in the
+ * low bits. The next state after reading a byte of class {@code c} in state {@code s} is
+ * {@code table[(s >>> 2) + c]}, or {@link #UNKNOWN} if it hasn't been built yet, in which case
+ * {@link #next(int, int)} builds it.</p>
+ *
+ * <p>The number of states kept is bounded. If the limit is reached, everything is thrown away and
+ * states are built again as needed, so memory use doesn't depend on the input. Handles from
+ * before that happens are no longer valid, but callers only ever hold the current state,
+ * which is the one {@link #next(int, int)} returns.</p>
+ *
+ * <p>Not thread-safe.</p>
+ *
+ * @author trejkaz
+ */
+class LazyDfa {
+
+    /**
+     * The default maximum number of states to keep.
+     */
+    static final int DEFAULT_MAX_STATES = 4096;
+
+    /**
+     * Flag set on handles of states where a match ends at the current position.
+     */
+    static final int MATCH = 1;
+
+    /**
+     * Flag set on handles of states from which no match is possible, however much more is read.
+     */
+    static final int DEAD = 2;
+
+    /**
+     * Table entry for a transition which hasn't been built yet.
+     */
+    static final int UNKNOWN = -1;
+
+    /**
+     * The handle of the dead state, which always has the first row.
+     */
+    private static final int DEAD_STATE = DEAD;
+
+    private final RegexNfa nfa;
+    private final int nfaStart;
+    private final boolean leftmostFirst;
+    private final int maxStates;
+    private final int classCount;
+
+    /**
+     * The transition table. Replaced when it grows, so callers have to fetch it again after
+     * calling {@link #next(int, int)}.
+     */
+    int[] table;
+
+    /**
+     * The NFA states making up each DFA state, by row.
+     */
+    private final List<int[]> stateNfaStates = new ArrayList<>();
+    private final Map<Key, Integer> cache = new HashMap<>();
+
+    private int startState = UNKNOWN;
+
+    /**
+     * Incremented every time everything is thrown away.
+     */
+    private int resetCount;
+
+    // Scratch space for building states.
+    private final int[] marks;
+    private int generation;
+    private final int[] stack;
+    private int[] building = new int[16];
+    private int buildingCount;
+
+    /**
+     * Constructs the DFA.
+     *
+     * @param nfa the NFA.
+     * @param nfaStart the NFA state to start in.
+     * @param leftmostFirst {@code true} to drop states with lower priority than a match.
+     * @param maxStates the maximum number of states to keep.
+     */
+    LazyDfa(RegexNfa nfa, int nfaStart, boolean leftmostFirst, int maxStates) {
+        this.nfa = nfa;
+        this.nfaStart = nfaStart;
+        this.leftmostFirst = leftmostFirst;
+        this.maxStates = Math.max(maxStates, 2);
+        this.classCount = nfa.classCount;
+        marks = new int[nfa.size()];
+        stack = new int[nfa.size() * 2 + 1];
+        table = new int[classCount * 16];
+        reset();
+    }
+
+    /**
+     * Throws away every state except the dead one.
+     */
+    private void reset() {
+        resetCount++;
+        cache.clear();
+        stateNfaStates.clear();
+        startState = UNKNOWN;
+
+        stateNfaStates.add(new int[0]);
+        Arrays.fill(table, 0, classCount, DEAD_STATE);
+    }
+
+    /**
+     * Gets the start state.
+     *
+     * @return the handle of the start state.
+     */
+    int start() {
+        int start = startState;
+        if (start == UNKNOWN) {
+            generation++;
+            buildingCount = 0;
+            addClosure(nfaStart);
+            start = intern();
+            startState = start;
+        }
+        return start;
+    }
+
+    /**
+     * Gets the state after reading a byte, building it if necessary.
+     *
+     * @param state the handle of the current state.
+     * @param byteClass the class of the byte.
+     * @return the handle of the next state.
+     */
+    int next(int state, int byteClass) {
+        int row = state >>> 2;
+        int next = table[row + byteClass];
+        if (next != UNKNOWN) {
+            return next;
+        }
+
+        RegexNfa nfa = this.nfa;
+        int representative = nfa.classRepresentatives[byteClass];
+        generation++;
+        buildingCount = 0;
+        for (int nfaState : stateNfaStates.get(row / classCount)) {
+            if (nfa.types[nfaState] == RegexNfa.BYTES && nfa.sets[nfaState].contains(representative)) {
+                if (addClosure(nfa.out1[nfaState])) {
+                    break;
+                }
+            }
+        }
+
+        int resetCountBefore = resetCount;
+        next = intern();
+        // If interning threw everything away, the current state's row is gone,
+        // but the caller is about to stop using it anyway.
+        if (resetCount == resetCountBefore) {
+            table[row + byteClass] = next;
+        }
+        return next;
+    }
+
+    /**
+     * Adds the closure of an NFA state to the state being built, in priority order.
+     *
+     * @param nfaState the NFA state.
+     * @return {@code true} if a match was reached in leftmost-first mode, so nothing more should be added.
+     */
+    private boolean addClosure(int nfaState) {
+        RegexNfa nfa = this.nfa;
+        int[] stack = this.stack;
+        int top = 0;
+        stack[top++] = nfaState;
+        while (top > 0) {
+            int s = stack[--top];
+            if (marks[s] == generation) {
+                continue;
+            }
+            marks[s] = generation;
+            switch (nfa.types[s]) {
+                case RegexNfa.SPLIT:
+                    // Pushed in reverse so that out1 is explored first.
+                    stack[top++] = nfa.out2[s];
+                    stack[top++] = nfa.out1[s];
+                    break;
+                case RegexNfa.MATCH:
+                    addBuilding(s);
+                    if (leftmostFirst) {
+                        return true;
+                    }
+                    break;
+                default:
+                    addBuilding(s);
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private void addBuilding(int nfaState) {
+        if (buildingCount == building.length) {
+            building = Arrays.copyOf(building, buildingCount * 2);
+        }
+        building[buildingCount++] = nfaState;
+    }
+
+    /**
+     * Gets the handle for the state being built, adding it if it's new.
+     *
+     * @return the handle.
+     */
+    private int intern() {
+        if (buildingCount == 0) {
+            return DEAD_STATE;
+        }
+
+        int[] nfaStates = Arrays.copyOf(building, buildingCount);
+        Key key = new Key(nfaStates);
+        Integer existing = cache.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (stateNfaStates.size() >= maxStates) {
+            reset();
+        }
+
+        int index = stateNfaStates.size();
+        stateNfaStates.add(nfaStates);
+        int row = index * classCount;
+        if (row + classCount > table.length) {
+            table = Arrays.copyOf(table, Math.max(table.length * 2, row + classCount));
+        }
+        Arrays.fill(table, row, row + classCount, UNKNOWN);
+
+        int flags = 0;
+        for (int nfaState : nfaStates) {
+            if (nfa.types[nfaState] == RegexNfa.MATCH) {
+                flags = MATCH;
+                break;
+            }
+        }
+        int handle = (row << 2) | flags;
+        cache.put(key, handle);
+        return handle;
+    }
+
+    /**
+     * Gets the number of states currently kept, including the dead state.
+     *
+     * @return the number of states.
+     */
+    int stateCount() {
+        return stateNfaStates.size();
+    }
+
+    /**
+     * Key for looking up states by their NFA states.
+     */
+    private static class Key {
+        private final int[] nfaStates;
+        private final int hashCode;
+
+        private Key(int[] nfaStates) {
+            this.nfaStates = nfaStates;
+            this.hashCode = Arrays.hashCode(nfaStates);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(((Key) o).nfaStates, nfaStates);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
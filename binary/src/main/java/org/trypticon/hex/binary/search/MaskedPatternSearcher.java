@@ -0,0 +1,525 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+/**
+ * <p>Searches a binary for a hex pattern containing wildcards.</p>
+ *
+ * <p>Patterns are written as pairs of hex digits, optionally separated by whitespace.
+ * Either digit can be replaced by {@code ?} to match any value for that nibble, so {@code ??}
+ * matches any byte and {@code 4?} matches {@code 40} to {@code 4F}. A gap of a variable
+ * number of arbitrary bytes can be written between bytes as {@code [min-max]}, or as
+ * {@code [n]} for exactly {@code n} bytes. For example:</p>
+ *
+ * <pre>
+ *     4D 5A ?? ?? 50 45
+ *     E8 ?? ?? ?? ??
+ *     50 4B 03 04 [10-30] 2E 78 6D 6C
+ * </pre>
+ *
+ * <p>The longest run of fully fixed bytes is used as an anchor. The binary is read in large
+ * blocks and searched for the anchor using the same algorithms as {@link ByteSequenceSearcher},
+ * and the rest of the pattern is only checked around each place the anchor is found.</p>
+ *
+ * <p>Every position at which the pattern starts is reported once. Where gaps allow more than one
+ * match from the same position, the shortest is reported.</p>
+ *
+ * <p>Instances are immutable and can be shared between threads.</p>
+ *
+ * @author trejkaz
+ */
+public class MaskedPatternSearcher {
+
+    /**
+     * The maximum size of a single gap. Limits how far the search can need to look
+     * around each anchor.
+     */
+    public static final int MAX_GAP = 64 * 1024;
+
+    private final String pattern;
+
+    /**
+     * The values and masks for each run of bytes between gaps.
+     * A byte {@code b} matches if {@code (b & mask) == value}.
+     */
+    private final byte[][] values;
+    private final byte[][] masks;
+
+    /**
+     * The minimum and maximum size of the gap after each run, except the last.
+     */
+    private final int[] minGaps;
+    private final int[] maxGaps;
+
+    private final int minLength;
+    private final int maxLength;
+
+    /**
+     * Matcher for the anchor, or {@code null} if the pattern has no fixed bytes at all.
+     */
+    @Nullable
+    private final SequenceMatcher anchorMatcher;
+    private final int anchorLength;
+
+    /**
+     * The minimum and maximum distance from the start of a match to the start of the anchor.
+     */
+    private final int anchorMinOffset;
+    private final int anchorMaxOffset;
+
+    private final int blockSize;
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param pattern the pattern, in the syntax described in the class documentation.
+     * @return the searcher.
+     * @throws IllegalArgumentException if the pattern is not valid.
+     */
+    public static MaskedPatternSearcher compile(String pattern) {
+        return compile(pattern, ByteSequenceSearcher.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param pattern the pattern, in the syntax described in the class documentation.
+     * @param blockSize the number of bytes to read at a time. Increased if needed to fit the pattern.
+     * @return the searcher.
+     * @throws IllegalArgumentException if the pattern is not valid.
+     */
+    static MaskedPatternSearcher compile(String pattern, int blockSize) {
+        List<byte[]> values = new ArrayList<>();
+        List<byte[]> masks = new ArrayList<>();
+        List<int[]> gaps = new ArrayList<>();
+        ByteArrayOutputStream runValues = new ByteArrayOutputStream();
+        ByteArrayOutputStream runMasks = new ByteArrayOutputStream();
+
+        int length = pattern.length();
+        int i = 0;
+        while (i < length) {
+            char c = pattern.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '[') {
+                int close = pattern.indexOf(']', i);
+                if (close < 0) {
+                    throw syntaxError(pattern, i, "unclosed gap");
+                }
+                if (runValues.size() == 0) {
+                    throw syntaxError(pattern, i, "gaps must be between bytes");
+                }
+                gaps.add(parseGap(pattern, i, pattern.substring(i + 1, close)));
+                values.add(runValues.toByteArray());
+                masks.add(runMasks.toByteArray());
+                runValues.reset();
+                runMasks.reset();
+                i = close + 1;
+            } else {
+                if (i + 1 >= length) {
+                    throw syntaxError(pattern, i, "incomplete byte");
+                }
+                int high = parseNibble(pattern, i);
+                int low = parseNibble(pattern, i + 1);
+                runValues.write(((high & 0xF) << 4) | (low & 0xF));
+                runMasks.write((high < 0 ? 0 : 0xF0) | (low < 0 ? 0 : 0x0F));
+                i += 2;
+            }
+        }
+        if (runValues.size() == 0) {
+            throw syntaxError(pattern, length, values.isEmpty() ? "pattern is empty" : "gaps must be between bytes");
+        }
+        values.add(runValues.toByteArray());
+        masks.add(runMasks.toByteArray());
+
+        return new MaskedPatternSearcher(pattern, values, masks, gaps, blockSize);
+    }
+
+    /**
+     * Parses a single hex digit or wildcard.
+     *
+     * @return the value of the digit, or {@code -1} for a wildcard.
+     */
+    private static int parseNibble(String pattern, int index) {
+        char c = pattern.charAt(index);
+        if (c == '?') {
+            return -1;
+        }
+        int digit = Character.digit(c, 16);
+        if (digit < 0) {
+            throw syntaxError(pattern, index, "expected a hex digit or '?'");
+        }
+        return digit;
+    }
+
+    private static int[] parseGap(String pattern, int index, String gap) {
+        int dash = gap.indexOf('-');
+        int min;
+        int max;
+        try {
+            if (dash < 0) {
+                min = max = Integer.parseInt(gap.trim());
+            } else {
+                min = Integer.parseInt(gap.substring(0, dash).trim());
+                max = Integer.parseInt(gap.substring(dash + 1).trim());
+            }
+        } catch (NumberFormatException e) {
+            throw syntaxError(pattern, index, "invalid gap");
+        }
+        if (min < 0 || max < min || max > MAX_GAP) {
+            throw syntaxError(pattern, index, "gap must be between 0 and " + MAX_GAP + " with min <= max");
+        }
+        return new int[] { min, max };
+    }
+
+    private static IllegalArgumentException syntaxError(String pattern, int index, String message) {
+        return new IllegalArgumentException("Invalid pattern at index " + index + ", " + message + ": " + pattern);
+    }
+
+    /**
+     * Constructs a searcher for a pattern without gaps.
+     *
+     * @param values the value of each byte to match.
+     * @param masks the mask for each byte. A byte {@code b} matches if {@code (b & mask) == (value & mask)}.
+     * @throws IllegalArgumentException if the arrays are empty or not the same length.
+     */
+    public MaskedPatternSearcher(byte[] values, byte[] masks) {
+        this(describe(values, masks), List.of(values.clone()), List.of(masks.clone()), List.of(),
+             ByteSequenceSearcher.DEFAULT_BLOCK_SIZE);
+    }
+
+    private static String describe(byte[] values, byte[] masks) {
+        if (values.length == 0 || values.length != masks.length) {
+            throw new IllegalArgumentException("Values and masks must be non-empty and the same length");
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(describeNibble(values[i] >> 4, masks[i] >> 4));
+            builder.append(describeNibble(values[i], masks[i]));
+        }
+        return builder.toString();
+    }
+
+    private static char describeNibble(int value, int mask) {
+        if ((mask & 0xF) == 0xF) {
+            return Character.toUpperCase(Character.forDigit(value & 0xF, 16));
+        } else if ((mask & 0xF) == 0) {
+            return '?';
+        } else {
+            // Partial nibble masks can't be written in the syntax, but this is only for display.
+            return '*';
+        }
+    }
+
+    private MaskedPatternSearcher(String pattern, List<byte[]> values, List<byte[]> masks,
+                                  List<int[]> gaps, int blockSize) {
+        this.pattern = pattern;
+        int runs = values.size();
+        this.values = new byte[runs][];
+        this.masks = new byte[runs][];
+        this.minGaps = new int[runs - 1];
+        this.maxGaps = new int[runs - 1];
+
+        int minLength = 0;
+        int maxLength = 0;
+        int bestAnchorRun = -1;
+        int bestAnchorStart = 0;
+        int bestAnchorLength = 0;
+        int bestAnchorMinOffset = 0;
+        int bestAnchorMaxOffset = 0;
+        for (int run = 0; run < runs; run++) {
+            byte[] runMasks = masks.get(run);
+            byte[] runValues = values.get(run).clone();
+            for (int i = 0; i < runValues.length; i++) {
+                runValues[i] &= runMasks[i];
+            }
+            this.values[run] = runValues;
+            this.masks[run] = runMasks;
+
+            // Find the longest run of fully fixed bytes in this run.
+            int fixedStart = 0;
+            for (int i = 0; i <= runMasks.length; i++) {
+                if (i == runMasks.length || runMasks[i] != (byte) 0xFF) {
+                    if (i - fixedStart > bestAnchorLength) {
+                        bestAnchorRun = run;
+                        bestAnchorStart = fixedStart;
+                        bestAnchorLength = i - fixedStart;
+                        bestAnchorMinOffset = minLength + fixedStart;
+                        bestAnchorMaxOffset = maxLength + fixedStart;
+                    }
+                    fixedStart = i + 1;
+                }
+            }
+
+            minLength += runValues.length;
+            maxLength += runValues.length;
+            if (run < runs - 1) {
+                minGaps[run] = gaps.get(run)[0];
+                maxGaps[run] = gaps.get(run)[1];
+                minLength += minGaps[run];
+                maxLength += maxGaps[run];
+            }
+        }
+
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        if (bestAnchorRun >= 0) {
+            byte[] anchor = Arrays.copyOfRange(this.values[bestAnchorRun], bestAnchorStart,
+                                               bestAnchorStart + bestAnchorLength);
+            anchorMatcher = SequenceMatcher.create(anchor);
+        } else {
+            anchorMatcher = null;
+        }
+        anchorLength = bestAnchorLength;
+        anchorMinOffset = bestAnchorMinOffset;
+        anchorMaxOffset = bestAnchorMaxOffset;
+        this.blockSize = Math.max(blockSize, maxLength * 2);
+    }
+
+    /**
+     * Gets the pattern.
+     *
+     * @return the pattern.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    /**
+     * Finds the first match of the pattern in the binary.
+     *
+     * @param binary the binary to search.
+     * @return the match, or {@code null} if it was not found.
+     */
+    @Nullable
+    public SearchHit find(Binary binary) {
+        return find(binary, 0, binary.length());
+    }
+
+    /**
+     * Finds the first match of the pattern lying entirely within a range of the binary.
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @return the match, or {@code null} if it was not found.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    @Nullable
+    public SearchHit find(Binary binary, long from, long to) {
+        SearchHit[] result = { null };
+        search(binary, from, to, ProgressMonitor.NONE, (start, end) -> {
+            result[0] = new SearchHit(start, end);
+            return false;
+        });
+        return result[0];
+    }
+
+    /**
+     * Finds every match of the pattern lying entirely within a range of the binary, in order of position.
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @param consumer receives each match.
+     * @param monitor receives progress after each block, and can cancel the search.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     * @throws CancellationException if the monitor cancelled the search.
+     */
+    public void findAll(Binary binary, long from, long to, Consumer<SearchHit> consumer, ProgressMonitor monitor) {
+        search(binary, from, to, monitor, (start, end) -> {
+            consumer.accept(new SearchHit(start, end));
+            return true;
+        });
+    }
+
+    private void search(Binary binary, long from, long to, ProgressMonitor monitor, HitHandler handler) {
+        ByteSequenceSearcher.checkRange(binary, from, to);
+        Verifier verifier = new Verifier();
+        SequenceMatcher anchorMatcher = this.anchorMatcher;
+
+        byte[] block = new byte[(int) Math.min(blockSize, to - from)];
+        long lastPossibleStart = to - minLength;
+
+        // The next start position which hasn't been considered yet.
+        long cursor = from;
+        while (cursor <= lastPossibleStart) {
+            if (monitor.isCancelled()) {
+                throw new CancellationException("Search was cancelled");
+            }
+
+            long blockStart = cursor;
+            int count = (int) Math.min(block.length, to - blockStart);
+            binary.read(blockStart, block, 0, count);
+            // Get the next block on its way while this one is searched.
+            binary.prefetch(blockStart + count, Math.min(block.length, to - blockStart - count));
+            boolean lastBlock = blockStart + count == to;
+
+            // Only starts whose longest possible match fits in this block are checked,
+            // the rest wait for the next block.
+            long blockLastStart = lastBlock ? lastPossibleStart : blockStart + count - maxLength;
+
+            if (anchorMatcher == null) {
+                for (long start = cursor; start <= blockLastStart; start++) {
+                    if (!check(block, blockStart, count, start, verifier, handler)) {
+                        return;
+                    }
+                }
+            } else {
+                int searchFrom = (int) (cursor - blockStart) + anchorMinOffset;
+                int searchTo = (int) Math.min(count, blockLastStart - blockStart + anchorMaxOffset + anchorLength);
+                int anchor;
+                while ((anchor = anchorMatcher.indexOf(block, searchFrom, searchTo)) >= 0) {
+                    // The anchor could belong to a match starting anywhere in this range.
+                    long low = Math.max(cursor, blockStart + anchor - anchorMaxOffset);
+                    long high = Math.min(blockLastStart, blockStart + anchor - anchorMinOffset);
+                    for (long start = low; start <= high; start++) {
+                        if (!check(block, blockStart, count, start, verifier, handler)) {
+                            return;
+                        }
+                    }
+                    cursor = Math.max(cursor, high + 1);
+                    searchFrom = anchor + 1;
+                }
+            }
+
+            cursor = blockLastStart + 1;
+            monitor.progress(lastBlock ? to - from : cursor - from, to - from);
+        }
+    }
+
+    private boolean check(byte[] block, long blockStart, int count, long start,
+                          Verifier verifier, HitHandler handler) {
+        int length = verifier.matchLength(block, (int) (start - blockStart), count);
+        return length < 0 || handler.hit(start, start + length);
+    }
+
+    private boolean runMatches(int run, byte[] data, int index, int limit) {
+        byte[] runValues = values[run];
+        byte[] runMasks = masks[run];
+        if (index + runValues.length > limit) {
+            return false;
+        }
+        for (int i = 0; i < runValues.length; i++) {
+            if ((data[index + i] & runMasks[i]) != runValues[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface HitHandler {
+        boolean hit(long start, long end);
+    }
+
+    /**
+     * Checks the whole pattern at a position. Holds scratch space so that checking
+     * doesn't need to allocate.
+     */
+    private class Verifier {
+        /**
+         * Offsets from the start at which the current and next run could start.
+         */
+        private int[] current = new int[16];
+        private int[] next = new int[16];
+
+        /**
+         * Marks offsets already added to {@link #next}, to avoid duplicates. An offset is
+         * marked if its entry equals {@link #generation}, which saves clearing the array.
+         */
+        private final int[] marks = new int[maxLength + 1];
+        private int generation;
+
+        /**
+         * Checks the whole pattern at a position.
+         *
+         * @param data the data.
+         * @param index the index to check at.
+         * @param limit the index of the end of the valid data.
+         * @return the length of the shortest match at the position, or {@code -1} if there is no match.
+         */
+        private int matchLength(byte[] data, int index, int limit) {
+            if (!runMatches(0, data, index, limit)) {
+                return -1;
+            }
+            int lastRun = values.length - 1;
+            if (lastRun == 0) {
+                return values[0].length;
+            }
+
+            int currentCount = 1;
+            current[0] = 0;
+            for (int run = 0; run < lastRun; run++) {
+                generation++;
+                int nextCount = 0;
+                for (int c = 0; c < currentCount; c++) {
+                    int offset = current[c];
+                    if (run > 0 && !runMatches(run, data, index + offset, limit)) {
+                        continue;
+                    }
+                    int gapStart = offset + values[run].length;
+                    for (int gap = minGaps[run]; gap <= maxGaps[run]; gap++) {
+                        int nextOffset = gapStart + gap;
+                        if (marks[nextOffset] != generation) {
+                            marks[nextOffset] = generation;
+                            if (nextCount == next.length) {
+                                next = Arrays.copyOf(next, nextCount * 2);
+                            }
+                            next[nextCount++] = nextOffset;
+                        }
+                    }
+                }
+
+                int[] swap = current;
+                current = next;
+                next = swap;
+                currentCount = nextCount;
+            }
+
+            int best = -1;
+            for (int c = 0; c < currentCount; c++) {
+                int offset = current[c];
+                if ((best < 0 || offset < best) && runMatches(lastRun, data, index + offset, limit)) {
+                    best = offset;
+                }
+            }
+            return best < 0 ? -1 : best + values[lastRun].length;
+        }
+    }
+}
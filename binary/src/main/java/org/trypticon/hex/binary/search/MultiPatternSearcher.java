@@ -0,0 +1,315 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * <p>Searches a binary for many byte sequences at once.</p>
+ *
+ * <p>The sequences are compiled into an Aho-Corasick automaton, which is then run over the
+ * binary in a single pass, reading it in large blocks. The time taken depends only on the
+ * size of the binary and the number of matches, not on the number of sequences.</p>
+ *
+ * <p>The automaton is fully expanded into a transition table of 256 entries per state, so
+ * memory use is about 1KB per distinct prefix of the sequences. This is fine for hundreds of
+ * signatures, but not for millions.</p>
+ *
+ * <p>Instances are immutable and can be shared between threads.</p>
+ *
+ * @author trejkaz
+ */
+public class MultiPatternSearcher {
+
+    /**
+     * The default number of bytes to read from the binary at a time.
+     */
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final List<byte[]> patterns;
+    private final int[] patternLengths;
+    private final int blockSize;
+
+    /**
+     * The transition table. The next state after reading byte {@code b} in state {@code s}
+     * is at {@code transitions[(s << 8) | b]}. The start state is 0.
+     */
+    private final int[] transitions;
+
+    /**
+     * The IDs of the patterns which end at each state, longest first,
+     * or {@code null} if there are none.
+     */
+    private final int[][] outputs;
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param patterns the sequences to search for. The ID of each pattern is its index in the list.
+     * @throws IllegalArgumentException if any of the sequences is empty.
+     */
+    public MultiPatternSearcher(List<byte[]> patterns) {
+        this(patterns, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param patterns the sequences to search for. The ID of each pattern is its index in the list.
+     * @param blockSize the number of bytes to read at a time.
+     * @throws IllegalArgumentException if any of the sequences is empty.
+     */
+    MultiPatternSearcher(List<byte[]> patterns, int blockSize) {
+        List<byte[]> copy = new ArrayList<>(patterns.size());
+        for (byte[] pattern : patterns) {
+            if (pattern.length == 0) {
+                throw new IllegalArgumentException("Patterns must not be empty");
+            }
+            copy.add(pattern.clone());
+        }
+        this.patterns = copy;
+        this.patternLengths = copy.stream().mapToInt(pattern -> pattern.length).toArray();
+        this.blockSize = blockSize;
+
+        Builder builder = new Builder();
+        for (int id = 0; id < copy.size(); id++) {
+            builder.add(copy.get(id), id);
+        }
+        int[] failures = builder.link();
+        transitions = builder.transitions();
+        outputs = builder.outputs(failures);
+    }
+
+    /**
+     * Gets the number of patterns.
+     *
+     * @return the number of patterns.
+     */
+    public int getPatternCount() {
+        return patterns.size();
+    }
+
+    /**
+     * Gets a pattern.
+     *
+     * @param id the ID of the pattern.
+     * @return the pattern.
+     */
+    public byte[] getPattern(int id) {
+        return patterns.get(id).clone();
+    }
+
+    /**
+     * Finds every occurrence of every pattern in the binary.
+     *
+     * @param binary the binary to search.
+     * @param handler receives each match.
+     */
+    public void findAll(Binary binary, MatchHandler handler) {
+        findAll(binary, 0, binary.length(), handler, ProgressMonitor.NONE);
+    }
+
+    /**
+     * <p>Finds every occurrence of every pattern lying entirely within a range of the binary.</p>
+     *
+     * <p>Matches are reported in order of the position at which they <em>end</em>. Matches ending
+     * at the same position are reported longest first. Overlapping matches are all reported.</p>
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @param handler receives each match.
+     * @param monitor receives progress after each block, and can cancel the search.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     * @throws CancellationException if the monitor cancelled the search.
+     */
+    public void findAll(Binary binary, long from, long to, MatchHandler handler, ProgressMonitor monitor) {
+        ByteSequenceSearcher.checkRange(binary, from, to);
+        int[] transitions = this.transitions;
+        int[][] outputs = this.outputs;
+        int[] patternLengths = this.patternLengths;
+
+        byte[] block = new byte[(int) Math.min(blockSize, to - from)];
+        int state = 0;
+        long position = from;
+        while (position < to) {
+            if (monitor.isCancelled()) {
+                throw new CancellationException("Search was cancelled");
+            }
+
+            int count = (int) Math.min(block.length, to - position);
+            binary.read(position, block, 0, count);
+            // Get the next block on its way while this one is searched.
+            binary.prefetch(position + count, Math.min(block.length, to - position - count));
+            for (int i = 0; i < count; i++) {
+                state = transitions[(state << 8) | (block[i] & 0xFF)];
+                int[] ids = outputs[state];
+                if (ids != null) {
+                    long end = position + i + 1;
+                    for (int id : ids) {
+                        handler.match(id, end - patternLengths[id]);
+                    }
+                }
+            }
+            position += count;
+            monitor.progress(position - from, to - from);
+        }
+    }
+
+    /**
+     * Receives matches found by {@link MultiPatternSearcher}.
+     */
+    @FunctionalInterface
+    public interface MatchHandler {
+
+        /**
+         * Called when a match is found.
+         *
+         * @param patternId the ID of the pattern which matched.
+         * @param position the position at which the match starts.
+         */
+        void match(int patternId, long position);
+    }
+
+    /**
+     * Builds the automaton.
+     */
+    private static class Builder {
+        /**
+         * Trie edges, 256 per state, {@code -1} where there is no edge.
+         */
+        private final List<int[]> edges = new ArrayList<>();
+        private final List<int[]> ownOutputs = new ArrayList<>();
+
+        private Builder() {
+            newState();
+        }
+
+        private int newState() {
+            int[] row = new int[256];
+            Arrays.fill(row, -1);
+            edges.add(row);
+            ownOutputs.add(new int[0]);
+            return edges.size() - 1;
+        }
+
+        private void add(byte[] pattern, int id) {
+            int state = 0;
+            for (byte b : pattern) {
+                int[] row = edges.get(state);
+                int next = row[b & 0xFF];
+                if (next < 0) {
+                    next = newState();
+                    row[b & 0xFF] = next;
+                }
+                state = next;
+            }
+            int[] ids = ownOutputs.get(state);
+            ids = Arrays.copyOf(ids, ids.length + 1);
+            ids[ids.length - 1] = id;
+            ownOutputs.set(state, ids);
+        }
+
+        /**
+         * Computes failure links breadth-first, filling in the missing edges to turn
+         * the trie into a complete automaton as we go.
+         *
+         * @return the failure link for each state.
+         */
+        private int[] link() {
+            int[] failures = new int[edges.size()];
+            Deque<Integer> queue = new ArrayDeque<>();
+            int[] root = edges.get(0);
+            for (int b = 0; b < 256; b++) {
+                if (root[b] < 0) {
+                    root[b] = 0;
+                } else {
+                    failures[root[b]] = 0;
+                    queue.add(root[b]);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                int state = queue.remove();
+                int[] row = edges.get(state);
+                int[] failureRow = edges.get(failures[state]);
+                for (int b = 0; b < 256; b++) {
+                    int next = row[b];
+                    if (next < 0) {
+                        row[b] = failureRow[b];
+                    } else {
+                        failures[next] = failureRow[b];
+                        queue.add(next);
+                    }
+                }
+            }
+            return failures;
+        }
+
+        private int[] transitions() {
+            int[] transitions = new int[edges.size() << 8];
+            for (int state = 0; state < edges.size(); state++) {
+                System.arraycopy(edges.get(state), 0, transitions, state << 8, 256);
+            }
+            return transitions;
+        }
+
+        private int[][] outputs(int[] failures) {
+            // Failure links always point to a shallower state, so computing outputs in
+            // breadth-first order means each failure state's outputs are already complete.
+            int[][] outputs = new int[edges.size()][];
+            outputs[0] = ownOutputs.get(0);
+            Deque<Integer> queue = new ArrayDeque<>();
+            queue.add(0);
+            boolean[] seen = new boolean[edges.size()];
+            seen[0] = true;
+            while (!queue.isEmpty()) {
+                int state = queue.remove();
+                int[] row = edges.get(state);
+                for (int b = 0; b < 256; b++) {
+                    int next = row[b];
+                    if (!seen[next]) {
+                        seen[next] = true;
+                        int[] own = ownOutputs.get(next);
+                        int[] inherited = outputs[failures[next]];
+                        int[] all = Arrays.copyOf(own, own.length + inherited.length);
+                        System.arraycopy(inherited, 0, all, own.length, inherited.length);
+                        outputs[next] = all;
+                        queue.add(next);
+                    }
+                }
+            }
+
+            for (int state = 0; state < outputs.length; state++) {
+                if (outputs[state].length == 0) {
+                    outputs[state] = null;
+                }
+            }
+            return outputs;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.Futures;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+/**
+ * <p>Searches a binary for a fixed sequence of bytes using multiple threads.</p>
+ *
+ * <p>The range is split into chunks which overlap by one byte less than the length of the
+ * sequence, and each chunk is searched by a {@link ByteSequenceSearcher} on an executor.
+ * Only a limited number of chunks are in flight at any one time, so memory use doesn't
+ * depend on the size of the binary, and chunks after a hit which has already been found
+ * are never searched.</p>
+ *
+ * <p>The binary must support reads from multiple threads at once, which all the binaries
+ * in this package do.</p>
+ *
+ * @author trejkaz
+ */
+public class ParallelSequenceSearcher {
+
+    /**
+     * The default number of bytes searched by each task.
+     */
+    static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final ByteSequenceSearcher searcher;
+    private final Executor executor;
+    private final long chunkSize;
+    private final int parallelism;
+
+    /**
+     * Constructs the searcher, searching on the common fork-join pool.
+     *
+     * @param searcher the searcher to use for each chunk.
+     */
+    public ParallelSequenceSearcher(ByteSequenceSearcher searcher) {
+        this(searcher, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param searcher the searcher to use for each chunk.
+     * @param executor the executor to search on.
+     * @param parallelism the number of threads the executor is expected to use.
+     *                    Used to decide how many chunks to submit ahead of time.
+     */
+    public ParallelSequenceSearcher(ByteSequenceSearcher searcher, Executor executor, int parallelism) {
+        this(searcher, executor, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs the searcher.
+     *
+     * @param searcher the searcher to use for each chunk.
+     * @param executor the executor to search on.
+     * @param parallelism the number of threads the executor is expected to use.
+     * @param chunkSize the number of positions searched by each task.
+     */
+    ParallelSequenceSearcher(ByteSequenceSearcher searcher, Executor executor, int parallelism, long chunkSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.searcher = searcher;
+        this.executor = executor;
+        this.chunkSize = Math.max(chunkSize, searcher.getSequence().length);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Finds the first occurrence of the sequence in the binary.
+     *
+     * @param binary the binary to search.
+     * @return the position at which it was found, or {@code -1} if it was not found.
+     */
+    public long find(Binary binary) {
+        return find(binary, 0, binary.length());
+    }
+
+    /**
+     * Finds the first occurrence of the sequence lying entirely within a range of the binary.
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @return the position at which it was found, or {@code -1} if it was not found.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    public long find(Binary binary, long from, long to) {
+        ByteSequenceSearcher.checkRange(binary, from, to);
+
+        // The earliest hit found so far. Chunks starting after it have nothing to contribute.
+        AtomicLong earliest = new AtomicLong(Long.MAX_VALUE);
+
+        long[] result = { -1 };
+        run(from, to, (start, end) -> CompletableFuture.supplyAsync(() -> {
+            if (start > earliest.get()) {
+                return -1L;
+            }
+            long hit = searcher.find(binary, start, end);
+            if (hit >= 0) {
+                earliest.accumulateAndGet(hit, Math::min);
+            }
+            return hit;
+        }, executor), hit -> {
+            if (hit >= 0) {
+                result[0] = hit;
+                return false;
+            }
+            return true;
+        });
+        return result[0];
+    }
+
+    /**
+     * Finds every occurrence of the sequence in the binary, in order of position.
+     *
+     * @param binary the binary to search.
+     * @param consumer receives the position of each occurrence. Always called from the calling thread.
+     */
+    public void findAll(Binary binary, LongConsumer consumer) {
+        findAll(binary, 0, binary.length(), consumer);
+    }
+
+    /**
+     * <p>Finds every occurrence of the sequence lying entirely within a range of the binary,
+     * in order of position.</p>
+     *
+     * <p>If the consumer throws an exception, searching stops and the exception propagates.</p>
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @param consumer receives the position of each occurrence. Always called from the calling thread.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    public void findAll(Binary binary, long from, long to, LongConsumer consumer) {
+        ByteSequenceSearcher.checkRange(binary, from, to);
+
+        run(from, to, (start, end) -> CompletableFuture.supplyAsync(() -> {
+            LongStream.Builder hits = LongStream.builder();
+            searcher.findAll(binary, start, end, hits);
+            return hits.build().toArray();
+        }, executor), hits -> {
+            for (long hit : hits) {
+                consumer.accept(hit);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Submits chunks in order, passing the result of each to the handler in order.
+     *
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @param submitter submits the search for a single chunk.
+     * @param handler handles the result of each chunk, returning {@code false} to stop.
+     * @param <R> the type of result for each chunk.
+     */
+    private <R> void run(long from, long to, ChunkSubmitter<R> submitter, ChunkHandler<R> handler) {
+        int m = searcher.getSequence().length;
+        long nextStart = from;
+        try (Futures.InFlight<R> inFlight = new Futures.InFlight<>(parallelism)) {
+            while (true) {
+                // Chunk i holds the positions at which a match can start, plus enough after that to complete one.
+                while (!inFlight.isFull() && nextStart <= to - m) {
+                    long start = nextStart;
+                    long end = Math.min(to, start + chunkSize + m - 1);
+                    inFlight.add(submitter.submit(start, end));
+                    nextStart = end - m + 1;
+                }
+
+                if (inFlight.isEmpty() || !handler.handle(inFlight.joinOldest())) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkSubmitter<R> {
+        CompletableFuture<R> submit(long start, long end);
+    }
+
+    @FunctionalInterface
+    private interface ChunkHandler<R> {
+        boolean handle(R result);
+    }
+}
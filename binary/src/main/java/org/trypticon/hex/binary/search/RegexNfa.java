@@ -0,0 +1,238 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.trypticon.hex.binary.search.RegexParser.Alternation;
+import org.trypticon.hex.binary.search.RegexParser.ByteSet;
+import org.trypticon.hex.binary.search.RegexParser.Concatenation;
+import org.trypticon.hex.binary.search.RegexParser.Node;
+import org.trypticon.hex.binary.search.RegexParser.Repetition;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * <p>Thompson NFA for a byte regular expression.</p>
+ *
+ * <p>Bytes which no part of the pattern tells apart are grouped into classes, so that
+ * DFA states built from the NFA need one transition per class rather than one per byte.</p>
+ *
+ * @author trejkaz
+ */
+class RegexNfa {
+
+    /**
+     * The largest number of states allowed, to stop things like {@code (a{1000}){1000}}
+     * using up all the memory.
+     */
+    static final int MAX_STATES = 100_000;
+
+    /**
+     * Consumes a byte in {@link #sets} and moves to {@link #out1}.
+     */
+    static final int BYTES = 0;
+
+    /**
+     * Moves to {@link #out1} and {@link #out2} without consuming anything, preferring {@code out1}.
+     */
+    static final int SPLIT = 1;
+
+    /**
+     * The pattern has matched.
+     */
+    static final int MATCH = 2;
+
+    final int[] types;
+    /**
+     * The set of bytes consumed by each {@link #BYTES} state, {@code null} for other states.
+     */
+    final ByteSet[] sets;
+    final int[] out1;
+    final int[] out2;
+
+    /**
+     * The state to start in to match at a specific position.
+     */
+    final int anchoredStart;
+
+    /**
+     * The state to start in to match at any position, equivalent to prefixing the pattern
+     * with a non-greedy {@code .*?}.
+     */
+    final int unanchoredStart;
+
+    /**
+     * The class of each byte.
+     */
+    final int[] byteClasses;
+
+    /**
+     * The number of byte classes.
+     */
+    final int classCount;
+
+    /**
+     * A byte from each class, for checking which classes a set contains.
+     */
+    final int[] classRepresentatives;
+
+    /**
+     * Builds the NFA.
+     *
+     * @param pattern the pattern, for error messages.
+     * @param root the syntax tree.
+     * @throws PatternSyntaxException if the pattern is too large.
+     */
+    RegexNfa(String pattern, Node root) {
+        Builder builder = new Builder(pattern);
+        int match = builder.add(MATCH, null, -1, -1);
+        anchoredStart = builder.compile(root, match);
+
+        int loop = builder.add(SPLIT, null, anchoredStart, -1);
+        int any = builder.add(BYTES, ByteSet.range(0, 255), loop, -1);
+        builder.out2.set(loop, any);
+        unanchoredStart = loop;
+
+        int count = builder.types.size();
+        types = new int[count];
+        sets = new ByteSet[count];
+        out1 = new int[count];
+        out2 = new int[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = builder.types.get(i);
+            sets[i] = builder.sets.get(i);
+            out1[i] = builder.out1.get(i);
+            out2[i] = builder.out2.get(i);
+        }
+
+        // A new class starts wherever any set starts or stops including bytes.
+        byteClasses = new int[256];
+        int classCount = 0;
+        List<Integer> representatives = new ArrayList<>();
+        representatives.add(0);
+        for (int b = 1; b < 256; b++) {
+            for (ByteSet set : sets) {
+                if (set != null && set.contains(b) != set.contains(b - 1)) {
+                    classCount++;
+                    representatives.add(b);
+                    break;
+                }
+            }
+            byteClasses[b] = classCount;
+        }
+        this.classCount = classCount + 1;
+        classRepresentatives = representatives.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    int size() {
+        return types.length;
+    }
+
+    /**
+     * Accumulates states while compiling.
+     */
+    private static class Builder {
+        private final String pattern;
+        private final List<Integer> types = new ArrayList<>();
+        private final List<ByteSet> sets = new ArrayList<>();
+        private final List<Integer> out1 = new ArrayList<>();
+        private final List<Integer> out2 = new ArrayList<>();
+
+        private Builder(String pattern) {
+            this.pattern = pattern;
+        }
+
+        private int add(int type, @Nullable ByteSet set, int out1, int out2) {
+            if (types.size() >= MAX_STATES) {
+                throw new PatternSyntaxException("Pattern is too large", pattern, -1);
+            }
+            types.add(type);
+            sets.add(set);
+            this.out1.add(out1);
+            this.out2.add(out2);
+            return types.size() - 1;
+        }
+
+        /**
+         * Compiles a node. Works backwards from the state to continue with afterwards,
+         * so that there's nothing to patch up later.
+         *
+         * @param node the node.
+         * @param next the state to go to after the node has matched.
+         * @return the state to start in to match the node.
+         */
+        private int compile(Node node, int next) {
+            if (node instanceof ByteSet) {
+                return add(BYTES, (ByteSet) node, next, -1);
+            } else if (node instanceof Concatenation) {
+                List<Node> items = ((Concatenation) node).items;
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    next = compile(items.get(i), next);
+                }
+                return next;
+            } else if (node instanceof Alternation) {
+                List<Node> alternatives = ((Alternation) node).alternatives;
+                int[] starts = new int[alternatives.size()];
+                for (int i = 0; i < starts.length; i++) {
+                    starts[i] = compile(alternatives.get(i), next);
+                }
+                int start = starts[starts.length - 1];
+                for (int i = starts.length - 2; i >= 0; i--) {
+                    start = add(SPLIT, null, starts[i], start);
+                }
+                return start;
+            } else if (node instanceof Repetition) {
+                return compileRepetition((Repetition) node, next);
+            } else {
+                throw new IllegalArgumentException("Unknown node: " + node);
+            }
+        }
+
+        private int compileRepetition(Repetition repetition, int next) {
+            int tail;
+            if (repetition.max < 0) {
+                // Loop back to a split which either goes around again or leaves.
+                int loop = add(SPLIT, null, -1, -1);
+                int body = compile(repetition.item, loop);
+                setSplit(loop, body, next, repetition.greedy);
+                tail = loop;
+            } else {
+                // Optional copies are nested, (x(x(x)?)?)?, so that skipping one skips the rest.
+                tail = next;
+                for (int i = repetition.min; i < repetition.max; i++) {
+                    int body = compile(repetition.item, tail);
+                    int split = add(SPLIT, null, -1, -1);
+                    setSplit(split, body, next, repetition.greedy);
+                    tail = split;
+                }
+            }
+            for (int i = 0; i < repetition.min; i++) {
+                tail = compile(repetition.item, tail);
+            }
+            return tail;
+        }
+
+        private void setSplit(int split, int body, int skip, boolean greedy) {
+            out1.set(split, greedy ? body : skip);
+            out2.set(split, greedy ? skip : body);
+        }
+    }
+}
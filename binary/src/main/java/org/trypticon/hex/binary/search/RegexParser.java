@@ -0,0 +1,456 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * <p>Parses byte regular expressions into a syntax tree.</p>
+ *
+ * <p>See {@link RegexSearcher} for the syntax.</p>
+ *
+ * @author trejkaz
+ */
+class RegexParser {
+
+    /**
+     * The largest count allowed in a {@code {n,m}} repetition.
+     */
+    static final int MAX_REPEAT = 1000;
+
+    private final String pattern;
+    private int index;
+
+    private RegexParser(String pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Parses a pattern.
+     *
+     * @param pattern the pattern.
+     * @return the root of the syntax tree.
+     * @throws PatternSyntaxException if the pattern is not valid.
+     */
+    static Node parse(String pattern) {
+        RegexParser parser = new RegexParser(pattern);
+        Node node = parser.parseAlternation();
+        if (parser.index < pattern.length()) {
+            // The only way to stop early is an unmatched close bracket.
+            throw parser.error("Unmatched ')'");
+        }
+        return node;
+    }
+
+    private Node parseAlternation() {
+        List<Node> alternatives = new ArrayList<>();
+        alternatives.add(parseConcatenation());
+        while (peek() == '|') {
+            index++;
+            alternatives.add(parseConcatenation());
+        }
+        return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+    }
+
+    private Node parseConcatenation() {
+        List<Node> items = new ArrayList<>();
+        while (index < pattern.length() && peek() != '|' && peek() != ')') {
+            items.add(parseRepetition());
+        }
+        return items.size() == 1 ? items.get(0) : new Concatenation(items);
+    }
+
+    private Node parseRepetition() {
+        Node atom = parseAtom();
+        int min;
+        int max;
+        switch (peek()) {
+            case '*':
+                min = 0;
+                max = -1;
+                index++;
+                break;
+            case '+':
+                min = 1;
+                max = -1;
+                index++;
+                break;
+            case '?':
+                min = 0;
+                max = 1;
+                index++;
+                break;
+            case '{':
+                int[] counts = parseCounts();
+                min = counts[0];
+                max = counts[1];
+                break;
+            default:
+                return atom;
+        }
+
+        boolean greedy = true;
+        if (peek() == '?') {
+            greedy = false;
+            index++;
+        }
+        if (peek() == '*' || peek() == '+' || peek() == '?' || peek() == '{') {
+            throw error("Dangling quantifier");
+        }
+        return new Repetition(atom, min, max, greedy);
+    }
+
+    private int[] parseCounts() {
+        int start = index;
+        int close = pattern.indexOf('}', index);
+        if (close < 0) {
+            throw error("Unclosed repetition");
+        }
+        String counts = pattern.substring(index + 1, close);
+        int comma = counts.indexOf(',');
+        int min;
+        int max;
+        try {
+            if (comma < 0) {
+                min = max = Integer.parseInt(counts);
+            } else {
+                min = Integer.parseInt(counts.substring(0, comma));
+                max = comma == counts.length() - 1 ? -1 : Integer.parseInt(counts.substring(comma + 1));
+            }
+        } catch (NumberFormatException e) {
+            index = start;
+            throw error("Invalid repetition");
+        }
+        if (min < 0 || min > MAX_REPEAT || max > MAX_REPEAT || (max >= 0 && max < min)) {
+            index = start;
+            throw error("Repetition counts must be between 0 and " + MAX_REPEAT + " with min <= max");
+        }
+        index = close + 1;
+        return new int[] { min, max };
+    }
+
+    private Node parseAtom() {
+        char c = pattern.charAt(index);
+        switch (c) {
+            case '(':
+                index++;
+                if (pattern.startsWith("?:", index)) {
+                    index += 2;
+                }
+                Node group = parseAlternation();
+                if (peek() != ')') {
+                    throw error("Unclosed group");
+                }
+                index++;
+                return group;
+            case '[':
+                return parseClass();
+            case '.':
+                index++;
+                return ByteSet.range(0, 255);
+            case '\\':
+                return parseEscape(false);
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                throw error("Dangling quantifier");
+            case '^':
+            case '$':
+                throw error("Anchors are not supported");
+            case ']':
+            case '}':
+                throw error("Unescaped '" + c + "'");
+            default:
+                index++;
+                return ByteSet.range(checkByte(c), checkByte(c));
+        }
+    }
+
+    private ByteSet parseClass() {
+        index++;
+        boolean negated = false;
+        if (peek() == '^') {
+            negated = true;
+            index++;
+        }
+
+        ByteSet set = new ByteSet();
+        boolean first = true;
+        while (true) {
+            if (index >= pattern.length()) {
+                throw error("Unclosed character class");
+            }
+            char c = pattern.charAt(index);
+            if (c == ']' && !first) {
+                index++;
+                break;
+            }
+            first = false;
+
+            ByteSet low = classItem();
+            if (peek() == '-' && index + 1 < pattern.length() && pattern.charAt(index + 1) != ']') {
+                index++;
+                ByteSet high = classItem();
+                int from = low.single();
+                int to = high.single();
+                if (from < 0 || to < 0 || to < from) {
+                    throw error("Invalid range in character class");
+                }
+                set.addAll(ByteSet.range(from, to));
+            } else {
+                set.addAll(low);
+            }
+        }
+        return negated ? set.complement() : set;
+    }
+
+    private ByteSet classItem() {
+        char c = pattern.charAt(index);
+        if (c == '\\') {
+            return parseEscape(true);
+        }
+        index++;
+        return ByteSet.range(checkByte(c), checkByte(c));
+    }
+
+    private ByteSet parseEscape(boolean inClass) {
+        index++;
+        if (index >= pattern.length()) {
+            throw error("Trailing backslash");
+        }
+        char c = pattern.charAt(index++);
+        switch (c) {
+            case 'x':
+                if (index + 2 > pattern.length()) {
+                    throw error("Incomplete hex escape");
+                }
+                int high = Character.digit(pattern.charAt(index), 16);
+                int low = Character.digit(pattern.charAt(index + 1), 16);
+                if (high < 0 || low < 0) {
+                    throw error("Invalid hex escape");
+                }
+                index += 2;
+                return ByteSet.range(high << 4 | low, high << 4 | low);
+            case '0':
+                return ByteSet.range(0, 0);
+            case 'n':
+                return ByteSet.range('\n', '\n');
+            case 'r':
+                return ByteSet.range('\r', '\r');
+            case 't':
+                return ByteSet.range('\t', '\t');
+            case 'f':
+                return ByteSet.range('\f', '\f');
+            case 'd':
+                return digits();
+            case 'D':
+                return digits().complement();
+            case 'w':
+                return wordBytes();
+            case 'W':
+                return wordBytes().complement();
+            case 's':
+                return whitespace();
+            case 'S':
+                return whitespace().complement();
+            default:
+                if (Character.isLetterOrDigit(c)) {
+                    index--;
+                    throw error("Unknown escape" + (inClass ? " in character class" : ""));
+                }
+                return ByteSet.range(checkByte(c), checkByte(c));
+        }
+    }
+
+    private static ByteSet digits() {
+        return ByteSet.range('0', '9');
+    }
+
+    private static ByteSet wordBytes() {
+        ByteSet set = ByteSet.range('a', 'z');
+        set.addAll(ByteSet.range('A', 'Z'));
+        set.addAll(digits());
+        set.addAll(ByteSet.range('_', '_'));
+        return set;
+    }
+
+    private static ByteSet whitespace() {
+        ByteSet set = ByteSet.range('\t', '\r');
+        set.addAll(ByteSet.range(' ', ' '));
+        return set;
+    }
+
+    private int checkByte(char c) {
+        if (c > 0xFF) {
+            throw error("Characters above \\xFF can't be matched against bytes");
+        }
+        return c;
+    }
+
+    private char peek() {
+        return index < pattern.length() ? pattern.charAt(index) : '\0';
+    }
+
+    private PatternSyntaxException error(String description) {
+        return new PatternSyntaxException(description, pattern, index);
+    }
+
+    /**
+     * A node in the syntax tree.
+     */
+    abstract static class Node {
+        /**
+         * Gets a node matching the reverse of whatever this node matches.
+         *
+         * @return the reversed node.
+         */
+        abstract Node reverse();
+    }
+
+    /**
+     * Matches a single byte from a set.
+     */
+    static class ByteSet extends Node {
+        final long[] bits = new long[4];
+
+        static ByteSet range(int from, int to) {
+            ByteSet set = new ByteSet();
+            for (int b = from; b <= to; b++) {
+                set.bits[b >>> 6] |= 1L << b;
+            }
+            return set;
+        }
+
+        boolean contains(int b) {
+            return (bits[b >>> 6] & (1L << b)) != 0;
+        }
+
+        void addAll(ByteSet other) {
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] |= other.bits[i];
+            }
+        }
+
+        ByteSet complement() {
+            ByteSet set = new ByteSet();
+            for (int i = 0; i < bits.length; i++) {
+                set.bits[i] = ~bits[i];
+            }
+            return set;
+        }
+
+        /**
+         * Gets the only byte in the set.
+         *
+         * @return the byte, or {@code -1} if the set doesn't contain exactly one byte.
+         */
+        int single() {
+            int result = -1;
+            for (int b = 0; b < 256; b++) {
+                if (contains(b)) {
+                    if (result >= 0) {
+                        return -1;
+                    }
+                    result = b;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Node reverse() {
+            return this;
+        }
+    }
+
+    /**
+     * Matches each of its items in order. Matches the empty string if there are no items.
+     */
+    static class Concatenation extends Node {
+        final List<Node> items;
+
+        Concatenation(List<Node> items) {
+            this.items = items;
+        }
+
+        @Override
+        Node reverse() {
+            List<Node> reversed = new ArrayList<>(items.size());
+            for (Node item : items) {
+                reversed.add(item.reverse());
+            }
+            Collections.reverse(reversed);
+            return new Concatenation(reversed);
+        }
+    }
+
+    /**
+     * Matches any one of its alternatives, preferring earlier ones.
+     */
+    static class Alternation extends Node {
+        final List<Node> alternatives;
+
+        Alternation(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        Node reverse() {
+            List<Node> reversed = new ArrayList<>(alternatives.size());
+            for (Node alternative : alternatives) {
+                reversed.add(alternative.reverse());
+            }
+            return new Alternation(reversed);
+        }
+    }
+
+    /**
+     * Matches its item repeatedly.
+     */
+    static class Repetition extends Node {
+        final Node item;
+        final int min;
+
+        /**
+         * The maximum number of repetitions, or {@code -1} for no maximum.
+         */
+        final int max;
+
+        /**
+         * Whether to prefer more repetitions over fewer.
+         */
+        final boolean greedy;
+
+        Repetition(Node item, int min, int max, boolean greedy) {
+            this.item = item;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+
+        @Override
+        Node reverse() {
+            return new Repetition(item.reverse(), min, max, greedy);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * <p>Searches a binary for a regular expression over bytes.</p>
+ *
+ * <p>The syntax is a subset of the usual regular expression syntax, where each character
+ * matches the byte with the same value:</p>
+ *
+ * <ul>
+ *     <li>Any character other than {@code \ . [ ] ( ) | * + ? { } ^ $} matches itself.
+ *         Characters above {@code \xFF} are not allowed.</li>
+ *     <li>{@code \xHH} matches the byte with hex value {@code HH}. {@code \0}, {@code \t},
+ *         {@code \n}, {@code \f} and {@code \r} match the usual control characters, and a
+ *         backslash followed by punctuation matches that punctuation.</li>
+ *     <li>{@code .} matches any byte at all, including newlines.</li>
+ *     <li>{@code [...]} matches any byte in the set, which can include ranges such as
+ *         {@code [\x00-\x1F]}, and {@code [^...]} matches any byte not in the set.</li>
+ *     <li>{@code \d}, {@code \w} and {@code \s} match ASCII digits, word characters and whitespace,
+ *         and {@code \D}, {@code \W} and {@code \S} match everything else.</li>
+ *     <li>{@code (...)} and {@code (?:...)} group, and {@code |} separates alternatives.</li>
+ *     <li>{@code *}, {@code +}, {@code ?}, {@code {n}}, {@code {n,}} and {@code {n,m}} repeat,
+ *         preferring more repetitions, or fewer if followed by {@code ?}. Counts can be up to
+ *         1000.</li>
+ * </ul>
+ *
+ * <p>There are no anchors, back-references or capturing groups.</p>
+ *
+ * <p>Matches are found the same way {@link java.util.regex.Pattern} finds them: the match
+ * starting earliest wins, and among matches starting at the same position, the one preferred by
+ * the order of alternatives and the greediness of repetitions wins. Finding all matches finds
+ * non-overlapping matches, and carries on from the end of each one. The only difference is
+ * when repeating something which can match nothing, such as {@code (a?)*}, where the two
+ * can disagree about how many times an empty repetition counts.</p>
+ *
+ * <p>The pattern is compiled to an NFA, from which a DFA is built lazily while searching.
+ * A forward pass finds where the match ends, then a pass backwards over the reversed pattern
+ * finds where it starts. If every match starts with the same literal bytes, those are searched for
+ * first using the same algorithms as {@link ByteSequenceSearcher}, and the DFA only runs from where
+ * they are found. The binary is read in large blocks, and the number of DFA states kept is bounded,
+ * so memory use doesn't depend on the size of the binary.</p>
+ *
+ * <p>Instances are immutable and can be shared between threads. Each search builds its own DFA.</p>
+ *
+ * @author trejkaz
+ */
+public class RegexSearcher {
+
+    private final String pattern;
+    private final RegexNfa forwardNfa;
+    private final RegexNfa reverseNfa;
+    private final int blockSize;
+    private final int maxDfaStates;
+
+    /**
+     * Matcher for the literal bytes every match starts with, or {@code null} if there aren't any.
+     */
+    @Nullable
+    private final SequenceMatcher prefixMatcher;
+
+    private RegexSearcher(String pattern, int blockSize, int maxDfaStates) {
+        RegexParser.Node root = RegexParser.parse(pattern);
+        this.pattern = pattern;
+        this.forwardNfa = new RegexNfa(pattern, root);
+        this.reverseNfa = new RegexNfa(pattern, root.reverse());
+        byte[] prefix = literalPrefix(root);
+        this.prefixMatcher = prefix.length > 0 ? SequenceMatcher.create(prefix) : null;
+        // The prefix search needs a whole occurrence to fit in a block, and the reverse pass needs
+        // at least one byte per block to make progress.
+        this.blockSize = Math.max(blockSize, Math.max(1, prefix.length));
+        this.maxDfaStates = maxDfaStates;
+    }
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param pattern the pattern, in the syntax described in the class documentation.
+     * @return the searcher.
+     * @throws PatternSyntaxException if the pattern is not valid.
+     */
+    public static RegexSearcher compile(String pattern) {
+        return new RegexSearcher(pattern, ByteSequenceSearcher.DEFAULT_BLOCK_SIZE, LazyDfa.DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param pattern the pattern, in the syntax described in the class documentation.
+     * @param blockSize the number of bytes to read at a time.
+     * @param maxDfaStates the maximum number of DFA states to keep.
+     * @return the searcher.
+     * @throws PatternSyntaxException if the pattern is not valid.
+     */
+    static RegexSearcher compile(String pattern, int blockSize, int maxDfaStates) {
+        return new RegexSearcher(pattern, blockSize, maxDfaStates);
+    }
+
+    private static byte[] literalPrefix(RegexParser.Node root) {
+        List<RegexParser.Node> items = root instanceof RegexParser.Concatenation
+                ? ((RegexParser.Concatenation) root).items
+                : Collections.singletonList(root);
+        ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+        for (RegexParser.Node item : items) {
+            int b = item instanceof RegexParser.ByteSet ? ((RegexParser.ByteSet) item).single() : -1;
+            if (b < 0) {
+                break;
+            }
+            prefix.write(b);
+        }
+        return prefix.toByteArray();
+    }
+
+    /**
+     * Gets the pattern.
+     *
+     * @return the pattern.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    /**
+     * Finds the first match of the pattern in the binary.
+     *
+     * @param binary the binary to search.
+     * @return the match, or {@code null} if it was not found.
+     */
+    @Nullable
+    public SearchHit find(Binary binary) {
+        return find(binary, 0, binary.length());
+    }
+
+    /**
+     * Finds the first match of the pattern lying entirely within a range of the binary.
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @return the match, or {@code null} if it was not found.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    @Nullable
+    public SearchHit find(Binary binary, long from, long to) {
+        ByteSequenceSearcher.checkRange(binary, from, to);
+        return new Search(binary, from, to, ProgressMonitor.NONE).next(from);
+    }
+
+    /**
+     * Finds every non-overlapping match of the pattern lying entirely within a range of the binary,
+     * in order of position.
+     *
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @param consumer receives each match.
+     * @param monitor receives progress after each block, and can cancel the search.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     * @throws CancellationException if the monitor cancelled the search.
+     */
+    public void findAll(Binary binary, long from, long to, Consumer<SearchHit> consumer, ProgressMonitor monitor) {
+        ByteSequenceSearcher.checkRange(binary, from, to);
+        Search search = new Search(binary, from, to, monitor);
+        long position = from;
+        SearchHit hit;
+        while (position <= to && (hit = search.next(position)) != null) {
+            consumer.accept(hit);
+            // An empty match would be found again at the same place, so step past it.
+            position = hit.getLength() > 0 ? hit.getEnd() : hit.getEnd() + 1;
+        }
+    }
+
+    /**
+     * State for a single search.
+     */
+    private class Search {
+        private final Binary binary;
+        private final long from;
+        private final long to;
+        private final ProgressMonitor monitor;
+        private final LazyDfa forward;
+        private final LazyDfa reverse;
+
+        /**
+         * The most recently read block, which both passes share so that finding lots of small
+         * matches doesn't read the same data over and over.
+         */
+        private final byte[] block;
+        private long blockStart;
+        private int blockCount;
+
+        private Search(Binary binary, long from, long to, ProgressMonitor monitor) {
+            this.binary = binary;
+            this.from = from;
+            this.to = to;
+            this.monitor = monitor;
+            forward = new LazyDfa(forwardNfa, forwardNfa.unanchoredStart, true, maxDfaStates);
+            reverse = new LazyDfa(reverseNfa, reverseNfa.anchoredStart, false, maxDfaStates);
+            block = new byte[(int) Math.min(blockSize, to - from)];
+        }
+
+        /**
+         * Finds the next match.
+         *
+         * @param position the position to start searching from.
+         * @return the match, or {@code null} if there are no more.
+         */
+        @Nullable
+        private SearchHit next(long position) {
+            long end = findEnd(position);
+            if (end < 0) {
+                return null;
+            }
+            return new SearchHit(findStart(position, end), end);
+        }
+
+        /**
+         * Runs the forward DFA until it dies or the end of the range is reached.
+         *
+         * @return the end of the match, or {@code -1} if there is no match.
+         */
+        private long findEnd(long position) {
+            SequenceMatcher prefixMatcher = RegexSearcher.this.prefixMatcher;
+            if (prefixMatcher != null) {
+                // No match can start before the next occurrence of the prefix, so skip straight there.
+                position = findPrefix(prefixMatcher, position);
+                if (position < 0) {
+                    return -1;
+                }
+            }
+
+            LazyDfa dfa = forward;
+            int[] byteClasses = forwardNfa.byteClasses;
+            int[] table = dfa.table;
+            int state = dfa.start();
+            long lastEnd = (state & LazyDfa.MATCH) != 0 ? position : -1;
+            while (position < to && (state & LazyDfa.DEAD) == 0) {
+                if (position < blockStart || position >= blockStart + blockCount) {
+                    readBlock(position);
+                }
+
+                byte[] block = this.block;
+                int i = (int) (position - blockStart);
+                int count = blockCount;
+                for (; i < count; i++) {
+                    int byteClass = byteClasses[block[i] & 0xFF];
+                    int next = table[(state >>> 2) + byteClass];
+                    if (next == LazyDfa.UNKNOWN) {
+                        next = dfa.next(state, byteClass);
+                        table = dfa.table;
+                    }
+                    state = next;
+                    if ((state & (LazyDfa.MATCH | LazyDfa.DEAD)) != 0) {
+                        if ((state & LazyDfa.DEAD) != 0) {
+                            break;
+                        }
+                        lastEnd = blockStart + i + 1;
+                    }
+                }
+                position = blockStart + i;
+            }
+            return lastEnd;
+        }
+
+        /**
+         * Finds the next occurrence of the literal prefix.
+         *
+         * @return the position of the prefix, or {@code -1} if it doesn't occur again.
+         */
+        private long findPrefix(SequenceMatcher prefixMatcher, long position) {
+            int length = prefixMatcher.sequence.length;
+            while (to - position >= length) {
+                if (position < blockStart || position + length > blockStart + blockCount) {
+                    readBlock(position);
+                }
+                int index = prefixMatcher.indexOf(block, (int) (position - blockStart), blockCount);
+                if (index >= 0) {
+                    return blockStart + index;
+                }
+                // Carry on from the first position where the prefix wouldn't have fit in this block.
+                position = blockStart + blockCount - length + 1;
+            }
+            return -1;
+        }
+
+        /**
+         * Runs the reverse DFA backwards from the end of a match to find where it starts.
+         *
+         * @return the start of the match.
+         */
+        private long findStart(long lowest, long end) {
+            LazyDfa dfa = reverse;
+            int[] byteClasses = reverseNfa.byteClasses;
+            int[] table = dfa.table;
+            int state = dfa.start();
+            long start = (state & LazyDfa.MATCH) != 0 ? end : -1;
+            long position = end;
+            while (position > lowest && (state & LazyDfa.DEAD) == 0) {
+                if (position <= blockStart || position > blockStart + blockCount) {
+                    readBlock(Math.max(from, position - block.length));
+                }
+
+                byte[] block = this.block;
+                int i = (int) (position - blockStart);
+                int stop = (int) Math.max(0, lowest - blockStart);
+                while (i > stop) {
+                    int byteClass = byteClasses[block[i - 1] & 0xFF];
+                    int next = table[(state >>> 2) + byteClass];
+                    if (next == LazyDfa.UNKNOWN) {
+                        next = dfa.next(state, byteClass);
+                        table = dfa.table;
+                    }
+                    state = next;
+                    if ((state & LazyDfa.DEAD) != 0) {
+                        break;
+                    }
+                    i--;
+                    if ((state & LazyDfa.MATCH) != 0) {
+                        start = blockStart + i;
+                    }
+                }
+                position = blockStart + i;
+            }
+            if (start < 0) {
+                throw new IllegalStateException("Reverse search found no start for match ending at " + end);
+            }
+            return start;
+        }
+
+        private void readBlock(long position) {
+            if (monitor.isCancelled()) {
+                throw new CancellationException("Search was cancelled");
+            }
+            blockStart = position;
+            blockCount = (int) Math.min(block.length, to - position);
+            binary.read(position, block, 0, blockCount);
+            // Most searching goes forwards, so get the next block on its way.
+            binary.prefetch(position + blockCount, Math.min(block.length, to - position - blockCount));
+            monitor.progress(position + blockCount - from, to - from);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+/**
+ * Holds a single hit from a search whose matches can vary in length.
+ *
+ * @author trejkaz
+ */
+public class SearchHit {
+
+    private final long start;
+    private final long end;
+
+    /**
+     * Constructs the hit.
+     *
+     * @param start the position of the start of the match, inclusive.
+     * @param end the position of the end of the match, exclusive.
+     */
+    public SearchHit(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Gets the position of the start of the match.
+     *
+     * @return the start position, inclusive.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Gets the position of the end of the match.
+     *
+     * @return the end position, exclusive.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Gets the length of the match.
+     *
+     * @return the length.
+     */
+    public long getLength() {
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return start + ".." + end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof SearchHit)) {
+            return false;
+        }
+        SearchHit hit = (SearchHit) o;
+        return hit.start == start && hit.end == end;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(start) + Long.hashCode(end);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import javax.annotation.Nullable;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>Lazily iterates over the positions at which a sequence occurs in a binary.</p>
+ *
+ * <p>Each call to {@link #hasNext()} carries on from where the last hit was found, only reading
+ * more of the binary once the current block has been exhausted. No locks are held between calls,
+ * so iteration can be spread out over time, for example publishing each hit from a
+ * {@code SwingWorker}.</p>
+ *
+ * <p>Iteration itself must happen on one thread at a time, but {@link #cancel()},
+ * {@link #getBytesScanned()} and {@link #getBytesToScan()} can be called from any thread.</p>
+ *
+ * @author trejkaz
+ */
+public class SearchHitIterator implements PrimitiveIterator.OfLong {
+
+    /**
+     * The matcher, or {@code null} if the sequence is empty, in which case every position matches.
+     */
+    @Nullable
+    private final SequenceMatcher matcher;
+    private final int sequenceLength;
+    private final Binary binary;
+    private final long from;
+    private final long to;
+    private final ProgressMonitor monitor;
+
+    private final byte[] block;
+
+    /**
+     * The position in the binary of the start of the block.
+     */
+    private long blockStart;
+
+    /**
+     * The number of valid bytes in the block, {@code 0} before the first block has been read.
+     */
+    private int blockCount;
+
+    /**
+     * The index in the block to resume searching from.
+     */
+    private int resumeIndex;
+
+    /**
+     * The next hit, if it has been found already, otherwise {@code -1}.
+     */
+    private long nextHit = -1;
+
+    private boolean finished;
+
+    private volatile long bytesScanned;
+    private volatile boolean cancelled;
+
+    /**
+     * Constructs the iterator.
+     *
+     * @param matcher the matcher, or {@code null} if the sequence is empty.
+     * @param sequenceLength the length of the sequence.
+     * @param blockSize the number of bytes to read at a time.
+     * @param binary the binary to search.
+     * @param from the position to start searching from, inclusive.
+     * @param to the position to stop searching at, exclusive.
+     * @param monitor receives progress after each block, and can cancel the search.
+     */
+    SearchHitIterator(@Nullable SequenceMatcher matcher, int sequenceLength, int blockSize,
+                      Binary binary, long from, long to, ProgressMonitor monitor) {
+        this.matcher = matcher;
+        this.sequenceLength = sequenceLength;
+        this.binary = binary;
+        this.from = from;
+        this.to = to;
+        this.monitor = monitor;
+        this.block = new byte[matcher == null ? 0 : (int) Math.min(blockSize, to - from)];
+        this.blockStart = from;
+    }
+
+    /**
+     * Gets the number of bytes which have been scanned so far.
+     *
+     * @return the number of bytes scanned.
+     */
+    public long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    /**
+     * Gets the total number of bytes which will have been scanned when iteration finishes.
+     *
+     * @return the number of bytes to scan.
+     */
+    public long getBytesToScan() {
+        return to - from;
+    }
+
+    /**
+     * Cancels the search. The next call to {@link #hasNext()} or {@link #nextLong()} on the
+     * iterating thread will throw {@link CancellationException}.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Checks whether the search has been cancelled, either by {@link #cancel()} or by the
+     * progress monitor.
+     *
+     * @return {@code true} if the search has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled || monitor.isCancelled();
+    }
+
+    @Override
+    public boolean hasNext() {
+        checkCancelled();
+        if (nextHit >= 0) {
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+        nextHit = findNext();
+        if (nextHit < 0) {
+            finished = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public long nextLong() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        long hit = nextHit;
+        nextHit = -1;
+        return hit;
+    }
+
+    /**
+     * Returns the remaining hits as a stream. The stream is backed by this iterator,
+     * so it is just as lazy and can still be cancelled through this iterator.
+     *
+     * @return the stream.
+     */
+    public LongStream stream() {
+        return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(
+                this, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    private long findNext() {
+        SequenceMatcher matcher = this.matcher;
+        if (matcher == null) {
+            return findNextEmpty();
+        }
+
+        while (true) {
+            if (blockCount > 0) {
+                int index = matcher.indexOf(block, resumeIndex, blockCount);
+                if (index >= 0) {
+                    resumeIndex = index + 1;
+                    return blockStart + index;
+                }
+
+                // Matches starting in the overlap with the next block couldn't fit in this one,
+                // so carry on from the first of those.
+                blockStart += blockCount - sequenceLength + 1;
+            }
+
+            if (to - blockStart < sequenceLength) {
+                return -1;
+            }
+            // Checked for every block too, so that a long scan with no hits can still be cancelled.
+            checkCancelled();
+            blockCount = (int) Math.min(block.length, to - blockStart);
+            binary.read(blockStart, block, 0, blockCount);
+            // Get the next block on its way while this one is searched.
+            binary.prefetch(blockStart + blockCount, Math.min(block.length, to - blockStart - blockCount));
+            resumeIndex = 0;
+            bytesScanned = blockStart + blockCount - from;
+            monitor.progress(bytesScanned, to - from);
+        }
+    }
+
+    private long findNextEmpty() {
+        if (blockStart > to) {
+            return -1;
+        }
+        bytesScanned = blockStart - from;
+        return blockStart++;
+    }
+
+    private void checkCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("Search was cancelled");
+        }
+    }
+}
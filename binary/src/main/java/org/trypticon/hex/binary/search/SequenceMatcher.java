@@ -0,0 +1,382 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Finds a fixed sequence of bytes in an array.
+ *
+ * @author trejkaz
+ */
+abstract class SequenceMatcher {
+
+    /**
+     * Patterns at least this long use Two-Way instead of Horspool. Horspool's worst case is
+     * proportional to the pattern length for every byte scanned, which starts to hurt around here.
+     */
+    static final int TWO_WAY_THRESHOLD = 32;
+
+    /**
+     * Patterns shorter than this just look for the first byte and then check the rest.
+     * Horspool can't skip more than the length of the pattern, so for short patterns
+     * it's faster to scan eight bytes at a time for the first byte.
+     */
+    static final int FIRST_BYTE_THRESHOLD = 8;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * The sequence being searched for.
+     */
+    final byte[] sequence;
+
+    SequenceMatcher(byte[] sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Creates the most appropriate matcher for a sequence.
+     *
+     * @param sequence the sequence to search for. Must not be empty.
+     * @return the matcher.
+     */
+    static SequenceMatcher create(byte[] sequence) {
+        if (sequence.length < FIRST_BYTE_THRESHOLD) {
+            return new FirstByteMatcher(sequence);
+        } else if (sequence.length < TWO_WAY_THRESHOLD) {
+            return new HorspoolMatcher(sequence);
+        } else {
+            return new TwoWayMatcher(sequence);
+        }
+    }
+
+    /**
+     * Finds the first occurrence of the sequence lying entirely within a range of an array.
+     *
+     * @param data the array to search.
+     * @param from the index to start searching from, inclusive.
+     * @param to the index to stop searching at, exclusive.
+     * @return the index at which the sequence starts, or {@code -1} if it was not found.
+     */
+    abstract int indexOf(byte[] data, int from, int to);
+
+    /**
+     * Finds the first occurrence of a single byte in a range of an array.
+     *
+     * @param data the array to search.
+     * @param b the byte to search for.
+     * @param from the index to start searching from, inclusive.
+     * @param to the index to stop searching at, exclusive.
+     * @return the index of the byte, or {@code -1} if it was not found.
+     */
+    static int indexOf(byte[] data, byte b, int from, int to) {
+        // Eight bytes at a time, using the usual trick for finding a zero byte in a word:
+        // after XORing with the byte we want, subtracting one from each byte only sets the
+        // high bit of a byte which was zero, or of one above it. The lowest set bit is always
+        // a real match because borrows only travel upwards.
+        long pattern = ONES * (b & 0xFF);
+        int i = from;
+        for (; i <= to - Long.BYTES; i += Long.BYTES) {
+            long word = (long) LONGS.get(data, i) ^ pattern;
+            long found = (word - ONES) & ~word & HIGH_BITS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Matcher for short patterns, which finds the first byte and then checks the rest.
+     */
+    private static class FirstByteMatcher extends SequenceMatcher {
+        private FirstByteMatcher(byte[] sequence) {
+            super(sequence);
+        }
+
+        @Override
+        int indexOf(byte[] data, int from, int to) {
+            byte[] sequence = this.sequence;
+            byte first = sequence[0];
+            int end = to - sequence.length;
+            int i = from;
+            while (i <= end) {
+                i = indexOf(data, first, i, end + 1);
+                if (i < 0) {
+                    return -1;
+                }
+                if (matchesAt(data, i)) {
+                    return i;
+                }
+                i++;
+            }
+            return -1;
+        }
+
+        private boolean matchesAt(byte[] data, int start) {
+            for (int j = 1; j < sequence.length; j++) {
+                if (data[start + j] != sequence[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Matcher using the Boyer-Moore-Horspool algorithm.
+     */
+    private static class HorspoolMatcher extends SequenceMatcher {
+        private final int[] shifts = new int[256];
+
+        private HorspoolMatcher(byte[] sequence) {
+            super(sequence);
+            int last = sequence.length - 1;
+            Arrays.fill(shifts, sequence.length);
+            for (int i = 0; i < last; i++) {
+                shifts[sequence[i] & 0xFF] = last - i;
+            }
+        }
+
+        @Override
+        int indexOf(byte[] data, int from, int to) {
+            byte[] sequence = this.sequence;
+            int[] shifts = this.shifts;
+            int last = sequence.length - 1;
+            byte lastByte = sequence[last];
+            int end = to - sequence.length;
+            int i = from;
+            while (i <= end) {
+                byte b = data[i + last];
+                if (b == lastByte && matchesAt(data, i, last)) {
+                    return i;
+                }
+                i += shifts[b & 0xFF];
+            }
+            return -1;
+        }
+
+        private boolean matchesAt(byte[] data, int start, int count) {
+            for (int j = 0; j < count; j++) {
+                if (data[start + j] != sequence[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * <p>Matcher using the Two-Way algorithm of Crochemore and Perrin, which runs in linear
+     * time with constant extra space regardless of what the pattern looks like.</p>
+     *
+     * <p>Like glibc, the last byte of each window is first checked against a Horspool shift table,
+     * which lets long patterns skip most of the input when it doesn't look like the pattern.</p>
+     */
+    private static class TwoWayMatcher extends SequenceMatcher {
+        private final int[] shifts = new int[256];
+
+        /**
+         * The critical factorisation point. The right half of the pattern starts here.
+         */
+        private final int suffix;
+
+        /**
+         * The period of the pattern, or of the right half if the pattern is not periodic.
+         */
+        private final int period;
+
+        /**
+         * Whether the pattern is periodic, i.e. whether the left half occurs again at {@code period}.
+         */
+        private final boolean periodic;
+
+        private TwoWayMatcher(byte[] sequence) {
+            super(sequence);
+            int m = sequence.length;
+            Arrays.fill(shifts, m);
+            for (int i = 0; i < m; i++) {
+                shifts[sequence[i] & 0xFF] = m - 1 - i;
+            }
+
+            int[] periodHolder = new int[1];
+            suffix = criticalFactorisation(sequence, periodHolder);
+
+            boolean periodic = true;
+            for (int i = 0; i < suffix; i++) {
+                if (sequence[i] != sequence[i + periodHolder[0]]) {
+                    periodic = false;
+                    break;
+                }
+            }
+            this.periodic = periodic;
+            period = periodic ? periodHolder[0] : Math.max(suffix, m - suffix) + 1;
+        }
+
+        /**
+         * Computes the critical factorisation of the pattern, by taking the later of the maximal
+         * suffixes under the normal and reversed byte orderings.
+         *
+         * @param x the pattern.
+         * @param periodHolder receives the period of the right half.
+         * @return the index at which the right half starts.
+         */
+        private static int criticalFactorisation(byte[] x, int[] periodHolder) {
+            int m = x.length;
+
+            int maxSuffix = -1;
+            int j = 0;
+            int k = 1;
+            int p = 1;
+            while (j + k < m) {
+                int a = x[j + k] & 0xFF;
+                int b = x[maxSuffix + k] & 0xFF;
+                if (a < b) {
+                    j += k;
+                    k = 1;
+                    p = j - maxSuffix;
+                } else if (a == b) {
+                    if (k != p) {
+                        k++;
+                    } else {
+                        j += p;
+                        k = 1;
+                    }
+                } else {
+                    maxSuffix = j++;
+                    k = p = 1;
+                }
+            }
+            int forwardPeriod = p;
+
+            int maxSuffixReversed = -1;
+            j = 0;
+            k = p = 1;
+            while (j + k < m) {
+                int a = x[j + k] & 0xFF;
+                int b = x[maxSuffixReversed + k] & 0xFF;
+                if (b < a) {
+                    j += k;
+                    k = 1;
+                    p = j - maxSuffixReversed;
+                } else if (a == b) {
+                    if (k != p) {
+                        k++;
+                    } else {
+                        j += p;
+                        k = 1;
+                    }
+                } else {
+                    maxSuffixReversed = j++;
+                    k = p = 1;
+                }
+            }
+
+            if (maxSuffixReversed < maxSuffix) {
+                periodHolder[0] = forwardPeriod;
+                return maxSuffix + 1;
+            } else {
+                periodHolder[0] = p;
+                return maxSuffixReversed + 1;
+            }
+        }
+
+        @Override
+        int indexOf(byte[] data, int from, int to) {
+            byte[] x = sequence;
+            int m = x.length;
+            int end = to - m;
+            int j = from;
+
+            if (periodic) {
+                // How much of the right half is already known to match, after shifting by the period.
+                int memory = 0;
+                while (j <= end) {
+                    int shift = shifts[data[j + m - 1] & 0xFF];
+                    if (shift > 0) {
+                        if (memory != 0 && shift < period) {
+                            // The pattern is periodic but the last period had a byte out of place,
+                            // so there can't be a match until after the mismatch.
+                            shift = m - period;
+                        }
+                        memory = 0;
+                        j += shift;
+                        continue;
+                    }
+
+                    int i = Math.max(suffix, memory);
+                    while (i < m - 1 && x[i] == data[i + j]) {
+                        i++;
+                    }
+                    if (i >= m - 1) {
+                        i = suffix - 1;
+                        while (memory < i + 1 && x[i] == data[i + j]) {
+                            i--;
+                        }
+                        if (i + 1 < memory + 1) {
+                            return j;
+                        }
+                        j += period;
+                        memory = m - period;
+                    } else {
+                        j += i - suffix + 1;
+                        memory = 0;
+                    }
+                }
+            } else {
+                while (j <= end) {
+                    int shift = shifts[data[j + m - 1] & 0xFF];
+                    if (shift > 0) {
+                        j += shift;
+                        continue;
+                    }
+
+                    int i = suffix;
+                    while (i < m - 1 && x[i] == data[i + j]) {
+                        i++;
+                    }
+                    if (i >= m - 1) {
+                        i = suffix - 1;
+                        while (i >= 0 && x[i] == data[i + j]) {
+                            i--;
+                        }
+                        if (i < 0) {
+                            return j;
+                        }
+                        j += period;
+                    } else {
+                        j += i - suffix + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.stats;
+
+import java.util.Locale;
+
+/**
+ * <p>Statistics about the bytes in a range of a binary.</p>
+ *
+ * <p>Statistics from a {@link StatisticsPyramid} are worked out from whole blocks, so for ranges
+ * which don't line up with blocks, they describe the blocks around the range rather than exactly
+ * the bytes in it. Entropy over more than one block is the average of the blocks' entropies, weighted
+ * by length, which can be lower than the entropy of the bytes taken all together.</p>
+ *
+ * @author trejkaz
+ */
+public class ByteStatistics {
+    private final long length;
+    private final double entropy;
+    private final double zeroRatio;
+    private final double printableRatio;
+    private final int min;
+    private final int max;
+
+    /**
+     * Constructs the statistics.
+     *
+     * @param length the number of bytes the statistics cover.
+     * @param entropy the entropy, in bits per byte.
+     * @param zeroRatio the proportion of bytes which are zero.
+     * @param printableRatio the proportion of bytes which are printable ASCII.
+     * @param min the smallest unsigned byte value.
+     * @param max the largest unsigned byte value.
+     */
+    ByteStatistics(long length, double entropy, double zeroRatio, double printableRatio, int min, int max) {
+        this.length = length;
+        this.entropy = entropy;
+        this.zeroRatio = zeroRatio;
+        this.printableRatio = printableRatio;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Computes the statistics for a histogram of byte values.
+     *
+     * @param histogram the number of occurrences of each unsigned byte value.
+     * @return the statistics.
+     */
+    static ByteStatistics of(long[] histogram) {
+        long length = 0;
+        long printable = 0;
+        int min = -1;
+        int max = 0;
+        for (int value = 0; value < 256; value++) {
+            long count = histogram[value];
+            if (count != 0) {
+                length += count;
+                if (isPrintable(value)) {
+                    printable += count;
+                }
+                if (min < 0) {
+                    min = value;
+                }
+                max = value;
+            }
+        }
+        if (length == 0) {
+            return new ByteStatistics(0, 0, 0, 0, 0, 0);
+        }
+
+        double entropy = 0;
+        for (long count : histogram) {
+            if (count != 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        // Rounding can leave a tiny negative number for single-valued data.
+        entropy = Math.max(0, entropy / Math.log(2));
+
+        return new ByteStatistics(length, entropy, (double) histogram[0] / length,
+                                  (double) printable / length, min, max);
+    }
+
+    /**
+     * Tests whether a byte value is printable ASCII, counting tab, line feed and carriage return
+     * as printable since they are common in text.
+     *
+     * @param value the unsigned byte value.
+     * @return {@code true} if it is printable.
+     */
+    static boolean isPrintable(int value) {
+        return value >= 0x20 && value < 0x7F || value == '\t' || value == '\n' || value == '\r';
+    }
+
+    /**
+     * Gets the number of bytes the statistics cover.
+     *
+     * @return the length.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the Shannon entropy, from 0 for data which is all one value up to 8 for random data.
+     *
+     * @return the entropy, in bits per byte.
+     */
+    public double getEntropy() {
+        return entropy;
+    }
+
+    /**
+     * Gets the proportion of bytes which are zero.
+     *
+     * @return the proportion, from 0 to 1.
+     */
+    public double getZeroRatio() {
+        return zeroRatio;
+    }
+
+    /**
+     * Gets the proportion of bytes which are printable ASCII, including tab, line feed and carriage return.
+     *
+     * @return the proportion, from 0 to 1.
+     */
+    public double getPrintableRatio() {
+        return printableRatio;
+    }
+
+    /**
+     * Gets the smallest byte value.
+     *
+     * @return the value, from 0 to 255. 0 if the statistics cover no bytes.
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * Gets the largest byte value.
+     *
+     * @return the value, from 0 to 255. 0 if the statistics cover no bytes.
+     */
+    public int getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "ByteStatistics(length=%d, entropy=%.3f, zero=%.3f, printable=%.3f, min=%d, max=%d)",
+                             length, entropy, zeroRatio, printableRatio, min, max);
+    }
+}
@@ -0,0 +1,544 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.stats;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.Futures;
+import org.trypticon.hex.binary.ProgressMonitor;
+import org.trypticon.hex.binary.SidecarFile;
+
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Byte statistics for a whole binary at every zoom level, for drawing an overview of it.</p>
+ *
+ * <p>The binary is read once, on several threads, counting how often each byte value occurs in each
+ * fixed-size block. Each block's counts are boiled down to a {@link ByteStatistics}, then the counts for
+ * each pair of blocks are added together and boiled down again for the next level up, and so on up to a
+ * single summary of the whole binary. Only the statistics are kept, so the whole pyramid takes about
+ * 28 bytes per block.</p>
+ *
+ * <p>Statistics for any range are then put together from the fewest whole blocks from any level which
+ * make up the range, without reading the binary again. That takes time proportional to the log of the
+ * number of blocks in the range, so an overview strip at any zoom takes time proportional to the number
+ * of pixels times that. The pyramid can be saved beside a file so that opening the file again doesn't
+ * need to read it again.</p>
+ *
+ * <p>Instances are immutable and can be shared between threads.</p>
+ *
+ * @author trejkaz
+ */
+public class StatisticsPyramid {
+
+    /**
+     * The default block size, in bytes.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The suffix added to the file name to get the name of the sidecar file.
+     */
+    static final String SIDECAR_SUFFIX = ".hexstats";
+    private static final String SIDECAR_FORMAT = "statistics";
+    private static final int SIDECAR_VERSION = 1;
+
+    /**
+     * The number of bytes each task reads, rounded to a whole number of blocks.
+     */
+    private static final int TASK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The number of bytes to read at a time.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final int blockSize;
+    private final long length;
+
+    /**
+     * The statistics at each level. The first level has one entry per block and the last has one for the whole binary.
+     */
+    private final Level[] levels;
+
+    private StatisticsPyramid(int blockSize, long length) {
+        this.blockSize = blockSize;
+        this.length = length;
+
+        List<Level> levels = new ArrayList<>();
+        int count = blockCount(length, blockSize);
+        levels.add(new Level(count));
+        while (count > 1) {
+            count = (count + 1) / 2;
+            levels.add(new Level(count));
+        }
+        this.levels = levels.toArray(new Level[0]);
+    }
+
+    /**
+     * Builds the pyramid for a binary using the default block size, reading on the common fork-join pool.
+     *
+     * @param binary the binary.
+     * @param monitor receives progress, in bytes, and can cancel the build.
+     * @return the pyramid.
+     * @throws CancellationException if the monitor cancelled the build.
+     */
+    public static StatisticsPyramid build(Binary binary, ProgressMonitor monitor) {
+        return build(binary, DEFAULT_BLOCK_SIZE, monitor);
+    }
+
+    /**
+     * Builds the pyramid for a binary, reading on the common fork-join pool.
+     *
+     * @param binary the binary.
+     * @param blockSize the size of the smallest blocks, in bytes.
+     * @param monitor receives progress, in bytes, and can cancel the build.
+     * @return the pyramid.
+     * @throws IllegalArgumentException if the block size is not positive.
+     * @throws CancellationException if the monitor cancelled the build.
+     */
+    public static StatisticsPyramid build(Binary binary, int blockSize, ProgressMonitor monitor) {
+        return build(binary, blockSize, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism(), monitor);
+    }
+
+    /**
+     * Builds the pyramid for a binary.
+     *
+     * @param binary the binary. Must support reads from multiple threads at once.
+     * @param blockSize the size of the smallest blocks, in bytes.
+     * @param executor the executor to read on.
+     * @param parallelism the number of threads the executor is expected to use.
+     *                    Used to decide how many reads to submit ahead of time.
+     * @param monitor receives progress, in bytes, and can cancel the build.
+     * @return the pyramid.
+     * @throws IllegalArgumentException if the block size or parallelism is not positive.
+     * @throws CancellationException if the monitor cancelled the build.
+     */
+    public static StatisticsPyramid build(Binary binary, int blockSize, Executor executor, int parallelism,
+                                          ProgressMonitor monitor) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+
+        long length = binary.length();
+        StatisticsPyramid pyramid = new StatisticsPyramid(blockSize, length);
+        int blockCount = pyramid.levels[0].count;
+        int blocksPerTask = Math.max(1, TASK_SIZE / blockSize);
+        AtomicLong done = new AtomicLong();
+
+        Builder builder = pyramid.new Builder();
+        try (Futures.InFlight<long[][]> inFlight = new Futures.InFlight<>(parallelism)) {
+            int nextBlock = 0;
+            while (true) {
+                while (!inFlight.isFull() && nextBlock < blockCount) {
+                    int firstBlock = nextBlock;
+                    int lastBlock = (int) Math.min(blockCount, (long) firstBlock + blocksPerTask);
+                    inFlight.add(CompletableFuture.supplyAsync(() -> {
+                        long[][] histograms = new long[lastBlock - firstBlock][];
+                        byte[] buffer = new byte[Math.min(blockSize, BUFFER_SIZE)];
+                        for (int block = firstBlock; block < lastBlock; block++) {
+                            if (monitor.isCancelled()) {
+                                throw new CancellationException();
+                            }
+                            long start = (long) block * blockSize;
+                            long end = Math.min(length, start + blockSize);
+                            histograms[block - firstBlock] = histogram(binary, start, end, buffer);
+                            monitor.progress(done.addAndGet(end - start), length);
+                        }
+                        return histograms;
+                    }, executor));
+                    nextBlock = lastBlock;
+                }
+
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+                for (long[] histogram : inFlight.joinOldest()) {
+                    builder.add(0, histogram);
+                }
+            }
+        }
+        builder.finish();
+        return pyramid;
+    }
+
+    /**
+     * Counts the occurrences of each byte value in a range.
+     */
+    private static long[] histogram(Binary binary, long from, long to, byte[] buffer) {
+        long[] histogram = new long[256];
+
+        // Four sets of counters, so that runs of the same value aren't all waiting on the same counter.
+        int[] counts0 = new int[256];
+        int[] counts1 = new int[256];
+        int[] counts2 = new int[256];
+        int[] counts3 = new int[256];
+        for (long position = from; position < to; ) {
+            int count = (int) Math.min(buffer.length, to - position);
+            binary.read(position, ByteBuffer.wrap(buffer, 0, count));
+            // Get the next buffer full on its way while this one is counted.
+            binary.prefetch(position + count, Math.min(buffer.length, to - position - count));
+            int i = 0;
+            for (; i <= count - 4; i += 4) {
+                counts0[buffer[i] & 0xFF]++;
+                counts1[buffer[i + 1] & 0xFF]++;
+                counts2[buffer[i + 2] & 0xFF]++;
+                counts3[buffer[i + 3] & 0xFF]++;
+            }
+            for (; i < count; i++) {
+                counts0[buffer[i] & 0xFF]++;
+            }
+            position += count;
+        }
+        for (int value = 0; value < 256; value++) {
+            histogram[value] = (long) counts0[value] + counts1[value] + counts2[value] + counts3[value];
+        }
+        return histogram;
+    }
+
+    /**
+     * Loads the pyramid for a file from its sidecar file using the default block size,
+     * or builds it and saves it if the sidecar file is missing or out of date.
+     *
+     * @param file the file.
+     * @param binary the binary the file was opened as.
+     * @param monitor receives progress, in bytes, and can cancel building the pyramid.
+     * @return the pyramid.
+     * @throws CancellationException if the monitor cancelled building the pyramid.
+     */
+    public static StatisticsPyramid open(Path file, Binary binary, ProgressMonitor monitor) {
+        return open(file, binary, DEFAULT_BLOCK_SIZE, monitor);
+    }
+
+    /**
+     * Loads the pyramid for a file from its sidecar file, or builds it and saves it if the sidecar file
+     * is missing, out of date, or for a different block size.
+     *
+     * @param file the file.
+     * @param binary the binary the file was opened as.
+     * @param blockSize the size of the smallest blocks, in bytes.
+     * @param monitor receives progress, in bytes, and can cancel building the pyramid.
+     * @return the pyramid.
+     * @throws IllegalArgumentException if the block size is not positive.
+     * @throws CancellationException if the monitor cancelled building the pyramid.
+     */
+    public static StatisticsPyramid open(Path file, Binary binary, int blockSize, ProgressMonitor monitor) {
+        SidecarFile sidecar = new SidecarFile(file, SIDECAR_SUFFIX);
+        StatisticsPyramid pyramid = sidecar.read(SIDECAR_FORMAT, SIDECAR_VERSION, StatisticsPyramid::read);
+        if (pyramid == null || pyramid.blockSize != blockSize || pyramid.length != binary.length()) {
+            pyramid = build(binary, blockSize, monitor);
+            try {
+                pyramid.save(file);
+            } catch (IOException e) {
+                // Not fatal, e.g. the directory might be read-only. We'll just build it again next time.
+            }
+        }
+        return pyramid;
+    }
+
+    /**
+     * Saves the pyramid in a sidecar file beside a file.
+     *
+     * @param file the file the pyramid was built from.
+     * @throws IOException if an error occurs writing the file.
+     */
+    public void save(Path file) throws IOException {
+        new SidecarFile(file, SIDECAR_SUFFIX).write(SIDECAR_FORMAT, SIDECAR_VERSION, this::write);
+    }
+
+    private void write(DataOutput out) throws IOException {
+        out.writeInt(blockSize);
+        out.writeLong(length);
+        for (Level level : levels) {
+            for (int index = 0; index < level.count; index++) {
+                out.writeFloat(level.entropy[index]);
+                out.writeFloat(level.zeroRatio[index]);
+                out.writeFloat(level.printableRatio[index]);
+                out.writeByte(level.min[index]);
+                out.writeByte(level.max[index]);
+            }
+        }
+    }
+
+    @Nullable
+    private static StatisticsPyramid read(DataInput in) throws IOException {
+        int blockSize = in.readInt();
+        long length = in.readLong();
+        if (blockSize <= 0 || length < 0 || (length - 1) / blockSize >= Integer.MAX_VALUE) {
+            return null;
+        }
+        StatisticsPyramid pyramid = new StatisticsPyramid(blockSize, length);
+        for (Level level : pyramid.levels) {
+            for (int index = 0; index < level.count; index++) {
+                level.entropy[index] = in.readFloat();
+                level.zeroRatio[index] = in.readFloat();
+                level.printableRatio[index] = in.readFloat();
+                level.min[index] = in.readByte();
+                level.max[index] = in.readByte();
+            }
+        }
+        return pyramid;
+    }
+
+    /**
+     * Gets the size of the smallest blocks.
+     *
+     * @return the block size, in bytes.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Gets the length of the binary the pyramid is for.
+     *
+     * @return the length, in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the number of levels, including the level of smallest blocks and the level with one entry for the whole binary.
+     *
+     * @return the level count.
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Gets the statistics for the whole binary.
+     *
+     * @return the statistics.
+     */
+    public ByteStatistics getStatistics() {
+        return getStatistics(0, length);
+    }
+
+    /**
+     * Gets the statistics for a range of the binary, to the nearest block.
+     *
+     * @param from the position to start at, inclusive.
+     * @param to the position to stop at, exclusive.
+     * @return the statistics.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     */
+    public ByteStatistics getStatistics(long from, long to) {
+        if (from < 0 || from > to || to > length) {
+            throw new IndexOutOfBoundsException(
+                    String.format(Locale.ROOT, "Range %d..%d is out of bounds (0..%d)", from, to, length));
+        }
+        return statistics(from, to);
+    }
+
+    /**
+     * Divides a range of the binary into equal parts and gets the statistics for each,
+     * e.g. one part for each pixel of an overview strip.
+     *
+     * @param from the position to start at, inclusive.
+     * @param to the position to stop at, exclusive.
+     * @param parts the number of parts. If the range is shorter than this, some parts will be empty.
+     * @return the statistics for each part, in order.
+     * @throws IndexOutOfBoundsException if the range is not within the binary.
+     * @throws IllegalArgumentException if the number of parts is not positive.
+     */
+    public ByteStatistics[] getStatistics(long from, long to, int parts) {
+        if (from < 0 || from > to || to > length) {
+            throw new IndexOutOfBoundsException(
+                    String.format(Locale.ROOT, "Range %d..%d is out of bounds (0..%d)", from, to, length));
+        }
+        if (parts <= 0) {
+            throw new IllegalArgumentException("Number of parts must be positive: " + parts);
+        }
+
+        // Avoids multiplying the whole span by the part index, which could overflow.
+        long span = to - from;
+        long quotient = span / parts;
+        long remainder = span % parts;
+        ByteStatistics[] result = new ByteStatistics[parts];
+        long start = from;
+        for (int part = 0; part < parts; part++) {
+            long end = from + quotient * (part + 1) + remainder * (part + 1) / parts;
+            result[part] = statistics(start, end);
+            start = end;
+        }
+        return result;
+    }
+
+    private ByteStatistics statistics(long from, long to) {
+        if (from == to) {
+            return new ByteStatistics(0, 0, 0, 0, 0, 0);
+        }
+
+        Accumulator accumulator = new Accumulator(from, to);
+        int blockCount = levels[0].count;
+        int firstBlock = (int) (from / blockSize);
+        int endBlock = (int) ((to - 1) / blockSize) + 1;
+
+        // Blocks only partly in the range can only be taken as a whole, so keep them on their own
+        // rather than letting them drag a bigger block's statistics in with them.
+        if (from % blockSize != 0) {
+            accumulator.add(0, firstBlock);
+            firstBlock++;
+        }
+        if (to % blockSize != 0 && to != length && endBlock > firstBlock) {
+            endBlock--;
+            accumulator.add(0, endBlock);
+        }
+
+        // Then the biggest blocks which fit, so that there are only a few of them even for huge ranges.
+        int block = firstBlock;
+        while (block < endBlock) {
+            int levelIndex = 0;
+            while (levelIndex + 1 < levels.length && block % (2 << levelIndex) == 0 &&
+                   Math.min((long) block + (2L << levelIndex), blockCount) <= endBlock) {
+                levelIndex++;
+            }
+            accumulator.add(levelIndex, block >> levelIndex);
+            block += 1 << levelIndex;
+        }
+        return accumulator.toStatistics();
+    }
+
+    private static int blockCount(long length, int blockSize) {
+        long count = Math.max(1, (length + blockSize - 1) / blockSize);
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Block size " + blockSize + " is too small for length " + length);
+        }
+        return (int) count;
+    }
+
+    /**
+     * The statistics for each block at one level.
+     */
+    private static class Level {
+        private final int count;
+        private final float[] entropy;
+        private final float[] zeroRatio;
+        private final float[] printableRatio;
+        private final byte[] min;
+        private final byte[] max;
+
+        private Level(int count) {
+            this.count = count;
+            entropy = new float[count];
+            zeroRatio = new float[count];
+            printableRatio = new float[count];
+            min = new byte[count];
+            max = new byte[count];
+        }
+
+        private void set(int index, ByteStatistics statistics) {
+            entropy[index] = (float) statistics.getEntropy();
+            zeroRatio[index] = (float) statistics.getZeroRatio();
+            printableRatio[index] = (float) statistics.getPrintableRatio();
+            min[index] = (byte) statistics.getMin();
+            max[index] = (byte) statistics.getMax();
+        }
+    }
+
+    /**
+     * Combines the statistics of several blocks into one, weighting each by how much of it is in the range.
+     */
+    private class Accumulator {
+        private final long from;
+        private final long to;
+        private double entropy;
+        private double zeroRatio;
+        private double printableRatio;
+        private int min = 255;
+        private int max = 0;
+
+        private Accumulator(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        private void add(int levelIndex, int index) {
+            Level level = levels[levelIndex];
+            long nodeSize = (long) blockSize << levelIndex;
+            long nodeStart = index * nodeSize;
+            long nodeEnd = Math.min(length, nodeStart + nodeSize);
+            double weight = (double) (Math.min(to, nodeEnd) - Math.max(from, nodeStart)) / (to - from);
+            entropy += level.entropy[index] * weight;
+            zeroRatio += level.zeroRatio[index] * weight;
+            printableRatio += level.printableRatio[index] * weight;
+            min = Math.min(min, level.min[index] & 0xFF);
+            max = Math.max(max, level.max[index] & 0xFF);
+        }
+
+        private ByteStatistics toStatistics() {
+            return new ByteStatistics(to - from, entropy, zeroRatio, printableRatio, min, max);
+        }
+    }
+
+    /**
+     * Fills in the levels from the histograms of the smallest blocks, which must be added in order.
+     * Only one histogram per level is held at a time, waiting for the other half of its pair.
+     */
+    private class Builder {
+        private final int[] added = new int[levels.length];
+        private final long[][] pending = new long[levels.length][];
+
+        private void add(int levelIndex, long[] histogram) {
+            int index = added[levelIndex]++;
+            levels[levelIndex].set(index, ByteStatistics.of(histogram));
+            if (levelIndex + 1 < levels.length) {
+                long[] left = pending[levelIndex + 1];
+                if (left == null) {
+                    pending[levelIndex + 1] = histogram;
+                } else {
+                    for (int value = 0; value < 256; value++) {
+                        left[value] += histogram[value];
+                    }
+                    pending[levelIndex + 1] = null;
+                    add(levelIndex + 1, left);
+                }
+            }
+        }
+
+        private void finish() {
+            // Any histogram still waiting is the last one at its level with nothing to pair with, so it goes up alone.
+            for (int levelIndex = 1; levelIndex < levels.length; levelIndex++) {
+                long[] histogram = pending[levelIndex];
+                if (histogram != null) {
+                    pending[levelIndex] = null;
+                    add(levelIndex, histogram);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * <p>Maps files into memory in the best way the running JDK supports.</p>
+ *
+ * <p>This is the version for JDK 22 and later, which maps the whole file as a single memory segment.</p>
+ *
+ * @author trejkaz
+ */
+class MappedFiles {
+
+    private MappedFiles() {
+    }
+
+    /**
+     * Maps a file into memory.
+     *
+     * @param file the file.
+     * @return the binary.
+     * @throws IOException if the file could not be read.
+     */
+    static Binary open(Path file) throws IOException {
+        return new MemorySegmentBinary(file);
+    }
+}
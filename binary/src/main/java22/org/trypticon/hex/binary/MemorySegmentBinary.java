@@ -0,0 +1,170 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Binary which maps a file into memory as a single memory segment.</p>
+ *
+ * <p>Unlike {@link MemoryMappedFileBinary}, there's no need to split the file into segments
+ * smaller than 2GB, so every read is a single bounds check and a single access at a
+ * {@code long} offset. The mapping belongs to a shared arena, so it can be read from
+ * any thread, and closing the binary unmaps it straight away without having to go through
+ * {@link ByteBufferUnmapper}. Reads racing with closing fail with an
+ * {@link IllegalStateException} rather than crashing the VM.</p>
+ *
+ * <p>The other way around, {@link #close()} throws an {@link IllegalStateException} if another
+ * thread is reading from the binary at that moment. The mapping is left alone in that case,
+ * and closing can be tried again once the reads have finished.</p>
+ *
+ * @author trejkaz
+ */
+class MemorySegmentBinary extends AbstractBinary {
+    private static final ValueLayout.OfShort SHORT_BIG_ENDIAN =
+            ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfShort SHORT_LITTLE_ENDIAN =
+            ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt INT_BIG_ENDIAN =
+            ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfInt INT_LITTLE_ENDIAN =
+            ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG_BIG_ENDIAN =
+            ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG_LITTLE_ENDIAN =
+            ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The arena the mapping belongs to.
+     */
+    private final Arena arena;
+
+    /**
+     * Whether the arena has been closed. Shared with slices, so that closing twice is harmless.
+     */
+    private final AtomicBoolean closed;
+
+    /**
+     * The mapped file, or a slice of it.
+     */
+    private final MemorySegment segment;
+
+    /**
+     * {@code true} if this binary owns the arena, {@code false} if it is a slice of another binary.
+     */
+    private final boolean owner;
+
+    /**
+     * Constructs the binary, mapping the provided file into memory.
+     *
+     * @param file the file to map into memory.
+     * @throws IOException if the file could not be read.
+     */
+    MemorySegmentBinary(Path file) throws IOException {
+        arena = Arena.ofShared();
+        closed = new AtomicBoolean();
+        owner = true;
+        try (FileChannel channel = FileChannel.open(file)) {
+            segment = channel.map(MapMode.READ_ONLY, 0, channel.size(), arena);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    private MemorySegmentBinary(Arena arena, AtomicBoolean closed, MemorySegment segment) {
+        this.arena = arena;
+        this.closed = closed;
+        this.segment = segment;
+        this.owner = false;
+    }
+
+    @Override
+    public long length() {
+        return segment.byteSize();
+    }
+
+    @Override
+    protected byte readSpi(long position) {
+        return segment.get(ValueLayout.JAVA_BYTE, position);
+    }
+
+    @Override
+    protected void readSpi(long position, ByteBuffer buffer) {
+        int count = buffer.remaining();
+        MemorySegment.copy(segment, position, MemorySegment.ofBuffer(buffer), 0, count);
+        buffer.position(buffer.position() + count);
+    }
+
+    @Override
+    protected short readShortSpi(long position, ByteOrder order) {
+        return segment.get(order == ByteOrder.LITTLE_ENDIAN ? SHORT_LITTLE_ENDIAN : SHORT_BIG_ENDIAN, position);
+    }
+
+    @Override
+    protected int readIntSpi(long position, ByteOrder order) {
+        return segment.get(order == ByteOrder.LITTLE_ENDIAN ? INT_LITTLE_ENDIAN : INT_BIG_ENDIAN, position);
+    }
+
+    @Override
+    protected long readLongSpi(long position, ByteOrder order) {
+        return segment.get(order == ByteOrder.LITTLE_ENDIAN ? LONG_LITTLE_ENDIAN : LONG_BIG_ENDIAN, position);
+    }
+
+    @Override
+    protected Binary sliceSpi(long position, long length) {
+        return new MemorySegmentBinary(arena, closed, segment.asSlice(position, length));
+    }
+
+    @Override
+    protected void prefetchSpi(long position, long length) {
+        MemorySegment range = segment.asSlice(position, length);
+        Prefetcher.submit(() -> {
+            try {
+                range.load();
+            } catch (IllegalStateException e) {
+                // Closed since the prefetch was asked for, so there's nothing to load.
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        // Slices share the mapping, so closing one of them does nothing. Same as ByteBufferBinary.
+        if (owner && closed.compareAndSet(false, true)) {
+            try {
+                arena.close();
+            } catch (IllegalStateException e) {
+                // Another thread is still reading, so the mapping is still there. Let the next close try again.
+                closed.set(false);
+                throw e;
+            }
+        }
+    }
+}
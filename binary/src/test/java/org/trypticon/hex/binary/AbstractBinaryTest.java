@@ -21,6 +21,7 @@ package org.trypticon.hex.binary;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -101,4 +102,118 @@ public abstract class AbstractBinaryTest {
                          () -> binary.read(binary.length(), buffer));
         }
     }
+
+    @Test
+    public void testReading_Sequential() throws Exception {
+        try (Binary binary = createBinary(SAMPLE_DATA)) {
+            binary.setAccessPattern(AccessPattern.SEQUENTIAL);
+            assertThat(binary.getAccessPattern(), is(AccessPattern.SEQUENTIAL));
+
+            byte[] tmp = new byte[2];
+            for (int position = 0; position < SAMPLE_DATA.length; position += 2) {
+                binary.read(position, tmp);
+                assertThat(tmp, is(new byte[]{(byte) position, (byte) (position + 1)}));
+            }
+        }
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        try (Binary binary = createBinary(SAMPLE_DATA)) {
+            // Only a hint, so ranges partly or entirely outside the binary are ignored.
+            binary.prefetch(-5, 8);
+            binary.prefetch(2, 4);
+            binary.prefetch(8, 100);
+            binary.prefetch(binary.length(), 10);
+            binary.prefetch(Long.MIN_VALUE, Long.MAX_VALUE);
+            binary.prefetch(0, Long.MAX_VALUE);
+            binary.prefetch(3, -1);
+
+            byte[] tmp = new byte[4];
+            binary.read(2, tmp);
+            assertThat(tmp, is(new byte[]{2, 3, 4, 5}));
+        }
+    }
+
+    @Test
+    public void testReadAsync() throws Exception {
+        try (Binary binary = createBinary(SAMPLE_DATA)) {
+            ByteBuffer buffer = binary.readAsync(2, 5).get();
+            byte[] tmp = new byte[buffer.remaining()];
+            buffer.get(tmp);
+            assertThat(tmp, is(new byte[]{2, 3, 4, 5, 6}));
+
+            assertThat(binary.readAsync(10, 0).get().remaining(), is(0));
+            assertThrows(IndexOutOfBoundsException.class, () -> binary.readAsync(8, 5));
+            assertThrows(IndexOutOfBoundsException.class, () -> binary.readAsync(-1, 2));
+        }
+    }
+
+    @Test
+    public void testReadingPrimitives() throws Exception {
+        try (Binary binary = createBinary(SAMPLE_DATA)) {
+            assertThat(binary.readShort(1, ByteOrder.BIG_ENDIAN), is((short) 0x0102));
+            assertThat(binary.readShort(1, ByteOrder.LITTLE_ENDIAN), is((short) 0x0201));
+            assertThat(binary.readInt(3, ByteOrder.BIG_ENDIAN), is(0x03040506));
+            assertThat(binary.readInt(3, ByteOrder.LITTLE_ENDIAN), is(0x06050403));
+            assertThat(binary.readLong(2, ByteOrder.BIG_ENDIAN), is(0x0203040506070809L));
+            assertThat(binary.readLong(2, ByteOrder.LITTLE_ENDIAN), is(0x0908070605040302L));
+            assertThat(binary.readFloat(0, ByteOrder.BIG_ENDIAN), is(Float.intBitsToFloat(0x00010203)));
+            assertThat(binary.readDouble(0, ByteOrder.LITTLE_ENDIAN),
+                       is(Double.longBitsToDouble(0x0706050403020100L)));
+        }
+    }
+
+    @Test
+    public void testReadingPrimitives_AtEndBoundary() throws Exception {
+        try (Binary binary = createBinary(SAMPLE_DATA)) {
+            binary.readLong(binary.length() - 8, ByteOrder.BIG_ENDIAN);
+
+            assertThrows(IndexOutOfBoundsException.class,
+                         () -> binary.readLong(binary.length() - 7, ByteOrder.BIG_ENDIAN));
+            assertThrows(IndexOutOfBoundsException.class,
+                         () -> binary.readShort(-1, ByteOrder.BIG_ENDIAN));
+        }
+    }
+
+    @Test
+    public void testSlice() throws Exception {
+        try (Binary binary = createBinary(SAMPLE_DATA)) {
+            Binary slice = binary.slice(2, 6);
+            assertThat(slice.length(), is(6L));
+            assertThat(slice.read(0), is((byte) 2));
+            assertThat(slice.read(5), is((byte) 7));
+            byte[] tmp = new byte[4];
+            slice.read(1, tmp);
+            assertThat(tmp, is(new byte[]{3, 4, 5, 6}));
+            assertThat(slice.readInt(2, ByteOrder.BIG_ENDIAN), is(0x04050607));
+
+            assertThrows(IndexOutOfBoundsException.class, () -> slice.read(6));
+            assertThrows(IndexOutOfBoundsException.class, () -> slice.read(-1));
+            assertThrows(IndexOutOfBoundsException.class, () -> slice.readInt(3, ByteOrder.BIG_ENDIAN));
+        }
+    }
+
+    @Test
+    public void testSliceOfSlice() throws Exception {
+        try (Binary binary = createBinary(SAMPLE_DATA)) {
+            Binary slice = binary.slice(1, 8).slice(2, 5).slice(1, 3);
+            assertThat(slice.length(), is(3L));
+            assertThat(slice.read(0), is((byte) 4));
+            assertThat(slice.read(2), is((byte) 6));
+            assertThrows(IndexOutOfBoundsException.class, () -> slice.read(3));
+        }
+    }
+
+    @Test
+    public void testSlice_OutOfBounds() throws Exception {
+        try (Binary binary = createBinary(SAMPLE_DATA)) {
+            binary.slice(0, binary.length());
+            binary.slice(binary.length(), 0);
+
+            assertThrows(IndexOutOfBoundsException.class, () -> binary.slice(-1, 2));
+            assertThrows(IndexOutOfBoundsException.class, () -> binary.slice(5, 6));
+            assertThrows(IndexOutOfBoundsException.class, () -> binary.slice(2, 4).slice(1, 4));
+        }
+    }
 }
@@ -0,0 +1,210 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link AsynchronousFileChannelBinary}.
+ *
+ * @author trejkaz
+ */
+public class AsynchronousFileChannelBinaryTest extends AbstractBinaryTest {
+    Path tempFile;
+
+    @Override
+    protected Binary createBinary(byte[] sampleData) throws Exception {
+        tempFile = Files.createTempFile("AsynchronousFileChannelBinaryTest", ".dat");
+        Files.write(tempFile, sampleData);
+        // Tiny blocks so that the common tests cross block boundaries.
+        return new AsynchronousFileChannelBinary(AsynchronousFileChannel.open(tempFile), 4);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (tempFile != null) {
+            Files.delete(tempFile);
+        }
+    }
+
+    @Test
+    public void testOverlappingReadsShareBlocks() throws Exception {
+        byte[] data = new byte[32];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        tempFile = Files.createTempFile("AsynchronousFileChannelBinaryTest", ".dat");
+        Files.write(tempFile, data);
+
+        GatedChannel channel = new GatedChannel(AsynchronousFileChannel.open(tempFile));
+        try (AsynchronousFileChannelBinary binary = new AsynchronousFileChannelBinary(channel, 4)) {
+            CompletableFuture<ByteBuffer> first = binary.readAsync(1, 10);
+            CompletableFuture<ByteBuffer> second = binary.readAsync(6, 8);
+            CompletableFuture<ByteBuffer> third = binary.readAsync(4, 4);
+
+            // Blocks 0-2 for the first, then block 3 for the second. The third is all in flight already.
+            assertThat(binary.getReadCount(), is(2L));
+            assertThat(first.isDone(), is(false));
+
+            channel.open();
+            assertThat(bytes(first.get()), is(slice(data, 1, 10)));
+            assertThat(bytes(second.get()), is(slice(data, 6, 8)));
+            assertThat(bytes(third.get()), is(slice(data, 4, 4)));
+
+            // Nothing is in flight anymore, so this reads again.
+            assertThat(bytes(binary.readAsync(4, 4).get()), is(slice(data, 4, 4)));
+            assertThat(binary.getReadCount(), is(3L));
+        }
+    }
+
+    @Test
+    public void testReadAsync_AfterClose() throws Exception {
+        Binary binary = createBinary(new byte[16]);
+        binary.close();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> binary.readAsync(0, 8).get());
+        assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        assertThrows(UncheckedIOException.class, () -> binary.read(0));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] slice(byte[] data, int position, int length) {
+        byte[] slice = new byte[length];
+        System.arraycopy(data, position, slice, 0, length);
+        return slice;
+    }
+
+    /**
+     * Channel which holds on to reads until it's opened, standing in for slow storage.
+     */
+    private static class GatedChannel extends AsynchronousFileChannel {
+        private final AsynchronousFileChannel delegate;
+        private final List<Runnable> held = new ArrayList<>();
+        private boolean open;
+
+        private GatedChannel(AsynchronousFileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        private void open() {
+            List<Runnable> reads;
+            synchronized (held) {
+                open = true;
+                reads = new ArrayList<>(held);
+                held.clear();
+            }
+            reads.forEach(Runnable::run);
+        }
+
+        @Override
+        public <A> void read(ByteBuffer dst, long position, A attachment,
+                             CompletionHandler<Integer, ? super A> handler) {
+            synchronized (held) {
+                if (!open) {
+                    held.add(() -> delegate.read(dst, position, attachment, handler));
+                    return;
+                }
+            }
+            delegate.read(dst, position, attachment, handler);
+        }
+
+        @Override
+        public Future<Integer> read(ByteBuffer dst, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public AsynchronousFileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <A> void lock(long position, long size, boolean shared, A attachment,
+                             CompletionHandler<FileLock, ? super A> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<FileLock> lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <A> void write(ByteBuffer src, long position, A attachment,
+                              CompletionHandler<Integer, ? super A> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Integer> write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link BinarySaver}.
+ *
+ * @author trejkaz
+ */
+public class BinarySaverTest {
+    private Path dir;
+    private Path file;
+    private byte[] data;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("hextest");
+        file = dir.resolve("file.bin");
+        data = new byte[1000];
+        new Random(42).nextBytes(data);
+        Files.write(file, data);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path path : files.collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testSave_InPlace() throws Exception {
+        assertSaved(binary -> binary.write(10, ByteBuffer.wrap(new byte[] { 1, 2, 3 })),
+                    BinarySaver.Strategy.IN_PLACE);
+    }
+
+    @Test
+    public void testSave_TailAfterInsert() throws Exception {
+        assertSaved(binary -> binary.insert(900, ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 })),
+                    BinarySaver.Strategy.TAIL);
+    }
+
+    @Test
+    public void testSave_TailAfterDelete() throws Exception {
+        assertSaved(binary -> {
+            binary.write(5, (byte) 1);
+            binary.delete(950, 10);
+        }, BinarySaver.Strategy.TAIL);
+        assertThat(Files.size(file), is(990L));
+    }
+
+    @Test
+    public void testSave_TailAfterAppend() throws Exception {
+        assertSaved(binary -> binary.insert(1000, ByteBuffer.wrap(new byte[] { 1, 2, 3 })),
+                    BinarySaver.Strategy.TAIL);
+    }
+
+    @Test
+    public void testSave_Rewrite() throws Exception {
+        assertSaved(binary -> {
+            binary.insert(10, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+            binary.write(500, (byte) 1);
+            binary.delete(700, 50);
+        }, BinarySaver.Strategy.REWRITE);
+    }
+
+    private void assertSaved(Edit edit, BinarySaver.Strategy expectedStrategy) throws Exception {
+        byte[] expected;
+        try (PieceTableBinary binary = new PieceTableBinary(BinaryFactory.open(file))) {
+            edit.apply(binary);
+            expected = contents(binary);
+            BinarySaver.Result result = BinarySaver.save(binary, file, ProgressMonitor.NONE);
+            try (PieceTableBinary saved = result.getBinary()) {
+                assertThat(result.getStrategy(), is(expectedStrategy));
+                assertThat(contents(saved), is(expected));
+            }
+        }
+        assertThat(Files.readAllBytes(file), is(expected));
+        assertThat(Files.exists(BinarySaver.journalPath(file)), is(false));
+    }
+
+    @Test
+    public void testSave_ClosesOldBinaryBeforeShrinking() throws Exception {
+        try (PieceTableBinary binary = new PieceTableBinary(BinaryFactory.open(file))) {
+            binary.delete(950, 10);
+            BinarySaver.Result result = BinarySaver.save(binary, file, ProgressMonitor.NONE);
+            try (PieceTableBinary saved = result.getBinary()) {
+                assertThat(result.getStrategy(), is(BinarySaver.Strategy.TAIL));
+                assertThat(saved.length(), is(990L));
+                assertThat(saved.read(989), is(data[999]));
+            }
+
+            // The part of the file which was cut off is no longer mapped, so this fails cleanly
+            // rather than crashing the VM.
+            assertThrows(IllegalStateException.class, () -> binary.read(985));
+        }
+    }
+
+    @Test
+    public void testSaveAs() throws Exception {
+        Path target = dir.resolve("target.bin");
+        byte[] expected;
+        try (PieceTableBinary binary = new PieceTableBinary(BinaryFactory.open(file))) {
+            binary.write(10, (byte) 1);
+            expected = contents(binary);
+            BinarySaver.saveAs(binary, file, target, ProgressMonitor.NONE).getBinary().close();
+            assertThat(contents(binary), is(expected));
+        }
+        assertThat(Files.readAllBytes(target), is(expected));
+        assertThat(Files.readAllBytes(file), is(data));
+    }
+
+    @Test
+    public void testSave_Progress() throws Exception {
+        List<Long> progress = new ArrayList<>();
+        try (PieceTableBinary binary = new PieceTableBinary(BinaryFactory.open(file))) {
+            binary.insert(0, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+            BinarySaver.save(binary, file, (done, total) -> {
+                assertThat(total, is(1003L));
+                progress.add(done);
+            }).getBinary().close();
+        }
+        assertThat(progress.get(progress.size() - 1), is(1003L));
+    }
+
+    @Test
+    public void testSave_Cancelled() throws Exception {
+        try (PieceTableBinary binary = new PieceTableBinary(BinaryFactory.open(file))) {
+            binary.insert(0, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+            assertThrows(CancellationException.class, () -> BinarySaver.save(binary, file, new CancellingMonitor()));
+
+            binary.delete(0, 3);
+            binary.write(10, (byte) 1);
+            assertThrows(CancellationException.class, () -> BinarySaver.save(binary, file, new CancellingMonitor()));
+        }
+        assertThat(Files.readAllBytes(file), is(data));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.count(), is(1L));
+        }
+    }
+
+    /**
+     * Simulates the process dying part way through writing to the file, after the journal was written.
+     */
+    @Test
+    public void testRecover() throws Exception {
+        byte[] expected;
+        try (PieceTableBinary binary = new PieceTableBinary(BinaryFactory.open(file))) {
+            binary.write(10, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+            binary.insert(990, ByteBuffer.wrap(new byte[] { 4, 5, 6 }));
+            expected = contents(binary);
+            assertThrows(IllegalStateException.class, () -> BinarySaver.save(binary, file, (done, total) -> {
+                if (done > total / 2) {
+                    throw new IllegalStateException("Power went out");
+                }
+            }));
+        }
+        assertThat(Files.exists(BinarySaver.journalPath(file)), is(true));
+
+        try (PieceTableBinary binary = new PieceTableBinary(BinaryFactory.open(file))) {
+            assertThrows(IOException.class, () -> BinarySaver.save(binary, file, ProgressMonitor.NONE));
+        }
+
+        assertThat(BinarySaver.recover(file), is(true));
+        assertThat(Files.readAllBytes(file), is(expected));
+        assertThat(BinarySaver.recover(file), is(false));
+    }
+
+    @Test
+    public void testRecover_CorruptJournal() throws Exception {
+        Files.write(BinarySaver.journalPath(file), new byte[] { 'H', 'E', 'X', 'J', 0, 0, 0, 1, 0 });
+        assertThrows(IOException.class, () -> BinarySaver.recover(file));
+        assertThat(Files.readAllBytes(file), is(data));
+    }
+
+    private static byte[] contents(Binary binary) {
+        byte[] contents = new byte[(int) binary.length()];
+        binary.read(0, contents);
+        return contents;
+    }
+
+    @FunctionalInterface
+    private interface Edit {
+        void apply(PieceTableBinary binary);
+    }
+
+    private static class CancellingMonitor implements ProgressMonitor {
+        @Override
+        public void progress(long done, long total) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link BinaryUtils}.
+ *
+ * @author trejkaz
+ */
+public class BinaryUtilsTest {
+    @Test
+    public void testPositionOf() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 2, 1, 2, 3 });
+        assertThat(BinaryUtils.positionOf(binary, new byte[] { 1, 2, 3 }), is(2L));
+        assertThat(BinaryUtils.positionOf(binary, new byte[] { 3, 2 }), is(-1L));
+    }
+
+    @Test
+    public void testPositionOf_AtEnd() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 2, 3 });
+        assertThat(BinaryUtils.positionOf(binary, new byte[] { 3 }), is(2L));
+        assertThat(BinaryUtils.positionOf(binary, new byte[] { 1, 2, 3 }), is(0L));
+    }
+}
@@ -18,8 +18,15 @@
 
 package org.trypticon.hex.binary;
 
+import org.junit.jupiter.api.Test;
+
 import java.nio.ByteBuffer;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
 /**
  * Tests for {@link ByteBufferBinary}.
  *
@@ -32,4 +39,28 @@ public class ByteBufferBinaryTest extends AbstractBinaryTest {
         return new ByteBufferBinary(buffer);
     }
 
+    @Test
+    public void testSlice_IsViewOfBuffer() {
+        try (Binary binary = createBinary(new byte[]{0, 1, 2, 3, 4, 5, 6, 7})) {
+            Binary slice = binary.slice(2, 4).slice(1, 2);
+            assertThat(slice, is(instanceOf(ByteBufferBinary.class)));
+            assertThat(slice.read(0), is((byte) 3));
+            assertThat(slice.read(1), is((byte) 4));
+        }
+    }
+
+    @Test
+    public void testSlice_Closing() {
+        Binary binary = createBinary(new byte[]{0, 1, 2, 3});
+        Binary slice = binary.slice(1, 2);
+
+        // Closing the slice leaves the original alone.
+        slice.close();
+        assertThat(binary.read(1), is((byte) 1));
+        assertThat(slice.read(0), is((byte) 1));
+
+        // Closing the original closes the slice too.
+        binary.close();
+        assertThrows(IllegalStateException.class, () -> slice.read(0));
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link CachingBinary}.
+ *
+ * @author trejkaz
+ */
+public class CachingBinaryTest extends AbstractBinaryTest {
+    @Override
+    protected Binary createBinary(byte[] sampleData) {
+        // Tiny blocks so that the common tests cross block boundaries.
+        return new CachingBinary(BinaryFactory.wrap(sampleData), 4, 8);
+    }
+
+    @Test
+    public void testStatistics() {
+        try (CachingBinary binary = new CachingBinary(BinaryFactory.wrap(new byte[16]), 4, 8)) {
+            binary.read(0);
+            binary.read(1);
+            binary.read(3);
+            assertThat(binary.getMissCount(), is(1L));
+            assertThat(binary.getHitCount(), is(2L));
+
+            binary.read(4);
+            assertThat(binary.getMissCount(), is(2L));
+        }
+    }
+
+    @Test
+    public void testStatistics_ValueAcrossBlocks() {
+        byte[] data = new byte[16];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        try (CachingBinary binary = new CachingBinary(BinaryFactory.wrap(data), 4, 16)) {
+            assertThat(binary.readInt(2, ByteOrder.BIG_ENDIAN), is(0x02030405));
+            assertThat(binary.getMissCount(), is(2L));
+            assertThat(binary.getHitCount(), is(0L));
+
+            // Touches three blocks, one of which is already cached.
+            assertThat(binary.readLong(6, ByteOrder.BIG_ENDIAN), is(0x060708090A0B0C0DL));
+            assertThat(binary.getMissCount(), is(4L));
+            assertThat(binary.getHitCount(), is(1L));
+        }
+    }
+
+    @Test
+    public void testPrefetch() {
+        try (CachingBinary binary = new CachingBinary(BinaryFactory.wrap(new byte[16]), 4, 64)) {
+            binary.prefetch(0, 16);
+
+            // Reads either find the block already there or wait for the prefetch to finish.
+            for (int position = 0; position < 16; position += 4) {
+                binary.read(position);
+            }
+            assertThat(binary.getMissCount(), is(0L));
+        }
+    }
+
+    @Test
+    public void testSequentialReadAhead() {
+        int window = AbstractBinary.READ_AHEAD_WINDOW;
+        Binary delegate = BinaryFactory.wrap(new byte[window * 2 + 100]);
+        try (CachingBinary binary = new CachingBinary(delegate, 64 * 1024, window * 4L)) {
+            binary.setAccessPattern(AccessPattern.SEQUENTIAL);
+            binary.read(0, new byte[100]);
+            assertThat(binary.getMissCount(), is(1L));
+
+            // Already read ahead when the first window was read.
+            binary.read(window, new byte[100]);
+            assertThat(binary.getMissCount(), is(1L));
+        }
+    }
+
+    @Test
+    public void testRandomDoesNotReadAhead() {
+        int window = AbstractBinary.READ_AHEAD_WINDOW;
+        Binary delegate = BinaryFactory.wrap(new byte[window * 2 + 100]);
+        try (CachingBinary binary = new CachingBinary(delegate, 64 * 1024, window * 4L)) {
+            binary.read(0, new byte[100]);
+            binary.read(window, new byte[100]);
+            assertThat(binary.getMissCount(), is(2L));
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        try (CachingBinary binary = new CachingBinary(BinaryFactory.wrap(new byte[16]), 4, 8)) {
+            binary.read(0);
+            binary.read(4);
+            binary.read(8);  // evicts the block at 0, as only two blocks fit in the budget
+            binary.read(4);
+            assertThat(binary.getMissCount(), is(3L));
+
+            binary.read(0);
+            assertThat(binary.getMissCount(), is(4L));
+        }
+    }
+
+    @Test
+    public void testReading_AcrossManyBlocks() {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        try (Binary binary = new CachingBinary(BinaryFactory.wrap(data), 8, 16)) {
+            ByteBuffer buffer = ByteBuffer.allocate(90);
+            binary.read(5, buffer);
+            buffer.flip();
+            for (int i = 0; i < 90; i++) {
+                assertThat(buffer.get(i), is((byte) (i + 5)));
+            }
+        }
+    }
+
+    @Test
+    public void testBlockSizeMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new CachingBinary(BinaryFactory.wrap(new byte[16]), 3, 8));
+    }
+}
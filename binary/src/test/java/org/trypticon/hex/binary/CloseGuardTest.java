@@ -0,0 +1,83 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link CloseGuard}.
+ *
+ * @author trejkaz
+ */
+public class CloseGuardTest {
+
+    @Test
+    public void testManyShortLivedThreads() throws Exception {
+        CloseGuard guard = new CloseGuard();
+        for (int i = 0; i < 2000; i++) {
+            Thread thread = new Thread(() -> guard.enter().exit());
+            thread.start();
+            thread.join();
+        }
+        assertThat(guard.getSlotCount(), is(lessThanOrEqualTo(64)));
+        assertThat(guard.close(), is(true));
+    }
+
+    @Test
+    public void testCloseWaitsForReaders() throws Exception {
+        CloseGuard guard = new CloseGuard();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            CloseGuard.Slot slot = guard.enter();
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                slot.exit();
+            }
+        });
+        reader.start();
+        entered.await();
+
+        CountDownLatch closed = new CountDownLatch(1);
+        Thread closer = new Thread(() -> {
+            guard.close();
+            closed.countDown();
+        });
+        closer.start();
+        assertThat(closed.await(200, TimeUnit.MILLISECONDS), is(false));
+
+        release.countDown();
+        assertThat(closed.await(10, TimeUnit.SECONDS), is(true));
+        assertThrows(IllegalStateException.class, guard::enter);
+        assertThat(guard.close(), is(false));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link Futures}.
+ *
+ * @author trejkaz
+ */
+public class FuturesTest {
+
+    @Test
+    public void testJoin_RethrowsRuntimeException() {
+        IllegalStateException cause = new IllegalStateException();
+        CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+            throw cause;
+        });
+        assertThat(assertThrows(IllegalStateException.class, () -> Futures.join(future)), is(sameInstance(cause)));
+    }
+
+    @Test
+    public void testJoin_WrapsIOException() {
+        IOException cause = new IOException();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        assertThat(assertThrows(UncheckedIOException.class, () -> Futures.join(future)).getCause(),
+                   is(sameInstance(cause)));
+    }
+
+    @Test
+    public void testInFlight_JoinsInOrder() {
+        try (Futures.InFlight<Integer> inFlight = new Futures.InFlight<>(2)) {
+            for (int i = 0; !inFlight.isFull(); i++) {
+                int value = i;
+                inFlight.add(CompletableFuture.supplyAsync(() -> value));
+            }
+            for (int i = 0; i < 4; i++) {
+                assertThat(inFlight.joinOldest(), is(i));
+            }
+            assertThat(inFlight.isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void testInFlight_CancelsOnClose() {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        try (Futures.InFlight<Integer> inFlight = new Futures.InFlight<>(1)) {
+            inFlight.add(future);
+        }
+        assertThat(future.isCancelled(), is(true));
+    }
+}
@@ -19,9 +19,20 @@
 package org.trypticon.hex.binary;
 
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
 
 /**
  * Tests for {@link MemoryMappedFileBinary}.
@@ -33,11 +44,113 @@ public class MemoryMappedFileBinaryTest extends AbstractBinaryTest {
 
     @Override
     protected Binary createBinary(byte[] sampleData) throws Exception {
-        tempFile = Files.createTempFile("FileChannelBinaryTest", ".dat");
+        tempFile = Files.createTempFile("MemoryMappedFileBinaryTest", ".dat");
         Files.write(tempFile, sampleData);
         return new MemoryMappedFileBinary(tempFile);
     }
 
+    @Test
+    public void testReading_AcrossSegments() throws Exception {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        tempFile = Files.createTempFile("MemoryMappedFileBinaryTest", ".dat");
+        Files.write(tempFile, data);
+
+        // 8-byte segments overlapping by 2 bytes.
+        try (Binary binary = new MemoryMappedFileBinary(tempFile, 3, 2)) {
+            assertThat(binary.length(), is(100L));
+            for (int i = 0; i < data.length; i++) {
+                assertThat(binary.read(i), is((byte) i));
+            }
+
+            for (int start = 0; start < data.length; start++) {
+                for (int length = 1; start + length <= data.length; length += 3) {
+                    ByteBuffer buffer = ByteBuffer.allocate(length + 1);
+                    buffer.put((byte) -1);
+                    binary.read(start, buffer);
+                    for (int i = 0; i < length; i++) {
+                        assertThat(buffer.get(i + 1), is((byte) (start + i)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSlice_AcrossSegments() throws Exception {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        tempFile = Files.createTempFile("MemoryMappedFileBinaryTest", ".dat");
+        Files.write(tempFile, data);
+
+        // 8-byte segments overlapping by 2 bytes, so a slice of up to 10 bytes can fit in one.
+        try (Binary binary = new MemoryMappedFileBinary(tempFile, 3, 2)) {
+            Binary inside = binary.slice(17, 9);
+            assertThat(inside, is(instanceOf(ByteBufferBinary.class)));
+            assertThat(inside.read(0), is((byte) 17));
+            assertThat(inside.read(8), is((byte) 25));
+
+            Binary across = binary.slice(10, 50);
+            assertThat(across, is(instanceOf(SliceBinary.class)));
+            for (int i = 0; i < 50; i++) {
+                assertThat(across.read(i), is((byte) (10 + i)));
+            }
+            assertThat(across.slice(20, 4), is(instanceOf(ByteBufferBinary.class)));
+            assertThat(across.slice(20, 4).read(3), is((byte) 33));
+        }
+    }
+
+    /**
+     * Reads racing a close must either complete or fail with an exception.
+     * If the buffer were unmapped while a read was in flight, the VM would crash
+     * and take the test run down with it.
+     */
+    @Test
+    public void testReadingWhileClosing() throws Exception {
+        tempFile = Files.createTempFile("MemoryMappedFileBinaryTest", ".dat");
+        Files.write(tempFile, new byte[1024 * 1024]);
+
+        for (int iteration = 0; iteration < 50; iteration++) {
+            Binary binary = new MemoryMappedFileBinary(tempFile, 16, 64);
+            CountDownLatch started = new CountDownLatch(4);
+            List<Thread> threads = new ArrayList<>();
+            List<AtomicReference<Throwable>> failures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                AtomicReference<Throwable> failure = new AtomicReference<>();
+                failures.add(failure);
+                Thread thread = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    ByteBuffer buffer = ByteBuffer.allocate(4096);
+                    started.countDown();
+                    try {
+                        while (true) {
+                            binary.read(random.nextLong(binary.length()));
+                            buffer.clear();
+                            binary.read(random.nextLong(binary.length() - buffer.capacity()), buffer);
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+
+            started.await();
+            binary.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (AtomicReference<Throwable> failure : failures) {
+                assertThat(failure.get(), is(instanceOf(IllegalStateException.class)));
+            }
+        }
+    }
+
     @AfterEach
     public void tearDown() throws Exception {
         if (tempFile != null) {
@@ -0,0 +1,202 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link PieceTableBinary}.
+ *
+ * @author trejkaz
+ */
+public class PieceTableBinaryTest extends AbstractBinaryTest {
+
+    @Override
+    protected Binary createBinary(byte[] sampleData) {
+        // Start from something different and edit it into the sample data, so that reads cross pieces.
+        byte[] original = sampleData.clone();
+        original[2] = 99;
+        PieceTableBinary binary = new PieceTableBinary(BinaryFactory.wrap(original));
+        binary.delete(2, 3);
+        binary.insert(2, ByteBuffer.wrap(sampleData, 2, 3));
+        binary.write(7, sampleData[7]);
+        return binary;
+    }
+
+    @Test
+    public void testEditing() {
+        PieceTableBinary binary = new PieceTableBinary(BinaryFactory.wrap(new byte[] { 1, 2, 3, 4 }));
+        assertThat(binary.isModified(), is(false));
+
+        binary.insert(2, ByteBuffer.wrap(new byte[] { 10, 11 }));
+        assertThat(contents(binary), is(new byte[] { 1, 2, 10, 11, 3, 4 }));
+        binary.write(0, (byte) 20);
+        assertThat(contents(binary), is(new byte[] { 20, 2, 10, 11, 3, 4 }));
+        binary.delete(1, 4);
+        assertThat(contents(binary), is(new byte[] { 20, 4 }));
+        binary.insert(2, ByteBuffer.wrap(new byte[] { 30 }));
+        assertThat(contents(binary), is(new byte[] { 20, 4, 30 }));
+        binary.delete(0, 3);
+        assertThat(binary.length(), is(0L));
+        binary.insert(0, ByteBuffer.wrap(new byte[] { 40 }));
+        assertThat(contents(binary), is(new byte[] { 40 }));
+
+        assertThat(binary.isModified(), is(true));
+        assertThat(contents(binary.getOriginal()), is(new byte[] { 1, 2, 3, 4 }));
+    }
+
+    @Test
+    public void testEditing_OutOfBounds() {
+        PieceTableBinary binary = new PieceTableBinary(BinaryFactory.wrap(new byte[4]));
+        assertThrows(IndexOutOfBoundsException.class, () -> binary.write(4, (byte) 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> binary.write(3, ByteBuffer.allocate(2)));
+        assertThrows(IndexOutOfBoundsException.class, () -> binary.insert(5, ByteBuffer.allocate(1)));
+        assertThrows(IndexOutOfBoundsException.class, () -> binary.insert(-1, ByteBuffer.allocate(1)));
+        assertThrows(IndexOutOfBoundsException.class, () -> binary.delete(2, 3));
+        assertThat(binary.isModified(), is(false));
+    }
+
+    /**
+     * Typing one byte at a time should keep extending the same piece.
+     */
+    @Test
+    public void testTyping_ReusesPiece() {
+        PieceTableBinary binary = new PieceTableBinary(BinaryFactory.wrap(new byte[100]));
+        for (int i = 0; i < 20; i++) {
+            binary.insert(50 + i, ByteBuffer.wrap(new byte[] { (byte) i }));
+        }
+        assertThat(binary.getPieceCount(), is(3));
+
+        for (int i = 0; i < 20; i++) {
+            binary.write(10 + i, (byte) i);
+        }
+        assertThat(binary.getPieceCount(), is(5));
+
+        byte[] expected = new byte[120];
+        for (int i = 0; i < 20; i++) {
+            expected[50 + i] = (byte) i;
+            expected[10 + i] = (byte) i;
+        }
+        assertThat(contents(binary), is(expected));
+    }
+
+    @Test
+    public void testEvents() {
+        PieceTableBinary binary = new PieceTableBinary(BinaryFactory.wrap(new byte[100]));
+        List<BinaryEvent> events = new ArrayList<>();
+        binary.addBinaryListener(events::add);
+
+        binary.write(10, ByteBuffer.allocate(5));
+        binary.insert(20, ByteBuffer.allocate(5));
+        binary.delete(30, 10);
+        binary.delete(30, 0);
+
+        assertThat(events.size(), is(3));
+        assertEvent(events.get(0), 100, 100, 10, 15);
+        assertEvent(events.get(1), 100, 105, 20, 105);
+        assertEvent(events.get(2), 105, 95, 30, 95);
+    }
+
+    private static void assertEvent(BinaryEvent event, long oldLength, long newLength, long changeStart, long changeEnd) {
+        assertThat(event.getOldLength(), is(oldLength));
+        assertThat(event.getNewLength(), is(newLength));
+        assertThat(event.getChangeStart(), is(changeStart));
+        assertThat(event.getChangeEnd(), is(changeEnd));
+    }
+
+    /**
+     * Compares lots of random edits against doing the same edits to a plain list of bytes.
+     */
+    @Test
+    public void testRandomEditsAgainstList() {
+        Random random = new Random(42);
+        byte[] original = new byte[1000];
+        random.nextBytes(original);
+        PieceTableBinary binary = new PieceTableBinary(BinaryFactory.wrap(original));
+        List<Byte> expected = new ArrayList<>();
+        for (byte b : original) {
+            expected.add(b);
+        }
+
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            int position = random.nextInt(expected.size() + 1);
+            byte[] data = new byte[random.nextInt(10)];
+            random.nextBytes(data);
+            switch (random.nextInt(3)) {
+                case 0:
+                    binary.insert(position, ByteBuffer.wrap(data));
+                    for (int i = 0; i < data.length; i++) {
+                        expected.add(position + i, data[i]);
+                    }
+                    break;
+                case 1: {
+                    int length = Math.min(data.length, expected.size() - position);
+                    binary.write(position, ByteBuffer.wrap(data, 0, length));
+                    for (int i = 0; i < length; i++) {
+                        expected.set(position + i, data[i]);
+                    }
+                    break;
+                }
+                default: {
+                    int length = Math.min(data.length, expected.size() - position);
+                    binary.delete(position, length);
+                    expected.subList(position, position + length).clear();
+                    break;
+                }
+            }
+
+            assertThat(binary.length(), is((long) expected.size()));
+            if (!expected.isEmpty()) {
+                int at = random.nextInt(expected.size());
+                assertThat(binary.read(at), is(expected.get(at)));
+            }
+            if (expected.size() >= 8) {
+                int at = random.nextInt(expected.size() - 7);
+                long value = 0;
+                for (int i = 0; i < 8; i++) {
+                    value = (value << 8) | (expected.get(at + i) & 0xFF);
+                }
+                assertThat(binary.readLong(at, ByteOrder.BIG_ENDIAN), is(value));
+            }
+        }
+
+        byte[] expectedArray = new byte[expected.size()];
+        for (int i = 0; i < expectedArray.length; i++) {
+            expectedArray[i] = expected.get(i);
+        }
+        assertThat(contents(binary), is(expectedArray));
+    }
+
+    private static byte[] contents(Binary binary) {
+        byte[] contents = new byte[(int) binary.length()];
+        binary.read(0, contents);
+        return contents;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link ProgressiveBinary}.
+ *
+ * @author trejkaz
+ */
+public class ProgressiveBinaryTest extends AbstractBinaryTest {
+    @Override
+    protected Binary createBinary(byte[] sampleData) throws Exception {
+        // Tiny chunks so that the common tests cross chunk boundaries,
+        // and only one in memory so that they also cross into the spilled ones.
+        ProgressiveBinary binary = new ProgressiveBinary(new ByteArrayInputStream(sampleData), sampleData.length, 4, 2);
+        assertThat(binary.awaitComplete(10, TimeUnit.SECONDS), is(true));
+        return binary;
+    }
+
+    @Test
+    public void testLoadsLargeStream() throws Exception {
+        byte[] data = new byte[300000];
+        new Random(42).nextBytes(data);
+        try (ProgressiveBinary binary = new ProgressiveBinary(new ByteArrayInputStream(data), -1, Long.MAX_VALUE, 10)) {
+            assertThat(binary.awaitComplete(10, TimeUnit.SECONDS), is(true));
+            assertThat(binary.length(), is((long) data.length));
+            assertThat(binary.getError(), is((IOException) null));
+
+            byte[] copy = new byte[data.length];
+            binary.read(0, copy);
+            assertThat(copy, is(data));
+            assertThat(binary.read(123456), is(data[123456]));
+        }
+    }
+
+    @Test
+    public void testReadPastLoadedData_FailsFast() throws Exception {
+        FeedingInputStream stream = new FeedingInputStream();
+        try (ProgressiveBinary binary = new ProgressiveBinary(stream, 200, Long.MAX_VALUE, 4)) {
+            stream.feed(new byte[100]);
+            awaitLength(binary, 100);
+
+            binary.read(99);
+            assertThrows(IndexOutOfBoundsException.class, () -> binary.read(100));
+            assertThrows(IndexOutOfBoundsException.class, () -> binary.read(90, new byte[20]));
+            assertThat(binary.isComplete(), is(false));
+        }
+    }
+
+    @Test
+    public void testReadPastLoadedData_WaitsForData() throws Exception {
+        FeedingInputStream stream = new FeedingInputStream();
+        try (ProgressiveBinary binary = new ProgressiveBinary(stream, -1, Long.MAX_VALUE, 4)) {
+            binary.setReadTimeout(10, TimeUnit.SECONDS);
+            Thread feeder = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                stream.feed(new byte[] { 1, 2, 3, 4, 5, 6 });
+            });
+            feeder.start();
+
+            assertThat(binary.readInt(2, ByteOrder.BIG_ENDIAN), is(0x03040506));
+            feeder.join();
+        }
+    }
+
+    @Test
+    public void testReadPastLoadedData_TimesOut() throws Exception {
+        FeedingInputStream stream = new FeedingInputStream();
+        try (ProgressiveBinary binary = new ProgressiveBinary(stream, -1, Long.MAX_VALUE, 4)) {
+            binary.setReadTimeout(20, TimeUnit.MILLISECONDS);
+            assertThat(binary.getReadTimeout(TimeUnit.MILLISECONDS), is(20L));
+            assertThrows(IndexOutOfBoundsException.class, () -> binary.read(0));
+        }
+    }
+
+    @Test
+    public void testReadPastLoadedData_AfterCompleting() throws Exception {
+        FeedingInputStream stream = new FeedingInputStream();
+        try (ProgressiveBinary binary = new ProgressiveBinary(stream, -1, Long.MAX_VALUE, 4)) {
+            binary.setReadTimeout(10, TimeUnit.SECONDS);
+            stream.feed(new byte[10]);
+            stream.finish();
+            assertThat(binary.awaitComplete(10, TimeUnit.SECONDS), is(true));
+
+            // Shouldn't wait, since no more data is coming.
+            assertThrows(IndexOutOfBoundsException.class, () -> binary.read(10));
+        }
+    }
+
+    @Test
+    public void testLoadError() throws Exception {
+        FeedingInputStream stream = new FeedingInputStream();
+        try (ProgressiveBinary binary = new ProgressiveBinary(stream, -1, Long.MAX_VALUE, 4)) {
+            stream.feed(new byte[] { 1, 2, 3 });
+            stream.fail();
+            assertThat(binary.awaitComplete(10, TimeUnit.SECONDS), is(true));
+
+            assertThat(binary.getError(), is(notNullValue()));
+            assertThat(binary.length(), is(3L));
+            assertThat(binary.read(2), is((byte) 3));
+            assertThrows(UncheckedIOException.class, () -> binary.read(3));
+        }
+    }
+
+    @Test
+    public void testListenersSeeGrowth() throws Exception {
+        FeedingInputStream stream = new FeedingInputStream();
+        try (ProgressiveBinary binary = new ProgressiveBinary(stream, -1, Long.MAX_VALUE, 4)) {
+            List<BinaryEvent> events = new ArrayList<>();
+            binary.addBinaryListener(event -> {
+                synchronized (events) {
+                    events.add(event);
+                }
+            });
+
+            stream.feed(new byte[3]);
+            stream.feed(new byte[10]);
+            stream.finish();
+            assertThat(binary.awaitComplete(10, TimeUnit.SECONDS), is(true));
+
+            synchronized (events) {
+                long expectedStart = 0;
+                for (BinaryEvent event : events) {
+                    assertThat(event.getSource(), is(binary));
+                    assertThat(event.getOldLength(), is(expectedStart));
+                    assertThat(event.getChangeStart(), is(expectedStart));
+                    assertThat(event.getChangeEnd(), is(event.getNewLength()));
+                    expectedStart = event.getNewLength();
+                }
+                assertThat(expectedStart, is(13L));
+            }
+        }
+    }
+
+    @Test
+    public void testCloseStopsLoading() throws Exception {
+        FeedingInputStream stream = new FeedingInputStream();
+        ProgressiveBinary binary = new ProgressiveBinary(stream, -1, Long.MAX_VALUE, 4);
+        stream.feed(new byte[5]);
+        awaitLength(binary, 5);
+        binary.close();
+        assertThat(binary.awaitComplete(10, TimeUnit.SECONDS), is(true));
+        assertThat(binary.getError(), is((IOException) null));
+    }
+
+    @Test
+    public void testSpillsToDisk() throws Exception {
+        byte[] data = new byte[1024 * 1024 + 1234];
+        new Random(42).nextBytes(data);
+        Path spillFile;
+        try (ProgressiveBinary binary = new ProgressiveBinary(new ByteArrayInputStream(data), -1, 64 * 1024, 12)) {
+            assertThat(binary.awaitComplete(10, TimeUnit.SECONDS), is(true));
+            assertThat(binary.getError(), is((IOException) null));
+            assertThat(binary.isSpilled(), is(true));
+            spillFile = binary.getSpillFile();
+            assertThat(spillFile, is(notNullValue()));
+
+            byte[] copy = new byte[data.length];
+            binary.read(0, copy);
+            assertThat(copy, is(data));
+
+            // Jump around more chunks than the cache holds.
+            Random random = new Random(1);
+            for (int i = 0; i < 10000; i++) {
+                int position = random.nextInt(data.length);
+                assertThat(binary.read(position), is(data[position]));
+            }
+        }
+        assertThat(Files.exists(spillFile), is(false));
+    }
+
+    @Test
+    public void testNoSpillUnderLimit() throws Exception {
+        try (ProgressiveBinary binary = new ProgressiveBinary(new ByteArrayInputStream(new byte[1000]), -1)) {
+            assertThat(binary.awaitComplete(10, TimeUnit.SECONDS), is(true));
+            assertThat(binary.isSpilled(), is(false));
+        }
+    }
+
+    @Test
+    public void testOpenHttpUrl() throws Exception {
+        byte[] data = new byte[200000];
+        new Random(42).nextBytes(data);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/data", exchange -> {
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(data);
+            }
+        });
+        server.start();
+        try {
+            URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), "/data");
+            try (Binary binary = BinaryFactory.open(url)) {
+                ProgressiveBinary progressive = (ProgressiveBinary) binary;
+                assertThat(progressive.getExpectedLength(), is((long) data.length));
+                assertThat(progressive.awaitComplete(10, TimeUnit.SECONDS), is(true));
+
+                byte[] copy = new byte[data.length];
+                binary.read(0, copy);
+                assertThat(copy, is(data));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void awaitLength(Binary binary, long length) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (binary.length() < length) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting for length " + length);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Stream which returns whatever the test feeds it, blocking in between.
+     */
+    private static class FeedingInputStream extends InputStream {
+        private static final byte[] END = new byte[0];
+        private static final byte[] FAIL = new byte[0];
+
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        private byte[] current = new byte[0];
+        private int offset;
+
+        void feed(byte[] data) {
+            queue.add(data);
+        }
+
+        void finish() {
+            queue.add(END);
+        }
+
+        void fail() {
+            queue.add(FAIL);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (offset == current.length) {
+                if (current == END) {
+                    return -1;
+                }
+                try {
+                    current = queue.take();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted", e);
+                }
+                if (current == FAIL) {
+                    throw new IOException("Simulated failure");
+                }
+                offset = 0;
+            }
+            int count = Math.min(len, current.length - offset);
+            System.arraycopy(current, offset, b, off, count);
+            offset += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return current.length - offset;
+        }
+    }
+}
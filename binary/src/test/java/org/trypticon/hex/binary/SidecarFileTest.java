@@ -0,0 +1,99 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Tests for {@link SidecarFile}.
+ *
+ * @author trejkaz
+ */
+public class SidecarFileTest {
+    private Path dir;
+    private Path source;
+    private SidecarFile sidecar;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("hextest");
+        source = dir.resolve("source.bin");
+        Files.write(source, new byte[] { 1, 2, 3 });
+        sidecar = new SidecarFile(source, ".idx");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        sidecar.delete();
+        Files.deleteIfExists(source);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertThat(sidecar.getPath(), is(dir.resolve("source.bin.idx")));
+        assertThat(sidecar.read("test", 1, in -> in.readLong()), is(nullValue()));
+
+        sidecar.write("test", 1, out -> out.writeLong(42));
+        assertThat(sidecar.read("test", 1, in -> in.readLong()), is(42L));
+    }
+
+    @Test
+    public void testWrongFormatOrVersion() throws Exception {
+        sidecar.write("test", 1, out -> out.writeLong(42));
+        assertThat(sidecar.read("other", 1, in -> in.readLong()), is(nullValue()));
+        assertThat(sidecar.read("test", 2, in -> in.readLong()), is(nullValue()));
+    }
+
+    @Test
+    public void testStaleWhenSourceChanges() throws Exception {
+        sidecar.write("test", 1, out -> out.writeLong(42));
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 5000));
+        assertThat(sidecar.read("test", 1, in -> in.readLong()), is(nullValue()));
+
+        sidecar.write("test", 1, out -> out.writeLong(42));
+        Files.write(source, new byte[] { 1, 2, 3, 4 });
+        assertThat(sidecar.read("test", 1, in -> in.readLong()), is(nullValue()));
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        sidecar.write("test", 1, out -> out.writeLong(42));
+        byte[] bytes = Files.readAllBytes(sidecar.getPath());
+
+        bytes[bytes.length - 6]++;
+        Files.write(sidecar.getPath(), bytes);
+        assertThat(sidecar.read("test", 1, in -> in.readLong()), is(nullValue()));
+
+        byte[] truncated = new byte[bytes.length - 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        Files.write(sidecar.getPath(), truncated);
+        assertThat(sidecar.read("test", 1, in -> in.readLong()), is(nullValue()));
+    }
+}
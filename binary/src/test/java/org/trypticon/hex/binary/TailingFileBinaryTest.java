@@ -0,0 +1,158 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link TailingFileBinary}.
+ *
+ * @author trejkaz
+ */
+public class TailingFileBinaryTest extends AbstractBinaryTest {
+    Path tempFile;
+
+    @Override
+    protected Binary createBinary(byte[] sampleData) throws Exception {
+        tempFile = Files.createTempFile("TailingFileBinaryTest", ".dat");
+        Files.write(tempFile, sampleData);
+        return new TailingFileBinary(tempFile, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testRefresh_Grows() throws Exception {
+        tempFile = Files.createTempFile("TailingFileBinaryTest", ".dat");
+
+        // 8-byte segments overlapping by 2 bytes, so growing crosses plenty of segment boundaries.
+        try (TailingFileBinary binary = new TailingFileBinary(tempFile, 3, 2, 0)) {
+            List<BinaryEvent> events = new ArrayList<>();
+            binary.addBinaryListener(events::add);
+            assertThat(binary.length(), is(0L));
+            assertThat(binary.refresh(), is(false));
+
+            int length = 0;
+            for (int growth : new int[] { 1, 5, 1, 8, 3, 20, 7, 1, 1 }) {
+                append(growth, length);
+                assertThat(binary.refresh(), is(true));
+                assertThat(binary.length(), is((long) length + growth));
+
+                BinaryEvent event = events.get(events.size() - 1);
+                assertThat(event.getOldLength(), is((long) length));
+                assertThat(event.getNewLength(), is((long) length + growth));
+                assertThat(event.getChangeStart(), is((long) length));
+                assertThat(event.getChangeEnd(), is((long) length + growth));
+                length += growth;
+
+                for (int i = 0; i < length; i++) {
+                    assertThat(binary.read(i), is((byte) i));
+                }
+                for (int start = 0; start < length; start++) {
+                    ByteBuffer buffer = ByteBuffer.allocate(length - start);
+                    binary.read(start, buffer);
+                    for (int i = 0; i < buffer.capacity(); i++) {
+                        assertThat(buffer.get(i), is((byte) (start + i)));
+                    }
+                }
+            }
+            assertThat(events.size(), is(9));
+            assertThat(binary.refresh(), is(false));
+        }
+    }
+
+    @Test
+    public void testRefresh_KeepsOldSlices() throws Exception {
+        tempFile = Files.createTempFile("TailingFileBinaryTest", ".dat");
+        append(10, 0);
+        try (TailingFileBinary binary = new TailingFileBinary(tempFile, 3, 2, 0)) {
+            Binary slice = binary.slice(8, 2);
+            append(10, 10);
+            binary.refresh();
+            assertThat(slice.read(1), is((byte) 9));
+            assertThat(binary.slice(8, 4).read(3), is((byte) 11));
+        }
+    }
+
+    @Test
+    public void testRefresh_Truncated() throws Exception {
+        tempFile = Files.createTempFile("TailingFileBinaryTest", ".dat");
+        append(10, 0);
+        try (TailingFileBinary binary = new TailingFileBinary(tempFile, 0, TimeUnit.MILLISECONDS)) {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.truncate(5);
+            }
+            assertThat(binary.refresh(), is(false));
+            assertThat(binary.isTruncated(), is(true));
+            assertThat(binary.length(), is(10L));
+
+            append(10, 5);
+            assertThat(binary.refresh(), is(false));
+            assertThat(binary.length(), is(10L));
+        }
+    }
+
+    @Test
+    public void testWatcher_NoticesGrowth() throws Exception {
+        tempFile = Files.createTempFile("TailingFileBinaryTest", ".dat");
+        append(10, 0);
+        try (TailingFileBinary binary = new TailingFileBinary(tempFile, 20, TimeUnit.MILLISECONDS)) {
+            CountDownLatch grown = new CountDownLatch(1);
+            binary.addBinaryListener(event -> {
+                if (event.getNewLength() == 30) {
+                    grown.countDown();
+                }
+            });
+            append(20, 10);
+            assertThat(grown.await(10, TimeUnit.SECONDS), is(true));
+            assertThat(binary.read(29), is((byte) 29));
+        }
+    }
+
+    /**
+     * Appends bytes to the temp file, each byte being its own position.
+     */
+    private void append(int count, int position) throws Exception {
+        byte[] data = new byte[count];
+        for (int i = 0; i < count; i++) {
+            data[i] = (byte) (position + i);
+        }
+        Files.write(tempFile, data, StandardOpenOption.APPEND);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (tempFile != null) {
+            Files.delete(tempFile);
+        }
+    }
+}
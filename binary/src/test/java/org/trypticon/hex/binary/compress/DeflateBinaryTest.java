@@ -0,0 +1,266 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.compress;
+
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.ProgressMonitor;
+import org.trypticon.hex.binary.SidecarFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link DeflateBinary}.
+ *
+ * @author trejkaz
+ */
+public class DeflateBinaryTest {
+
+    @Test
+    public void testInflatesLikeInflater() throws Exception {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 100; iteration++) {
+            byte[] data = sampleData(random, random.nextInt(200000));
+            int level = random.nextInt(10);
+            int strategy = random.nextInt(3);
+            byte[] compressed = deflate(data, level, strategy, random.nextBoolean());
+
+            byte[] inflated = inflateAll(BinaryFactory.wrap(compressed), false, data.length);
+            assertThat("iteration " + iteration, inflated, is(data));
+        }
+    }
+
+    @Test
+    public void testRandomAccess() throws Exception {
+        Random random = new Random(1);
+        byte[] data = sampleData(random, 3 * 1024 * 1024);
+        Binary compressed = BinaryFactory.wrap(deflate(data, 6, Deflater.DEFAULT_STRATEGY, false));
+
+        DeflateIndex index = DeflateBinary.buildIndex(compressed, false, 64 * 1024, ProgressMonitor.NONE);
+        assertThat(index.getLength(), is((long) data.length));
+        assertThat(index.getCheckpointCount(), is(greaterThan(20)));
+
+        try (DeflateBinary binary = new DeflateBinary(compressed, index, index.getLength(), 12)) {
+            assertThat(binary.length(), is((long) data.length));
+            for (int i = 0; i < 2000; i++) {
+                int position = random.nextInt(data.length);
+                assertThat(binary.read(position), is(data[position]));
+            }
+            byte[] range = new byte[100000];
+            binary.read(1234567, range);
+            for (int i = 0; i < range.length; i++) {
+                assertThat(range[i], is(data[1234567 + i]));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalIndex() throws Exception {
+        Random random = new Random(2);
+        byte[] data = sampleData(random, 1024 * 1024);
+        Binary compressed = BinaryFactory.wrap(deflate(data, 6, Deflater.DEFAULT_STRATEGY, false));
+
+        // As for a zip entry, where the length is known but nothing has been inflated yet.
+        DeflateIndex index = new DeflateIndex(false, 32 * 1024);
+        try (DeflateBinary binary = new DeflateBinary(compressed, index, data.length, 12)) {
+            assertThat(binary.getCheckpointCount(), is(0));
+            assertThat(binary.read(data.length - 1), is(data[data.length - 1]));
+            int checkpoints = binary.getCheckpointCount();
+            assertThat(checkpoints, is(greaterThan(10)));
+
+            for (int i = 0; i < 2000; i++) {
+                int position = random.nextInt(data.length);
+                assertThat(binary.read(position), is(data[position]));
+            }
+            assertThat(binary.getCheckpointCount(), is(checkpoints));
+        }
+    }
+
+    @Test
+    public void testOpenGzip_MultipleMembers() throws Exception {
+        Random random = new Random(3);
+        byte[] first = sampleData(random, 500000);
+        byte[] second = sampleData(random, 300000);
+        Path dir = Files.createTempDirectory("hextest");
+        Path file = dir.resolve("test.gz");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(gzip(first));
+            bytes.write(gzip(second));
+            Files.write(file, bytes.toByteArray());
+
+            byte[] expected = new byte[first.length + second.length];
+            System.arraycopy(first, 0, expected, 0, first.length);
+            System.arraycopy(second, 0, expected, first.length, second.length);
+
+            long[] progress = { 0 };
+            try (DeflateBinary binary = DeflateBinary.open(file, true, 16 * 1024, 12,
+                                                           (done, total) -> progress[0] = done)) {
+                assertThat(progress[0], is(Files.size(file)));
+                assertThat(binary.length(), is((long) expected.length));
+                byte[] actual = new byte[expected.length];
+                binary.read(0, actual);
+                assertThat(actual, is(expected));
+                assertThat(binary.read(first.length), is(second[0]));
+            }
+
+            Path indexFile = new SidecarFile(file, DeflateBinary.INDEX_SUFFIX).getPath();
+            assertThat(Files.exists(indexFile), is(true));
+
+            // Opening again should use the saved index rather than building it again.
+            try (DeflateBinary binary = DeflateBinary.open(file, true, 16 * 1024, 12, (done, total) -> {
+                throw new AssertionError("Index should not be rebuilt");
+            })) {
+                assertThat(binary.length(), is((long) expected.length));
+                assertThat(binary.read(700000), is(expected[700000]));
+            }
+        } finally {
+            Files.deleteIfExists(new SidecarFile(file, DeflateBinary.INDEX_SUFFIX).getPath());
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testBuildIndex_Cancelled() throws Exception {
+        byte[] data = sampleData(new Random(4), 1024 * 1024);
+        Binary compressed = BinaryFactory.wrap(gzip(data));
+        ProgressMonitor monitor = new ProgressMonitor() {
+            @Override
+            public void progress(long done, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+        assertThrows(CancellationException.class,
+                     () -> DeflateBinary.buildIndex(compressed, true, 64 * 1024, monitor));
+    }
+
+    @Test
+    public void testCorruptData() throws Exception {
+        assertThrows(IOException.class, () -> DeflateBinary.buildIndex(
+                BinaryFactory.wrap(new byte[] { 1, 2, 3, 4 }), true, 1024, ProgressMonitor.NONE));
+
+        byte[] compressed = deflate(sampleData(new Random(5), 10000), 6, Deflater.DEFAULT_STRATEGY, false);
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        try (DeflateBinary binary = new DeflateBinary(BinaryFactory.wrap(truncated),
+                                                      new DeflateIndex(false, 1024), 10000, 10)) {
+            assertThrows(UncheckedIOException.class, () -> binary.read(9999));
+        }
+    }
+
+    /**
+     * Generates data which compresses reasonably, with some random stretches mixed in
+     * so that the compressor uses all kinds of blocks.
+     */
+    static byte[] sampleData(Random random, int length) {
+        byte[] data = new byte[length];
+        int i = 0;
+        while (i < length) {
+            int run = Math.min(length - i, 1 + random.nextInt(5000));
+            switch (random.nextInt(3)) {
+                case 0:
+                    for (int j = 0; j < run; j++) {
+                        data[i + j] = (byte) random.nextInt(256);
+                    }
+                    break;
+                case 1:
+                    for (int j = 0; j < run; j++) {
+                        data[i + j] = (byte) ('a' + random.nextInt(4));
+                    }
+                    break;
+                default:
+                    if (i > 0) {
+                        int distance = 1 + random.nextInt(Math.min(i, 40000));
+                        for (int j = 0; j < run; j++) {
+                            data[i + j] = data[i + j - distance];
+                        }
+                    }
+                    break;
+            }
+            i += run;
+        }
+        return data;
+    }
+
+    static byte[] deflate(byte[] data, int level, int strategy, boolean flushes) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        deflater.setStrategy(strategy);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater, 4096, true)) {
+            int offset = 0;
+            while (offset < data.length) {
+                int count = Math.min(data.length - offset, 70000);
+                out.write(data, offset, count);
+                if (flushes) {
+                    // Sync flushes put empty stored blocks into the stream.
+                    out.flush();
+                }
+                offset += count;
+            }
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] inflateAll(Binary compressed, boolean gzip, int expectedLength) throws IOException {
+        InflateCursor cursor = new InflateCursor(compressed, gzip);
+        byte[] result = new byte[expectedLength + 1];
+        int length = 0;
+        while (true) {
+            int count = cursor.inflate(result, length, result.length - length);
+            if (count < 0) {
+                break;
+            }
+            length += count;
+        }
+        assertThat(length, is(expectedLength));
+        byte[] trimmed = new byte[length];
+        System.arraycopy(result, 0, trimmed, 0, length);
+        return trimmed;
+    }
+}
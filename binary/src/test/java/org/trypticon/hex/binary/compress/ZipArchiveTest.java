@@ -0,0 +1,195 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.compress;
+
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link ZipArchive}.
+ *
+ * @author trejkaz
+ */
+public class ZipArchiveTest {
+
+    @Test
+    public void testStoredAndDeflatedEntries() throws Exception {
+        Random random = new Random(42);
+        byte[] stored = DeflateBinaryTest.sampleData(random, 100000);
+        byte[] deflated = DeflateBinaryTest.sampleData(random, 3 * 1024 * 1024);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.setComment("PK\u0005\u0006 a comment which looks like a signature");
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.closeEntry();
+            out.putNextEntry(storedEntry("dir/stored.bin", stored));
+            out.write(stored);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("dir/deflated.bin"));
+            out.write(deflated);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("ünicode.txt"));
+            out.write("hello".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        try (ZipArchive archive = new ZipArchive(BinaryFactory.wrap(bytes.toByteArray()))) {
+            assertThat(archive.getEntries().size(), is(4));
+            assertThat(archive.getEntries().get(0).isDirectory(), is(true));
+            assertThat(archive.getEntry("missing"), is(nullValue()));
+
+            ZipArchive.Entry storedEntry = archive.getEntry("dir/stored.bin");
+            assertThat(storedEntry.getMethod(), is(ZipArchive.STORED));
+            assertThat(storedEntry.getCrc(), is(crc(stored)));
+            assertContent(archive.open(storedEntry), stored);
+
+            ZipArchive.Entry deflatedEntry = archive.getEntry("dir/deflated.bin");
+            assertThat(deflatedEntry.getMethod(), is(ZipArchive.DEFLATED));
+            assertThat(deflatedEntry.getSize(), is((long) deflated.length));
+            Binary binary = archive.open(deflatedEntry);
+            assertThat(binary, is(instanceOf(DeflateBinary.class)));
+            assertThat(binary.read(3000000), is(deflated[3000000]));
+            assertThat(binary.read(12345), is(deflated[12345]));
+            assertContent(binary, deflated);
+
+            assertContent(archive.open(archive.getEntry("ünicode.txt")), "hello".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testOpenDoesNotInflate() throws Exception {
+        byte[] data = DeflateBinaryTest.sampleData(new Random(1), 1024 * 1024);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("entry"));
+            out.write(data);
+            out.closeEntry();
+        }
+        byte[] zip = bytes.toByteArray();
+
+        // Trash the entry's compressed data. Only reading the entry should notice.
+        int dataStart = 30 + "entry".length();
+        for (int i = dataStart; i < dataStart + 1000; i++) {
+            zip[i] = (byte) 0xFF;
+        }
+        try (ZipArchive archive = new ZipArchive(BinaryFactory.wrap(zip))) {
+            Binary binary = archive.open(archive.getEntries().get(0));
+            assertThat(binary.length(), is((long) data.length));
+            assertThrows(RuntimeException.class, () -> binary.read(0));
+        }
+    }
+
+    @Test
+    public void testZip64() throws Exception {
+        // More entries than fit in the old end of central directory record forces ZIP64.
+        int count = 70000;
+        Path file = Files.createTempFile("hextest", ".zip");
+        try {
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file))) {
+                out.setLevel(0);
+                for (int i = 0; i < count; i++) {
+                    out.putNextEntry(new ZipEntry("e" + i));
+                    out.write(Integer.toString(i).getBytes(StandardCharsets.US_ASCII));
+                    out.closeEntry();
+                }
+            }
+
+            try (ZipArchive archive = ZipArchive.open(file)) {
+                assertThat(archive.getEntries().size(), is(count));
+                assertContent(archive.open(archive.getEntry("e69999")),
+                              "69999".getBytes(StandardCharsets.US_ASCII));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testStoredEntryWithMismatchedSizes() throws Exception {
+        byte[] data = "hello".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(storedEntry("stored.bin", data));
+            out.write(data);
+            out.closeEntry();
+        }
+
+        // Claim a much larger uncompressed size in the central directory than the data really takes up.
+        ByteBuffer zip = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        int centralEntry = 0;
+        while (zip.getInt(centralEntry) != 0x02014B50) {
+            centralEntry++;
+        }
+        zip.putInt(centralEntry + 24, 1000000);
+
+        try (ZipArchive archive = new ZipArchive(BinaryFactory.wrap(zip.array()))) {
+            ZipArchive.Entry entry = archive.getEntry("stored.bin");
+            assertThrows(ZipException.class, () -> archive.open(entry));
+        }
+    }
+
+    @Test
+    public void testNotAZip() {
+        assertThrows(ZipException.class, () -> new ZipArchive(BinaryFactory.wrap(new byte[100])));
+        assertThrows(ZipException.class, () -> new ZipArchive(BinaryFactory.wrap(new byte[0])));
+    }
+
+    private static ZipEntry storedEntry(String name, byte[] data) {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc(data) & 0xFFFFFFFFL);
+        return entry;
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    private static void assertContent(Binary binary, byte[] expected) throws IOException {
+        assertThat(binary.length(), is((long) expected.length));
+        byte[] actual = new byte[expected.length];
+        binary.read(0, actual);
+        assertThat(actual, is(expected));
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.diff;
+
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link BinaryDiffer}.
+ *
+ * @author trejkaz
+ */
+public class BinaryDifferTest {
+    private final BinaryDiffer differ = new BinaryDiffer();
+
+    @Test
+    public void testIdentical() {
+        byte[] data = randomBytes(new Random(1), 5000);
+        assertThat(differ.diff(BinaryFactory.wrap(data), BinaryFactory.wrap(data.clone())),
+                   is(Collections.singletonList(new DiffRange(DiffRange.Type.EQUAL, 0, 5000, 0, 5000))));
+    }
+
+    @Test
+    public void testEmpty() {
+        Binary empty = BinaryFactory.wrap(new byte[0]);
+        Binary data = BinaryFactory.wrap(new byte[] { 1, 2, 3 });
+        assertThat(differ.diff(empty, empty), is(Collections.emptyList()));
+        assertThat(differ.diff(empty, data),
+                   is(Collections.singletonList(new DiffRange(DiffRange.Type.INSERTED, 0, 0, 0, 3))));
+        assertThat(differ.diff(data, empty),
+                   is(Collections.singletonList(new DiffRange(DiffRange.Type.DELETED, 0, 3, 0, 0))));
+    }
+
+    @Test
+    public void testChanged() {
+        byte[] oldData = randomBytes(new Random(1), 5000);
+        byte[] newData = oldData.clone();
+        newData[1000] ^= 1;
+        newData[1001] ^= 1;
+        assertThat(differ.diff(BinaryFactory.wrap(oldData), BinaryFactory.wrap(newData)), is(Arrays.asList(
+                new DiffRange(DiffRange.Type.EQUAL, 0, 1000, 0, 1000),
+                new DiffRange(DiffRange.Type.CHANGED, 1000, 1002, 1000, 1002),
+                new DiffRange(DiffRange.Type.EQUAL, 1002, 5000, 1002, 5000))));
+    }
+
+    @Test
+    public void testInserted() {
+        byte[] oldData = randomBytes(new Random(1), 5000);
+        byte[] newData = concat(Arrays.copyOfRange(oldData, 0, 1000), new byte[] { 1, 2, 3 },
+                                Arrays.copyOfRange(oldData, 1000, 5000));
+        assertThat(differ.diff(BinaryFactory.wrap(oldData), BinaryFactory.wrap(newData)), is(Arrays.asList(
+                new DiffRange(DiffRange.Type.EQUAL, 0, 1000, 0, 1000),
+                new DiffRange(DiffRange.Type.INSERTED, 1000, 1000, 1000, 1003),
+                new DiffRange(DiffRange.Type.EQUAL, 1000, 5000, 1003, 5003))));
+    }
+
+    @Test
+    public void testDeleted() {
+        byte[] oldData = randomBytes(new Random(1), 5000);
+        byte[] newData = concat(Arrays.copyOfRange(oldData, 0, 1000), Arrays.copyOfRange(oldData, 1100, 5000));
+        assertThat(differ.diff(BinaryFactory.wrap(oldData), BinaryFactory.wrap(newData)), is(Arrays.asList(
+                new DiffRange(DiffRange.Type.EQUAL, 0, 1000, 0, 1000),
+                new DiffRange(DiffRange.Type.DELETED, 1000, 1100, 1000, 1000),
+                new DiffRange(DiffRange.Type.EQUAL, 1100, 5000, 1000, 4900))));
+    }
+
+    @Test
+    public void testCompletelyDifferent() {
+        Binary oldBinary = BinaryFactory.wrap(randomBytes(new Random(1), 5000));
+        Binary newBinary = BinaryFactory.wrap(randomBytes(new Random(2), 6000));
+        BinaryDiffer differ = new BinaryDiffer(Runnable::run, 1, 256, 16, 1024);
+        assertThat(differ.diff(oldBinary, newBinary), is(Collections.singletonList(
+                new DiffRange(DiffRange.Type.CHANGED, 0, 5000, 0, 6000))));
+    }
+
+    /**
+     * Lots of random edits, with tiny chunks so that comparisons run on several threads at once.
+     */
+    @Test
+    public void testRandomEdits() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            BinaryDiffer differ = new BinaryDiffer(executor, 4, 256, 16, 64 * 1024);
+            Random random = new Random(42);
+            for (int iteration = 0; iteration < 50; iteration++) {
+                byte[] oldData = randomBytes(random, 20000 + random.nextInt(20000));
+                ByteArrayOutputStream newData = new ByteArrayOutputStream();
+                int position = 0;
+                int edits = 0;
+                while (position < oldData.length) {
+                    int equal = Math.min(oldData.length - position, random.nextInt(5000));
+                    newData.write(oldData, position, equal);
+                    position += equal;
+                    int deleted = Math.min(oldData.length - position, random.nextInt(100));
+                    position += deleted;
+                    newData.write(randomBytes(random, random.nextInt(100)));
+                    edits++;
+                }
+
+                List<DiffRange> ranges = differ.diff(BinaryFactory.wrap(oldData),
+                                                     BinaryFactory.wrap(newData.toByteArray()));
+                assertValid(ranges, oldData, newData.toByteArray());
+                assertThat(ranges.size() <= edits * 2 + 1, is(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testProgressAndCancellation() {
+        Binary binary = BinaryFactory.wrap(new byte[10000]);
+        BinaryDiffer differ = new BinaryDiffer(Runnable::run, 1, 256, 16, 1024);
+
+        List<Long> progress = new ArrayList<>();
+        differ.diff(binary, binary, range -> {}, (done, total) -> progress.add(done));
+        assertThat(progress.get(progress.size() - 1), is(20000L));
+
+        assertThrows(CancellationException.class, () -> differ.diff(binary, binary, range -> {}, new ProgressMonitor() {
+            @Override
+            public void progress(long done, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        }));
+    }
+
+    /**
+     * Checks that ranges cover both binaries in order, that equal ranges really are equal,
+     * and that consecutive ranges have different types.
+     */
+    private static void assertValid(List<DiffRange> ranges, byte[] oldData, byte[] newData) {
+        long o = 0;
+        long n = 0;
+        DiffRange.Type lastType = null;
+        for (DiffRange range : ranges) {
+            assertThat(range.getOldStart(), is(o));
+            assertThat(range.getNewStart(), is(n));
+            assertThat(range.getType() == lastType, is(false));
+            switch (range.getType()) {
+                case EQUAL:
+                    assertThat(Arrays.equals(oldData, (int) range.getOldStart(), (int) range.getOldEnd(),
+                                             newData, (int) range.getNewStart(), (int) range.getNewEnd()), is(true));
+                    break;
+                case INSERTED:
+                    assertThat(range.getOldLength(), is(0L));
+                    break;
+                case DELETED:
+                    assertThat(range.getNewLength(), is(0L));
+                    break;
+                default:
+                    assertThat(range.getOldLength() > 0 && range.getNewLength() > 0, is(true));
+                    break;
+            }
+            o = range.getOldEnd();
+            n = range.getNewEnd();
+            lastType = range.getType();
+        }
+        assertThat(o, is((long) oldData.length));
+        assertThat(n, is((long) newData.length));
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            result.writeBytes(array);
+        }
+        return result.toByteArray();
+    }
+}
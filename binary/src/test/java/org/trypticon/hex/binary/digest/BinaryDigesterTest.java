@@ -0,0 +1,150 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.digest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link BinaryDigester}.
+ *
+ * @author trejkaz
+ */
+public class BinaryDigesterTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testChecksum_Parallel() {
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(data);
+        Binary binary = BinaryFactory.wrap(data);
+
+        for (long chunkSize : new long[] { 1000, 65536, 1024 * 1024, Long.MAX_VALUE }) {
+            BinaryDigester digester = new BinaryDigester(executor, 4, chunkSize);
+            for (CombinableChecksum type : CombinableChecksum.values()) {
+                assertThat(digester.checksum(binary, 0, data.length, type, ProgressMonitor.NONE),
+                           is(expected(type, data, 0, data.length)));
+                assertThat(digester.checksum(binary, 5, 2000005, type, ProgressMonitor.NONE),
+                           is(expected(type, data, 5, 2000005)));
+                assertThat(digester.checksum(binary, 10, 10, type, ProgressMonitor.NONE),
+                           is(expected(type, data, 10, 10)));
+            }
+        }
+    }
+
+    @Test
+    public void testChecksum_Sequential() {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        long value = new BinaryDigester().checksum(BinaryFactory.wrap(data), 100, 90000, new CRC32(), ProgressMonitor.NONE);
+
+        CRC32 expected = new CRC32();
+        expected.update(data, 100, 89900);
+        assertThat(value, is(expected.getValue()));
+    }
+
+    @Test
+    public void testDigest() throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        Binary binary = BinaryFactory.wrap(data);
+        BinaryDigester digester = new BinaryDigester();
+
+        for (String algorithm : new String[] { "MD5", "SHA-256" }) {
+            MessageDigest expected = MessageDigest.getInstance(algorithm);
+            expected.update(data, 7, 2000000);
+            assertThat(digester.digest(binary, 7, 2000007, MessageDigest.getInstance(algorithm), ProgressMonitor.NONE),
+                       is(expected.digest()));
+        }
+    }
+
+    @Test
+    public void testProgress() {
+        Binary binary = BinaryFactory.wrap(new byte[5000]);
+        BinaryDigester digester = new BinaryDigester(executor, 4, 1000);
+        List<Long> progress = Collections.synchronizedList(new ArrayList<>());
+        digester.checksum(binary, 0, 5000, CombinableChecksum.CRC32C, (done, total) -> {
+            assertThat(total, is(5000L));
+            progress.add(done);
+        });
+        assertThat(Collections.max(progress), is(5000L));
+    }
+
+    @Test
+    public void testCancelled() {
+        Binary binary = BinaryFactory.wrap(new byte[5000]);
+        BinaryDigester digester = new BinaryDigester(executor, 4, 1000);
+        ProgressMonitor cancelled = new ProgressMonitor() {
+            @Override
+            public void progress(long done, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+        assertThrows(CancellationException.class,
+                     () -> digester.checksum(binary, 0, 5000, CombinableChecksum.CRC32, cancelled));
+        assertThrows(CancellationException.class,
+                     () -> digester.digest(binary, 0, 5000, MessageDigest.getInstance("MD5"), cancelled));
+    }
+
+    @Test
+    public void testOutOfBounds() {
+        Binary binary = BinaryFactory.wrap(new byte[10]);
+        BinaryDigester digester = new BinaryDigester();
+        assertThrows(IndexOutOfBoundsException.class,
+                     () -> digester.checksum(binary, -1, 5, CombinableChecksum.CRC32, ProgressMonitor.NONE));
+        assertThrows(IndexOutOfBoundsException.class,
+                     () -> digester.checksum(binary, 5, 11, CombinableChecksum.CRC32, ProgressMonitor.NONE));
+        assertThrows(IndexOutOfBoundsException.class,
+                     () -> digester.checksum(binary, 6, 5, new CRC32(), ProgressMonitor.NONE));
+    }
+
+    private static long expected(CombinableChecksum type, byte[] data, int from, int to) {
+        Checksum checksum = type.newChecksum();
+        checksum.update(data, from, to - from);
+        return checksum.getValue();
+    }
+}
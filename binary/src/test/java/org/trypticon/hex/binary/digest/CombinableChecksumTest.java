@@ -0,0 +1,79 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.digest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link CombinableChecksum}.
+ *
+ * @author trejkaz
+ */
+public class CombinableChecksumTest {
+
+    @Test
+    public void testCombine() {
+        Random random = new Random(42);
+        for (CombinableChecksum type : CombinableChecksum.values()) {
+            for (int iteration = 0; iteration < 200; iteration++) {
+                byte[] data = new byte[random.nextInt(100000)];
+                random.nextBytes(data);
+                int split = data.length == 0 ? 0 : random.nextInt(data.length + 1);
+
+                long whole = checksum(type, data, 0, data.length);
+                long first = checksum(type, data, 0, split);
+                long second = checksum(type, data, split, data.length);
+                assertThat(type + " split at " + split + " of " + data.length,
+                           type.combine(first, second, data.length - split), is(whole));
+            }
+        }
+    }
+
+    @Test
+    public void testCombine_Long() {
+        // Checksum of a lot of zeroes, worked out by combining smaller checksums of zeroes.
+        byte[] zeroes = new byte[1 << 20];
+        for (CombinableChecksum type : CombinableChecksum.values()) {
+            long chunk = checksum(type, zeroes, 0, zeroes.length);
+            long combined = type.newChecksum().getValue();
+            for (int i = 0; i < 64; i++) {
+                combined = type.combine(combined, chunk, zeroes.length);
+            }
+
+            Checksum expected = type.newChecksum();
+            for (int i = 0; i < 64; i++) {
+                expected.update(zeroes, 0, zeroes.length);
+            }
+            assertThat(type.toString(), combined, is(expected.getValue()));
+        }
+    }
+
+    private static long checksum(CombinableChecksum type, byte[] data, int from, int to) {
+        Checksum checksum = type.newChecksum();
+        checksum.update(data, from, to - from);
+        return checksum.getValue();
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.digest;
+
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.PieceTableBinary;
+import org.trypticon.hex.binary.ProgressMonitor;
+import org.trypticon.hex.binary.SidecarFile;
+import org.trypticon.hex.binary.diff.DiffRange;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link MerkleTree}.
+ *
+ * @author trejkaz
+ */
+public class MerkleTreeTest {
+    private static final int BLOCK_SIZE = 1000;
+
+    @Test
+    public void testBuild() {
+        byte[] data = randomBytes(new Random(1), 5500);
+        MerkleTree tree = MerkleTree.build(BinaryFactory.wrap(data), BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+        assertThat(tree.getBlockCount(), is(6));
+        assertThat(tree.getLength(), is(5500L));
+        assertThat(tree.getBlockHash(0), is(leafHash(data, 0, 1000)));
+        assertThat(tree.getBlockHash(5), is(leafHash(data, 5000, 5500)));
+
+        // Six leaves: ((0 1) (2 3)) ((4 5)), with the lone right node carried up unchanged.
+        byte[] left = nodeHash(nodeHash(leafHash(data, 0, 1000), leafHash(data, 1000, 2000)),
+                               nodeHash(leafHash(data, 2000, 3000), leafHash(data, 3000, 4000)));
+        byte[] right = nodeHash(leafHash(data, 4000, 5000), leafHash(data, 5000, 5500));
+        assertThat(tree.getRootHash(), is(nodeHash(left, right)));
+    }
+
+    @Test
+    public void testBuild_Empty() {
+        MerkleTree tree = MerkleTree.build(BinaryFactory.wrap(new byte[0]), BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+        assertThat(tree.getBlockCount(), is(1));
+        assertThat(tree.getRootHash(), is(leafHash(new byte[0], 0, 0)));
+    }
+
+    @Test
+    public void testBuild_Cancelled() {
+        Binary binary = BinaryFactory.wrap(new byte[10000]);
+        ProgressMonitor monitor = new ProgressMonitor() {
+            @Override
+            public void progress(long done, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+        assertThrows(CancellationException.class, () -> MerkleTree.build(binary, BLOCK_SIZE, "SHA-256", monitor));
+    }
+
+    @Test
+    public void testBuild_BadArguments() {
+        Binary binary = BinaryFactory.wrap(new byte[10]);
+        assertThrows(IllegalArgumentException.class, () -> MerkleTree.build(binary, 0, "SHA-256", ProgressMonitor.NONE));
+        assertThrows(IllegalArgumentException.class, () -> MerkleTree.build(binary, 10, "NOPE", ProgressMonitor.NONE));
+    }
+
+    @Test
+    public void testRangeHash() {
+        byte[] data = randomBytes(new Random(2), 20000);
+        byte[] copy = data.clone();
+        copy[500] ^= 1;
+        copy[19500] ^= 1;
+        MerkleTree tree = MerkleTree.build(BinaryFactory.wrap(data), BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+        MerkleTree other = MerkleTree.build(BinaryFactory.wrap(copy), BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+
+        assertThat(tree.getRangeHash(1, 19), is(other.getRangeHash(1, 19)));
+        assertThat(tree.getRangeHash(3, 7), is(other.getRangeHash(3, 7)));
+        assertThat(tree.getRangeHash(0, 19), is(not(other.getRangeHash(0, 19))));
+        assertThat(tree.getRangeHash(1, 20), is(not(other.getRangeHash(1, 20))));
+        assertThat(tree.getRangeHash(3, 7), is(not(tree.getRangeHash(3, 8))));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.getRangeHash(0, 21));
+        assertThrows(IndexOutOfBoundsException.class, () -> tree.getRangeHash(5, 4));
+    }
+
+    @Test
+    public void testInvalidate_DuringRefresh() throws Exception {
+        byte[] data = randomBytes(new Random(3), 4000);
+        MerkleTree tree = MerkleTree.build(BinaryFactory.wrap(data), BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+        byte[] rootHash = tree.getRootHash();
+        tree.invalidate(4000, 0, 4000);
+
+        CountDownLatch hashing = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        ProgressMonitor monitor = new ProgressMonitor() {
+            @Override
+            public void progress(long done, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                hashing.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+        };
+        Thread refresher = new Thread(() -> tree.refresh(BinaryFactory.wrap(data), monitor));
+        refresher.start();
+        try {
+            assertThat(hashing.await(10, TimeUnit.SECONDS), is(true));
+            assertThat(tree.isDirty(), is(true));
+
+            // Hashing is stuck, but the tree isn't locked, so this doesn't wait for it.
+            Thread invalidator = new Thread(() -> tree.invalidate(4000, 1500, 1600));
+            invalidator.start();
+            invalidator.join(10_000);
+            assertThat(invalidator.isAlive(), is(false));
+        } finally {
+            proceed.countDown();
+            refresher.join();
+        }
+
+        // The block invalidated during the refresh still needs hashing.
+        assertThat(tree.isDirty(), is(true));
+        tree.refresh(BinaryFactory.wrap(data), ProgressMonitor.NONE);
+        assertThat(tree.isDirty(), is(false));
+        assertThat(tree.getRootHash(), is(rootHash));
+    }
+
+    @Test
+    public void testRefresh_AfterEdits() {
+        Random random = new Random(3);
+        byte[] data = randomBytes(random, 50000);
+        PieceTableBinary binary = new PieceTableBinary(BinaryFactory.wrap(data));
+        MerkleTree tree = MerkleTree.build(binary, BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+        binary.addBinaryListener(tree);
+
+        for (int iteration = 0; iteration < 50; iteration++) {
+            long position = random.nextInt((int) binary.length());
+            int operation = random.nextInt(3);
+            switch (operation) {
+                case 0:
+                    binary.write(position, ByteBuffer.wrap(randomBytes(random, 1 + random.nextInt(100))));
+                    break;
+                case 1:
+                    binary.insert(position, ByteBuffer.wrap(randomBytes(random, 1 + random.nextInt(3000))));
+                    break;
+                default:
+                    binary.delete(position, Math.min(binary.length() - position, random.nextInt(3000)));
+                    break;
+            }
+            assertThat(tree.isDirty(), is(true));
+
+            long[] hashed = { 0 };
+            tree.refresh(binary, (done, total) -> hashed[0] = Math.max(hashed[0], done));
+            assertThat(tree.isDirty(), is(false));
+            MerkleTree expected = MerkleTree.build(binary, BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+            assertThat(tree.getLength(), is(binary.length()));
+            assertThat(tree.getRootHash(), is(expected.getRootHash()));
+
+            // Overwrites only touch a block or two, so only those should be read.
+            if (operation == 0) {
+                assertThat(hashed[0] <= 2 * BLOCK_SIZE, is(true));
+            }
+        }
+    }
+
+    @Test
+    public void testDirty() {
+        PieceTableBinary binary = new PieceTableBinary(BinaryFactory.wrap(new byte[5000]));
+        MerkleTree tree = MerkleTree.build(binary, BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+        binary.addBinaryListener(tree);
+        binary.write(2500, (byte) 1);
+        assertThrows(IllegalStateException.class, tree::getRootHash);
+        assertThrows(IllegalStateException.class, () -> tree.getBlockHash(0));
+        assertThrows(IllegalArgumentException.class,
+                     () -> tree.refresh(BinaryFactory.wrap(new byte[10]), ProgressMonitor.NONE));
+    }
+
+    @Test
+    public void testCompare() {
+        byte[] data = randomBytes(new Random(4), 100000);
+        byte[] copy = data.clone();
+        copy[12345] ^= 1;
+        copy[12999] ^= 1;
+        copy[64000] ^= 1;
+        MerkleTree tree = MerkleTree.build(BinaryFactory.wrap(data), BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+        MerkleTree other = MerkleTree.build(BinaryFactory.wrap(copy), BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+
+        assertThat(tree.compare(other), is(Arrays.asList(
+                new DiffRange(DiffRange.Type.EQUAL, 0, 12000, 0, 12000),
+                new DiffRange(DiffRange.Type.CHANGED, 12000, 13000, 12000, 13000),
+                new DiffRange(DiffRange.Type.EQUAL, 13000, 64000, 13000, 64000),
+                new DiffRange(DiffRange.Type.CHANGED, 64000, 65000, 64000, 65000),
+                new DiffRange(DiffRange.Type.EQUAL, 65000, 100000, 65000, 100000))));
+        assertThat(tree.compare(tree), is(Collections.singletonList(
+                new DiffRange(DiffRange.Type.EQUAL, 0, 100000, 0, 100000))));
+    }
+
+    @Test
+    public void testCompare_DifferentLengths() {
+        byte[] data = randomBytes(new Random(5), 10500);
+        byte[] longer = Arrays.copyOf(data, 25000);
+        MerkleTree tree = MerkleTree.build(BinaryFactory.wrap(data), BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+        MerkleTree other = MerkleTree.build(BinaryFactory.wrap(longer), BLOCK_SIZE, "SHA-256", ProgressMonitor.NONE);
+
+        assertThat(tree.compare(other), is(Arrays.asList(
+                new DiffRange(DiffRange.Type.EQUAL, 0, 10000, 0, 10000),
+                new DiffRange(DiffRange.Type.CHANGED, 10000, 10500, 10000, 11000),
+                new DiffRange(DiffRange.Type.INSERTED, 10500, 10500, 11000, 25000))));
+        assertThat(other.compare(tree), is(Arrays.asList(
+                new DiffRange(DiffRange.Type.EQUAL, 0, 10000, 0, 10000),
+                new DiffRange(DiffRange.Type.CHANGED, 10000, 11000, 10000, 10500),
+                new DiffRange(DiffRange.Type.DELETED, 11000, 25000, 10500, 10500))));
+
+        MerkleTree mismatched = MerkleTree.build(BinaryFactory.wrap(data), 500, "SHA-256", ProgressMonitor.NONE);
+        assertThrows(IllegalArgumentException.class, () -> tree.compare(mismatched));
+    }
+
+    @Test
+    public void testOpen_UsesSidecar() throws Exception {
+        byte[] data = randomBytes(new Random(6), 30000);
+        Path dir = Files.createTempDirectory("hextest");
+        Path file = dir.resolve("test.bin");
+        Path sidecar = new SidecarFile(file, MerkleTree.SIDECAR_SUFFIX).getPath();
+        try {
+            Files.write(file, data);
+            Binary binary = BinaryFactory.wrap(data);
+
+            long[] hashed = { 0 };
+            ProgressMonitor monitor = (done, total) -> hashed[0] = Math.max(hashed[0], done);
+            MerkleTree tree = MerkleTree.open(file, binary, BLOCK_SIZE, "SHA-256", monitor);
+            assertThat(hashed[0], is(30000L));
+            assertThat(Files.exists(sidecar), is(true));
+
+            hashed[0] = 0;
+            MerkleTree loaded = MerkleTree.open(file, binary, BLOCK_SIZE, "SHA-256", monitor);
+            assertThat(hashed[0], is(0L));
+            assertThat(loaded.getRootHash(), is(tree.getRootHash()));
+            assertThat(loaded.getRangeHash(3, 17), is(tree.getRangeHash(3, 17)));
+
+            // Asking for a different block size ignores the sidecar.
+            MerkleTree rebuilt = MerkleTree.open(file, binary, 2000, "SHA-256", monitor);
+            assertThat(hashed[0], is(30000L));
+            assertThat(rebuilt.getBlockCount(), is(15));
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    private static byte[] leafHash(byte[] data, int from, int to) {
+        MessageDigest digest = sha256();
+        digest.update((byte) 0);
+        digest.update(data, from, to - from);
+        return digest.digest();
+    }
+
+    private static byte[] nodeHash(byte[] left, byte[] right) {
+        MessageDigest digest = sha256();
+        digest.update((byte) 1);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link ByteSequenceSearcher}.
+ *
+ * @author trejkaz
+ */
+public class ByteSequenceSearcherTest {
+
+    @Test
+    public void testFind() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 2, 3, 1, 2, 3, 4 });
+        ByteSequenceSearcher searcher = new ByteSequenceSearcher(new byte[] { 2, 3 });
+        assertThat(searcher.find(binary), is(1L));
+        assertThat(searcher.find(binary, 2, 7), is(4L));
+        assertThat(searcher.find(binary, 2, 5), is(-1L));
+    }
+
+    @Test
+    public void testFind_AtVeryEnd() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 2, 3, 4 });
+        assertThat(new ByteSequenceSearcher(new byte[] { 3, 4 }).find(binary), is(2L));
+        assertThat(new ByteSequenceSearcher(new byte[] { 1, 2, 3, 4 }).find(binary), is(0L));
+        assertThat(new ByteSequenceSearcher(new byte[] { 1, 2, 3, 4, 5 }).find(binary), is(-1L));
+    }
+
+    @Test
+    public void testFindLast() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 2, 3, 1, 2, 3, 4 });
+        ByteSequenceSearcher searcher = new ByteSequenceSearcher(new byte[] { 2, 3 });
+        assertThat(searcher.findLast(binary), is(4L));
+        assertThat(searcher.findLast(binary, 0, 5), is(1L));
+        assertThat(searcher.findLast(binary, 2, 5), is(-1L));
+    }
+
+    @Test
+    public void testFindAll() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 1, 1, 1, 2, 1, 1 });
+        ByteSequenceSearcher searcher = new ByteSequenceSearcher(new byte[] { 1, 1 });
+        List<Long> hits = new ArrayList<>();
+        searcher.findAll(binary, 0, binary.length(), hits::add);
+        assertThat(hits, is(Arrays.asList(0L, 1L, 2L, 5L)));
+    }
+
+    @Test
+    public void testFind_OutOfBounds() {
+        Binary binary = BinaryFactory.wrap(new byte[4]);
+        ByteSequenceSearcher searcher = new ByteSequenceSearcher(new byte[] { 1 });
+        assertThrows(IndexOutOfBoundsException.class, () -> searcher.find(binary, -1, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> searcher.find(binary, 0, 5));
+        assertThrows(IndexOutOfBoundsException.class, () -> searcher.findLast(binary, 3, 2));
+    }
+
+    /**
+     * Compares against a naive search for lots of random data, using a tiny alphabet so that
+     * there are plenty of partial matches, and small blocks so that matches span block boundaries.
+     * Pattern lengths cover all of the algorithms.
+     */
+    @Test
+    public void testAgainstNaiveSearch() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            int alphabet = 1 + random.nextInt(3);
+            byte[] data = randomBytes(random, random.nextInt(300), alphabet);
+            byte[] sequence = randomBytes(random, 1 + random.nextInt(iteration % 2 == 0 ? 8 : 60), alphabet);
+            Binary binary = BinaryFactory.wrap(data);
+            ByteSequenceSearcher searcher = new ByteSequenceSearcher(sequence, 16);
+
+            int from = data.length == 0 ? 0 : random.nextInt(data.length);
+            int to = from + random.nextInt(data.length - from + 1);
+            assertThat(searcher.find(binary, from, to), is(naiveFind(data, sequence, from, to)));
+            assertThat(searcher.findLast(binary, from, to), is(naiveFindLast(data, sequence, from, to)));
+
+            List<Long> hits = new ArrayList<>();
+            searcher.findAll(binary, from, to, hits::add);
+            assertThat(hits, is(naiveFindAll(data, sequence, from, to)));
+        }
+    }
+
+    @Test
+    public void testPeriodicLongSequence() {
+        byte[] sequence = new byte[100];
+        byte[] data = new byte[1000];
+        data[950] = 1;
+        Binary binary = BinaryFactory.wrap(data);
+        ByteSequenceSearcher searcher = new ByteSequenceSearcher(sequence, 64);
+        assertThat(searcher.find(binary), is(0L));
+        assertThat(searcher.find(binary, 851, 1000), is(-1L));
+        assertThat(searcher.findLast(binary), is(850L));
+    }
+
+    static byte[] randomBytes(Random random, int length, int alphabet) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) random.nextInt(alphabet);
+        }
+        return bytes;
+    }
+
+    static long naiveFind(byte[] data, byte[] sequence, int from, int to) {
+        for (int i = from; i + sequence.length <= to; i++) {
+            if (matchesAt(data, sequence, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static List<Long> naiveFindAll(byte[] data, byte[] sequence, int from, int to) {
+        List<Long> hits = new ArrayList<>();
+        for (int i = from; i + sequence.length <= to; i++) {
+            if (matchesAt(data, sequence, i)) {
+                hits.add((long) i);
+            }
+        }
+        return hits;
+    }
+
+    private static long naiveFindLast(byte[] data, byte[] sequence, int from, int to) {
+        for (int i = to - sequence.length; i >= from; i--) {
+            if (matchesAt(data, sequence, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matchesAt(byte[] data, byte[] sequence, int position) {
+        for (int j = 0; j < sequence.length; j++) {
+            if (data[position + j] != sequence[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
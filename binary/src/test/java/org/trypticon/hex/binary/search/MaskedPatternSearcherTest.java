@@ -0,0 +1,163 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link MaskedPatternSearcher}.
+ *
+ * @author trejkaz
+ */
+public class MaskedPatternSearcherTest {
+
+    @Test
+    public void testWildcards() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 0, 0x4D, 0x5A, 1, 2, 0x50, 0x45, 0 });
+        assertThat(MaskedPatternSearcher.compile("4D 5A ?? ?? 50 45").find(binary), is(new SearchHit(1, 7)));
+        assertThat(MaskedPatternSearcher.compile("4d5a????5045").find(binary), is(new SearchHit(1, 7)));
+        assertThat(MaskedPatternSearcher.compile("4D 5A ?? 50 45").find(binary), is(nullValue()));
+    }
+
+    @Test
+    public void testNibbleMasks() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 0x12, 0x34, 0x56, 0x78 });
+        assertThat(MaskedPatternSearcher.compile("3? ?6").find(binary), is(new SearchHit(1, 3)));
+        assertThat(MaskedPatternSearcher.compile("?2 3?").find(binary), is(new SearchHit(0, 2)));
+        assertThat(MaskedPatternSearcher.compile("?3").find(binary), is(nullValue()));
+    }
+
+    @Test
+    public void testGaps() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 9, 9, 9, 2, 9, 2 });
+        assertThat(MaskedPatternSearcher.compile("01 [2-8] 02").find(binary), is(new SearchHit(0, 5)));
+        assertThat(MaskedPatternSearcher.compile("01 [4-8] 02").find(binary), is(new SearchHit(0, 7)));
+        assertThat(MaskedPatternSearcher.compile("01 [3] 02").find(binary), is(new SearchHit(0, 5)));
+        assertThat(MaskedPatternSearcher.compile("01 [0-2] 02").find(binary), is(nullValue()));
+    }
+
+    @Test
+    public void testFindAll() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 5, 5, 5, 6, 5, 0, 6 });
+        List<SearchHit> hits = new ArrayList<>();
+        MaskedPatternSearcher.compile("05 ?? 06").findAll(binary, 0, binary.length(), hits::add, ProgressMonitor.NONE);
+        assertThat(hits, is(Arrays.asList(new SearchHit(1, 4), new SearchHit(4, 7))));
+    }
+
+    @Test
+    public void testMasksConstructor() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 0x12, 0x34, 0x56, 0x78 });
+        MaskedPatternSearcher searcher = new MaskedPatternSearcher(new byte[] { 0x30, 0x06 }, new byte[] { (byte) 0xF0, 0x0F });
+        assertThat(searcher.find(binary), is(new SearchHit(1, 3)));
+        assertThat(searcher.getPattern(), is("3? ?6"));
+    }
+
+    @Test
+    public void testInvalidPatterns() {
+        for (String pattern : new String[] { "", "  ", "4", "4G", "[2] 01", "01 [2]", "01 [2] [3] 02",
+                                             "01 [3-2] 02", "01 [x] 02", "01 [2 02" }) {
+            assertThrows(IllegalArgumentException.class, () -> MaskedPatternSearcher.compile(pattern), pattern);
+        }
+    }
+
+    /**
+     * Compares against checking every position the slow way, with small blocks so that matches
+     * span blocks, and a tiny alphabet so that there are plenty of near misses.
+     */
+    @Test
+    public void testAgainstNaiveSearch() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 1000; iteration++) {
+            StringBuilder pattern = new StringBuilder();
+            int runs = 1 + random.nextInt(3);
+            for (int run = 0; run < runs; run++) {
+                if (run > 0) {
+                    int min = random.nextInt(4);
+                    pattern.append(" [").append(min).append('-').append(min + random.nextInt(4)).append("] ");
+                }
+                int length = 1 + random.nextInt(4);
+                for (int i = 0; i < length; i++) {
+                    pattern.append(random.nextInt(4) == 0 ? "??" : "0" + random.nextInt(3)).append(' ');
+                }
+            }
+            MaskedPatternSearcher searcher = MaskedPatternSearcher.compile(pattern.toString(), 16);
+
+            byte[] data = ByteSequenceSearcherTest.randomBytes(random, random.nextInt(300), 3);
+            Binary binary = BinaryFactory.wrap(data);
+            int from = data.length == 0 ? 0 : random.nextInt(data.length);
+            int to = from + random.nextInt(data.length - from + 1);
+
+            List<SearchHit> expected = new ArrayList<>();
+            for (int start = from; start < to; start++) {
+                int length = naiveMatch(pattern.toString().trim().split("\\s+"), 0, data, start, to);
+                if (length >= 0) {
+                    expected.add(new SearchHit(start, start + length));
+                }
+            }
+
+            List<SearchHit> actual = new ArrayList<>();
+            searcher.findAll(binary, from, to, actual::add, ProgressMonitor.NONE);
+            assertThat(pattern.toString(), actual, is(expected));
+            assertThat(pattern.toString(), searcher.find(binary, from, to), is(expected.isEmpty() ? null : expected.get(0)));
+        }
+    }
+
+    /**
+     * Matches the tokens of a pattern by trying every gap size.
+     *
+     * @return the length of the shortest match, or {@code -1}.
+     */
+    private static int naiveMatch(String[] tokens, int token, byte[] data, int index, int limit) {
+        if (token == tokens.length) {
+            return 0;
+        }
+        String t = tokens[token];
+        if (t.startsWith("[")) {
+            String[] range = t.substring(1, t.length() - 1).split("-");
+            int best = -1;
+            for (int gap = Integer.parseInt(range[0]); gap <= Integer.parseInt(range[1]); gap++) {
+                if (index + gap <= limit) {
+                    int rest = naiveMatch(tokens, token + 1, data, index + gap, limit);
+                    if (rest >= 0 && (best < 0 || gap + rest < best)) {
+                        best = gap + rest;
+                    }
+                }
+            }
+            return best;
+        }
+        if (index >= limit || (!t.equals("??") && data[index] != Integer.parseInt(t, 16))) {
+            return -1;
+        }
+        int rest = naiveMatch(tokens, token + 1, data, index + 1, limit);
+        return rest < 0 ? -1 : rest + 1;
+    }
+}
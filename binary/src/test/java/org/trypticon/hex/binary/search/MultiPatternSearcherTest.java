@@ -0,0 +1,138 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link MultiPatternSearcher}.
+ *
+ * @author trejkaz
+ */
+public class MultiPatternSearcherTest {
+
+    @Test
+    public void testFindAll() {
+        MultiPatternSearcher searcher = new MultiPatternSearcher(
+                Arrays.asList(ascii("he"), ascii("she"), ascii("his"), ascii("hers")), 4);
+        Binary binary = BinaryFactory.wrap(ascii("ushers"));
+
+        List<String> matches = new ArrayList<>();
+        searcher.findAll(binary, (id, position) -> matches.add(id + "@" + position));
+        assertThat(matches, is(Arrays.asList("1@1", "0@2", "3@2")));
+    }
+
+    @Test
+    public void testFindAll_Range() {
+        MultiPatternSearcher searcher = new MultiPatternSearcher(Collections.singletonList(new byte[] { 1, 1 }));
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 1, 1, 1 });
+
+        List<Long> positions = new ArrayList<>();
+        searcher.findAll(binary, 1, 4, (id, position) -> positions.add(position), ProgressMonitor.NONE);
+        assertThat(positions, is(Arrays.asList(1L, 2L)));
+    }
+
+    /**
+     * Compares against searching for each pattern separately, with a tiny alphabet so that
+     * patterns overlap a lot and blocks small enough that matches span blocks.
+     */
+    @Test
+    public void testAgainstSeparateSearches() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 300; iteration++) {
+            List<byte[]> patterns = new ArrayList<>();
+            int patternCount = 1 + random.nextInt(10);
+            for (int i = 0; i < patternCount; i++) {
+                patterns.add(ByteSequenceSearcherTest.randomBytes(random, 1 + random.nextInt(6), 3));
+            }
+            byte[] data = ByteSequenceSearcherTest.randomBytes(random, random.nextInt(500), 3);
+            Binary binary = BinaryFactory.wrap(data);
+
+            List<String> expected = new ArrayList<>();
+            for (int id = 0; id < patterns.size(); id++) {
+                for (long position : ByteSequenceSearcherTest.naiveFindAll(data, patterns.get(id), 0, data.length)) {
+                    expected.add(id + "@" + position);
+                }
+            }
+            Collections.sort(expected);
+
+            List<String> actual = new ArrayList<>();
+            new MultiPatternSearcher(patterns, 7).findAll(binary, (id, position) -> actual.add(id + "@" + position));
+            Collections.sort(actual);
+
+            assertThat(actual, is(expected));
+        }
+    }
+
+    @Test
+    public void testProgress() {
+        MultiPatternSearcher searcher = new MultiPatternSearcher(Collections.singletonList(new byte[] { 1 }), 4);
+        Binary binary = BinaryFactory.wrap(new byte[10]);
+
+        List<String> progress = new ArrayList<>();
+        searcher.findAll(binary, 0, 10, (id, position) -> {}, (done, total) -> progress.add(done + "/" + total));
+        assertThat(progress, is(Arrays.asList("4/10", "8/10", "10/10")));
+    }
+
+    @Test
+    public void testCancellation() {
+        MultiPatternSearcher searcher = new MultiPatternSearcher(Collections.singletonList(new byte[] { 0 }), 4);
+        Binary binary = BinaryFactory.wrap(new byte[10]);
+
+        List<Long> positions = new ArrayList<>();
+        ProgressMonitor monitor = new ProgressMonitor() {
+            @Override
+            public void progress(long done, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return positions.size() >= 4;
+            }
+        };
+        assertThrows(CancellationException.class, () -> searcher.findAll(
+                binary, 0, 10, (id, position) -> positions.add(position), monitor));
+        assertThat(positions.size(), is(4));
+    }
+
+    @Test
+    public void testEmptyPattern() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> new MultiPatternSearcher(Collections.singletonList(new byte[0])));
+    }
+
+    private static byte[] ascii(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
+    }
+}
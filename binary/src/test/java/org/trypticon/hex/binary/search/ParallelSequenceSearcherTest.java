@@ -0,0 +1,129 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link ParallelSequenceSearcher}.
+ *
+ * @author trejkaz
+ */
+public class ParallelSequenceSearcherTest {
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFind() {
+        byte[] data = new byte[1000];
+        data[500] = 1;
+        data[501] = 2;
+        data[900] = 1;
+        data[901] = 2;
+        Binary binary = BinaryFactory.wrap(data);
+        ParallelSequenceSearcher searcher = parallel(new byte[] { 1, 2 }, 10);
+        assertThat(searcher.find(binary), is(500L));
+        assertThat(searcher.find(binary, 501, 1000), is(900L));
+        assertThat(searcher.find(binary, 501, 901), is(-1L));
+    }
+
+    @Test
+    public void testFindAll_AcrossChunkBoundaries() {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i += 7) {
+            data[i] = 1;
+        }
+        Binary binary = BinaryFactory.wrap(data);
+        byte[] sequence = { 1, 0, 0, 0, 0, 0, 0, 1 };
+
+        // A chunk size of 3 means almost every match spans a chunk boundary.
+        List<Long> hits = new ArrayList<>();
+        parallel(sequence, 3).findAll(binary, hits::add);
+        assertThat(hits, is(ByteSequenceSearcherTest.naiveFindAll(data, sequence, 0, data.length)));
+    }
+
+    @Test
+    public void testAgainstSerialSearch() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            byte[] data = ByteSequenceSearcherTest.randomBytes(random, random.nextInt(2000), 2);
+            byte[] sequence = ByteSequenceSearcherTest.randomBytes(random, 1 + random.nextInt(40), 2);
+            Binary binary = BinaryFactory.wrap(data);
+            ParallelSequenceSearcher searcher = parallel(sequence, 1 + random.nextInt(100));
+
+            int from = data.length == 0 ? 0 : random.nextInt(data.length);
+            int to = from + random.nextInt(data.length - from + 1);
+            assertThat(searcher.find(binary, from, to),
+                       is(ByteSequenceSearcherTest.naiveFind(data, sequence, from, to)));
+
+            List<Long> hits = new ArrayList<>();
+            searcher.findAll(binary, from, to, hits::add);
+            assertThat(hits, is(ByteSequenceSearcherTest.naiveFindAll(data, sequence, from, to)));
+        }
+    }
+
+    @Test
+    public void testFindAll_ConsumerThrows() {
+        Binary binary = BinaryFactory.wrap(new byte[10000]);
+        AtomicInteger count = new AtomicInteger();
+        ParallelSequenceSearcher searcher = parallel(new byte[] { 0 }, 100);
+        assertThrows(IllegalStateException.class, () -> searcher.findAll(binary, hit -> {
+            if (count.incrementAndGet() == 150) {
+                throw new IllegalStateException("stop");
+            }
+        }));
+        assertThat(count.get(), is(150));
+    }
+
+    @Test
+    public void testFind_OutOfBounds() {
+        Binary binary = BinaryFactory.wrap(new byte[4]);
+        ParallelSequenceSearcher searcher = parallel(new byte[] { 1 }, 2);
+        assertThrows(IndexOutOfBoundsException.class, () -> searcher.find(binary, 0, 5));
+        assertThrows(IndexOutOfBoundsException.class, () -> searcher.findAll(binary, -1, 4, hit -> {}));
+    }
+
+    private ParallelSequenceSearcher parallel(byte[] sequence, int chunkSize) {
+        return new ParallelSequenceSearcher(new ByteSequenceSearcher(sequence, 16), executor, 4, chunkSize);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link RegexSearcher}.
+ *
+ * @author trejkaz
+ */
+public class RegexSearcherTest {
+
+    @Test
+    public void testZipHeader() {
+        byte[] data = new byte[100];
+        byte[] header = { 'P', 'K', 3, 4 };
+        System.arraycopy(header, 0, data, 40, header.length);
+        Binary binary = BinaryFactory.wrap(data);
+
+        assertThat(RegexSearcher.compile("PK\\x03\\x04.{26}").find(binary), is(new SearchHit(40, 70)));
+        assertThat(RegexSearcher.compile("PK\\x03\\x04.{60}").find(binary), is(nullValue()));
+    }
+
+    @Test
+    public void testByteRanges() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 0x7F, (byte) 0x80, (byte) 0xFE, (byte) 0xFF, 0x00 });
+        assertThat(RegexSearcher.compile("[\\x80-\\xFF]+").find(binary), is(new SearchHit(1, 4)));
+        assertThat(RegexSearcher.compile("[^\\x80-\\xFF]").find(binary, 1, 5), is(new SearchHit(4, 5)));
+    }
+
+    @Test
+    public void testLeftmostFirst() {
+        Binary binary = BinaryFactory.wrap(ascii("xxabcd"));
+        assertThat(RegexSearcher.compile("ab|abcd").find(binary), is(new SearchHit(2, 4)));
+        assertThat(RegexSearcher.compile("abcd|ab").find(binary), is(new SearchHit(2, 6)));
+        assertThat(RegexSearcher.compile("x.*").find(binary), is(new SearchHit(0, 6)));
+        assertThat(RegexSearcher.compile("x.*?").find(binary), is(new SearchHit(0, 1)));
+    }
+
+    @Test
+    public void testFindAll() {
+        Binary binary = BinaryFactory.wrap(ascii("baab"));
+        List<SearchHit> hits = new ArrayList<>();
+        RegexSearcher.compile("a*").findAll(binary, 0, binary.length(), hits::add, ProgressMonitor.NONE);
+        assertThat(hits, is(Arrays.asList(new SearchHit(0, 0), new SearchHit(1, 3), new SearchHit(3, 3),
+                                          new SearchHit(4, 4))));
+    }
+
+    @Test
+    public void testInvalidPatterns() {
+        for (String pattern : new String[] { "(", "a)", "[a", "*", "a**", "a{2,1}", "a{1001}", "\\q",
+                                             "\\x4", "^a", "a$", "Ā", "[z-a]" }) {
+            assertThrows(PatternSyntaxException.class, () -> RegexSearcher.compile(pattern), pattern);
+        }
+    }
+
+    @Test
+    public void testBoundedDfa() {
+        // (a|b)*a(a|b){8} needs hundreds of DFA states, so a limit of 10 forces the cache to be
+        // cleared many times during the search.
+        Random random = new Random(42);
+        byte[] data = new byte[5000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (random.nextBoolean() ? 'a' : 'b');
+        }
+        data[4000] = 'c';
+        Binary binary = BinaryFactory.wrap(data);
+        String pattern = "[ab]*a[ab]{8}c";
+        assertThat(RegexSearcher.compile(pattern, 64, 10).find(binary),
+                   is(RegexSearcher.compile(pattern).find(binary)));
+        assertThat(RegexSearcher.compile(pattern, 64, 10).find(binary),
+                   is(javaFind(pattern, data, 0, data.length)));
+    }
+
+    @Test
+    public void testBlockSizeShorterThanPrefix() {
+        byte[] data = ascii("bcbcbbcccbabacaaa");
+        Binary binary = BinaryFactory.wrap(data);
+        String pattern = "b\\x61aa??";
+        RegexSearcher searcher = RegexSearcher.compile(pattern, 1, 16);
+        assertThat(searcher.find(binary, 0, 3), is(nullValue()));
+        for (int from = 0; from <= data.length; from++) {
+            for (int to = from; to <= data.length; to++) {
+                assertThat(searcher.find(binary, from, to), is(javaFind(pattern, data, from, to)));
+            }
+        }
+    }
+
+    /**
+     * Compares against {@link java.util.regex} on random patterns, treating the bytes as ISO-8859-1.
+     */
+    @Test
+    public void testAgainstJavaRegex() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            String pattern = randomPattern(random, 3);
+            byte[] data = new byte[random.nextInt(100)];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) ("abc\nÿ".charAt(random.nextInt(5)));
+            }
+            Binary binary = BinaryFactory.wrap(data);
+            int from = data.length == 0 ? 0 : random.nextInt(data.length);
+            int to = from + random.nextInt(data.length - from + 1);
+
+            List<SearchHit> actual = new ArrayList<>();
+            RegexSearcher.compile(pattern, 8, 16).findAll(binary, from, to, actual::add, ProgressMonitor.NONE);
+
+            List<SearchHit> expected = new ArrayList<>();
+            Matcher matcher = Pattern.compile(pattern, Pattern.DOTALL)
+                    .matcher(new String(data, StandardCharsets.ISO_8859_1)).region(from, to);
+            while (matcher.find()) {
+                expected.add(new SearchHit(matcher.start(), matcher.end()));
+            }
+            assertThat(pattern, actual, is(expected));
+        }
+    }
+
+    private static String randomPattern(Random random, int depth) {
+        if (depth == 0) {
+            return new String[] { "a", "b", "c", ".", "[ab]", "[^a]", "\\n", "\\xFF" }[random.nextInt(8)];
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return randomPattern(random, depth - 1) + randomPattern(random, depth - 1);
+            case 1:
+                return "(?:" + randomPattern(random, depth - 1) + "|" + randomPattern(random, depth - 1) + ")";
+            case 2:
+                // Repeating something which can match nothing is where backtracking engines
+                // differ from automata, so only repeat things which can't.
+                String item = randomPattern(random, depth - 1);
+                if (Pattern.compile(item).matcher("").matches()) {
+                    return item;
+                }
+                String[] quantifiers = { "*", "+", "?", "{2}", "{1,3}", "{2,}", "*?", "+?", "??", "{0,2}?" };
+                return "(?:" + item + ")" + quantifiers[random.nextInt(quantifiers.length)];
+            default:
+                return randomPattern(random, depth - 1);
+        }
+    }
+
+    private static SearchHit javaFind(String pattern, byte[] data, int from, int to) {
+        Matcher matcher = Pattern.compile(pattern, Pattern.DOTALL)
+                .matcher(new String(data, StandardCharsets.ISO_8859_1)).region(from, to);
+        return matcher.find() ? new SearchHit(matcher.start(), matcher.end()) : null;
+    }
+
+    private static byte[] ascii(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
+    }
+}
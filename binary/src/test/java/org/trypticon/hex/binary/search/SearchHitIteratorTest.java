@@ -0,0 +1,128 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.binary.search;
+
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.ProgressMonitor;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link SearchHitIterator}.
+ *
+ * @author trejkaz
+ */
+public class SearchHitIteratorTest {
+
+    @Test
+    public void testIteration() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 1, 2, 1, 2, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2 });
+        SearchHitIterator iterator = new ByteSequenceSearcher(new byte[] { 1, 2 }, 4).iterator(binary);
+
+        assertThat(iterator.nextLong(), is(0L));
+        assertThat(iterator.nextLong(), is(2L));
+        assertThat(iterator.hasNext(), is(true));
+        assertThat(iterator.nextLong(), is(16L));
+        assertThat(iterator.hasNext(), is(false));
+        assertThrows(NoSuchElementException.class, iterator::nextLong);
+    }
+
+    @Test
+    public void testLaziness() {
+        Binary binary = BinaryFactory.wrap(new byte[1000]);
+        SearchHitIterator iterator = new ByteSequenceSearcher(new byte[] { 0, 0 }, 10).iterator(binary);
+        assertThat(iterator.getBytesScanned(), is(0L));
+        assertThat(iterator.getBytesToScan(), is(1000L));
+
+        iterator.nextLong();
+        assertThat(iterator.getBytesScanned(), is(10L));
+
+        for (int i = 0; i < 9; i++) {
+            iterator.nextLong();
+        }
+        assertThat(iterator.getBytesScanned(), is(19L));
+    }
+
+    @Test
+    public void testDenseHits() {
+        Binary binary = BinaryFactory.wrap(new byte[10000]);
+        SearchHitIterator iterator = new ByteSequenceSearcher(new byte[] { 0, 0 }, 64).iterator(binary);
+        assertThat(iterator.stream().count(), is(9999L));
+        assertThat(iterator.getBytesScanned(), is(10000L));
+    }
+
+    @Test
+    public void testStream() {
+        Binary binary = BinaryFactory.wrap(new byte[] { 5, 0, 5, 5 });
+        SearchHitIterator iterator = new ByteSequenceSearcher(new byte[] { 5 }).iterator(binary);
+        assertThat(iterator.stream().boxed().collect(Collectors.toList()), is(Arrays.asList(0L, 2L, 3L)));
+    }
+
+    @Test
+    public void testEmptySequence() {
+        Binary binary = BinaryFactory.wrap(new byte[3]);
+        SearchHitIterator iterator = new ByteSequenceSearcher(new byte[0]).iterator(binary, 1, 3, ProgressMonitor.NONE);
+        assertThat(iterator.stream().boxed().collect(Collectors.toList()), is(Arrays.asList(1L, 2L, 3L)));
+    }
+
+    @Test
+    public void testCancel() {
+        Binary binary = BinaryFactory.wrap(new byte[100]);
+        SearchHitIterator iterator = new ByteSequenceSearcher(new byte[] { 0 }).iterator(binary);
+        iterator.nextLong();
+        assertThat(iterator.isCancelled(), is(false));
+
+        iterator.cancel();
+        assertThat(iterator.isCancelled(), is(true));
+        assertThrows(CancellationException.class, iterator::hasNext);
+        assertThrows(CancellationException.class, iterator::nextLong);
+    }
+
+    @Test
+    public void testProgressMonitor() {
+        Binary binary = BinaryFactory.wrap(new byte[100]);
+        long[] lastProgress = { -1, -1 };
+        ProgressMonitor monitor = new ProgressMonitor() {
+            @Override
+            public void progress(long done, long total) {
+                lastProgress[0] = done;
+                lastProgress[1] = total;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return lastProgress[0] >= 50;
+            }
+        };
+        SearchHitIterator iterator = new ByteSequenceSearcher(new byte[] { 1 }, 25).iterator(binary, 0, 100, monitor);
+
+        assertThrows(CancellationException.class, iterator::hasNext);
+        assertThat(lastProgress[0], is(50L));
+        assertThat(lastProgress[1], is(100L));
+    }
+}
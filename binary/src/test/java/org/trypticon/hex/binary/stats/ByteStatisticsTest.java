@@ -0,0 +1,89 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.stats;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Tests for {@link ByteStatistics}.
+ *
+ * @author trejkaz
+ */
+public class ByteStatisticsTest {
+
+    @Test
+    public void testOf_Uniform() {
+        long[] histogram = new long[256];
+        for (int value = 0; value < 256; value++) {
+            histogram[value] = 4;
+        }
+        ByteStatistics statistics = ByteStatistics.of(histogram);
+        assertThat(statistics.getLength(), is(1024L));
+        assertThat(statistics.getEntropy(), is(closeTo(8.0, 1e-9)));
+        assertThat(statistics.getZeroRatio(), is(closeTo(4.0 / 1024, 1e-9)));
+        assertThat(statistics.getPrintableRatio(), is(closeTo(98.0 * 4 / 1024, 1e-9)));
+        assertThat(statistics.getMin(), is(0));
+        assertThat(statistics.getMax(), is(255));
+    }
+
+    @Test
+    public void testOf_SingleValue() {
+        long[] histogram = new long[256];
+        histogram['A'] = 100;
+        ByteStatistics statistics = ByteStatistics.of(histogram);
+        assertThat(statistics.getEntropy(), is(0.0));
+        assertThat(statistics.getZeroRatio(), is(0.0));
+        assertThat(statistics.getPrintableRatio(), is(1.0));
+        assertThat(statistics.getMin(), is((int) 'A'));
+        assertThat(statistics.getMax(), is((int) 'A'));
+    }
+
+    @Test
+    public void testOf_TwoValues() {
+        long[] histogram = new long[256];
+        histogram[0] = 50;
+        histogram[0xFF] = 50;
+        ByteStatistics statistics = ByteStatistics.of(histogram);
+        assertThat(statistics.getEntropy(), is(closeTo(1.0, 1e-9)));
+        assertThat(statistics.getZeroRatio(), is(0.5));
+        assertThat(statistics.getPrintableRatio(), is(0.0));
+    }
+
+    @Test
+    public void testOf_Empty() {
+        ByteStatistics statistics = ByteStatistics.of(new long[256]);
+        assertThat(statistics.getLength(), is(0L));
+        assertThat(statistics.getEntropy(), is(0.0));
+    }
+
+    @Test
+    public void testIsPrintable() {
+        assertThat(ByteStatistics.isPrintable(' '), is(true));
+        assertThat(ByteStatistics.isPrintable('~'), is(true));
+        assertThat(ByteStatistics.isPrintable('\n'), is(true));
+        assertThat(ByteStatistics.isPrintable(0x7F), is(false));
+        assertThat(ByteStatistics.isPrintable(0), is(false));
+        assertThat(ByteStatistics.isPrintable(0xE9), is(false));
+    }
+}
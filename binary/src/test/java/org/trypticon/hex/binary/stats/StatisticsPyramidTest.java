@@ -0,0 +1,235 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary.stats;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.ProgressMonitor;
+import org.trypticon.hex.binary.SidecarFile;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link StatisticsPyramid}.
+ *
+ * @author trejkaz
+ */
+public class StatisticsPyramidTest {
+    private static final int BLOCK_SIZE = 1024;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Zeroes, then text, then random data, each 40 blocks long.
+     */
+    private static byte[] sampleData() {
+        byte[] data = new byte[120 * BLOCK_SIZE];
+        byte[] text = "The quick brown fox jumps over the lazy dog.\n".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 40 * BLOCK_SIZE; i < 80 * BLOCK_SIZE; i++) {
+            data[i] = text[i % text.length];
+        }
+        byte[] random = new byte[40 * BLOCK_SIZE];
+        new Random(1).nextBytes(random);
+        System.arraycopy(random, 0, data, 80 * BLOCK_SIZE, random.length);
+        return data;
+    }
+
+    @Test
+    public void testBuild() {
+        byte[] data = sampleData();
+        StatisticsPyramid pyramid = StatisticsPyramid.build(BinaryFactory.wrap(data), BLOCK_SIZE, executor, 4,
+                                                            ProgressMonitor.NONE);
+        assertThat(pyramid.getLength(), is((long) data.length));
+        // 120, 60, 30, 15, 8, 4, 2, 1
+        assertThat(pyramid.getLevelCount(), is(8));
+
+        ByteStatistics zeroes = pyramid.getStatistics(0, 40 * BLOCK_SIZE);
+        assertThat(zeroes.getEntropy(), is(0.0));
+        assertThat(zeroes.getZeroRatio(), is(closeTo(1.0, 1e-6)));
+        assertThat(zeroes.getMax(), is(0));
+
+        ByteStatistics text = pyramid.getStatistics(40 * BLOCK_SIZE, 80 * BLOCK_SIZE);
+        assertThat(text.getPrintableRatio(), is(closeTo(1.0, 1e-6)));
+        assertThat(text.getEntropy(), is(closeTo(expectedEntropy(data, 40 * BLOCK_SIZE, 41 * BLOCK_SIZE), 0.05)));
+        assertThat(text.getMin(), is((int) '\n'));
+        assertThat(text.getMax(), is((int) 'z'));
+
+        ByteStatistics random = pyramid.getStatistics(80 * BLOCK_SIZE, 120 * BLOCK_SIZE);
+        assertThat(random.getEntropy(), is(greaterThan(7.7)));
+        assertThat(random.getMin(), is(0));
+        assertThat(random.getMax(), is(255));
+    }
+
+    @Test
+    public void testBuild_MatchesDirectComputation() {
+        byte[] data = sampleData();
+        StatisticsPyramid pyramid = StatisticsPyramid.build(BinaryFactory.wrap(data), BLOCK_SIZE, executor, 4,
+                                                            ProgressMonitor.NONE);
+
+        // Single blocks and the whole binary are worked out from exactly those bytes.
+        for (int block : new int[] { 0, 39, 40, 63, 80, 119 }) {
+            int start = block * BLOCK_SIZE;
+            ByteStatistics statistics = pyramid.getStatistics(start, start + BLOCK_SIZE);
+            assertThat(statistics.getEntropy(), is(closeTo(expectedEntropy(data, start, start + BLOCK_SIZE), 1e-5)));
+        }
+        assertThat(pyramid.getStatistics().getEntropy(), is(closeTo(expectedEntropy(data, 0, data.length), 1e-5)));
+        assertThat(pyramid.getStatistics().getZeroRatio(), is(closeTo(
+                (40.0 * BLOCK_SIZE + countZeroes(data, 80 * BLOCK_SIZE, data.length)) / data.length, 1e-5)));
+    }
+
+    @Test
+    public void testBuild_PartialLastBlock() {
+        byte[] data = new byte[BLOCK_SIZE * 3 + 10];
+        Arrays.fill(data, BLOCK_SIZE * 3, data.length, (byte) 'x');
+        StatisticsPyramid pyramid = StatisticsPyramid.build(BinaryFactory.wrap(data), BLOCK_SIZE, ProgressMonitor.NONE);
+        ByteStatistics last = pyramid.getStatistics(BLOCK_SIZE * 3, data.length);
+        assertThat(last.getPrintableRatio(), is(closeTo(1.0, 1e-6)));
+        assertThat(pyramid.getStatistics().getZeroRatio(), is(closeTo(3.0 * BLOCK_SIZE / data.length, 1e-5)));
+    }
+
+    @Test
+    public void testBuild_Empty() {
+        StatisticsPyramid pyramid = StatisticsPyramid.build(BinaryFactory.wrap(new byte[0]), ProgressMonitor.NONE);
+        assertThat(pyramid.getLevelCount(), is(1));
+        assertThat(pyramid.getStatistics().getLength(), is(0L));
+        assertThat(pyramid.getStatistics(0, 0, 10).length, is(10));
+    }
+
+    @Test
+    public void testBuild_Cancelled() {
+        Binary binary = BinaryFactory.wrap(new byte[100 * BLOCK_SIZE]);
+        ProgressMonitor monitor = new ProgressMonitor() {
+            @Override
+            public void progress(long done, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+        assertThrows(CancellationException.class,
+                     () -> StatisticsPyramid.build(binary, BLOCK_SIZE, executor, 4, monitor));
+    }
+
+    @Test
+    public void testOverview() {
+        byte[] data = sampleData();
+        StatisticsPyramid pyramid = StatisticsPyramid.build(BinaryFactory.wrap(data), BLOCK_SIZE, ProgressMonitor.NONE);
+
+        ByteStatistics[] parts = pyramid.getStatistics(0, data.length, 3);
+        assertThat(parts[0].getZeroRatio(), is(closeTo(1.0, 1e-6)));
+        assertThat(parts[1].getPrintableRatio(), is(closeTo(1.0, 1e-6)));
+        assertThat(parts[2].getEntropy(), is(greaterThan(7.7)));
+
+        // More parts than blocks, zoomed in across the boundary between zeroes and text.
+        parts = pyramid.getStatistics(39 * BLOCK_SIZE, 41 * BLOCK_SIZE, 1000);
+        long total = 0;
+        for (ByteStatistics part : parts) {
+            total += part.getLength();
+        }
+        assertThat(total, is(2L * BLOCK_SIZE));
+        assertThat(parts[0].getZeroRatio(), is(closeTo(1.0, 1e-6)));
+        assertThat(parts[999].getZeroRatio(), is(lessThan(0.01)));
+
+        assertThrows(IllegalArgumentException.class, () -> pyramid.getStatistics(0, 10, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> pyramid.getStatistics(0, data.length + 1, 10));
+        assertThrows(IndexOutOfBoundsException.class, () -> pyramid.getStatistics(10, 9));
+    }
+
+    @Test
+    public void testOpen_UsesSidecar() throws Exception {
+        byte[] data = sampleData();
+        Path dir = Files.createTempDirectory("hextest");
+        Path file = dir.resolve("test.bin");
+        Path sidecar = new SidecarFile(file, StatisticsPyramid.SIDECAR_SUFFIX).getPath();
+        try {
+            Files.write(file, data);
+            Binary binary = BinaryFactory.wrap(data);
+
+            long[] progress = { 0 };
+            StatisticsPyramid pyramid = StatisticsPyramid.open(file, binary, BLOCK_SIZE,
+                                                               (done, total) -> progress[0] = Math.max(progress[0], done));
+            assertThat(progress[0], is((long) data.length));
+            assertThat(Files.exists(sidecar), is(true));
+
+            progress[0] = 0;
+            StatisticsPyramid loaded = StatisticsPyramid.open(file, binary, BLOCK_SIZE,
+                                                              (done, total) -> progress[0] = Math.max(progress[0], done));
+            assertThat(progress[0], is(0L));
+            assertThat(loaded.getLevelCount(), is(pyramid.getLevelCount()));
+            for (int part = 0; part < 115; part++) {
+                long start = (long) part * BLOCK_SIZE;
+                assertThat(loaded.getStatistics(start, start + 5000).toString(),
+                           is(pyramid.getStatistics(start, start + 5000).toString()));
+            }
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    private static double expectedEntropy(byte[] data, int from, int to) {
+        long[] counts = new long[256];
+        for (int i = from; i < to; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (long count : counts) {
+            if (count != 0) {
+                double p = (double) count / (to - from);
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    private static int countZeroes(byte[] data, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (data[i] == 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.trypticon.hex.binary;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for {@link MemorySegmentBinary}.
+ *
+ * @author trejkaz
+ */
+public class MemorySegmentBinaryTest extends AbstractBinaryTest {
+    Path tempFile;
+
+    @Override
+    protected Binary createBinary(byte[] sampleData) throws Exception {
+        tempFile = Files.createTempFile("MemorySegmentBinaryTest", ".dat");
+        Files.write(tempFile, sampleData);
+        return new MemorySegmentBinary(tempFile);
+    }
+
+    @Test
+    public void testOpen_UsesMemorySegment() throws Exception {
+        tempFile = Files.createTempFile("MemorySegmentBinaryTest", ".dat");
+        try (Binary binary = BinaryFactory.open(tempFile)) {
+            assertThat(binary, is(instanceOf(MemorySegmentBinary.class)));
+            assertThat(binary.length(), is(0L));
+        }
+    }
+
+    @Test
+    public void testReading_IntoDirectBuffer() throws Exception {
+        try (Binary binary = createBinary(new byte[] { 1, 2, 3, 4, 5 })) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+            buffer.put((byte) -1);
+            binary.read(2, buffer);
+            assertThat(buffer.position(), is(4));
+            assertThat(buffer.get(1), is((byte) 3));
+            assertThat(buffer.get(3), is((byte) 5));
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        Binary binary = createBinary(new byte[] { 1, 2, 3 });
+        Binary slice = binary.slice(1, 2);
+        slice.close();
+        assertThat(binary.read(2), is((byte) 3));
+
+        binary.close();
+        binary.close();
+        assertThrows(IllegalStateException.class, () -> binary.read(0));
+        assertThrows(IllegalStateException.class, () -> slice.read(0));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (tempFile != null) {
+            Files.delete(tempFile);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Hex - a hex viewer and annotator
+ * Copyright (C) 2009-2014,2016-2017,2021  Hakanai, Hex Project
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.trypticon.hex.examples;
+
+import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryFactory;
+import org.trypticon.hex.binary.search.ByteSequenceSearcher;
+import org.trypticon.hex.binary.search.MaskedPatternSearcher;
+import org.trypticon.hex.binary.search.ParallelSequenceSearcher;
+import org.trypticon.hex.binary.search.RegexSearcher;
+import org.trypticon.hex.binary.search.SearchHit;
+import org.trypticon.hex.util.LoggerUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+/**
+ * <p>Benchmark for searching a memory mapped file.</p>
+ *
+ * <p>Usage: {@code SearchBenchmark [file]}. If no file is given, a 1GB file of random
+ * data is created in the temp directory and deleted afterwards. Searches are for random
+ * sequences which won't be found, so every run scans the entire file. Each sequence is searched
+ * for on one thread and then in parallel on the common fork-join pool, followed by a masked pattern
+ * and a regular expression.</p>
+ *
+ * @author trejkaz
+ */
+public class SearchBenchmark {
+    private static final Logger logger = LoggerUtils.get();
+
+    private static final int WARM_UP_RUNS = 2;
+    private static final int TIMED_RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Path file;
+        boolean temporary = args.length == 0;
+        if (temporary) {
+            file = createRandomFile(1024L * 1024 * 1024);
+        } else {
+            file = Paths.get(args[0]);
+        }
+
+        try (Binary binary = BinaryFactory.open(file)) {
+            Random random = new Random(1);
+            for (int length : new int[] { 4, 16, 64, 256 }) {
+                byte[] sequence = new byte[length];
+                random.nextBytes(sequence);
+                ByteSequenceSearcher searcher = new ByteSequenceSearcher(sequence);
+                benchmark("serial", binary, length, searcher::find);
+                ParallelSequenceSearcher parallelSearcher = new ParallelSequenceSearcher(searcher);
+                benchmark("parallel", binary, length, parallelSearcher::find);
+            }
+
+            MaskedPatternSearcher maskedSearcher = MaskedPatternSearcher.compile("4D 5A ?? ?? 50 45 [2-8] 4C 01");
+            benchmark("masked", binary, 9, b -> {
+                SearchHit hit = maskedSearcher.find(b);
+                return hit == null ? -1 : hit.getStart();
+            });
+
+            RegexSearcher regexSearcher = RegexSearcher.compile("PK\\x03\\x04.{26}");
+            benchmark("regex", binary, 30, b -> {
+                SearchHit hit = regexSearcher.find(b);
+                return hit == null ? -1 : hit.getStart();
+            });
+        } finally {
+            if (temporary) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static void benchmark(String mode, Binary binary, int length, ToLongFunction<Binary> search) {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            search.applyAsLong(binary);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            search.applyAsLong(binary);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double gigabytesPerSecond = binary.length() * (double) TIMED_RUNS / seconds / 1e9;
+
+        logger.info(String.format(Locale.ROOT, "Sequence length %3d, %-8s: %.2f GB/s",
+                                  length, mode, gigabytesPerSecond));
+    }
+
+    private static Path createRandomFile(long size) throws IOException {
+        Path file = Files.createTempFile("SearchBenchmark", ".dat");
+        Random random = new Random(0);
+        byte[] chunk = new byte[1024 * 1024];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, size - written));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+        return file;
+    }
+}
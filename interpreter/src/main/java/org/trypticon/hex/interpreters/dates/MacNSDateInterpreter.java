@@ -20,9 +20,9 @@ package org.trypticon.hex.interpreters.dates;
 
 import org.trypticon.hex.binary.Binary;
 import org.trypticon.hex.interpreters.AbstractFixedLengthInterpreter;
-import org.trypticon.hex.interpreters.primitives.BigEndian;
 
 import javax.annotation.Nonnull;
+import java.nio.ByteOrder;
 import java.time.Instant;
 
 /**
@@ -42,7 +42,7 @@ public class MacNSDateInterpreter extends AbstractFixedLengthInterpreter<DateTim
     @Override
     protected DateTime interpret(@Nonnull Binary binary, long position) {
         // Value is the number of seconds since January 1, 2001 (UTC)
-        double value = Double.longBitsToDouble(BigEndian.getLong(binary, position));
+        double value = binary.readDouble(position, ByteOrder.BIG_ENDIAN);
 
         long wholeSeconds = (long) Math.floor(value);
         long nanosInSecond = (long) (Math.abs(value - wholeSeconds) * DateConversion.NANOS_IN_SECOND);
@@ -20,9 +20,9 @@ package org.trypticon.hex.interpreters.dates;
 
 import org.trypticon.hex.binary.Binary;
 import org.trypticon.hex.interpreters.AbstractFixedLengthInterpreter;
-import org.trypticon.hex.interpreters.primitives.LittleEndian;
 
 import javax.annotation.Nonnull;
+import java.nio.ByteOrder;
 import java.time.Instant;
 
 /**
@@ -42,7 +42,7 @@ public class WindowsOleDateInterpreter extends AbstractFixedLengthInterpreter<Da
     @Override
     protected DateTime interpret(@Nonnull Binary binary, long position) {
         // value is the number of days since December 30, 1899.
-        double value = Double.longBitsToDouble(LittleEndian.getLong(binary, position));
+        double value = binary.readDouble(position, ByteOrder.LITTLE_ENDIAN);
 
         // When the value is negative, the whole part of the number becomes the day offset, i.e. -1.5
         // would be 0.5 of a day after December 29, 1899. So when the value is negative, you have
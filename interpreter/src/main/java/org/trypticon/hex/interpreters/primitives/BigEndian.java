@@ -20,8 +20,10 @@ package org.trypticon.hex.interpreters.primitives;
 
 import org.trypticon.hex.binary.Binary;
 
+import java.nio.ByteOrder;
+
 /**
- * Little Endian utilities.
+ * Big Endian utilities.
  *
  * @author trejkaz
  */
@@ -30,32 +32,18 @@ public class BigEndian {
     }
 
     public static short getShort(Binary binary, long position) {
-        return Primitives.getShort(binary.read(position),
-                                   binary.read(position + 1));
+        return binary.readShort(position, ByteOrder.BIG_ENDIAN);
     }
 
     public static int getInt(Binary binary, long position) {
-        return Primitives.getInt(binary.read(position),
-                                 binary.read(position + 1),
-                                 binary.read(position + 2),
-                                 binary.read(position + 3));
+        return binary.readInt(position, ByteOrder.BIG_ENDIAN);
     }
 
     public static long getUInt(Binary binary, long position) {
-        return Primitives.getUInt(binary.read(position),
-                                  binary.read(position + 1),
-                                  binary.read(position + 2),
-                                  binary.read(position + 3));
+        return Integer.toUnsignedLong(getInt(binary, position));
     }
 
     public static long getLong(Binary binary, long position) {
-        return Primitives.getLong(binary.read(position),
-                                  binary.read(position + 1),
-                                  binary.read(position + 2),
-                                  binary.read(position + 3),
-                                  binary.read(position + 4),
-                                  binary.read(position + 5),
-                                  binary.read(position + 6),
-                                  binary.read(position + 7));
+        return binary.readLong(position, ByteOrder.BIG_ENDIAN);
     }
 }
@@ -20,6 +20,8 @@ package org.trypticon.hex.interpreters.primitives;
 
 import org.trypticon.hex.binary.Binary;
 
+import java.nio.ByteOrder;
+
 /**
  * Little Endian utilities.
  *
@@ -30,30 +32,18 @@ public class LittleEndian {
     }
 
     public static short getShort(Binary binary, long position) {
-        return Primitives.getShort(binary.read(position + 1),
-                                   binary.read(position));
+        return binary.readShort(position, ByteOrder.LITTLE_ENDIAN);
     }
 
     public static int getUShort(Binary binary, long position) {
-        return Primitives.getUShort(binary.read(position + 1),
-                                    binary.read(position));
+        return Short.toUnsignedInt(getShort(binary, position));
     }
 
     public static int getInt(Binary binary, long position) {
-        return Primitives.getInt(binary.read(position + 3),
-                                 binary.read(position + 2),
-                                 binary.read(position + 1),
-                                 binary.read(position));
+        return binary.readInt(position, ByteOrder.LITTLE_ENDIAN);
     }
 
     public static long getLong(Binary binary, long position) {
-        return Primitives.getLong(binary.read(position + 7),
-                                  binary.read(position + 6),
-                                  binary.read(position + 5),
-                                  binary.read(position + 4),
-                                  binary.read(position + 3),
-                                  binary.read(position + 2),
-                                  binary.read(position + 1),
-                                  binary.read(position));
+        return binary.readLong(position, ByteOrder.LITTLE_ENDIAN);
     }
 }
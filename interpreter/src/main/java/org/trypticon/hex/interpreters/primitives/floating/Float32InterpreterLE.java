@@ -20,10 +20,10 @@ package org.trypticon.hex.interpreters.primitives.floating;
 
 import org.trypticon.hex.binary.Binary;
 import org.trypticon.hex.interpreters.AbstractFixedLengthInterpreter;
-import org.trypticon.hex.interpreters.primitives.LittleEndian;
 
 import javax.annotation.Nonnull;
 import java.lang.*;
+import java.nio.ByteOrder;
 
 /**
  * Interprets 4-byte floating point numbers in IEEE754 format.
@@ -38,7 +38,7 @@ public class Float32InterpreterLE extends AbstractFixedLengthInterpreter<Float32
     @Nonnull
     @Override
     public Float32 interpret(@Nonnull Binary binary, long position) {
-        return new Float32(java.lang.Float.intBitsToFloat(LittleEndian.getInt(binary, position)));
+        return new Float32(binary.readFloat(position, ByteOrder.LITTLE_ENDIAN));
     }
 
     @Override
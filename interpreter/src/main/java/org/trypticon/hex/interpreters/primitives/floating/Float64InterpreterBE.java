@@ -20,10 +20,10 @@ package org.trypticon.hex.interpreters.primitives.floating;
 
 import org.trypticon.hex.binary.Binary;
 import org.trypticon.hex.interpreters.AbstractFixedLengthInterpreter;
-import org.trypticon.hex.interpreters.primitives.BigEndian;
 
 import javax.annotation.Nonnull;
 import java.lang.*;
+import java.nio.ByteOrder;
 
 /**
  * Interprets 8-byte floating point numbers in IEEE754 format.
@@ -38,7 +38,7 @@ public class Float64InterpreterBE extends AbstractFixedLengthInterpreter<Float64
     @Nonnull
     @Override
     public Float64 interpret(@Nonnull Binary binary, long position) {
-        return new Float64(java.lang.Double.longBitsToDouble(BigEndian.getLong(binary, position)));
+        return new Float64(binary.readDouble(position, ByteOrder.BIG_ENDIAN));
     }
 
     @Override
@@ -24,6 +24,8 @@ import org.trypticon.hex.anno.AnnotationCollectionListener;
 import org.trypticon.hex.anno.EmptyAnnotationCollection;
 import org.trypticon.hex.anno.MemoryAnnotationCollection;
 import org.trypticon.hex.binary.Binary;
+import org.trypticon.hex.binary.BinaryEvent;
+import org.trypticon.hex.binary.BinaryListener;
 import org.trypticon.hex.datatransfer.HexViewerTransferHandler;
 import org.trypticon.hex.plaf.HexViewerUI;
 import org.trypticon.hex.plaf.LookAndFeelExtensions;
@@ -34,6 +36,7 @@ import javax.annotation.Nullable;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JScrollBar;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.border.Border;
 import javax.swing.event.ChangeEvent;
@@ -128,12 +131,32 @@ public class HexViewer extends JComponent {
      */
     private int preferredVisibleRowCount = 20;
 
+    /**
+     * Whether to keep the end of the binary in view as it grows.
+     */
+    private boolean followingEnd;
+
     /**
      * This listener will repaint the viewer when the annotations change.
      */
     @Nullable
     private AnnotationCollectionListener repaintListener;
 
+    /**
+     * This listener will update the viewer when the binary changes.
+     */
+    private final BinaryListener binaryListener = new BinaryListener() {
+        @Override
+        public void binaryChanged(BinaryEvent event) {
+            // Binaries loading in the background notify us from their own thread.
+            if (SwingUtilities.isEventDispatchThread()) {
+                updateForBinaryChange(event);
+            } else {
+                SwingUtilities.invokeLater(() -> updateForBinaryChange(event));
+            }
+        }
+    };
+
     /**
      * The first visible row at the current scroll position.
      * This will be {@code -1} if you're positioned at the top, because of the blank line above the first row.
@@ -256,7 +279,11 @@ public class HexViewer extends JComponent {
     public void setBinary(Binary binary) {
         Binary oldBinary = this.binary;
         if (!Objects.equals(oldBinary, binary)) {
+            if (oldBinary != null) {
+                oldBinary.removeBinaryListener(binaryListener);
+            }
             this.binary = binary;
+            binary.addBinaryListener(binaryListener);
 
             offsetColumnDigits = Long.toString(binary.length(), 16).length();
 
@@ -276,6 +303,61 @@ public class HexViewer extends JComponent {
         }
     }
 
+    /**
+     * Updates the viewer after the binary has changed.
+     *
+     * @param event the event describing the change.
+     */
+    private void updateForBinaryChange(BinaryEvent event) {
+        if (event.getSource() != binary) {
+            // Binary was replaced before the event got to us.
+            return;
+        }
+
+        long changeEnd = event.getChangeEnd();
+        if (event.getOldLength() != event.getNewLength()) {
+            int oldOffsetColumnDigits = offsetColumnDigits;
+            offsetColumnDigits = Long.toString(event.getNewLength(), 16).length();
+
+            // Row count changed, so the scroll bar needs updating.
+            revalidate();
+
+            if (followingEnd && event.getNewLength() > event.getOldLength()) {
+                // Scrolling repaints everything anyway.
+                scrollToEnd();
+                return;
+            }
+
+            if (offsetColumnDigits != oldOffsetColumnDigits) {
+                // Every row moves sideways.
+                repaint();
+                return;
+            }
+
+            // Rows past the new end need clearing if the binary got shorter.
+            changeEnd = Math.max(changeEnd, event.getOldLength());
+        }
+
+        if (changeEnd > event.getChangeStart()) {
+            repaintRows(event.getChangeStart() / bytesPerRow, (changeEnd - 1) / bytesPerRow);
+        }
+    }
+
+    /**
+     * Repaints only the visible part of a range of rows.
+     *
+     * @param firstRow the first row to repaint, inclusive.
+     * @param lastRow the last row to repaint, inclusive.
+     */
+    private void repaintRows(long firstRow, long lastRow) {
+        long top = Math.max(firstRow, firstVisibleRow);
+        long bottom = Math.min(lastRow, firstVisibleRow + getVisibleRowCount() - 1);
+        if (top <= bottom) {
+            repaint(0, (int) (top - firstVisibleRow) * rowHeight,
+                    getWidth(), (int) (bottom - top + 1) * rowHeight);
+        }
+    }
+
     /**
      * Gets the collection of annotations to show.
      * This is a JavaBeans bound property.
@@ -630,6 +712,39 @@ public class HexViewer extends JComponent {
         invalidate();
     }
 
+    /**
+     * Checks whether the viewer keeps the end of the binary in view as it grows.
+     *
+     * @return {@code true} if following the end.
+     */
+    public boolean isFollowingEnd() {
+        return followingEnd;
+    }
+
+    /**
+     * Sets whether the viewer keeps the end of the binary in view as it grows, like {@code tail -f}.
+     * Only useful for binaries which grow, such as {@link org.trypticon.hex.binary.TailingFileBinary}.
+     * Turning it on scrolls to the end straight away.
+     * This is a JavaBeans bound property.
+     *
+     * @param followingEnd {@code true} to follow the end.
+     */
+    public void setFollowingEnd(boolean followingEnd) {
+        boolean oldFollowingEnd = this.followingEnd;
+        this.followingEnd = followingEnd;
+        firePropertyChange("followingEnd", oldFollowingEnd, followingEnd);
+        if (followingEnd && binary != null) {
+            scrollToEnd();
+        }
+    }
+
+    /**
+     * Scrolls as far down as possible.
+     */
+    private void scrollToEnd() {
+        setFirstVisibleRow(getRowCount() - getVisibleRowCount() + 2);
+    }
+
     /**
      * Gets the horizontal offset. This is controlled by the horizontal scroll bar.
      *